@@ -0,0 +1,39 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorRef;
+import io.kiamesdavies.revolut.account.AccountDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Resolution of the sender and the recipient accounts of a transfer, it replaced the Query.Multiple round trip to the Bank
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class AccountDirectoryBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int accounts;
+
+    private AccountDirectory directory;
+
+    @Setup
+    public void setup() {
+        directory = new AccountDirectory(ActorRef.noSender());
+        IntStream.range(0, accounts).mapToObj(String::valueOf).forEach(directory::open);
+    }
+
+    @Benchmark
+    public Optional<ActorRef> resolveTransferAccounts() {
+        Optional<String> unknown = directory.firstUnknown("1", "2");
+        return unknown.isPresent() ? Optional.empty() : directory.lookup("1");
+    }
+}
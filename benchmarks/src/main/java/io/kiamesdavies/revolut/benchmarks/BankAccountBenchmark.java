@@ -0,0 +1,63 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import io.kiamesdavies.revolut.account.BankAccount;
+import io.kiamesdavies.revolut.models.Cmd;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.models.Query;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Command handling of a single bank account with the in-memory journal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BankAccountBenchmark {
+
+    private static final String BANK_ACCOUNT_ID = "benchmark-account";
+    private static final Money ONE = Money.ofMinor(100);
+
+    private ActorSystem actorSystem;
+    private ActorRef accountRegion;
+    private long deliveryId;
+
+    @Setup
+    public void setup() {
+        actorSystem = BenchmarkSystems.create(BenchmarkSystems.persistence("inmemory-journal"));
+        accountRegion = BankAccount.startSharding(actorSystem);
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    /**
+     * A deposit followed by a withdrawal of the same amount, so the balance never runs out
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Object depositThenWithdraw() {
+        Patterns.ask(accountRegion, new Cmd.DepositCmd(deliveryId++, UUID.randomUUID().toString(), BANK_ACCOUNT_ID, ONE),
+                Duration.ofSeconds(10)).toCompletableFuture().join();
+        return Patterns.ask(accountRegion, new Cmd.WithdrawCmd(deliveryId++, UUID.randomUUID().toString(), BANK_ACCOUNT_ID, ONE),
+                Duration.ofSeconds(10)).toCompletableFuture().join();
+    }
+
+    @Benchmark
+    public Object balanceQuery() {
+        return Patterns.ask(accountRegion, new Query.Single(deliveryId++, BANK_ACCOUNT_ID), Duration.ofSeconds(10))
+                .toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,105 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorSystem;
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.controllers.AccountController;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link #TRANSFERS} transfers over HTTP, sent as that many single requests or as one batch, with the same
+ * number of transfers in flight
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BatchTransferBenchmark.TRANSFERS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BatchTransferBenchmark {
+
+    static final int TRANSFERS = 1000;
+
+    /**
+     * Same as transfer.batch.parallelism
+     */
+    private static final int PARALLELISM = 32;
+
+    @Param({"single", "batch", "batch-grouped"})
+    public String mode;
+
+    private ActorSystem actorSystem;
+    private ActorMaterializer materializer;
+    private ServerBinding binding;
+    private String baseUri;
+    private ByteString batch;
+
+    @Setup
+    public void setup() {
+        actorSystem = BenchmarkSystems.create(BenchmarkSystems.persistence("inmemory-journal"),
+                "akka.http.host-connection-pool.max-connections = " + PARALLELISM,
+                "akka.http.host-connection-pool.max-open-requests = " + 2 * PARALLELISM);
+        materializer = ActorMaterializer.create(actorSystem);
+        AccountController controller = new AccountController(actorSystem, new DefaultAccount(actorSystem, Inflation.initiateDemoBankAccounts(actorSystem)));
+        binding = Http.get(actorSystem)
+                .bindAndHandle(controller.createRoute().flow(actorSystem, materializer), ConnectHttp.toHost("127.0.0.1", 0), materializer)
+                .toCompletableFuture().join();
+        baseUri = "http://127.0.0.1:" + binding.localAddress().getPort();
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < TRANSFERS; i++) {
+            lines.append(String.format("{\"accountFromId\":\"%s\",\"accountToId\":\"%s\",\"amount\":1}\n", from(i), to(i)));
+        }
+        batch = ByteString.fromString(lines.toString());
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        binding.unbind().toCompletableFuture().join();
+        Http.get(actorSystem).shutdownAllConnectionPools().toCompletableFuture().join();
+        materializer.shutdown();
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    @Benchmark
+    public Object transfers() {
+        if ("single".equals(mode)) {
+            return Source.range(0, TRANSFERS - 1)
+                    .mapAsyncUnordered(PARALLELISM, i -> Http.get(actorSystem)
+                            .singleRequest(HttpRequest.POST(String.format("%s/account/%s/transfer/%s", baseUri, from(i), to(i)))
+                                    .withEntity(ContentTypes.APPLICATION_JSON, "{\"amount\":1}"))
+                            .thenCompose(f -> f.discardEntityBytes(materializer).completionStage()))
+                    .runWith(Sink.ignore(), materializer)
+                    .toCompletableFuture().join();
+        }
+        return Http.get(actorSystem)
+                .singleRequest(HttpRequest.POST(baseUri + "/transfers?group-by-source=" + "batch-grouped".equals(mode))
+                        .withEntity(ContentTypes.APPLICATION_JSON, batch))
+                .thenCompose(f -> f.entity().getDataBytes().runWith(Sink.ignore(), materializer))
+                .toCompletableFuture().join();
+    }
+
+    /**
+     * Alternates the direction of the transfers so both accounts keep their balance
+     */
+    private static String from(int i) {
+        return (i & 1) == 0 ? "1" : "2";
+    }
+
+    private static String to(int i) {
+        return (i & 1) == 0 ? "2" : "1";
+    }
+}
@@ -0,0 +1,35 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler attached, so every result carries its allocation rate
+ * next to the throughput and the latency percentiles.
+ * <p>
+ * Accepts the usual JMH command line, e.g. {@code java -jar target/benchmarks.jar Utility -rf json}
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * Disable creation of utility class
+     */
+    private BenchmarkRunner() {
+
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .build();
+        new Runner(options).run();
+    }
+}
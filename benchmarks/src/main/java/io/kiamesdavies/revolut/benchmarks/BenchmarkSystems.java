@@ -0,0 +1,103 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Creates and tears down the actor systems used by the benchmarks
+ */
+final class BenchmarkSystems {
+
+    /**
+     * Disable creation of utility class
+     */
+    private BenchmarkSystems() {
+
+    }
+
+    /**
+     * @param overrides configuration lines applied on top of the application configuration
+     * @return the configuration of a quiet single node benchmark system
+     */
+    static Config config(String... overrides) {
+        return quiet(ConfigFactory.load(), overrides);
+    }
+
+    /**
+     * @param overrides configuration lines applied on top of the production profile
+     * @return the configuration of a quiet single node benchmark system with the production persistence profile
+     */
+    static Config production(String... overrides) {
+        //left unresolved, so an override of db-pool-size also sizes the pool, the threads and the batching
+        return quiet(ConfigFactory.parseResources("production.conf").withFallback(ConfigFactory.defaultReference()), overrides);
+    }
+
+    private static Config quiet(Config base, String... overrides) {
+        return ConfigFactory.parseString(String.join("\n", overrides))
+                .withFallback(ConfigFactory.parseString(
+                        "akka.loglevel = WARNING\n" +
+                                "akka.stdout-loglevel = WARNING\n" +
+                                "akka.actor.debug.receive = off\n" +
+                                "akka.actor.debug.lifecycle = off\n" +
+                                "akka.actor.debug.autoreceive = off\n" +
+                                "akka.remote.netty.tcp.port = 0\n"))
+                .withFallback(base)
+                .resolve();
+    }
+
+    /**
+     * Starts a single node cluster
+     *
+     * @param overrides configuration lines applied on top of the application configuration
+     * @return the actor system
+     */
+    static ActorSystem create(String... overrides) {
+        return create(config(overrides));
+    }
+
+    /**
+     * Starts a single node cluster
+     *
+     * @param config configuration of the actor system
+     * @return the actor system
+     */
+    static ActorSystem create(Config config) {
+        ActorSystem actorSystem = ActorSystem.create("benchmark", config);
+        Cluster.get(actorSystem).join(Cluster.get(actorSystem).selfAddress());
+        return actorSystem;
+    }
+
+    /**
+     * @param journal the journal plugin to benchmark against
+     * @return the configuration lines selecting the journal and its matching snapshot store, the file journal in a
+     * fresh temporary directory
+     */
+    static String persistence(String journal) {
+        String plugins = String.format("akka.persistence.journal.plugin = \"%s\"\nakka.persistence.snapshot-store.plugin = \"%s\"",
+                journal, journal.replace("journal", "snapshot-store"));
+        if (!journal.equals("file-journal")) {
+            return plugins;
+        }
+        try {
+            Path dir = Files.createTempDirectory("benchmark-journal");
+            return plugins + String.format("\nfile-journal.dir = \"%s\"\nfile-snapshot-store.dir = \"%s\"",
+                    dir.resolve("journal"), dir.resolve("snapshots"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void terminate(ActorSystem actorSystem) throws InterruptedException, TimeoutException {
+        Await.ready(actorSystem.terminate(), Duration.create(30, "seconds"));
+    }
+}
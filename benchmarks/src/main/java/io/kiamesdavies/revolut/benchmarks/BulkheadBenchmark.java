@@ -0,0 +1,80 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorSystem;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Latency of the balance reads while bursts of transfer sagas run next to them, with the bank accounts, the sagas and
+ * the futures of the server on their own dispatchers against all of them on {@code akka.actor.default-dispatcher}.
+ * <p>
+ * The p99 of {@code mixed:balance} shows how far a burst of sagas reaches into the reads.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BulkheadBenchmark {
+
+    private static final int BURST = 500;
+
+    @Param({"true", "false"})
+    public boolean bulkheads;
+
+    private ActorSystem actorSystem;
+    private Account account;
+    private final MoneyTransfer transfer = new MoneyTransfer(BigDecimal.ONE);
+
+    @Setup
+    public void setup() {
+        String shared = "\"akka.actor.default-dispatcher\"";
+        actorSystem = ActorSystem.create("benchmark", bulkheads
+                ? BenchmarkSystems.config(BenchmarkSystems.persistence("inmemory-journal"))
+                : BenchmarkSystems.config(BenchmarkSystems.persistence("inmemory-journal"),
+                "account.dispatcher = " + shared,
+                "transfer.dispatcher = " + shared,
+                "server.dispatcher = " + shared));
+        account = new DefaultAccount(actorSystem, Inflation.initiateDemoBankAccounts(actorSystem));
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    /**
+     * A burst of transfer sagas back and forth between accounts 1 and 2, each saga its own persistent actor
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void transfers() {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[BURST];
+        for (int i = 0; i < BURST; i++) {
+            boolean forward = (i & 1) == 0;
+            results[i] = account.transferMoney(forward ? "1" : "2", forward ? "2" : "1", transfer).toCompletableFuture();
+        }
+        CompletableFuture.allOf(results).join();
+    }
+
+    /**
+     * A balance read of an account the transfers do not touch
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public AccountBalance balance() {
+        return account.getBalance("3", true).toCompletableFuture().join();
+    }
+}
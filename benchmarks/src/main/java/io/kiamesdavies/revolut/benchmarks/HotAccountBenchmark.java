@@ -0,0 +1,66 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import io.kiamesdavies.revolut.account.BankAccount;
+import io.kiamesdavies.revolut.models.Cmd;
+import io.kiamesdavies.revolut.models.Money;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Transfers per second landing on a single hot account, with and without group commit.
+ * <p>
+ * Every invocation keeps {@link #TRANSFERS} deposits in flight against the same account,
+ * like a merchant account receiving payments from many customers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HotAccountBenchmark {
+
+    private static final int TRANSFERS = 1000;
+
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    @Param({"inmemory-journal", "jdbc-journal", "file-journal"})
+    public String journal;
+
+    private ActorSystem actorSystem;
+    private ActorRef accountRegion;
+
+    @Setup
+    public void setup() {
+        actorSystem = BenchmarkSystems.create(
+                BenchmarkSystems.persistence(journal),
+                "account.group-commit.enabled = " + groupCommit);
+        accountRegion = BankAccount.startSharding(actorSystem);
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSFERS)
+    public void depositToHotAccount() {
+        CompletableFuture<?>[] acks = new CompletableFuture<?>[TRANSFERS];
+        for (int i = 0; i < TRANSFERS; i++) {
+            acks[i] = Patterns.ask(accountRegion,
+                    new Cmd.DepositCmd(i, UUID.randomUUID().toString(), "hot-account", Money.ofMinor(100)),
+                    Duration.ofSeconds(30)).toCompletableFuture();
+        }
+        CompletableFuture.allOf(acks).join();
+    }
+}
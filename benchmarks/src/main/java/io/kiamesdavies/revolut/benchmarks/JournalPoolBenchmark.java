@@ -0,0 +1,75 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.account.BankAccount;
+import io.kiamesdavies.revolut.models.Cmd;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.readside.SchemaMigration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Journal writes per second of the production profile, a file backed H2 journal, by the size of its connection pool.
+ * <p>
+ * Every invocation keeps {@link #DEPOSITS} deposits in flight spread over {@link #ACCOUNTS} accounts, without the
+ * group commit of the accounts, so the batching and the parallelism of the journal are all that is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JournalPoolBenchmark {
+
+    private static final int DEPOSITS = 2000;
+    private static final int ACCOUNTS = 64;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int poolSize;
+
+    private ActorSystem actorSystem;
+    private ActorRef accountRegion;
+    private long deliveryId;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        Path dir = Files.createTempDirectory("benchmark-pool");
+        Config config = BenchmarkSystems.production(
+                String.format("slick.db.url = \"jdbc:h2:file:%s;MODE=PostgreSQL\"", dir.resolve("journal")),
+                "db-pool-size = " + poolSize,
+                "account.group-commit.enabled = false");
+        SchemaMigration.migrate(config.getConfig("schema-migration"));
+        actorSystem = BenchmarkSystems.create(config);
+        accountRegion = BankAccount.startSharding(actorSystem);
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DEPOSITS)
+    public void depositAcrossAccounts() {
+        CompletableFuture<?>[] acks = new CompletableFuture<?>[DEPOSITS];
+        for (int i = 0; i < DEPOSITS; i++) {
+            acks[i] = Patterns.ask(accountRegion,
+                    new Cmd.DepositCmd(deliveryId++, UUID.randomUUID().toString(), "pool-account-" + (i % ACCOUNTS), Money.ofMinor(100)),
+                    Duration.ofSeconds(30)).toCompletableFuture();
+        }
+        CompletableFuture.allOf(acks).join();
+    }
+}
@@ -0,0 +1,117 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A page of the events of a rare tag from a file H2 journal of {@link #rows} events, through the {@code LIKE} on the
+ * comma separated {@code tags} column that the jdbc read journal runs for {@code eventsByTag}, against the
+ * {@code journal_tags} index of {@code v3__journal_tags.sql}.
+ * <p>
+ * The journal is written once per trial through the trigger of the index, which takes minutes for 10M rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JournalTagQueryBenchmark {
+
+    private static final String[] STATUSES = {"NEW", "WITHDRAWN", "COMPLETED"};
+
+    /**
+     * One transaction in RARE is tagged with the tag queried
+     */
+    private static final int RARE = 1000;
+    private static final String TAG = "status-DEPOSIT_FAILED";
+    private static final int PAGE = 100;
+
+    @Param({"1000000", "10000000"})
+    public int rows;
+
+    private Path directory;
+    private Connection connection;
+    private PreparedStatement like;
+    private PreparedStatement indexed;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        directory = Files.createTempDirectory("journal-tags");
+        connection = DriverManager.getConnection("jdbc:h2:file:" + directory.resolve("journal") + ";CACHE_SIZE=262144", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("RUNSCRIPT FROM 'classpath:db/default/v1__DDL_14_09_2019.sql'");
+            statement.execute("RUNSCRIPT FROM 'classpath:db/default/v3__journal_tags.sql'");
+        }
+        connection.setAutoCommit(false);
+        byte[] message = new byte[64];
+        ThreadLocalRandom.current().nextBytes(message);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO \"journal\" (\"persistence_id\", \"sequence_number\", \"tags\", \"message\") VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                int transaction = i / STATUSES.length;
+                String status = transaction % RARE == 0 && i % STATUSES.length == 2 ? "DEPOSIT_FAILED" : STATUSES[i % STATUSES.length];
+                insert.setString(1, "transaction-" + transaction);
+                insert.setLong(2, i % STATUSES.length + 1);
+                insert.setString(3, String.format("transaction,status-%s,partition-%d,bucket-%d", status, transaction % 16, i / 100_000));
+                insert.setBytes(4, message);
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+        connection.setAutoCommit(true);
+        like = connection.prepareStatement("SELECT \"ordering\", \"persistence_id\", \"sequence_number\", \"message\" FROM \"journal\" " +
+                "WHERE \"tags\" LIKE ? AND \"ordering\" > ? AND \"deleted\" = FALSE ORDER BY \"ordering\" LIMIT ?");
+        like.setString(1, "%" + TAG + "%");
+        indexed = connection.prepareStatement("SELECT j.\"ordering\", j.\"persistence_id\", j.\"sequence_number\", j.\"message\" " +
+                "FROM \"journal_tags\" t JOIN \"journal\" j ON j.\"ordering\" = t.\"ordering\" " +
+                "WHERE t.\"tag\" = ? AND t.\"ordering\" > ? AND j.\"deleted\" = FALSE ORDER BY t.\"ordering\" LIMIT ?");
+        indexed.setString(1, TAG);
+    }
+
+    @TearDown
+    public void teardown() throws IOException, SQLException {
+        connection.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void likeScan(Blackhole blackhole) throws SQLException {
+        page(like, blackhole);
+    }
+
+    @Benchmark
+    public void tagIndex(Blackhole blackhole) throws SQLException {
+        page(indexed, blackhole);
+    }
+
+    /**
+     * A page from a random offset, the way a reader resumes from the ordering it stopped at
+     */
+    private void page(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        statement.setLong(2, ThreadLocalRandom.current().nextLong(rows));
+        statement.setInt(3, PAGE);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(resultSet.getBytes(4));
+            }
+        }
+    }
+}
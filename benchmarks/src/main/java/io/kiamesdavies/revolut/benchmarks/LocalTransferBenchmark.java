@@ -0,0 +1,60 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorSystem;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Latency of a transfer between two accounts of one partition, applied by the partition in one hop, against a transfer
+ * between accounts of different partitions, run by the saga.
+ * <p>
+ * With two partitions accounts 1 and 3 share a partition and accounts 1 and 2 do not; the p50 and p99 of the samples
+ * are the numbers to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class LocalTransferBenchmark {
+
+    @Param({"local", "saga"})
+    public String path;
+
+    private ActorSystem actorSystem;
+    private Account account;
+    private String counterparty;
+    private boolean forward;
+    private final MoneyTransfer transfer = new MoneyTransfer(BigDecimal.ONE);
+
+    @Setup
+    public void setup() {
+        actorSystem = ActorSystem.create("benchmark", BenchmarkSystems.config(BenchmarkSystems.persistence("inmemory-journal"),
+                "account.partitions { enabled = on, count = 2 }"));
+        account = new DefaultAccount(actorSystem, Inflation.initiateDemoBankAccounts(actorSystem));
+        counterparty = "local".equals(path) ? "3" : "2";
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    /**
+     * One transfer at a time, back and forth so that neither account runs dry
+     */
+    @Benchmark
+    public TransactionResult transfer() {
+        forward = !forward;
+        return account.transferMoney(forward ? "1" : counterparty, forward ? counterparty : "1", transfer).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,88 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.JavaSerializer;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import com.twitter.chill.akka.AkkaSerializer;
+import io.kiamesdavies.revolut.commons.ModelSerializer;
+import io.kiamesdavies.revolut.models.Evt;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+import io.kiamesdavies.revolut.models.TransactionType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.NotSerializableException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serialization of the transfer saga event with the compact binary format, the previous Kryo binding and plain Java
+ * serialization. The size of the serialized event of each is reported with the results as {@code bytes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"compact", "kryo", "java"})
+    public String serializer;
+
+    private ActorSystem actorSystem;
+    private Serializer eventSerializer;
+    private Evt.TransactionEvent event;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        actorSystem = ActorSystem.create("benchmark", BenchmarkSystems.config());
+        event = new Evt.TransactionEvent(UUID.randomUUID().toString(), "1", "2", Money.ofMinor(10050),
+                TransactionType.TRANSFER, "rent", "mobile", TransactionStatus.WITHDRAWN);
+        switch (serializer) {
+            case "java":
+                eventSerializer = new JavaSerializer((ExtendedActorSystem) actorSystem);
+                break;
+            case "kryo":
+                eventSerializer = new AkkaSerializer((ExtendedActorSystem) actorSystem);
+                break;
+            default:
+                eventSerializer = new ModelSerializer();
+        }
+        serialized = eventSerializer.toBinary(event);
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    @Benchmark
+    public byte[] toBinary(SerializedSize size) {
+        byte[] bytes = eventSerializer.toBinary(event);
+        size.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Object fromBinary() throws NotSerializableException {
+        if (eventSerializer instanceof SerializerWithStringManifest) {
+            SerializerWithStringManifest withManifest = (SerializerWithStringManifest) eventSerializer;
+            return withManifest.fromBinary(serialized, withManifest.manifest(event));
+        }
+        return eventSerializer.fromBinary(serialized, Evt.TransactionEvent.class);
+    }
+
+    /**
+     * Size of the serialized event, reported as a secondary result of {@link #toBinary(SerializedSize)}
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class SerializedSize {
+        public long bytes;
+    }
+}
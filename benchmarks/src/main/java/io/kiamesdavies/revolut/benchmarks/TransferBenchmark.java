@@ -0,0 +1,50 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.actor.ActorSystem;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A complete transfer saga started from {@link DefaultAccount#transferMoney}, with the in-memory journal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBenchmark {
+
+    private ActorSystem actorSystem;
+    private Account account;
+    private final MoneyTransfer transfer = new MoneyTransfer(BigDecimal.ONE);
+    private long transfers;
+
+    @Setup
+    public void setup() {
+        actorSystem = ActorSystem.create("benchmark", BenchmarkSystems.config(BenchmarkSystems.persistence("inmemory-journal")));
+        account = new DefaultAccount(actorSystem, Inflation.initiateDemoBankAccounts(actorSystem));
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException, TimeoutException {
+        BenchmarkSystems.terminate(actorSystem);
+    }
+
+    /**
+     * Alternates the direction of the transfer so both accounts keep their balance
+     */
+    @Benchmark
+    public TransactionResult transferMoney() {
+        boolean forward = (transfers++ & 1) == 0;
+        return account.transferMoney(forward ? "1" : "2", forward ? "2" : "1", transfer).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,58 @@
+package io.kiamesdavies.revolut.benchmarks;
+
+import akka.http.javadsl.model.HttpEntity;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kiamesdavies.revolut.commons.Utility;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON rendering of the two HTTP responses, compared with the former mapper per call implementation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilityBenchmark {
+
+    private final AccountBalance accountBalance = new AccountBalance("1", Money.ofMinor(1000000));
+    private final TransactionResult.Success success = new TransactionResult.Success(UUID.randomUUID().toString());
+
+    @Benchmark
+    public byte[] accountBalanceToBytes() {
+        return Utility.toBytes(accountBalance);
+    }
+
+    @Benchmark
+    public byte[] transactionResultToBytes() {
+        return Utility.toBytes(success);
+    }
+
+    @Benchmark
+    public HttpEntity.Strict accountBalanceToEntity() {
+        return Utility.toEntity(accountBalance);
+    }
+
+    @Benchmark
+    public HttpEntity.Strict transactionResultToEntity() {
+        return Utility.toEntity(success);
+    }
+
+    @Benchmark
+    public byte[] accountBalanceWithNewMapper() throws JsonProcessingException {
+        return new ObjectMapper().writeValueAsBytes(accountBalance);
+    }
+
+    @Benchmark
+    public byte[] transactionResultWithNewMapper() throws JsonProcessingException {
+        return new ObjectMapper().writeValueAsBytes(success);
+    }
+}
@@ -3,19 +3,32 @@ package io.kiamesdavies.revolut;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Terminated;
+import akka.cluster.Cluster;
 import akka.http.javadsl.server.Route;
 import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.UniqueKillSwitch;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.account.AccountDirectory;
+import io.kiamesdavies.revolut.account.AccountPartition;
 import io.kiamesdavies.revolut.account.Bank;
 import io.kiamesdavies.revolut.account.BankAccount;
 import io.kiamesdavies.revolut.account.UnavailableBankAccount;
 import io.kiamesdavies.revolut.controllers.AccountController;
+import io.kiamesdavies.revolut.readside.HangingTransactions;
+import io.kiamesdavies.revolut.readside.JournalTags;
+import io.kiamesdavies.revolut.readside.Projection;
+import io.kiamesdavies.revolut.readside.ReadSideStore;
+import io.kiamesdavies.revolut.readside.SchemaMigration;
 import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.AdmissionControl;
+import io.kiamesdavies.revolut.services.impl.CachedBalances;
 import io.kiamesdavies.revolut.services.impl.DefaultAccount;
 import scala.concurrent.Future;
 
+import java.sql.SQLException;
 import java.time.Duration;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
 /**
@@ -26,43 +39,112 @@ public final class Inflation {
     private static Inflation ourInstance;
     private final Account account;
     private final ActorRef bank;
+    private final AccountDirectory directory;
     private final ActorSystem actorSystem;
     private final ActorMaterializer materializer;
     private final Route route;
+    /**
+     * The read side and the projection feeding it, with the materializer of the projection, all null when the read
+     * side is off
+     */
+    private final ReadSideStore readSide;
+    private final UniqueKillSwitch projection;
+    private final ActorMaterializer projectionMaterializer;
+    /**
+     * Queries of the journal by tag, null when the journal has no journal_tags index
+     */
+    private final JournalTags journalTags;
 
 
     private Inflation() {
         actorSystem = ActorSystem.create("system");
+        Config config = getActorSystem().settings().config();
+        if (config.getBoolean("read-side.enabled") && config.getString("akka.persistence.journal.plugin").equals("file-journal")) {
+            //the projection follows the tags of the events, which only the jdbc journal keeps
+            throw new IllegalStateException("The read side can't be projected from the file-journal, turn read-side.enabled off");
+        }
+        //only the jdbc journal keeps the journal_tags index
+        boolean journalTagsEnabled = config.getBoolean("journal-tags.enabled") && config.getString("akka.persistence.journal.plugin").equals("jdbc-journal");
+        if (config.getBoolean("account.snapshot.delete-events") && (config.getBoolean("read-side.enabled") || journalTagsEnabled)) {
+            //the projection and the journal_tags index still read the events older than the snapshots
+            throw new IllegalStateException("account.snapshot.delete-events deletes events the read side and the journal_tags index read, turn it off or turn them off");
+        }
+        if (config.getBoolean("schema-migration.enabled")) {
+            //before the first persistent actor reaches the journal
+            try {
+                getActorSystem().log().info("Applied schema versions {}", SchemaMigration.migrate(config.getConfig("schema-migration")));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to migrate the schema", e);
+            }
+        }
 
-        bank = getActorSystem().actorOf(Bank.props(initiateDemoBankAccounts(getActorSystem())), "bank");
-        account = new DefaultAccount(getActorSystem(), getBank());
+        directory = initiateDemoBankAccounts(getActorSystem());
+        bank = getActorSystem().actorOf(Bank.props(getDirectory()), "bank");
         materializer = ActorMaterializer.create(getActorSystem());
-        route = new AccountController(getActorSystem(), getAccount()).createRoute();
-
-        getActorSystem()
-                .scheduler()
-                .scheduleOnce(
-                        Duration.ofMinutes(getActorSystem().settings().config().getInt("server.minutes-to-recreate-hanging-transactions")),
-                        () -> getAccount().walkBackInTime(), getActorSystem().dispatcher()
-                );
+        if (getActorSystem().settings().config().getBoolean("read-side.enabled")) {
+            readSide = new ReadSideStore(getActorSystem().settings().config());
+            //the projection stays off the dispatcher of the http server, which every other stream runs on
+            projectionMaterializer = ActorMaterializer.create(ActorMaterializerSettings.create(getActorSystem())
+                    .withDispatcher("akka.actor.default-dispatcher"), getActorSystem());
+            projection = new Projection(getActorSystem(), readSide).start(projectionMaterializer);
+        } else {
+            readSide = null;
+            projection = null;
+            projectionMaterializer = null;
+        }
+        journalTags = journalTagsEnabled ? new JournalTags(getActorSystem()) : null;
+        //the index of the journal is up to date as soon as the system starts, the read side may still be catching up
+        HangingTransactions hangingTransactions = journalTags != null ? journalTags::unfinishedTransactions
+                : readSide != null ? readSide::hangingTransactions : null;
+        DefaultAccount defaultAccount = new DefaultAccount(getActorSystem(), getDirectory(), hangingTransactions);
+        Account balances = getActorSystem().settings().config().getBoolean("account.balance-cache.enabled")
+                ? new CachedBalances(defaultAccount, getActorSystem()) : defaultAccount;
+        account = getActorSystem().settings().config().getBoolean("transfer.admission.enabled")
+                ? new AdmissionControl(balances, getActorSystem()) : balances;
+        route = new AccountController(getActorSystem(), getAccount(), readSide).createRoute();
+
+        if (getActorSystem().settings().config().getBoolean("transfer.recovery.enabled")) {
+            getActorSystem()
+                    .scheduler()
+                    .scheduleOnce(
+                            Duration.ofMillis(getActorSystem().settings().config().getDuration("transfer.recovery.initial-delay", TimeUnit.MILLISECONDS)),
+                            () -> getAccount().walkBackInTime(), getActorSystem().dispatcher()
+                    );
+        }
 
     }
 
     /**
      * Set up five bankAccounts with ids 1, 2, 3, 4, 5 and 10 as a bad one
+     * <p>
+     * The accounts are not started here, every good account is resolved to the bank account shard region, or to the
+     * account partition shard region when partitions are on, which starts the account on its first message.
      *
      * @param actorSystem akka actor system
-     * @return array of demo accounts
+     * @return directory of the demo accounts
      */
-    public static Map<String, ActorRef> initiateDemoBankAccounts(ActorSystem actorSystem) {
-        Map<String, ActorRef> bankAccounts = IntStream.range(1, 6).mapToObj(String::valueOf)
-                .collect(Collectors.toMap(f -> f, f ->
-                        actorSystem.actorOf(BankAccount.props(f), String.format("supervisor-for-%s", f))));
+    public static AccountDirectory initiateDemoBankAccounts(ActorSystem actorSystem) {
+        joinCluster(actorSystem);
+        AccountDirectory directory = new AccountDirectory(actorSystem.settings().config().getBoolean("account.partitions.enabled")
+                ? AccountPartition.startSharding(actorSystem) : BankAccount.startSharding(actorSystem));
+        IntStream.range(1, 6).mapToObj(String::valueOf).forEach(directory::open);
 
         //create a bad bank account to demonstrate rollback
-        bankAccounts.put("10", actorSystem.actorOf(UnavailableBankAccount.props(), "bad-account"));
+        directory.register("10", actorSystem.actorOf(UnavailableBankAccount.props(), "bad-account"));
 
-        return bankAccounts;
+        return directory;
+    }
+
+    /**
+     * Joins the cluster through the configured seed nodes, or form a single node cluster if there are none
+     *
+     * @param actorSystem akka actor system
+     */
+    private static void joinCluster(ActorSystem actorSystem) {
+        if (actorSystem.settings().config().getStringList("akka.cluster.seed-nodes").isEmpty()) {
+            Cluster cluster = Cluster.get(actorSystem);
+            cluster.join(cluster.selfAddress());
+        }
     }
 
     /**
@@ -81,6 +163,14 @@ public final class Inflation {
      * @return
      */
     public static Future<Terminated> terminate() {
+        if (getOurInstance().projection != null) {
+            getOurInstance().projection.shutdown();
+            getOurInstance().projectionMaterializer.shutdown();
+            getOurInstance().readSide.close();
+        }
+        if (getOurInstance().journalTags != null) {
+            getOurInstance().journalTags.close();
+        }
         getOurInstance().getMaterializer().shutdown();
         Future<Terminated> terminate = getOurInstance().getActorSystem().terminate();
         ourInstance = null;
@@ -99,6 +189,10 @@ public final class Inflation {
         return bank;
     }
 
+    public AccountDirectory getDirectory() {
+        return directory;
+    }
+
     public ActorSystem getActorSystem() {
         return actorSystem;
     }
@@ -110,4 +204,8 @@ public final class Inflation {
     public Route getRoute() {
         return route;
     }
+
+    public ReadSideStore getReadSide() {
+        return readSide;
+    }
 }
@@ -0,0 +1,97 @@
+package io.kiamesdavies.revolut.account;
+
+import akka.actor.ActorRef;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process directory of the open bank accounts.
+ * <p>
+ * Reads are lock-free and can be made from any thread, so transfer handlers and the account service resolve
+ * accounts without a round trip to the {@link Bank}. Writes are expected to come only from the {@link Bank}.
+ * <p>
+ * The directory does not route: a sharded account is resolved to its shard region, and the region delivers every
+ * message to the entity named by the bankAccountId the message carries, see {@link BankAccount.MessageExtractor} and
+ * {@link AccountPartition.MessageExtractor}.
+ * The ids are kept only to tell an open account from an unknown one, the region would start an entity for any id.
+ */
+public final class AccountDirectory {
+
+    /**
+     * Every sharded account is reached through the same region, so only the ids of the open accounts are kept
+     */
+    private final Set<String> shardedAccounts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Accounts that live outside the shard region, like the demo bad account
+     */
+    private final Map<String, ActorRef> standaloneAccounts = new ConcurrentHashMap<>();
+
+    private final ActorRef accountRegion;
+
+    public AccountDirectory(ActorRef accountRegion) {
+        this.accountRegion = accountRegion;
+    }
+
+    /**
+     * Make a sharded account resolvable
+     *
+     * @param bankAccountId the account id
+     */
+    public void open(String bankAccountId) {
+        shardedAccounts.add(bankAccountId);
+    }
+
+    /**
+     * Make an account that is not part of the shard region resolvable
+     *
+     * @param bankAccountId the account id
+     * @param bankAccount   the actor of the account
+     */
+    public void register(String bankAccountId, ActorRef bankAccount) {
+        standaloneAccounts.put(bankAccountId, bankAccount);
+    }
+
+    /**
+     * Remove an account from the directory
+     *
+     * @param bankAccountId the account id
+     * @return true if the account was known
+     */
+    public boolean close(String bankAccountId) {
+        return shardedAccounts.remove(bankAccountId) | (standaloneAccounts.remove(bankAccountId) != null);
+    }
+
+    /**
+     * Resolve the actor responsible for an account
+     *
+     * @param bankAccountId the account id
+     * @return the actor to send the account messages to, or empty if the account is unknown
+     */
+    public Optional<ActorRef> lookup(String bankAccountId) {
+        if (shardedAccounts.contains(bankAccountId)) {
+            return Optional.of(accountRegion);
+        }
+        return Optional.ofNullable(standaloneAccounts.get(bankAccountId));
+    }
+
+    /**
+     * @param bankAccountIds the account ids
+     * @return the first of the ids that can not be resolved, or empty if all are known
+     */
+    public Optional<String> firstUnknown(String... bankAccountIds) {
+        for (String bankAccountId : bankAccountIds) {
+            if (!shardedAccounts.contains(bankAccountId) && !standaloneAccounts.containsKey(bankAccountId)) {
+                return Optional.of(bankAccountId);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public int size() {
+        return shardedAccounts.size() + standaloneAccounts.size();
+    }
+}
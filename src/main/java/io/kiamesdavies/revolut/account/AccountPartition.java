@@ -0,0 +1,499 @@
+package io.kiamesdavies.revolut.account;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.*;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.exceptions.InsufficientFundsException;
+import io.kiamesdavies.revolut.models.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static io.kiamesdavies.revolut.models.Evt.FailedEvent.Type.INSUFFICIENT_FUNDS;
+import static io.kiamesdavies.revolut.models.Evt.FailedEvent.Type.INVALID_AMOUNT;
+
+/**
+ * A group of bank accounts kept by a single persistent actor, so that a transfer between two of its accounts is
+ * applied with one atomic journal write instead of a saga.
+ * <p>
+ * The balances are slots of a {@link BalanceTable}, journaled and snapshotted once for the whole partition, so a
+ * mostly idle account costs a few array entries instead of an actor, a supervisor, a timer and a persistenceId.
+ * <p>
+ * Partitions are cluster sharded entities, an account belongs to the partition of the hash of its bankAccountId
+ * modulo {@code account.partitions.count}. A partition answers the same commands and queries as a {@link BankAccount},
+ * so the sagas of the transfers between two partitions run unchanged.
+ */
+public final class AccountPartition extends AbstractPersistentActorWithTimers {
+
+    /**
+     * The type name of the partition shard region
+     */
+    public static final String SHARD_TYPE_NAME = "account-partition";
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    private final String partitionId;
+    private final Currency currency;
+    private final long openingBalance;
+    private BalanceTable balances;
+
+    /**
+     * Memory mapped copy of the balances, null when {@code account.balance-file} is off or the file is disabled for
+     * this partition
+     */
+    private BalanceFile balanceFile;
+    private BalanceFile.Flush flush;
+
+    /**
+     * True when the balances were loaded from the balance file, the partition then only replays the events after its
+     * last snapshot that the file has not seen
+     */
+    private boolean fromBalanceFile;
+
+    /**
+     * Why the snapshot offered to the recovery was refused, the partition then ignores the replayed events and
+     * restarts once the snapshot is deleted
+     */
+    private String refusedSnapshot;
+
+    /**
+     * The bankAccountId and transactionId of the commands applied within the last hours-to-keep-transactions, as the
+     * withdrawal and the deposit of a transfer between two accounts of the partition share their transactionId
+     */
+    private final IdempotencyIndex receivedCmds;
+
+    private final int snapshotMaxEvents;
+    private int eventsSinceSnapshot = 0;
+    private final boolean balanceCacheEnabled;
+
+    private final Metrics.Histogram journalWrite;
+    private final Metrics.Counter redeliveries;
+
+    public AccountPartition() {
+        partitionId = getSelf().path().name();
+        currency = Currency.getInstance(getContext().system().settings().config().getString("account.currency"));
+        openingBalance = Money.of(new BigDecimal(getContext().system().settings().config().getString("account.opening-account")), currency).getMinorUnits();
+        balances = new BalanceTable(openingBalance);
+        Config balanceFileConfig = getContext().system().settings().config().getConfig("account.balance-file");
+        if (balanceFileConfig.getBoolean("enabled")) {
+            flush = BalanceFile.Flush.valueOf(balanceFileConfig.getString("flush").toUpperCase(Locale.ROOT));
+            Path path = Paths.get(balanceFileConfig.getString("dir")).resolve(String.format("account-partition-%s.bal", partitionId));
+            if (Files.exists(disabledMarker(path))) {
+                log.info("Balance file {} is disabled, partition {} snapshots its balances", path, partitionId);
+            } else {
+                openBalanceFile(path);
+            }
+            if (flush == BalanceFile.Flush.INTERVAL) {
+                timers().startPeriodicTimer(FlushBalanceFile.class, new FlushBalanceFile(), Duration.ofMillis(balanceFileConfig.getDuration("flush-interval", TimeUnit.MILLISECONDS)));
+            }
+        }
+        receivedCmds = new IdempotencyIndex(Duration.ofHours(getContext().system().settings().config().getInt("account.hours-to-keep-transactions")),
+                getContext().system().settings().config().getInt("account.idempotency-buckets"));
+        timers().startPeriodicTimer(new ReceivedCmdCleanUp(), new ReceivedCmdCleanUp(), Duration.ofMillis(receivedCmds.getBucketMillis()));
+        snapshotMaxEvents = getContext().system().settings().config().getInt("account.snapshot.max-events");
+        balanceCacheEnabled = getContext().system().settings().config().getBoolean("account.balance-cache.enabled");
+        Metrics metrics = Metrics.get(getContext().getSystem());
+        journalWrite = metrics.histogram("journal_write_seconds", "Time from persisting events to their handler", "entity", SHARD_TYPE_NAME);
+        redeliveries = metrics.counter("account_redeliveries_total", "Commands acknowledged again without being applied");
+    }
+
+    /**
+     * @param bankAccountId id of the account
+     * @param count         {@code account.partitions.count}
+     * @return the partition the account belongs to
+     */
+    public static int partitionOf(String bankAccountId, int count) {
+        return Math.floorMod(bankAccountId.hashCode(), count);
+    }
+
+    @Override
+    public Receive createReceiveRecover() {
+        return receiveBuilder()
+                .match(Evt.BaseAccountEvt.class, f -> refusedSnapshot == null, this::update)
+                .match(Evt.BaseAccountEvt.class, f -> {
+                })
+                .match(Evt.TransactionEvent.class, f -> {
+                })
+                .match(SnapshotOffer.class, ss -> {
+                    PartitionSnapshot snapshot = (PartitionSnapshot) ss.snapshot();
+                    if (snapshot.bankAccountIds != null) {
+                        balances = BalanceTable.restore(openingBalance, snapshot.bankAccountIds, snapshot.balances);
+                        rewriteBalanceFile(ss.metadata().sequenceNr());
+                    } else if (!fromBalanceFile) {
+                        //the balances are only in a balance file this partition no longer has, the restarted partition
+                        //replays the whole journal instead
+                        refuseSnapshot(ss.metadata().sequenceNr(), String.format("Snapshot %d of partition %s holds no balances and no balance file was loaded",
+                                ss.metadata().sequenceNr(), partitionId));
+                        return;
+                    } else if (balanceFile.syncedSequenceNr() < snapshot.balanceFileSequenceNr) {
+                        //the file is older than the snapshot relying on it, the restarted partition replays the whole
+                        //journal instead
+                        String reason = String.format("Balance file of partition %s is synced up to %d, its snapshot relies on %d",
+                                partitionId, balanceFile.syncedSequenceNr(), snapshot.balanceFileSequenceNr);
+                        balanceFile.clear();
+                        refuseSnapshot(ss.metadata().sequenceNr(), reason);
+                        return;
+                    }
+                    receivedCmds.restore(snapshot.transactionIds);
+                })
+                .match(RecoveryCompleted.class, f -> {
+                    if (refusedSnapshot != null) {
+                        getContext().become(awaitingSnapshotDeletion());
+                        return;
+                    }
+                    if (fromBalanceFile && balanceFile.highestSequenceNr() > lastSequenceNr()) {
+                        //the file outlived its journal, the restarted partition replays the whole journal instead
+                        balanceFile.clear();
+                        throw new IllegalStateException(String.format("Balance file of partition %s is ahead of its journal", partitionId));
+                    }
+                    for (int slot = 0; slot < balances.size(); slot++) {
+                        publishBalance(balances.id(slot));
+                    }
+                    snapshotIfDue();
+                })
+                .build();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Query.Single.class, s -> sender().tell(new QueryAck(s.deliveryId, balance(s.bankAccountId), lastSequenceNr()), self()))
+                .match(Cmd.BaseAccountCmd.class, s -> s.amount.signum() < 1,
+                        f -> sender().tell(CmdAck.from(f, new Evt.FailedEvent(f.bankAccountId, INVALID_AMOUNT, "Amount is too small")), self()))
+                .match(Cmd.BaseAccountCmd.class, s -> !currency.equals(s.amount.getCurrency()),
+                        f -> sender().tell(CmdAck.from(f, new Evt.FailedEvent(f.bankAccountId, INVALID_AMOUNT, String.format("Amount must be in %s", currency))), self()))
+                .match(Cmd.WithdrawCmd.class, s -> s.amount.getMinorUnits() > balances.get(s.bankAccountId),
+                        f -> sender().tell(CmdAck.from(f, new Evt.FailedEvent(f.bankAccountId, INSUFFICIENT_FUNDS)), self()))
+                .match(Cmd.DepositCmd.class, s -> s.amount.getMinorUnits() > Long.MAX_VALUE - balances.get(s.bankAccountId),
+                        f -> sender().tell(CmdAck.from(f, new Evt.FailedEvent(f.bankAccountId, INVALID_AMOUNT, "Balance would overflow")), self()))
+                .match(Cmd.BaseAccountCmd.class, this::handleCmd)
+                .match(PartitionTransfer.class, this::transfer)
+                .match(ReceivedCmdCleanUp.class, f -> receivedCmds.expire(System.currentTimeMillis()))
+                .match(FlushBalanceFile.class, f -> {
+                    if (balanceFile != null) {
+                        balanceFile.force(lastSequenceNr());
+                    }
+                })
+                .match(SaveSnapshotSuccess.class, f -> deleteSnapshots(SnapshotSelectionCriteria.create(f.metadata().sequenceNr() - 1, Long.MAX_VALUE)))
+                .match(SaveSnapshotFailure.class, f -> log.warning("Failed to save snapshot of partition {}: {}", partitionId, f.cause()))
+                .match(DeleteSnapshotsFailure.class, f -> log.warning("Failed to delete snapshots of partition {}: {}", partitionId, f.cause()))
+                .match(DeleteSnapshotsSuccess.class, f -> {
+                })
+                .matchAny(f -> log.error("Unattended Message {}", f))
+                .build();
+    }
+
+    private void handleCmd(Cmd.BaseAccountCmd c) {
+        final Evt.BaseAccountEvt evt = c instanceof Cmd.DepositCmd ? new Evt.DepositEvent((Cmd.DepositCmd) c) : new Evt.WithdrawEvent((Cmd.WithdrawCmd) c);
+        if (receivedCmds.contains(key(c.bankAccountId, c.transactionId))) {
+            redeliveries.increment();
+            sender().tell(CmdAck.from(c, evt), self());
+            return;
+        }
+        long persistNanoTime = System.nanoTime();
+        persist(evt, e -> {
+            journalWrite.recordSince(persistNanoTime);
+            update(e);
+            sender().tell(CmdAck.from(c, e), self());
+            snapshotIfDue();
+        });
+    }
+
+    /**
+     * Apply the withdrawal, the deposit and the completed transaction with one atomic write
+     */
+    private void transfer(PartitionTransfer t) {
+        Cmd.TransferCmd cmd = t.transferCmd;
+        if (receivedCmds.contains(key(cmd.accountFromId, t.transactionId))) {
+            //a retry with the same Idempotency-Key
+            redeliveries.increment();
+            sender().tell(new TransactionResult.Success(t.transactionId), self());
+            return;
+        }
+        String error = null;
+        if (cmd.amount.signum() < 1) {
+            error = "Amount is too small";
+        } else if (!currency.equals(cmd.amount.getCurrency())) {
+            error = String.format("Amount must be in %s", currency);
+        } else if (cmd.accountFromId.equals(cmd.accountToId)) {
+            error = "Can't transfer to same account";
+        } else if (cmd.amount.getMinorUnits() > Long.MAX_VALUE - balances.get(cmd.accountToId)) {
+            error = "Balance would overflow";
+        }
+        if (error != null) {
+            sender().tell(new TransactionResult.Failure(new IllegalArgumentException(error)), self());
+            return;
+        }
+        if (cmd.amount.getMinorUnits() > balances.get(cmd.accountFromId)) {
+            sender().tell(new TransactionResult.Failure(new InsufficientFundsException(null)), self());
+            return;
+        }
+        long persistNanoTime = System.nanoTime();
+        persistAll(Arrays.asList(
+                new Evt.WithdrawEvent(cmd.accountFromId, t.transactionId, cmd.amount),
+                new Evt.DepositEvent(cmd.accountToId, t.transactionId, cmd.amount),
+                new Evt.TransactionEvent(t.transactionId, cmd, TransactionStatus.COMPLETED)), e -> {
+            if (e instanceof Evt.BaseAccountEvt) {
+                update((Evt.BaseAccountEvt) e);
+            } else {
+                journalWrite.recordSince(persistNanoTime);
+                sender().tell(new TransactionResult.Success(t.transactionId), self());
+                snapshotIfDue();
+            }
+        });
+    }
+
+    private void update(Evt.BaseAccountEvt evt) {
+        receivedCmds.add(key(evt.bankAccountId, evt.transactionId), evt.epochMillis);
+        eventsSinceSnapshot++;
+        int slot = balances.slot(evt.bankAccountId);
+        if (recoveryRunning() && balanceFile != null && balanceFile.sequenceNr(slot) >= lastSequenceNr()) {
+            //already in the balance the file was loaded with
+            return;
+        }
+        long balance = balances.add(evt.bankAccountId, evt instanceof Evt.DepositEvent ? evt.amount.getMinorUnits() : -evt.amount.getMinorUnits());
+        writeBalance(slot, evt.bankAccountId, balance);
+        if (!recoveryRunning()) {
+            publishBalance(evt.bankAccountId);
+        }
+    }
+
+    private void publishBalance(String bankAccountId) {
+        if (balanceCacheEnabled) {
+            //the sequence number of the partition only grows, so it orders the changes of each of its accounts
+            getContext().getSystem().getEventStream().publish(new BalanceCache.Changed(bankAccountId, balance(bankAccountId), lastSequenceNr()));
+        }
+    }
+
+    /**
+     * @return a new balance of the account, the opening balance if it never changed
+     */
+    private AccountBalance balance(String bankAccountId) {
+        return new AccountBalance(bankAccountId, Money.ofMinor(balances.get(bankAccountId), currency));
+    }
+
+    private void snapshotIfDue() {
+        if (eventsSinceSnapshot >= snapshotMaxEvents) {
+            if (balanceFile != null) {
+                //the balances are in the file, synced before the snapshot so that it is never behind it
+                balanceFile.force(lastSequenceNr());
+                saveSnapshot(new PartitionSnapshot(null, null, receivedCmds.export(), balanceFile.syncedSequenceNr()));
+            } else {
+                saveSnapshot(new PartitionSnapshot(balances.ids(), balances.balances(), receivedCmds.export(), 0));
+            }
+            eventsSinceSnapshot = 0;
+        }
+    }
+
+    /**
+     * Delete the snapshot and the older ones, which rely on the same file, the partition restarts once they are
+     * deleted and replays its whole journal
+     */
+    private void refuseSnapshot(long sequenceNr, String reason) {
+        log.warning("{}, partition {} replays its journal once the snapshot is deleted", reason, partitionId);
+        refusedSnapshot = reason;
+        deleteSnapshots(SnapshotSelectionCriteria.create(sequenceNr, Long.MAX_VALUE));
+    }
+
+    /**
+     * Keep the messages for the restarted partition until the refused snapshots are deleted, as a partition
+     * restarted before would be offered them again
+     */
+    private Receive awaitingSnapshotDeletion() {
+        return receiveBuilder()
+                .match(DeleteSnapshotsSuccess.class, f -> {
+                    throw new IllegalStateException(refusedSnapshot);
+                })
+                .match(DeleteSnapshotsFailure.class, f -> {
+                    throw new IllegalStateException(refusedSnapshot, f.cause());
+                })
+                .matchAny(f -> stash())
+                .build();
+    }
+
+    /**
+     * Open the balance file and load the balances from it if it is intact, otherwise empty it so that the journal
+     * replayed from the start fills it again
+     */
+    private void openBalanceFile(Path path) {
+        try {
+            balanceFile = BalanceFile.open(path);
+            BalanceFile.Records records = balanceFile.load();
+            if (records == null) {
+                log.warning("Balance file {} is torn, partition {} replays its journal", path, partitionId);
+                balanceFile.clear();
+            } else if (records.bankAccountIds.length > 0) {
+                balances = BalanceTable.restore(openingBalance, records.bankAccountIds, records.balances);
+                fromBalanceFile = true;
+            }
+        } catch (IOException e) {
+            log.error(e, "Failed to open balance file {}", path);
+            balanceFile = null;
+        }
+    }
+
+    private void writeBalance(int slot, String bankAccountId, long balance) {
+        if (balanceFile == null) {
+            return;
+        }
+        if (!BalanceFile.fits(bankAccountId)) {
+            dropBalanceFile(String.format("account id %s does not fit in a record", bankAccountId));
+            return;
+        }
+        try {
+            balanceFile.write(slot, bankAccountId, balance, lastSequenceNr());
+            if (flush == BalanceFile.Flush.WRITE && !recoveryRunning()) {
+                balanceFile.force(lastSequenceNr());
+            }
+        } catch (IOException e) {
+            dropBalanceFile(e.toString());
+        }
+    }
+
+    /**
+     * Write every slot again, after the balances were restored from a snapshot taken without the file
+     */
+    private void rewriteBalanceFile(long sequenceNr) {
+        if (balanceFile == null) {
+            return;
+        }
+        try {
+            balanceFile.clear();
+            for (int slot = 0; slot < balances.size() && balanceFile != null; slot++) {
+                String bankAccountId = balances.id(slot);
+                if (!BalanceFile.fits(bankAccountId)) {
+                    dropBalanceFile(String.format("account id %s does not fit in a record", bankAccountId));
+                } else {
+                    balanceFile.write(slot, bankAccountId, balances.get(bankAccountId), sequenceNr);
+                }
+            }
+        } catch (IOException e) {
+            dropBalanceFile(e.toString());
+        }
+    }
+
+    /**
+     * Delete the balance file and disable it for this partition, which goes back to snapshots of the whole balance
+     * table, starting with the next one
+     */
+    private void dropBalanceFile(String reason) {
+        log.warning("Disabling the balance file of partition {}: {}", partitionId, reason);
+        try {
+            balanceFile.close();
+            Files.write(disabledMarker(balanceFile.path()), reason.getBytes(StandardCharsets.UTF_8));
+            Files.deleteIfExists(balanceFile.path());
+        } catch (IOException e) {
+            log.error(e, "Failed to disable balance file {}", balanceFile.path());
+        }
+        balanceFile = null;
+        eventsSinceSnapshot = snapshotMaxEvents;
+    }
+
+    /**
+     * @return the file whose presence disables the balance file of the partition, it holds the reason
+     */
+    private static Path disabledMarker(Path path) {
+        return path.resolveSibling(path.getFileName() + ".disabled");
+    }
+
+    private static String key(String bankAccountId, String transactionId) {
+        return bankAccountId + "/" + transactionId;
+    }
+
+    /**
+     * Without an intact balance file the partition replays its whole journal, its latest snapshot may only mark where
+     * a file it no longer has stood
+     */
+    @Override
+    public Recovery recovery() {
+        return balanceFile != null && !fromBalanceFile ? Recovery.create(SnapshotSelectionCriteria.none()) : Recovery.create();
+    }
+
+    @Override
+    public String persistenceId() {
+        return String.format("account-partition-%s", partitionId);
+    }
+
+    public static Props props() {
+        return Props.create(AccountPartition.class).withMailbox("account.mailbox");
+    }
+
+    /**
+     * Starts the partition shard region on this node
+     *
+     * @param actorSystem akka actor system
+     * @return the shard region that routes every account message to the partition of its bankAccountId
+     */
+    public static ActorRef startSharding(ActorSystem actorSystem) {
+        return ClusterSharding.get(actorSystem).start(
+                SHARD_TYPE_NAME,
+                props().withDispatcher(actorSystem.settings().config().getString("account.dispatcher")),
+                ClusterShardingSettings.create(actorSystem),
+                new MessageExtractor(actorSystem.settings().config().getInt("account.number-of-shards"),
+                        actorSystem.settings().config().getInt("account.partitions.count")));
+    }
+
+    private static final class ReceivedCmdCleanUp {
+    }
+
+    private static final class FlushBalanceFile {
+    }
+
+    /**
+     * Extracts the partition from the bankAccountId the messages are already carrying, a transfer from its sender
+     */
+    static final class MessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+        private final int count;
+
+        MessageExtractor(int maxNumberOfShards, int count) {
+            super(maxNumberOfShards);
+            this.count = count;
+        }
+
+        @Override
+        public String entityId(Object message) {
+            if (message instanceof Cmd.BaseAccountCmd) {
+                return String.valueOf(partitionOf(((Cmd.BaseAccountCmd) message).bankAccountId, count));
+            } else if (message instanceof Query.Single) {
+                return String.valueOf(partitionOf(((Query.Single) message).bankAccountId, count));
+            } else if (message instanceof PartitionTransfer) {
+                return String.valueOf(partitionOf(((PartitionTransfer) message).transferCmd.accountFromId, count));
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public void preStart() {
+        log.info("Starting account partition {}", partitionId);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (balanceFile != null) {
+            try {
+                balanceFile.close();
+            } catch (IOException e) {
+                log.error(e, "Failed to close balance file {}", balanceFile.path());
+            }
+        }
+        super.postStop();
+    }
+}
@@ -0,0 +1,137 @@
+package io.kiamesdavies.revolut.account;
+
+import akka.actor.AbstractActor;
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.actor.Props;
+import io.kiamesdavies.revolut.models.AccountBalance;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balances of the bank accounts read without asking the accounts, kept current by the {@link Changed} every bank
+ * account of this node publishes to the event stream.
+ * <p>
+ * A balance that is not refreshed within {@code account.balance-cache.max-staleness} is read again from its account,
+ * which bounds how stale the balance of an account living on another node of the cluster can be.
+ */
+public final class BalanceCache implements Extension {
+
+    private static final Id ID = new Id();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long maxStalenessNanos;
+
+    BalanceCache(Duration maxStaleness) {
+        maxStalenessNanos = maxStaleness.toNanos();
+    }
+
+    /**
+     * @param actorSystem akka actor system
+     * @return the cache of the actor system, subscribed to the balances of its bank accounts
+     */
+    public static BalanceCache get(ActorSystem actorSystem) {
+        return ID.get(actorSystem);
+    }
+
+    /**
+     * @param bankAccountId id of the account
+     * @return the balance, empty when it is missing or stale
+     */
+    public Optional<AccountBalance> lookup(String bankAccountId) {
+        Entry entry = entries.get(bankAccountId);
+        if (entry != null && System.nanoTime() - entry.refreshedNanoTime <= maxStalenessNanos) {
+            return Optional.of(entry.balance.copy());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Keep a balance read from its account, unless a newer change was applied meanwhile
+     *
+     * @param read the balance the account answered, with the sequence number it was read at
+     */
+    public void fill(Changed read) {
+        changed(new Changed(read.bankAccountId, read.balance.copy(), read.sequenceNr));
+    }
+
+    /**
+     * Apply a change published by a bank account, an older change than the one cached is ignored
+     */
+    void changed(Changed changed) {
+        Entry fresh = new Entry(changed.balance, changed.sequenceNr, System.nanoTime());
+        entries.merge(changed.bankAccountId, fresh, (current, f) -> f.sequenceNr >= current.sequenceNr ? f : current);
+    }
+
+    /**
+     * The balance of an account after the event of the sequence number was applied
+     */
+    public static final class Changed {
+        public final String bankAccountId;
+        public final AccountBalance balance;
+        public final long sequenceNr;
+
+        public Changed(String bankAccountId, AccountBalance balance, long sequenceNr) {
+            this.bankAccountId = bankAccountId;
+            this.balance = balance;
+            this.sequenceNr = sequenceNr;
+        }
+    }
+
+    private static final class Entry {
+        private final AccountBalance balance;
+        private final long sequenceNr;
+        private final long refreshedNanoTime;
+
+        private Entry(AccountBalance balance, long sequenceNr, long refreshedNanoTime) {
+            this.balance = balance;
+            this.sequenceNr = sequenceNr;
+            this.refreshedNanoTime = refreshedNanoTime;
+        }
+    }
+
+    /**
+     * Applies the changes published to the event stream, so the bank accounts never wait on the cache
+     */
+    private static final class Subscriber extends AbstractActor {
+        private final BalanceCache cache;
+
+        private Subscriber(BalanceCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void preStart() {
+            getContext().getSystem().getEventStream().subscribe(self(), Changed.class);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Changed.class, cache::changed)
+                    .build();
+        }
+    }
+
+    private static final class Id extends AbstractExtensionId<BalanceCache> implements ExtensionIdProvider {
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+
+        @Override
+        public BalanceCache createExtension(ExtendedActorSystem system) {
+            BalanceCache cache = new BalanceCache(Duration.ofMillis(system.settings().config().getDuration("account.balance-cache.max-staleness", TimeUnit.MILLISECONDS)));
+            system.systemActorOf(Props.create(Subscriber.class, () -> new Subscriber(cache)), "balance-cache");
+            return cache;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package io.kiamesdavies.revolut.account;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The slots of a {@link BalanceTable} kept in a memory mapped file of fixed size records, so that a partition restarts
+ * from the file instead of replaying its journal.
+ * <p>
+ * The file starts with a header of {@link #RECORD_SIZE} bytes, the sequence number {@link #force(long)} last synced
+ * the records up to and its CRC32. The record of slot n follows at (n + 1) * {@link #RECORD_SIZE}: the slot, the
+ * balance in minor units, the sequence number of the last event applied to it, the length and UTF-8 bytes of the
+ * bankAccountId and a CRC32 of all of them. A record is written in place on every change of its account, the file is
+ * only synced to disk by {@link #force(long)}.
+ * <p>
+ * Not thread safe, a file is owned by a single actor.
+ */
+final class BalanceFile implements AutoCloseable {
+
+    static final int RECORD_SIZE = 64;
+
+    /**
+     * The longest bankAccountId, in UTF-8 bytes, that fits in a record
+     */
+    static final int MAX_ID_BYTES = 39;
+
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int ID_LENGTH = 20;
+    private static final int CRC = 60;
+    private static final int HEADER_CRC = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private final byte[] record = new byte[RECORD_SIZE];
+    private MappedByteBuffer mapped;
+
+    /**
+     * Sequence numbers of the records by slot, as loaded or last written
+     */
+    private long[] sequenceNrs;
+
+    /**
+     * Sequence number the records were last synced up to, as loaded from the header or last forced
+     */
+    private long syncedSequenceNr;
+
+    private BalanceFile(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(Math.max(INITIAL_SLOTS, (int) (channel.size() / RECORD_SIZE) - 1));
+        sequenceNrs = new long[INITIAL_SLOTS];
+    }
+
+    /**
+     * Open the file, or create an empty one, its records are read by {@link #load()}
+     */
+    static BalanceFile open(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        return new BalanceFile(path);
+    }
+
+    /**
+     * Read the records from the first slot up to the first empty one
+     *
+     * @return the records, or null if one of them is torn or out of place, in which case the file must be rebuilt
+     */
+    Records load() {
+        //a torn header only claims nothing was synced
+        syncedSequenceNr = checksum(0, HEADER_CRC) == mapped.getInt(HEADER_CRC) ? mapped.getLong(0) : 0;
+        List<String> ids = new ArrayList<>();
+        long[] balances = new long[INITIAL_SLOTS];
+        for (int slot = 0; slot < capacity(); slot++) {
+            int position = (slot + 1) * RECORD_SIZE;
+            int length = mapped.get(position + ID_LENGTH);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > MAX_ID_BYTES || mapped.getInt(position) != slot || checksum(position, CRC) != mapped.getInt(position + CRC)) {
+                return null;
+            }
+            if (slot == balances.length) {
+                balances = Arrays.copyOf(balances, slot * 2);
+                sequenceNrs = Arrays.copyOf(sequenceNrs, slot * 2);
+            }
+            //checksum left the record in the scratch buffer
+            ids.add(new String(record, ID_LENGTH + 1, length, StandardCharsets.UTF_8));
+            balances[slot] = mapped.getLong(position + 4);
+            sequenceNrs[slot] = mapped.getLong(position + 12);
+        }
+        return new Records(ids.toArray(new String[0]), Arrays.copyOf(balances, ids.size()));
+    }
+
+    /**
+     * @return true if the bankAccountId fits in a record
+     */
+    static boolean fits(String bankAccountId) {
+        return bankAccountId.getBytes(StandardCharsets.UTF_8).length <= MAX_ID_BYTES;
+    }
+
+    /**
+     * @return the sequence number of the last event applied to the slot, 0 if it has no record
+     */
+    long sequenceNr(int slot) {
+        return slot < sequenceNrs.length ? sequenceNrs[slot] : 0;
+    }
+
+    /**
+     * @return the sequence number {@link #force(long)} last synced the records up to, 0 if they were never synced
+     */
+    long syncedSequenceNr() {
+        return syncedSequenceNr;
+    }
+
+    /**
+     * @return the highest sequence number of the records
+     */
+    long highestSequenceNr() {
+        long highest = 0;
+        for (long sequenceNr : sequenceNrs) {
+            highest = Math.max(highest, sequenceNr);
+        }
+        return highest;
+    }
+
+    /**
+     * Write the record of a slot in place, growing the file if the slot is past its end
+     */
+    void write(int slot, String bankAccountId, long balance, long sequenceNr) throws IOException {
+        byte[] id = bankAccountId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException(String.format("Account id %s is longer than %d bytes", bankAccountId, MAX_ID_BYTES));
+        }
+        if (slot >= capacity()) {
+            map(Math.max(slot + 1, capacity() * 2));
+        }
+        if (slot >= sequenceNrs.length) {
+            sequenceNrs = Arrays.copyOf(sequenceNrs, Math.max(slot + 1, sequenceNrs.length * 2));
+        }
+        int position = (slot + 1) * RECORD_SIZE;
+        mapped.putInt(position, slot);
+        mapped.putLong(position + 4, balance);
+        mapped.putLong(position + 12, sequenceNr);
+        mapped.put(position + ID_LENGTH, (byte) id.length);
+        for (int i = 0; i < MAX_ID_BYTES; i++) {
+            mapped.put(position + ID_LENGTH + 1 + i, i < id.length ? id[i] : 0);
+        }
+        mapped.putInt(position + CRC, checksum(position, CRC));
+        sequenceNrs[slot] = sequenceNr;
+    }
+
+    /**
+     * Empty the file, every record is written again from the state the partition recovers from the journal
+     */
+    void clear() throws IOException {
+        channel.truncate(0);
+        map(INITIAL_SLOTS);
+        sequenceNrs = new long[INITIAL_SLOTS];
+        syncedSequenceNr = 0;
+    }
+
+    /**
+     * Sync the records written so far to disk, then the header saying they are synced up to the sequence number
+     *
+     * @param sequenceNr sequence number of the last event written to the records
+     */
+    void force(long sequenceNr) {
+        mapped.force();
+        if (sequenceNr != syncedSequenceNr) {
+            mapped.putLong(0, sequenceNr);
+            mapped.putInt(HEADER_CRC, checksum(0, HEADER_CRC));
+            mapped.force();
+            syncedSequenceNr = sequenceNr;
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    private int capacity() {
+        return mapped.capacity() / RECORD_SIZE - 1;
+    }
+
+    private void map(int slots) throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) (slots + 1) * RECORD_SIZE);
+    }
+
+    private int checksum(int position, int length) {
+        for (int i = 0; i < length; i++) {
+            record[i] = mapped.get(position + i);
+        }
+        crc.reset();
+        crc.update(record, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Sync the records to disk, the header keeps the sequence number of the last {@link #force(long)}
+     */
+    @Override
+    public void close() throws IOException {
+        mapped.force();
+        channel.close();
+    }
+
+    /**
+     * When the records are synced to disk, a record not synced before a crash is rebuilt from the journal
+     */
+    enum Flush {
+        /**
+         * After every change
+         */
+        WRITE,
+        /**
+         * Every {@code flush-interval}
+         */
+        INTERVAL,
+        /**
+         * Only before a snapshot, the least the file needs to never be behind the snapshots
+         */
+        SNAPSHOT
+    }
+
+    /**
+     * The bankAccountIds and balances of the records by slot
+     */
+    static final class Records {
+        final String[] bankAccountIds;
+        final long[] balances;
+
+        Records(String[] bankAccountIds, long[] balances) {
+            this.bankAccountIds = bankAccountIds;
+            this.balances = balances;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package io.kiamesdavies.revolut.account;
+
+import java.util.Arrays;
+
+/**
+ * The balances, in minor units, of the accounts of a partition, one slot per account.
+ * <p>
+ * The bankAccountIds and balances are kept in parallel arrays and found through a primitive open addressing index of
+ * slots, so an account costs its id and a few array entries instead of objects and a map entry of its own. An account
+ * takes a slot on its first change, until then it has the opening balance.
+ * <p>
+ * Not thread safe, a table is owned by a single actor.
+ */
+final class BalanceTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long openingBalance;
+
+    private String[] ids;
+    private long[] balances;
+    private int size;
+
+    /**
+     * Open addressing index of slot + 1 by the hash of the bankAccountId, 0 marks a free entry
+     */
+    private int[] index;
+
+    /**
+     * @param openingBalance minor units of an account that has not changed yet
+     */
+    BalanceTable(long openingBalance) {
+        this.openingBalance = openingBalance;
+        ids = new String[INITIAL_CAPACITY];
+        balances = new long[INITIAL_CAPACITY];
+        index = new int[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * @return a table of the slots of {@link #ids()} and {@link #balances()}
+     */
+    static BalanceTable restore(long openingBalance, String[] ids, long[] balances) {
+        BalanceTable table = new BalanceTable(openingBalance);
+        for (int i = 0; i < ids.length; i++) {
+            table.balances[table.slot(ids[i])] = balances[i];
+        }
+        return table;
+    }
+
+    /**
+     * @return minor units of the account
+     */
+    long get(String bankAccountId) {
+        int i = find(bankAccountId);
+        return index[i] == 0 ? openingBalance : balances[index[i] - 1];
+    }
+
+    /**
+     * Add minor units, negative for a withdrawal, to the account
+     *
+     * @return minor units of the account after the change
+     * @throws ArithmeticException if the balance overflows
+     */
+    long add(String bankAccountId, long minorUnits) {
+        int slot = slot(bankAccountId);
+        balances[slot] = Math.addExact(balances[slot], minorUnits);
+        return balances[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    String id(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * @return a copy of the bankAccountIds by slot
+     */
+    String[] ids() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * @return a copy of the balances by slot
+     */
+    long[] balances() {
+        return Arrays.copyOf(balances, size);
+    }
+
+    /**
+     * @return the slot of the account, taken with the opening balance if it has none
+     */
+    int slot(String bankAccountId) {
+        int i = find(bankAccountId);
+        if (index[i] != 0) {
+            return index[i] - 1;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            balances = Arrays.copyOf(balances, size * 2);
+        }
+        ids[size] = bankAccountId;
+        balances[size] = openingBalance;
+        index[i] = ++size;
+        if (size * 2 > index.length) {
+            rehash(index.length * 2);
+        }
+        return size - 1;
+    }
+
+    /**
+     * @return the entry of the index holding the account, or the free entry it would take
+     */
+    private int find(String bankAccountId) {
+        int mask = index.length - 1;
+        int i = mix(bankAccountId.hashCode()) & mask;
+        while (index[i] != 0 && !ids[index[i] - 1].equals(bankAccountId)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Keeps the index at most half full, so that probes stay short
+     */
+    private void rehash(int capacity) {
+        index = new int[capacity];
+        int mask = capacity - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int i = mix(ids[slot].hashCode()) & mask;
+            while (index[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            index[i] = slot + 1;
+        }
+    }
+
+    /**
+     * Spreads the bits of String.hashCode, whose low bits are poor for short numeric ids
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
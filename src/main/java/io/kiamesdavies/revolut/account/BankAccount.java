@@ -1,20 +1,22 @@
 package io.kiamesdavies.revolut.account;
 
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.pattern.BackoffOpts;
-import akka.pattern.BackoffSupervisor;
-import akka.persistence.AbstractPersistentActorWithTimers;
-import akka.persistence.SnapshotOffer;
+import akka.persistence.*;
+import io.kiamesdavies.revolut.commons.Metrics;
 import io.kiamesdavies.revolut.models.*;
-import scala.concurrent.duration.FiniteDuration;
 
+import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.net.URLDecoder;
 import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -23,22 +25,95 @@ import static io.kiamesdavies.revolut.models.Evt.FailedEvent.Type.INVALID_AMOUNT
 
 /**
  * Represents a single user bank account.
+ * <p>
+ * Bank accounts are cluster sharded entities, they are started on the first message addressed to their
+ * bankAccountId, passivated when idle and distributed across the nodes in the cluster.
  */
 public final  class BankAccount extends AbstractPersistentActorWithTimers {
 
+    /**
+     * The type name of the bank account shard region
+     */
+    public static final String SHARD_TYPE_NAME = "bank-account";
+
+    /**
+     * A transactionId takes the two longs of its hash in a snapshot
+     */
+    private static final int SNAPSHOT_BYTES_PER_TRANSACTION = 16;
+
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
     private final String bankAccountId;
-    private final int snapShotInterval = 100;
+    private final Currency currency;
     private AccountBalance state;
-    private Map<String, LocalDateTime> receivedCmds = new HashMap<>();
-    private final int hoursToKeepTransactions;
+    /**
+     * The transactionIds applied within the last hours-to-keep-transactions, used to acknowledge redeliveries
+     */
+    private final IdempotencyIndex receivedCmds;
+
+    /**
+     * When true commands are validated against the running balance and written to the journal in batches
+     */
+    private final boolean groupCommit;
+    private final int maxBatchSize;
+    private final Duration maxBatchWait;
 
-    public BankAccount(String bankAccountId) {
-        this.bankAccountId = bankAccountId;
-        state = new AccountBalance(bankAccountId, BigDecimal.valueOf(getContext().system().settings().config().getDouble("account.opening-account")));
-        hoursToKeepTransactions = getContext().system().settings().config().getInt("account.hours-to-keep-transactions");
-        timers().startPeriodicTimer(new ReceivedCmdCleanUp(), new ReceivedCmdCleanUp(), Duration.ofHours(hoursToKeepTransactions));
+    /**
+     * Commands that passed validation and are waiting for the next journal write
+     */
+    private final List<PendingCmd> pendingCmds = new ArrayList<>();
+    private final Set<String> pendingTransactionIds = new HashSet<>();
+
+    /**
+     * Sum of the deposits minus the withdrawals that are validated but not yet applied to the state
+     */
+    private long pendingDelta = 0;
+    private boolean writeInFlight = false;
+
+    /**
+     * A snapshot is taken once any of the limits is reached, so the replay on recovery stays bounded, but never before
+     * the events written since the last one outweigh the transactionIds it carries
+     */
+    private final int snapshotMaxEvents;
+    private final long snapshotMaxBytes;
+    private final Duration snapshotMaxInterval;
+    private final boolean deleteEvents;
+    private int eventsSinceSnapshot = 0;
+    private long bytesSinceSnapshot = 0;
+    private long lastSnapshotSequenceNr = 0;
+
+    /**
+     * When true every change of the balance is published for the {@link BalanceCache}
+     */
+    private final boolean balanceCacheEnabled;
+
+    private final Metrics.Histogram journalWrite;
+    private final Metrics.Histogram recovery;
+    private final Metrics.Counter redeliveries;
+    private final long startNanoTime = System.nanoTime();
+
+    public BankAccount() throws UnsupportedEncodingException {
+        //the shard names every entity after the url encoded bankAccountId it was started for
+        this.bankAccountId = URLDecoder.decode(getSelf().path().name(), "UTF-8");
+        currency = Currency.getInstance(getContext().system().settings().config().getString("account.currency"));
+        //read as a string, a double can not hold every decimal amount
+        state = new AccountBalance(bankAccountId, Money.of(new BigDecimal(getContext().system().settings().config().getString("account.opening-account")), currency));
+        receivedCmds = new IdempotencyIndex(Duration.ofHours(getContext().system().settings().config().getInt("account.hours-to-keep-transactions")),
+                getContext().system().settings().config().getInt("account.idempotency-buckets"));
+        timers().startPeriodicTimer(new ReceivedCmdCleanUp(), new ReceivedCmdCleanUp(), Duration.ofMillis(receivedCmds.getBucketMillis()));
+        groupCommit = getContext().system().settings().config().getBoolean("account.group-commit.enabled");
+        maxBatchSize = getContext().system().settings().config().getInt("account.group-commit.max-batch-size");
+        maxBatchWait = Duration.ofMillis(getContext().system().settings().config().getDuration("account.group-commit.max-wait", TimeUnit.MILLISECONDS));
+        snapshotMaxEvents = getContext().system().settings().config().getInt("account.snapshot.max-events");
+        snapshotMaxBytes = getContext().system().settings().config().getBytes("account.snapshot.max-bytes");
+        snapshotMaxInterval = Duration.ofMillis(getContext().system().settings().config().getDuration("account.snapshot.max-interval", TimeUnit.MILLISECONDS));
+        deleteEvents = getContext().system().settings().config().getBoolean("account.snapshot.delete-events");
+        timers().startPeriodicTimer(SnapshotTick.class, new SnapshotTick(), snapshotMaxInterval);
+        balanceCacheEnabled = getContext().system().settings().config().getBoolean("account.balance-cache.enabled");
+        Metrics metrics = Metrics.get(getContext().getSystem());
+        journalWrite = metrics.histogram("journal_write_seconds", "Time from persisting events to their handler", "entity", SHARD_TYPE_NAME);
+        recovery = metrics.histogram("journal_recovery_seconds", "Time from starting an entity to the end of its recovery", "entity", SHARD_TYPE_NAME);
+        redeliveries = metrics.counter("account_redeliveries_total", "Commands acknowledged again without being applied");
     }
 
 
@@ -47,27 +122,61 @@ public final  class BankAccount extends AbstractPersistentActorWithTimers {
     public Receive createReceiveRecover() {
         return receiveBuilder()
                 .match(Evt.BaseAccountEvt.class, this::update)
-                .match(SnapshotOffer.class, ss -> state = (AccountBalance) ss.snapshot())
+                .match(SnapshotOffer.class, ss -> {
+                    lastSnapshotSequenceNr = ss.metadata().sequenceNr();
+                    if (ss.snapshot() instanceof AccountSnapshot) {
+                        state = ((AccountSnapshot) ss.snapshot()).balance;
+                        receivedCmds.restore(((AccountSnapshot) ss.snapshot()).transactionIds);
+                    } else {
+                        //written before the snapshots carried the transactionIds
+                        state = (AccountBalance) ss.snapshot();
+                    }
+                })
+                .match(RecoveryCompleted.class, f -> {
+                    recovery.recordSince(startNanoTime);
+                    publishBalance();
+                })
                 .build();
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(Query.Single.class, s -> sender().tell(new QueryAck(s.deliveryId, state.copy()), self()))
-                .match(Cmd.BaseAccountCmd.class, s -> s.amount.compareTo(BigDecimal.ZERO) < 1,
+                .match(Query.Single.class, s -> sender().tell(new QueryAck(s.deliveryId, state.copy(), lastSequenceNr()), self()))
+                //a redelivery is answered with the outcome of the original before any validation, which would count the
+                //original twice while it is waiting for the journal
+                .match(Cmd.BaseAccountCmd.class, s -> receivedCmds.contains(s.transactionId), this::acknowledgeAgain)
+                .match(Cmd.BaseAccountCmd.class, s -> pendingTransactionIds.contains(s.transactionId),
+                        //a redelivery of a command already waiting for the journal, it is acknowledged once written
+                        f -> redeliveries.increment())
+                .match(Cmd.BaseAccountCmd.class, s -> s.amount.signum() < 1,
                         f -> sender().tell(
                                 CmdAck.from(f, new Evt.FailedEvent(bankAccountId, INVALID_AMOUNT, "Amount is too small")),
                                 self())
                 )
-                .match(Cmd.WithdrawCmd.class, s -> s.amount.compareTo(state.getBalance()) > 0,
+                .match(Cmd.BaseAccountCmd.class, s -> !currency.equals(s.amount.getCurrency()),
+                        f -> sender().tell(
+                                CmdAck.from(f, new Evt.FailedEvent(bankAccountId, INVALID_AMOUNT, String.format("Amount must be in %s", currency))),
+                                self())
+                )
+                .match(Cmd.WithdrawCmd.class, s -> s.amount.getMinorUnits() > runningBalance(),
                         f -> sender().tell(CmdAck.from(f, new Evt.FailedEvent(bankAccountId, INSUFFICIENT_FUNDS)), self()))
+                .match(Cmd.DepositCmd.class, s -> s.amount.getMinorUnits() > Long.MAX_VALUE - runningBalance(),
+                        f -> sender().tell(
+                                CmdAck.from(f, new Evt.FailedEvent(bankAccountId, INVALID_AMOUNT, "Balance would overflow")),
+                                self())
+                )
                 .match(Cmd.BaseAccountCmd.class, this::handleCmd)
-                .match(ReceivedCmdCleanUp.class, f -> {
-                    //the map was re-created to reset the bucket size instead of just removing the entries
-                    receivedCmds = receivedCmds.entrySet().stream()
-                            .filter(g -> g.getValue().isAfter(LocalDateTime.now().minusHours(hoursToKeepTransactions)))
-                            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                .match(FlushBatch.class, f -> flush())
+                .match(ReceivedCmdCleanUp.class, f -> receivedCmds.expire(System.currentTimeMillis()))
+                .match(SnapshotTick.class, f -> snapshot())
+                .match(SaveSnapshotSuccess.class, this::cleanUp)
+                .match(SaveSnapshotFailure.class, f -> log.warning("Failed to save snapshot of bank account {}: {}", bankAccountId, f.cause()))
+                .match(DeleteSnapshotsFailure.class, f -> log.warning("Failed to delete snapshots of bank account {}: {}", bankAccountId, f.cause()))
+                .match(DeleteMessagesFailure.class, f -> log.warning("Failed to delete events of bank account {}: {}", bankAccountId, f.cause()))
+                .match(DeleteSnapshotsSuccess.class, f -> {
+                })
+                .match(DeleteMessagesSuccess.class, f -> {
                 })
                 .matchAny(f -> log.error("Unattended Message {}", f))
                 .build();
@@ -76,34 +185,173 @@ public final  class BankAccount extends AbstractPersistentActorWithTimers {
 
 
     private void update(Evt.BaseAccountEvt evt) {
-        receivedCmds.put(evt.transactionId, LocalDateTime.now());
+        receivedCmds.add(evt.transactionId, evt.epochMillis);
+        eventsSinceSnapshot++;
+        //the transactionId and the accountId are the variable part of a journal row
+        bytesSinceSnapshot += 64 + 2 * (evt.transactionId.length() + evt.bankAccountId.length());
         if (evt instanceof Evt.DepositEvent) {
             AccountBalance.deposit(state, evt.amount);
         } else if (evt instanceof Evt.WithdrawEvent) {
             AccountBalance.withdraw(state, evt.amount);
         }
+        if (!recoveryRunning()) {
+            publishBalance();
+        }
+    }
+
+    private void publishBalance() {
+        if (balanceCacheEnabled) {
+            getContext().getSystem().getEventStream().publish(new BalanceCache.Changed(bankAccountId, state.copy(), lastSequenceNr()));
+        }
     }
 
 
     private void handleCmd(Cmd.BaseAccountCmd c) {
-        final Evt.BaseAccountEvt evt = c instanceof Cmd.DepositCmd ? new Evt.DepositEvent((Cmd.DepositCmd) c) : new Evt.WithdrawEvent((Cmd.WithdrawCmd) c);
-        if (receivedCmds.containsKey(c.transactionId)) {
-            sender().tell(CmdAck.from(c, evt), self());
+        final Evt.BaseAccountEvt evt = toEvent(c);
+        if (groupCommit) {
+            enqueue(c, evt);
         } else {
+            long persistNanoTime = System.nanoTime();
             persist(evt,
                     e -> {
+                        journalWrite.recordSince(persistNanoTime);
                         this.update(e);
                         sender().tell(CmdAck.from(c, e), self());
-                        if (lastSequenceNr() % snapShotInterval == 0 && lastSequenceNr() != 0) {
-                            saveSnapshot(state.copy());
-                        }
+                        snapshotIfDue();
                     });
         }
     }
 
+    /**
+     * Acknowledge a command that was already applied, without applying it again
+     */
+    private void acknowledgeAgain(Cmd.BaseAccountCmd c) {
+        redeliveries.increment();
+        sender().tell(CmdAck.from(c, toEvent(c)), self());
+    }
+
+    private static Evt.BaseAccountEvt toEvent(Cmd.BaseAccountCmd c) {
+        return c instanceof Cmd.DepositCmd ? new Evt.DepositEvent((Cmd.DepositCmd) c) : new Evt.WithdrawEvent((Cmd.WithdrawCmd) c);
+    }
+
+    /**
+     * Queue a validated command for the next batch, the batch is written right away if nothing is being written,
+     * otherwise it is drained once the in-flight write completes
+     */
+    private void enqueue(Cmd.BaseAccountCmd c, Evt.BaseAccountEvt evt) {
+        pendingTransactionIds.add(c.transactionId);
+        pendingCmds.add(new PendingCmd(c, evt, sender()));
+        pendingDelta += signedAmount(evt);
+        if (writeInFlight) {
+            return;
+        }
+        if (pendingCmds.size() >= maxBatchSize || maxBatchWait.isZero()) {
+            flush();
+        } else if (!timers().isTimerActive(FlushBatch.class)) {
+            timers().startSingleTimer(FlushBatch.class, new FlushBatch(), maxBatchWait);
+        }
+    }
+
+    /**
+     * Write up to max-batch-size pending commands with a single journal write
+     */
+    private void flush() {
+        timers().cancel(FlushBatch.class);
+        if (writeInFlight || pendingCmds.isEmpty()) {
+            return;
+        }
+        List<PendingCmd> batch = new ArrayList<>(pendingCmds.subList(0, Math.min(maxBatchSize, pendingCmds.size())));
+        pendingCmds.subList(0, batch.size()).clear();
+        writeInFlight = true;
+
+        Iterator<PendingCmd> written = batch.iterator();
+        long persistNanoTime = System.nanoTime();
+        persistAllAsync(batch.stream().map(f -> f.evt).collect(Collectors.toList()), e -> {
+            PendingCmd pendingCmd = written.next();
+            journalWrite.recordSince(persistNanoTime);
+            pendingTransactionIds.remove(e.transactionId);
+            pendingDelta -= signedAmount(e);
+            this.update(e);
+            pendingCmd.sender.tell(CmdAck.from(pendingCmd.cmd, e), self());
+            snapshotIfDue();
+        });
+        deferAsync(batch.size(), f -> {
+            writeInFlight = false;
+            flush();
+        });
+    }
+
+    /**
+     * Snapshot once max-events are written since the last one, and once max-bytes are unless the transactionIds it
+     * carries would outweigh the events written since the last one, so the size based snapshots of a hot account with a
+     * long idempotency window never write more than its journal
+     */
+    private void snapshotIfDue() {
+        if (eventsSinceSnapshot >= snapshotMaxEvents
+                || (bytesSinceSnapshot >= snapshotMaxBytes && bytesSinceSnapshot >= SNAPSHOT_BYTES_PER_TRANSACTION * receivedCmds.size())) {
+            snapshot();
+        }
+    }
+
+    private void snapshot() {
+        if (eventsSinceSnapshot == 0) {
+            return;
+        }
+        saveSnapshot(new AccountSnapshot(state.copy(), receivedCmds.export()));
+        eventsSinceSnapshot = 0;
+        bytesSinceSnapshot = 0;
+    }
+
+    /**
+     * Keep the new snapshot and the one before it, as a fallback, and drop everything older
+     */
+    private void cleanUp(SaveSnapshotSuccess success) {
+        long previousSnapshotSequenceNr = lastSnapshotSequenceNr;
+        lastSnapshotSequenceNr = success.metadata().sequenceNr();
+        if (previousSnapshotSequenceNr <= 0 || previousSnapshotSequenceNr >= lastSnapshotSequenceNr) {
+            return;
+        }
+        deleteSnapshots(SnapshotSelectionCriteria.create(previousSnapshotSequenceNr - 1, Long.MAX_VALUE));
+        if (deleteEvents) {
+            deleteMessages(previousSnapshotSequenceNr);
+        }
+    }
+
+    private static long signedAmount(Evt.BaseAccountEvt evt) {
+        return evt instanceof Evt.DepositEvent ? evt.amount.getMinorUnits() : -evt.amount.getMinorUnits();
+    }
+
+    /**
+     * @return the balance in minor units once every validated command is applied
+     */
+    private long runningBalance() {
+        return state.getMinorUnits() + pendingDelta;
+    }
+
     private static final class ReceivedCmdCleanUp {
     }
 
+    private static final class FlushBatch {
+    }
+
+    /**
+     * Every max-interval, so an account that stops writing is still snapshotted
+     */
+    private static final class SnapshotTick {
+    }
+
+    private static final class PendingCmd {
+        private final Cmd.BaseAccountCmd cmd;
+        private final Evt.BaseAccountEvt evt;
+        private final ActorRef sender;
+
+        private PendingCmd(Cmd.BaseAccountCmd cmd, Evt.BaseAccountEvt evt, ActorRef sender) {
+            this.cmd = cmd;
+            this.evt = evt;
+            this.sender = sender;
+        }
+    }
+
 
     @Override
     public String persistenceId() {
@@ -111,19 +359,48 @@ public final  class BankAccount extends AbstractPersistentActorWithTimers {
     }
 
     /**
-     * Creates a BackoffSupervisor  incase the database is not available, and we need to give it some time to start-up again
+     * There is no need for a BackoffSupervisor, if the database is not available the entity stops
+     * and the shard starts it again on the next message (redelivered by the transfer handler)
      *
-     * @param bankAccountId the account id
      * @return BankAccount  configuration object
      */
-    public static Props props(String bankAccountId) {
-        return BackoffSupervisor.props(
-                BackoffOpts.onStop(
-                        Props.create(BankAccount.class,bankAccountId), bankAccountId,
-                        FiniteDuration.create(1, TimeUnit.SECONDS),
-                        FiniteDuration.create(5, TimeUnit.SECONDS),
-                        0.2)
-        );
+    public static Props props() {
+        return Props.create(BankAccount.class).withMailbox("account.mailbox");
+    }
+
+    /**
+     * Starts the bank account shard region on this node
+     *
+     * @param actorSystem akka actor system
+     * @return the shard region that routes every account message by its bankAccountId
+     */
+    public static ActorRef startSharding(ActorSystem actorSystem) {
+        return ClusterSharding.get(actorSystem).start(
+                SHARD_TYPE_NAME,
+                props().withDispatcher(actorSystem.settings().config().getString("account.dispatcher")),
+                ClusterShardingSettings.create(actorSystem),
+                new MessageExtractor(actorSystem.settings().config().getInt("account.number-of-shards")));
+    }
+
+    /**
+     * Extracts the entity id from the bankAccountId the messages are already carrying, so they are sent to the region
+     * as they are, without an envelope
+     */
+    static final class MessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+
+        MessageExtractor(int maxNumberOfShards) {
+            super(maxNumberOfShards);
+        }
+
+        @Override
+        public String entityId(Object message) {
+            if (message instanceof Cmd.BaseAccountCmd) {
+                return ((Cmd.BaseAccountCmd) message).bankAccountId;
+            } else if (message instanceof Query.Single) {
+                return ((Query.Single) message).bankAccountId;
+            }
+            return null;
+        }
     }
 
 
@@ -0,0 +1,287 @@
+package io.kiamesdavies.revolut.account;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * The transactionIds an account has applied within a sliding window of time.
+ * <p>
+ * The window is split into a ring of buckets of equal width, each a primitive open addressing set of 128-bit
+ * hashes of the ids. Expiry drops whole buckets, so it costs nothing per id and never rebuilds a map.
+ * Canonical UUIDs hash to their own 128 bits, optionally mixed with a suffix like {@code -rollback}, so they never
+ * collide; any other id is hashed with two independent 64-bit hashes.
+ * <p>
+ * Not thread safe, an index is owned by a single actor.
+ */
+public final class IdempotencyIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long bucketMillis;
+
+    /**
+     * One bucket more than the window needs, so that an id is kept for at least the whole window
+     */
+    private final Bucket[] buckets;
+
+    /**
+     * The time slot (epochMillis / bucketMillis) of the newest bucket
+     */
+    private long newestSlot = Long.MIN_VALUE;
+
+    /**
+     * @param window      how long an id is remembered for
+     * @param bucketCount the number of buckets the window is split into, more buckets make expiry finer grained
+     */
+    public IdempotencyIndex(Duration window, int bucketCount) {
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("bucketCount must be positive");
+        }
+        bucketMillis = Math.max(1, window.toMillis() / bucketCount);
+        buckets = new Bucket[bucketCount + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * @param transactionId the id
+     * @param epochMillis   when the transaction was applied
+     * @return true if the id was added, false if it was already known or is older than the window
+     */
+    public boolean add(String transactionId, long epochMillis) {
+        return add(high(transactionId), low(transactionId), epochMillis);
+    }
+
+    public boolean contains(String transactionId) {
+        return contains(high(transactionId), low(transactionId));
+    }
+
+    /**
+     * Drop the buckets that fell out of the window
+     *
+     * @param nowMillis the current time
+     */
+    public void expire(long nowMillis) {
+        advance(Math.floorDiv(nowMillis, bucketMillis));
+    }
+
+    public int size() {
+        int size = 0;
+        for (Bucket bucket : buckets) {
+            size += bucket.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return the hashes of every non empty bucket as {@code [bucket start millis, count, high, low, high, low...]},
+     * the format read by {@link #restore(long[])}
+     */
+    public long[] export() {
+        long[] exported = new long[2 * buckets.length + 2 * size()];
+        int position = 0;
+        for (Bucket bucket : buckets) {
+            if (bucket.size == 0) {
+                continue;
+            }
+            exported[position++] = bucket.slot * bucketMillis;
+            exported[position++] = bucket.size;
+            for (int i = 0; i < bucket.keys.length; i += 2) {
+                if (bucket.keys[i] != 0 || bucket.keys[i + 1] != 0) {
+                    exported[position++] = bucket.keys[i];
+                    exported[position++] = bucket.keys[i + 1];
+                }
+            }
+        }
+        return Arrays.copyOf(exported, position);
+    }
+
+    /**
+     * Add the hashes exported by {@link #export()}, possibly from an index with other bucket widths
+     */
+    public void restore(long[] exported) {
+        int position = 0;
+        while (position < exported.length) {
+            long epochMillis = exported[position++];
+            long count = exported[position++];
+            for (long i = 0; i < count; i++) {
+                add(exported[position++], exported[position++], epochMillis);
+            }
+        }
+    }
+
+    private boolean add(long high, long low, long epochMillis) {
+        long slot = Math.floorDiv(epochMillis, bucketMillis);
+        advance(slot);
+        if (slot <= newestSlot - buckets.length || contains(high, low)) {
+            return false;
+        }
+        return buckets[(int) Math.floorMod(slot, (long) buckets.length)].add(high, low);
+    }
+
+    private boolean contains(long high, long low) {
+        for (Bucket bucket : buckets) {
+            if (bucket.contains(high, low)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void advance(long slot) {
+        if (slot <= newestSlot) {
+            return;
+        }
+        long from = newestSlot == Long.MIN_VALUE ? slot - buckets.length + 1 : Math.max(newestSlot + 1, slot - buckets.length + 1);
+        for (long s = from; s <= slot; s++) {
+            buckets[(int) Math.floorMod(s, (long) buckets.length)].reset(s);
+        }
+        newestSlot = slot;
+    }
+
+    /**
+     * @return the length of the canonical lower case UUID the id starts with, or -1
+     */
+    private static int uuidLength(String id) {
+        if (id.length() < 36) {
+            return -1;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            boolean valid = i == 8 || i == 13 || i == 18 || i == 23 ? c == '-' : (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+            if (!valid) {
+                return -1;
+            }
+        }
+        return 36;
+    }
+
+    static long high(String id) {
+        return uuidLength(id) > 0 ? hex(id, 0, 18) : hash(id, 0, 0xcbf29ce484222325L, 0x100000001b3L);
+    }
+
+    static long low(String id) {
+        long low;
+        if (uuidLength(id) > 0) {
+            low = hex(id, 19, 36);
+            if (id.length() > 36) {
+                low ^= hash(id, 36, 0xcbf29ce484222325L, 0x100000001b3L);
+            }
+        } else {
+            low = hash(id, 0, 0x9e3779b97f4a7c15L, 0xc6a4a7935bd1e995L);
+        }
+        //a zero pair marks a free slot
+        return low == 0 && high(id) == 0 ? 1 : low;
+    }
+
+    private static long hex(String id, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = id.charAt(i);
+            if (c != '-') {
+                value = (value << 4) | Character.digit(c, 16);
+            }
+        }
+        return value;
+    }
+
+    private static long hash(String id, int from, long seed, long prime) {
+        long h = seed;
+        for (int i = from; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= prime;
+        }
+        h ^= id.length() - from;
+        //murmur3 finalizer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Open addressing set of 128-bit hashes stored as pairs of longs, linear probing, at most half full
+     */
+    private static final class Bucket {
+        private long slot = Long.MIN_VALUE;
+        private long[] keys = new long[INITIAL_CAPACITY * 2];
+        private int size;
+
+        private boolean contains(long high, long low) {
+            if (size == 0) {
+                return false;
+            }
+            int mask = keys.length / 2 - 1;
+            for (int i = index(high, low) & mask; ; i = (i + 1) & mask) {
+                long h = keys[2 * i];
+                long l = keys[2 * i + 1];
+                if (h == high && l == low) {
+                    return true;
+                }
+                if (h == 0 && l == 0) {
+                    return false;
+                }
+            }
+        }
+
+        private boolean add(long high, long low) {
+            if ((size + 1) * 4 > keys.length) {
+                grow();
+            }
+            if (!insert(keys, high, low)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] grown = new long[keys.length * 2];
+            for (int i = 0; i < keys.length; i += 2) {
+                if (keys[i] != 0 || keys[i + 1] != 0) {
+                    insert(grown, keys[i], keys[i + 1]);
+                }
+            }
+            keys = grown;
+        }
+
+        private static boolean insert(long[] keys, long high, long low) {
+            int mask = keys.length / 2 - 1;
+            for (int i = index(high, low) & mask; ; i = (i + 1) & mask) {
+                long h = keys[2 * i];
+                long l = keys[2 * i + 1];
+                if (h == high && l == low) {
+                    return false;
+                }
+                if (h == 0 && l == 0) {
+                    keys[2 * i] = high;
+                    keys[2 * i + 1] = low;
+                    return true;
+                }
+            }
+        }
+
+        private static int index(long high, long low) {
+            long h = high ^ low;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * Reuse the bucket for a new time slot, a large set is released rather than cleared
+         */
+        private void reset(long slot) {
+            this.slot = slot;
+            if (size > 0) {
+                keys = new long[INITIAL_CAPACITY * 2];
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.kiamesdavies.revolut.commons;
+
+import akka.actor.ExtendedActorSystem;
+import akka.persistence.journal.Tagged;
+import akka.persistence.journal.WriteEventAdapter;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.models.Evt;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tags every event written to the journal, so that the events can be queried by tag instead of reading every row.
+ * <p>
+ * An event is tagged with its type, the status of a transaction, a partition and a time bucket. The events of a
+ * transaction, or of an account, always share a partition. Every event the read side projects is also tagged with
+ * {@link #READ_SIDE}, so the projection follows a single tag from a single offset.
+ */
+public final class EventTagger implements WriteEventAdapter {
+
+    public static final String TRANSACTION = "transaction";
+    public static final String DEPOSIT = "deposit";
+    public static final String WITHDRAW = "withdraw";
+    public static final String READ_SIDE = "read-side";
+
+    private final int partitions;
+    private final long bucketMillis;
+
+    public EventTagger(ExtendedActorSystem actorSystem) {
+        this(actorSystem.settings().config());
+    }
+
+    public EventTagger(Config config) {
+        partitions = config.getInt("journal-tags.partitions");
+        bucketMillis = config.getDuration("journal-tags.time-bucket", TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String manifest(Object event) {
+        return "";
+    }
+
+    @Override
+    public Object toJournal(Object event) {
+        Set<String> tags = tags(event, System.currentTimeMillis());
+        return tags.isEmpty() ? event : new Tagged(event, tags);
+    }
+
+    /**
+     * @param now time of an event without a time of its own
+     * @return the tags of the event, empty for an event that is not tagged
+     */
+    public Set<String> tags(Object event, long now) {
+        Set<String> tags = new HashSet<>();
+        if (event instanceof Evt.TransactionEvent) {
+            Evt.TransactionEvent f = (Evt.TransactionEvent) event;
+            tags.add(TRANSACTION);
+            tags.add(READ_SIDE);
+            tags.add(status(f.status));
+            tags.add(partition(f.transactionId));
+            tags.add(bucket(now));
+        } else if (event instanceof Evt.BaseAccountEvt) {
+            Evt.BaseAccountEvt f = (Evt.BaseAccountEvt) event;
+            tags.add(f instanceof Evt.DepositEvent ? DEPOSIT : WITHDRAW);
+            tags.add(READ_SIDE);
+            tags.add(partition(f.bankAccountId));
+            tags.add(bucket(f.epochMillis));
+        }
+        return tags;
+    }
+
+    public static String status(TransactionStatus status) {
+        return "status-" + status.name();
+    }
+
+    /**
+     * @param key transactionId of a transaction or id of an account
+     */
+    public String partition(String key) {
+        return "partition-" + Math.floorMod(key.hashCode(), partitions);
+    }
+
+    public String bucket(long epochMillis) {
+        return "bucket-" + epochMillis / bucketMillis;
+    }
+}
@@ -0,0 +1,78 @@
+package io.kiamesdavies.revolut.commons;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Keeps the {@code journal_tags} table in step with the {@code journal} table of H2, a row is written for every tag of
+ * an event, as the journal only stores the tags joined by a comma in a single column.
+ */
+public final class JournalTagsTrigger implements Trigger {
+
+    private int ordering;
+    private int persistenceId;
+    private int tags;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        try (ResultSet columns = metaData.getColumns(null, schemaName, tableName, null)) {
+            while (columns.next()) {
+                int index = columns.getInt("ORDINAL_POSITION") - 1;
+                switch (columns.getString("COLUMN_NAME")) {
+                    case "ordering":
+                        ordering = index;
+                        break;
+                    case "persistence_id":
+                        persistenceId = index;
+                        break;
+                    case "tags":
+                        tags = index;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (newRow == null) {
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM \"journal_tags\" WHERE \"ordering\" = ?")) {
+                delete.setLong(1, ((Number) oldRow[ordering]).longValue());
+                delete.executeUpdate();
+            }
+            return;
+        }
+        String joined = (String) newRow[tags];
+        if (joined == null || joined.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO \"journal_tags\" (\"tag\", \"ordering\", \"persistence_id\") VALUES (?, ?, ?)")) {
+            for (String tag : joined.split(",")) {
+                insert.setString(1, tag);
+                insert.setLong(2, ((Number) newRow[ordering]).longValue());
+                insert.setString(3, (String) newRow[persistenceId]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    @Override
+    public void close() {
+        //nothing to release
+    }
+
+    @Override
+    public void remove() {
+        //nothing to release
+    }
+}
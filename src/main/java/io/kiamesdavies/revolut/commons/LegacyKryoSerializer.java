@@ -0,0 +1,112 @@
+package io.kiamesdavies.revolut.commons;
+
+import akka.actor.ExtendedActorSystem;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.twitter.chill.KryoInstantiator;
+import com.twitter.chill.akka.AkkaSerializer;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.Evt;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+import io.kiamesdavies.revolut.models.TransactionType;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.function.Function;
+
+/**
+ * Reads the journal rows and snapshots written with kryo before the compact format of {@link ModelSerializer}, nothing
+ * is bound to it anymore.
+ * <p>
+ * Kryo wrote the fields of the events and balances by name, when their amounts were still decimals, so they are read
+ * into copies of those first versions and turned into the current ones, with the amounts in {@code account.currency}.
+ */
+public final class LegacyKryoSerializer extends AkkaSerializer {
+
+    /**
+     * Only read once the first kryo is created, after the constructor
+     */
+    private final Currency legacyCurrency;
+
+    public LegacyKryoSerializer(ExtendedActorSystem system) {
+        super(system);
+        legacyCurrency = Currency.getInstance(system.settings().config().getString("account.currency"));
+    }
+
+    @Override
+    public KryoInstantiator kryoInstantiator() {
+        return super.kryoInstantiator().withRegistrar(this::registerFirstVersions);
+    }
+
+    private void registerFirstVersions(Kryo kryo) {
+        kryo.addDefaultSerializer(Evt.DepositEvent.class, new FirstVersion<>(kryo, AccountEvtV1.class,
+                e -> new Evt.DepositEvent(e.bankAccountId, e.transactionId, money(e.amount))));
+        kryo.addDefaultSerializer(Evt.WithdrawEvent.class, new FirstVersion<>(kryo, AccountEvtV1.class,
+                e -> new Evt.WithdrawEvent(e.bankAccountId, e.transactionId, money(e.amount))));
+        kryo.addDefaultSerializer(Evt.TransactionEvent.class, new FirstVersion<>(kryo, TransactionEventV1.class,
+                e -> new Evt.TransactionEvent(e.transactionId, e.accountFromId, e.accountToId, money(e.amount),
+                        e.transactionType, e.remarks, e.source, e.status)));
+        kryo.addDefaultSerializer(AccountBalance.class, new FirstVersion<>(kryo, AccountBalanceV1.class,
+                e -> new AccountBalance(e.bankAccountId, money(e.balance))));
+    }
+
+    private Money money(BigDecimal amount) {
+        return amount == null ? null : Money.of(amount, legacyCurrency);
+    }
+
+    /**
+     * Reads the fields of the first version of a type, the type is only ever written by {@link ModelSerializer}
+     */
+    private static final class FirstVersion<T, V> extends Serializer<T> {
+        private final Class<V> version;
+        private final Serializer<V> fields;
+        private final Function<V, T> upgrade;
+
+        @SuppressWarnings("unchecked")
+        private FirstVersion(Kryo kryo, Class<V> version, Function<V, T> upgrade) {
+            this.version = version;
+            this.fields = kryo.getDefaultSerializer(version);
+            this.upgrade = upgrade;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, T object) {
+            throw new UnsupportedOperationException(String.format("%s is written by the compact serializer", object.getClass()));
+        }
+
+        @Override
+        public T read(Kryo kryo, Input input, Class<T> type) {
+            return upgrade.apply(fields.read(kryo, input, version));
+        }
+    }
+
+    /**
+     * The fields of the deposit and withdraw events before they carried a currency
+     */
+    private static final class AccountEvtV1 {
+        private String bankAccountId;
+        private BigDecimal amount;
+        private String transactionId;
+        private long messageNanoTime;
+    }
+
+    private static final class TransactionEventV1 {
+        private TransactionType transactionType;
+        private String transactionId;
+        private BigDecimal amount;
+        private String remarks;
+        private String source;
+        private String accountToId;
+        private String accountFromId;
+        private TransactionStatus status;
+        private long messageNanoTime;
+    }
+
+    private static final class AccountBalanceV1 {
+        private String bankAccountId;
+        private BigDecimal balance;
+    }
+}
@@ -0,0 +1,87 @@
+package io.kiamesdavies.revolut.commons;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedDequeBasedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.Deque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Unbounded deque based mailbox, as required by the stash of persistent actors, that adds the messages it holds to
+ * the mailbox_depth gauge of the mailbox id
+ */
+public final class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.MeteredQueue> {
+
+    private final String mailboxId;
+
+    public MeteredMailbox(ActorSystem.Settings settings, Config config) {
+        mailboxId = config.hasPath("mailbox-id") ? config.getString("mailbox-id") : "default";
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        Metrics.Gauge depth = system.isDefined()
+                ? Metrics.get(system.get()).gauge("mailbox_depth", "Messages waiting in the mailboxes", "mailbox", mailboxId)
+                : null;
+        return new MeteredQueue(depth);
+    }
+
+    public static final class MeteredQueue implements MessageQueue, UnboundedDequeBasedMessageQueueSemantics {
+        private final Deque<Envelope> queue = new LinkedBlockingDeque<>();
+        private final Metrics.Gauge depth;
+
+        private MeteredQueue(Metrics.Gauge depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            queue.offerLast(handle);
+            if (depth != null) {
+                depth.increment();
+            }
+        }
+
+        @Override
+        public void enqueueFirst(ActorRef receiver, Envelope handle) {
+            queue.offerFirst(handle);
+            if (depth != null) {
+                depth.increment();
+            }
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope handle = queue.pollFirst();
+            if (handle != null && depth != null) {
+                depth.decrement();
+            }
+            return handle;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return queue.size();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            Envelope handle;
+            while ((handle = dequeue()) != null) {
+                deadLetters.enqueue(owner, handle);
+            }
+        }
+    }
+}
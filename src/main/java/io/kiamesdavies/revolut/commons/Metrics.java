@@ -0,0 +1,283 @@
+package io.kiamesdavies.revolut.commons;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process registry of the metrics of an actor system, written out in the Prometheus text format.
+ * <p>
+ * Every series is made of striped counters, so recording takes no lock and allocates nothing. Looking a series up
+ * by its labels does allocate, callers keep the series they record to instead of looking it up every time.
+ */
+public final class Metrics implements Extension {
+
+    private static final Id ID = new Id();
+
+    /**
+     * Upper bounds of the latency buckets in seconds, from half a millisecond to the 60 seconds of the ask timeout
+     */
+    private static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    Metrics() {
+    }
+
+    /**
+     * @param actorSystem akka actor system
+     * @return the registry of the actor system
+     */
+    public static Metrics get(ActorSystem actorSystem) {
+        return ID.get(actorSystem);
+    }
+
+    /**
+     * @param name   name of the counter, ending with _total
+     * @param help   description of the counter
+     * @param labels label names each followed by its value
+     * @return the counter of the labels
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labels(labels), f -> new Counter());
+    }
+
+    /**
+     * @param name   name of the histogram, ending with the unit
+     * @param help   description of the histogram
+     * @param labels label names each followed by its value
+     * @return the latency histogram of the labels
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").series.computeIfAbsent(labels(labels), f -> new Histogram());
+    }
+
+    /**
+     * @param name   name of the gauge
+     * @param help   description of the gauge
+     * @param labels label names each followed by its value
+     * @return a gauge that is moved up and down by its callers
+     */
+    public Gauge gauge(String name, String help, String... labels) {
+        return (Gauge) family(name, help, "gauge").series.computeIfAbsent(labels(labels), f -> new Gauge());
+    }
+
+    /**
+     * Register a gauge read from its owner on every scrape, a gauge registered again under the same labels replaces it
+     *
+     * @param name  name of the gauge
+     * @param help  description of the gauge
+     * @param value reads the current value
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        family(name, help, "gauge").series.put("", (Sampled) value::getAsLong);
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public String scrape() {
+        StringBuilder builder = new StringBuilder(4096);
+        new TreeMap<>(families).forEach((name, family) -> {
+            builder.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            builder.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            new TreeMap<>(family.series).forEach((labels, series) -> series.write(builder, name, labels));
+        });
+        return builder.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, f -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(String.format("%s is already registered as a %s", name, family.type));
+        }
+        return family;
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Every label must be followed by its value");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"");
+            String value = String.valueOf(labels[i + 1]);
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+        return builder.toString();
+    }
+
+    private static void writeSample(StringBuilder builder, String name, String labels, String extraLabel, Object value) {
+        builder.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            builder.append('{').append(labels);
+            if (extraLabel != null) {
+                builder.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            builder.append('}');
+        }
+        builder.append(' ').append(value).append('\n');
+    }
+
+    private static final class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface Series {
+        void write(StringBuilder builder, String name, String labels);
+    }
+
+    private interface Sampled extends Series {
+        long sample();
+
+        @Override
+        default void write(StringBuilder builder, String name, String labels) {
+            writeSample(builder, name, labels, null, sample());
+        }
+    }
+
+    public static final class Counter implements Series {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long value) {
+            count.add(value);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        @Override
+        public void write(StringBuilder builder, String name, String labels) {
+            writeSample(builder, name, labels, null, count.sum());
+        }
+    }
+
+    public static final class Gauge implements Series {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void decrement() {
+            value.decrement();
+        }
+
+        public long value() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder builder, String name, String labels) {
+            writeSample(builder, name, labels, null, value.sum());
+        }
+    }
+
+    /**
+     * Latencies counted into fixed buckets, the last one holding everything above 60 seconds
+     */
+    public static final class Histogram implements Series {
+        private static final long[] BOUNDS = new long[BUCKETS.length];
+
+        static {
+            for (int i = 0; i < BUCKETS.length; i++) {
+                BOUNDS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param nanos duration to record
+         */
+        public void record(long nanos) {
+            int i = 0;
+            while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * @param startNanoTime {@link System#nanoTime()} at the start of what is measured
+         */
+        public void recordSince(long startNanoTime) {
+            record(System.nanoTime() - startNanoTime);
+        }
+
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public void write(StringBuilder builder, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf";
+                writeSample(builder, name + "_bucket", labels, "le=\"" + le + "\"", cumulative);
+            }
+            writeSample(builder, name + "_sum", labels, null, sumNanos.sum() / 1e9);
+            writeSample(builder, name + "_count", labels, null, cumulative);
+        }
+    }
+
+    private static final class Id extends AbstractExtensionId<Metrics> implements ExtensionIdProvider {
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+
+        @Override
+        public Metrics createExtension(ExtendedActorSystem system) {
+            return new Metrics();
+        }
+    }
+}
@@ -0,0 +1,613 @@
+package io.kiamesdavies.revolut.commons;
+
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.SerializerWithStringManifest;
+import io.kiamesdavies.revolut.exceptions.AccountNotFoundException;
+import io.kiamesdavies.revolut.exceptions.InsufficientFundsException;
+import io.kiamesdavies.revolut.models.*;
+
+import java.io.NotSerializableException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compact binary format of the events, commands, queries and their acknowledgements, and of the messages and snapshots
+ * of the transfer coordinators and account partitions.
+ * <p>
+ * The manifest carries the type and the version of the format, e.g. {@code TE1} is version 1 of
+ * {@link Evt.TransactionEvent}. A new version gets a new manifest while the readers of the old ones are kept,
+ * so the events already in the journal can always be recovered.
+ * <p>
+ * Amounts are written as their currency code and a long of minor units (version 1 wrote a decimal without a currency,
+ * read back in {@code account.currency}), transactionIds as 128-bit UUIDs whenever they are one, and enums as a single byte of their ordinal, so the enum
+ * constants must never be reordered.
+ * The nanoTime of the events is not written, it means nothing outside the JVM that created it. Events read from a
+ * version without their wall clock time are stamped with the time they are read at.
+ * <p>
+ * The exception of a failed {@link TransactionResult} is written as its class name and message, only the exceptions
+ * the transfers fail with are read back as themselves, any other as an {@link IllegalStateException}.
+ */
+public final class ModelSerializer extends SerializerWithStringManifest {
+
+    private static final String DEPOSIT_CMD = "DC2";
+    private static final String WITHDRAW_CMD = "WC2";
+    private static final String TRANSFER_CMD = "TC2";
+    private static final String OPEN_ACCOUNT_CMD = "OC1";
+    private static final String CLOSE_ACCOUNT_CMD = "CC1";
+    private static final String DEPOSIT_EVENT = "DE3";
+    private static final String WITHDRAW_EVENT = "WE3";
+    private static final String FAILED_EVENT = "FE1";
+    private static final String TRANSACTION_EVENT = "TE2";
+    private static final String QUERY_SINGLE = "QS1";
+    private static final String QUERY_NOT_FOUND = "QN1";
+    private static final String CMD_ACK = "CA1";
+    private static final String QUERY_ACK = "QA2";
+    private static final String ACCOUNT_BALANCE = "AB2";
+    private static final String ACCOUNT_SNAPSHOT = "AS1";
+    private static final String TRANSACTION_SUCCESS = "RS1";
+    private static final String TRANSACTION_ACCEPTED = "RA1";
+    private static final String TRANSACTION_FAILURE = "RF1";
+    private static final String START_TRANSFER = "ST1";
+    private static final String WAKE_COORDINATOR = "CW1";
+    private static final String COORDINATOR_SNAPSHOT = "CS1";
+    private static final String PARTITION_TRANSFER = "PT1";
+    private static final String PARTITION_SNAPSHOT = "PS1";
+
+    /**
+     * Version 1 of the types carrying an amount, only read
+     */
+    private static final String DEPOSIT_CMD_V1 = "DC1";
+    private static final String WITHDRAW_CMD_V1 = "WC1";
+    private static final String TRANSFER_CMD_V1 = "TC1";
+    private static final String DEPOSIT_EVENT_V1 = "DE1";
+    private static final String WITHDRAW_EVENT_V1 = "WE1";
+    private static final String TRANSACTION_EVENT_V1 = "TE1";
+    private static final String ACCOUNT_BALANCE_V1 = "AB1";
+
+    /**
+     * Version 2 of the account events, written before they carried their wall clock time
+     */
+    private static final String DEPOSIT_EVENT_V2 = "DE2";
+    private static final String WITHDRAW_EVENT_V2 = "WE2";
+
+    /**
+     * Version 1 of the query answer, sent before it carried the sequence number of the account
+     */
+    private static final String QUERY_ACK_V1 = "QA1";
+
+    private static final String ROLLBACK_SUFFIX = "-rollback";
+
+    private static final byte NULL = 0;
+    private static final byte UUID_ID = 1;
+    private static final byte ROLLBACK_UUID_ID = 2;
+    private static final byte STRING_ID = 3;
+
+    private static final byte LONG_DECIMAL = 1;
+    private static final byte BIG_DECIMAL = 2;
+
+    /**
+     * The currency every account was held in when the version 1 amounts were written
+     */
+    private final Currency legacyCurrency;
+
+    public ModelSerializer() {
+        this(Money.DEFAULT_CURRENCY);
+    }
+
+    /**
+     * Called by akka serialization with the actor system it serializes for
+     */
+    public ModelSerializer(ExtendedActorSystem system) {
+        this(Currency.getInstance(system.settings().config().getString("account.currency")));
+    }
+
+    ModelSerializer(Currency legacyCurrency) {
+        this.legacyCurrency = legacyCurrency;
+    }
+
+    @Override
+    public int identifier() {
+        return 7301;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof Cmd.DepositCmd) return DEPOSIT_CMD;
+        if (o instanceof Cmd.WithdrawCmd) return WITHDRAW_CMD;
+        if (o instanceof Cmd.TransferCmd) return TRANSFER_CMD;
+        if (o instanceof Cmd.OpenAccountCmd) return OPEN_ACCOUNT_CMD;
+        if (o instanceof Cmd.CloseAccountCmd) return CLOSE_ACCOUNT_CMD;
+        if (o instanceof Evt.DepositEvent) return DEPOSIT_EVENT;
+        if (o instanceof Evt.WithdrawEvent) return WITHDRAW_EVENT;
+        if (o instanceof Evt.FailedEvent) return FAILED_EVENT;
+        if (o instanceof Evt.TransactionEvent) return TRANSACTION_EVENT;
+        if (o instanceof Query.Single) return QUERY_SINGLE;
+        if (o instanceof Query.QueryAckNotFound) return QUERY_NOT_FOUND;
+        if (o instanceof CmdAck) return CMD_ACK;
+        if (o instanceof QueryAck) return QUERY_ACK;
+        if (o instanceof AccountBalance) return ACCOUNT_BALANCE;
+        if (o instanceof AccountSnapshot) return ACCOUNT_SNAPSHOT;
+        if (o instanceof TransactionResult.Success) return TRANSACTION_SUCCESS;
+        if (o instanceof TransactionResult.Accepted) return TRANSACTION_ACCEPTED;
+        if (o instanceof TransactionResult.Failure) return TRANSACTION_FAILURE;
+        if (o instanceof StartTransfer) return START_TRANSFER;
+        if (o instanceof WakeCoordinator) return WAKE_COORDINATOR;
+        if (o instanceof CoordinatorSnapshot) return COORDINATOR_SNAPSHOT;
+        if (o instanceof PartitionTransfer) return PARTITION_TRANSFER;
+        if (o instanceof PartitionSnapshot) return PARTITION_SNAPSHOT;
+        throw new IllegalArgumentException(String.format("Can't serialize object of type %s", o.getClass()));
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        Writer writer = new Writer();
+        write(writer, o);
+        return writer.toArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        return read(ByteBuffer.wrap(bytes), manifest);
+    }
+
+    private void write(Writer w, Object o) {
+        if (o instanceof Cmd.BaseAccountCmd) {
+            Cmd.BaseAccountCmd c = (Cmd.BaseAccountCmd) o;
+            w.putLong(c.deliveryId);
+            w.putTransactionId(c.transactionId);
+            w.putString(c.bankAccountId);
+            w.putMoney(c.amount);
+        } else if (o instanceof Cmd.TransferCmd) {
+            Cmd.TransferCmd c = (Cmd.TransferCmd) o;
+            w.putString(c.accountFromId);
+            w.putString(c.accountToId);
+            w.putMoney(c.amount);
+            w.putEnum(c.transactionType);
+            w.putString(c.remarks);
+            w.putString(c.source);
+        } else if (o instanceof Cmd.OpenAccountCmd) {
+            w.putString(((Cmd.OpenAccountCmd) o).bankAccountId);
+        } else if (o instanceof Cmd.CloseAccountCmd) {
+            w.putString(((Cmd.CloseAccountCmd) o).bankAccountId);
+        } else if (o instanceof Evt.BaseAccountEvt) {
+            Evt.BaseAccountEvt e = (Evt.BaseAccountEvt) o;
+            w.putString(e.bankAccountId);
+            w.putTransactionId(e.transactionId);
+            w.putMoney(e.amount);
+            w.putLong(e.epochMillis);
+        } else if (o instanceof Evt.FailedEvent) {
+            Evt.FailedEvent e = (Evt.FailedEvent) o;
+            w.putString(e.bankAccountId);
+            w.putEnum(e.type);
+            w.putString(e.additionalDescription);
+        } else if (o instanceof Evt.TransactionEvent) {
+            Evt.TransactionEvent e = (Evt.TransactionEvent) o;
+            w.putTransactionId(e.transactionId);
+            w.putString(e.accountFromId);
+            w.putString(e.accountToId);
+            w.putMoney(e.amount);
+            w.putEnum(e.transactionType);
+            w.putString(e.remarks);
+            w.putString(e.source);
+            w.putEnum(e.status);
+        } else if (o instanceof Query.Single) {
+            Query.Single q = (Query.Single) o;
+            w.putLong(q.deliveryId);
+            w.putString(q.bankAccountId);
+        } else if (o instanceof Query.QueryAckNotFound) {
+            w.putString(((Query.QueryAckNotFound) o).bankAccountId);
+        } else if (o instanceof CmdAck) {
+            CmdAck a = (CmdAck) o;
+            w.putLong(a.deliveryId);
+            writeNested(w, a.event);
+        } else if (o instanceof QueryAck) {
+            QueryAck a = (QueryAck) o;
+            w.putLong(a.deliveryId);
+            w.putLong(a.sequenceNr);
+            writeNested(w, a.response);
+        } else if (o instanceof AccountBalance) {
+            AccountBalance b = (AccountBalance) o;
+            w.putString(b.getBankAccountId());
+            w.putString(b.getCurrency());
+            w.putLong(b.getMinorUnits());
+        } else if (o instanceof AccountSnapshot) {
+            AccountSnapshot a = (AccountSnapshot) o;
+            write(w, a.balance);
+            w.putVarInt(a.transactionIds.length);
+            for (long value : a.transactionIds) {
+                w.putLong(value);
+            }
+        } else if (o instanceof TransactionResult.Success) {
+            w.putTransactionId(((TransactionResult.Success) o).transactionId);
+        } else if (o instanceof TransactionResult.Accepted) {
+            w.putTransactionId(((TransactionResult.Accepted) o).transactionId);
+        } else if (o instanceof TransactionResult.Failure) {
+            Throwable exception = ((TransactionResult.Failure) o).exception;
+            w.putString(exception == null ? null : exception.getClass().getName());
+            w.putString(exception == null ? null : exception.getMessage());
+        } else if (o instanceof StartTransfer) {
+            StartTransfer s = (StartTransfer) o;
+            w.putTransactionId(s.transactionId);
+            write(w, s.transferCmd);
+            w.put((byte) (s.accept ? 1 : 0));
+        } else if (o instanceof WakeCoordinator) {
+            w.putVarInt(((WakeCoordinator) o).coordinator);
+        } else if (o instanceof CoordinatorSnapshot) {
+            CoordinatorSnapshot s = (CoordinatorSnapshot) o;
+            writeEvents(w, s.ongoing);
+            writeEvents(w, s.finished);
+        } else if (o instanceof PartitionTransfer) {
+            PartitionTransfer t = (PartitionTransfer) o;
+            w.putTransactionId(t.transactionId);
+            write(w, t.transferCmd);
+        } else if (o instanceof PartitionSnapshot) {
+            PartitionSnapshot s = (PartitionSnapshot) o;
+            w.putLength(s.bankAccountIds == null ? -1 : s.bankAccountIds.length);
+            if (s.bankAccountIds != null) {
+                for (String bankAccountId : s.bankAccountIds) {
+                    w.putString(bankAccountId);
+                }
+            }
+            w.putLongs(s.balances);
+            w.putLongs(s.transactionIds);
+            w.putLong(s.balanceFileSequenceNr);
+        } else {
+            throw new IllegalArgumentException(String.format("Can't serialize object of type %s", o.getClass()));
+        }
+    }
+
+    /**
+     * The bodies of the transaction events, a null list is written as a length of -1
+     */
+    private void writeEvents(Writer w, List<Evt.TransactionEvent> events) {
+        w.putLength(events == null ? -1 : events.size());
+        if (events != null) {
+            for (Evt.TransactionEvent event : events) {
+                write(w, event);
+            }
+        }
+    }
+
+    private void writeNested(Writer w, Object o) {
+        w.putString(manifest(o));
+        write(w, o);
+    }
+
+    private Object read(ByteBuffer r, String manifest) throws NotSerializableException {
+        switch (manifest) {
+            case DEPOSIT_CMD:
+                return new Cmd.DepositCmd(r.getLong(), getTransactionId(r), getString(r), getMoney(r));
+            case DEPOSIT_CMD_V1:
+                return new Cmd.DepositCmd(r.getLong(), getTransactionId(r), getString(r), getDecimalMoney(r));
+            case WITHDRAW_CMD:
+                return new Cmd.WithdrawCmd(r.getLong(), getTransactionId(r), getString(r), getMoney(r));
+            case WITHDRAW_CMD_V1:
+                return new Cmd.WithdrawCmd(r.getLong(), getTransactionId(r), getString(r), getDecimalMoney(r));
+            case TRANSFER_CMD:
+                return new Cmd.TransferCmd(getString(r), getString(r), getMoney(r),
+                        getEnum(r, TransactionType.values()), getString(r), getString(r));
+            case TRANSFER_CMD_V1:
+                return new Cmd.TransferCmd(getString(r), getString(r), getDecimalMoney(r),
+                        getEnum(r, TransactionType.values()), getString(r), getString(r));
+            case OPEN_ACCOUNT_CMD:
+                return new Cmd.OpenAccountCmd(getString(r));
+            case CLOSE_ACCOUNT_CMD:
+                return new Cmd.CloseAccountCmd(getString(r));
+            case DEPOSIT_EVENT:
+                return new Evt.DepositEvent(getString(r), getTransactionId(r), getMoney(r), r.getLong());
+            case DEPOSIT_EVENT_V2:
+                return new Evt.DepositEvent(getString(r), getTransactionId(r), getMoney(r));
+            case DEPOSIT_EVENT_V1:
+                return new Evt.DepositEvent(getString(r), getTransactionId(r), getDecimalMoney(r));
+            case WITHDRAW_EVENT:
+                return new Evt.WithdrawEvent(getString(r), getTransactionId(r), getMoney(r), r.getLong());
+            case WITHDRAW_EVENT_V2:
+                return new Evt.WithdrawEvent(getString(r), getTransactionId(r), getMoney(r));
+            case WITHDRAW_EVENT_V1:
+                return new Evt.WithdrawEvent(getString(r), getTransactionId(r), getDecimalMoney(r));
+            case FAILED_EVENT:
+                return new Evt.FailedEvent(getString(r), getEnum(r, Evt.FailedEvent.Type.values()), getString(r));
+            case TRANSACTION_EVENT:
+                return new Evt.TransactionEvent(getTransactionId(r), getString(r), getString(r), getMoney(r),
+                        getEnum(r, TransactionType.values()), getString(r), getString(r), getEnum(r, TransactionStatus.values()));
+            case TRANSACTION_EVENT_V1:
+                return new Evt.TransactionEvent(getTransactionId(r), getString(r), getString(r), getDecimalMoney(r),
+                        getEnum(r, TransactionType.values()), getString(r), getString(r), getEnum(r, TransactionStatus.values()));
+            case QUERY_SINGLE:
+                return new Query.Single(r.getLong(), getString(r));
+            case QUERY_NOT_FOUND:
+                return new Query.QueryAckNotFound(getString(r));
+            case CMD_ACK:
+                return new CmdAck(r.getLong(), (Evt) read(r, getString(r)));
+            case QUERY_ACK:
+                long deliveryId = r.getLong();
+                long sequenceNr = r.getLong();
+                return new QueryAck(deliveryId, read(r, getString(r)), sequenceNr);
+            case QUERY_ACK_V1:
+                return new QueryAck(r.getLong(), read(r, getString(r)));
+            case ACCOUNT_BALANCE:
+                return new AccountBalance(getString(r), getMoney(r));
+            case ACCOUNT_BALANCE_V1:
+                return new AccountBalance(getString(r), getDecimalMoney(r));
+            case ACCOUNT_SNAPSHOT:
+                AccountBalance balance = new AccountBalance(getString(r), getMoney(r));
+                long[] transactionIds = new long[getVarInt(r)];
+                for (int i = 0; i < transactionIds.length; i++) {
+                    transactionIds[i] = r.getLong();
+                }
+                return new AccountSnapshot(balance, transactionIds);
+            case TRANSACTION_SUCCESS:
+                return new TransactionResult.Success(getTransactionId(r));
+            case TRANSACTION_ACCEPTED:
+                return new TransactionResult.Accepted(getTransactionId(r));
+            case TRANSACTION_FAILURE:
+                return new TransactionResult.Failure(getException(getString(r), getString(r)));
+            case START_TRANSFER:
+                return new StartTransfer(getTransactionId(r), (Cmd.TransferCmd) read(r, TRANSFER_CMD), r.get() == 1);
+            case WAKE_COORDINATOR:
+                return new WakeCoordinator(getVarInt(r));
+            case COORDINATOR_SNAPSHOT:
+                return new CoordinatorSnapshot(readEvents(r), readEvents(r));
+            case PARTITION_TRANSFER:
+                return new PartitionTransfer(getTransactionId(r), (Cmd.TransferCmd) read(r, TRANSFER_CMD));
+            case PARTITION_SNAPSHOT:
+                int length = getLength(r);
+                String[] bankAccountIds = length < 0 ? null : new String[length];
+                for (int i = 0; i < length; i++) {
+                    bankAccountIds[i] = getString(r);
+                }
+                return new PartitionSnapshot(bankAccountIds, getLongs(r), getLongs(r), r.getLong());
+            default:
+                throw new NotSerializableException(String.format("Unknown manifest %s", manifest));
+        }
+    }
+
+    private List<Evt.TransactionEvent> readEvents(ByteBuffer r) throws NotSerializableException {
+        int length = getLength(r);
+        if (length < 0) {
+            return null;
+        }
+        List<Evt.TransactionEvent> events = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            events.add((Evt.TransactionEvent) read(r, TRANSACTION_EVENT));
+        }
+        return events;
+    }
+
+    /**
+     * @return the exception the transfers fail with by its class name, any other as an IllegalStateException
+     */
+    private static Throwable getException(String type, String message) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "java.lang.IllegalArgumentException":
+                return new IllegalArgumentException(message);
+            case "java.lang.IllegalStateException":
+                return new IllegalStateException(message);
+            case "io.kiamesdavies.revolut.exceptions.InsufficientFundsException":
+                return new InsufficientFundsException(message);
+            case "io.kiamesdavies.revolut.exceptions.AccountNotFoundException":
+                return new AccountNotFoundException(message);
+            default:
+                return new IllegalStateException(String.format("%s: %s", type, message));
+        }
+    }
+
+    /**
+     * @return the length of an array or list, -1 for null
+     */
+    private static int getLength(ByteBuffer r) {
+        return getVarInt(r) - 1;
+    }
+
+    private static long[] getLongs(ByteBuffer r) {
+        int length = getLength(r);
+        if (length < 0) {
+            return null;
+        }
+        long[] values = new long[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = r.getLong();
+        }
+        return values;
+    }
+
+    private static String getString(ByteBuffer r) {
+        int length = getVarInt(r) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(r.array(), r.arrayOffset() + r.position(), length, StandardCharsets.UTF_8);
+        r.position(r.position() + length);
+        return value;
+    }
+
+    private static String getTransactionId(ByteBuffer r) {
+        byte type = r.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case UUID_ID:
+                return new UUID(r.getLong(), r.getLong()).toString();
+            case ROLLBACK_UUID_ID:
+                return new UUID(r.getLong(), r.getLong()).toString() + ROLLBACK_SUFFIX;
+            default:
+                return getString(r);
+        }
+    }
+
+    private static BigDecimal getDecimal(ByteBuffer r) {
+        byte type = r.get();
+        if (type == NULL) {
+            return null;
+        }
+        int scale = getVarInt(r);
+        if (type == LONG_DECIMAL) {
+            return BigDecimal.valueOf(r.getLong(), scale);
+        }
+        byte[] unscaled = new byte[getVarInt(r)];
+        r.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    private static Money getMoney(ByteBuffer r) {
+        String currency = getString(r);
+        if (currency == null) {
+            return null;
+        }
+        return Money.ofMinor(r.getLong(), Currency.getInstance(currency));
+    }
+
+    /**
+     * Version 1 amounts were decimals without a currency, every account was held in the configured currency then
+     */
+    private Money getDecimalMoney(ByteBuffer r) {
+        BigDecimal amount = getDecimal(r);
+        return amount == null ? null : Money.of(amount, legacyCurrency);
+    }
+
+    private static <E extends Enum<E>> E getEnum(ByteBuffer r, E[] values) {
+        byte ordinal = r.get();
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    private static int getVarInt(ByteBuffer r) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = r.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Growable buffer that writes in the format read by the methods above
+     */
+    private static final class Writer {
+        private byte[] buffer = new byte[128];
+        private int position;
+
+        private void ensure(int length) {
+            if (position + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+            }
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            buffer[position++] = b;
+        }
+
+        private void putLong(long value) {
+            ensure(8);
+            for (int i = 7; i >= 0; i--) {
+                buffer[position++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        private void putVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((byte) value);
+        }
+
+        private void putBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        /**
+         * Length of an array or list, written plus one so that zero marks null
+         */
+        private void putLength(int length) {
+            putVarInt(length + 1);
+        }
+
+        private void putLongs(long[] values) {
+            putLength(values == null ? -1 : values.length);
+            if (values != null) {
+                for (long value : values) {
+                    putLong(value);
+                }
+            }
+        }
+
+        /**
+         * Length is written plus one, so that zero marks a null string
+         */
+        private void putString(String value) {
+            if (value == null) {
+                putVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(bytes.length + 1);
+            putBytes(bytes);
+        }
+
+        private void putTransactionId(String transactionId) {
+            if (transactionId == null) {
+                put(NULL);
+                return;
+            }
+            boolean rollback = transactionId.endsWith(ROLLBACK_SUFFIX);
+            UUID uuid = toUuid(rollback ? transactionId.substring(0, transactionId.length() - ROLLBACK_SUFFIX.length()) : transactionId);
+            if (uuid == null) {
+                put(STRING_ID);
+                putString(transactionId);
+            } else {
+                put(rollback ? ROLLBACK_UUID_ID : UUID_ID);
+                putLong(uuid.getMostSignificantBits());
+                putLong(uuid.getLeastSignificantBits());
+            }
+        }
+
+        private void putMoney(Money value) {
+            if (value == null) {
+                putString(null);
+                return;
+            }
+            putString(value.getCurrency().getCurrencyCode());
+            putLong(value.getMinorUnits());
+        }
+
+        private void putEnum(Enum<?> value) {
+            put(value == null ? -1 : (byte) value.ordinal());
+        }
+
+        private byte[] toArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    /**
+     * @return the uuid if the id is the canonical form of one, otherwise null
+     */
+    private static UUID toUuid(String id) {
+        if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-' || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            //only the lower case form survives the round trip
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,13 +1,52 @@
 package io.kiamesdavies.revolut.commons;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.AdmissionStatus;
+import io.kiamesdavies.revolut.models.BatchTransfer;
+import io.kiamesdavies.revolut.models.BatchTransferResult;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.models.TransferStatus;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class
  */
 public class Utility {
 
+    /**
+     * Shared by every thread, an ObjectMapper is thread-safe once configured and keeps its serializer caches warm
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Writers are immutable, so one per type is built once and reused for every response
+     */
+    private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+    private static final ByteString NEW_LINE = ByteString.fromString("\n");
+
+    static {
+        WRITERS.put(AccountBalance.class, MAPPER.writerFor(AccountBalance.class));
+        WRITERS.put(TransactionResult.Success.class, MAPPER.writerFor(TransactionResult.Success.class));
+        WRITERS.put(TransactionResult.Accepted.class, MAPPER.writerFor(TransactionResult.Accepted.class));
+        WRITERS.put(TransferStatus.class, MAPPER.writerFor(TransferStatus.class));
+        WRITERS.put(BatchTransferResult.class, MAPPER.writerFor(BatchTransferResult.class));
+        WRITERS.put(AdmissionStatus.class, MAPPER.writerFor(AdmissionStatus.class));
+        READERS.put(BatchTransfer.class, MAPPER.readerFor(BatchTransfer.class));
+    }
+
     /**
      * Disable creation of utility class
      */
@@ -17,11 +56,57 @@ public class Utility {
 
     public static byte[] toBytes(Object obj) {
         try {
-            return new ObjectMapper().writeValueAsBytes(obj);
-        } catch (JsonProcessingException e) {
+            return writerFor(obj).writeValueAsBytes(obj);
+        } catch (IOException e) {
             return new byte[0];
         }
     }
 
+    /**
+     * Write the object as json straight into the buffer of the entity, without an intermediate byte array
+     *
+     * @param obj object to write
+     * @return json http entity
+     */
+    public static HttpEntity.Strict toEntity(Object obj) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        try {
+            writerFor(obj).writeValue(builder.asOutputStream(), obj);
+            return HttpEntities.create(ContentTypes.APPLICATION_JSON, builder.result());
+        } catch (IOException e) {
+            return HttpEntities.create(ContentTypes.APPLICATION_JSON, ByteString.empty());
+        }
+    }
+
+    /**
+     * Write the object as a single line of newline delimited json
+     *
+     * @param obj object to write
+     * @return the json followed by a new line
+     */
+    public static ByteString toJsonLine(Object obj) {
+        ByteStringBuilder builder = ByteString.createBuilder();
+        try {
+            writerFor(obj).writeValue(builder.asOutputStream(), obj);
+        } catch (IOException e) {
+            return NEW_LINE;
+        }
+        return builder.append(NEW_LINE).result();
+    }
+
+    /**
+     * @param json the json of a single object
+     * @param type the type to read
+     * @return the object read
+     * @throws IOException if the json is not a valid object of the type
+     */
+    public static <T> T fromJson(ByteString json, Class<T> type) throws IOException {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor).readValue(json.toArray());
+    }
+
+    private static ObjectWriter writerFor(Object obj) {
+        return WRITERS.computeIfAbsent(obj.getClass(), MAPPER::writerFor);
+    }
+
 
 }
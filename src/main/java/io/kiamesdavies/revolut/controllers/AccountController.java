@@ -1,63 +1,157 @@
 package io.kiamesdavies.revolut.controllers;
 
+import akka.NotUsed;
 import akka.actor.ActorSystem;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.http.javadsl.marshallers.jackson.Jackson;
-import akka.http.javadsl.model.ContentTypes;
-import akka.http.javadsl.model.HttpResponse;
-import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.*;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.model.sse.ServerSentEvent;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.Route;
+import akka.stream.javadsl.Source;
+import io.kiamesdavies.revolut.commons.Metrics;
 import io.kiamesdavies.revolut.commons.Utility;
 import io.kiamesdavies.revolut.exceptions.AccountNotFoundException;
+import io.kiamesdavies.revolut.exceptions.OverloadedException;
 import io.kiamesdavies.revolut.models.MoneyTransfer;
 import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+import io.kiamesdavies.revolut.models.TransferStatus;
+import io.kiamesdavies.revolut.readside.ReadSideStore;
 import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.AdmissionControl;
+import io.kiamesdavies.revolut.services.impl.BatchTransfers;
+import io.kiamesdavies.revolut.services.impl.TransactionStatuses;
 
+import java.time.Duration;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 import static akka.http.javadsl.server.PathMatchers.integerSegment;
 import static akka.http.javadsl.server.PathMatchers.segment;
 
 public class AccountController extends AllDirectives {
 
+    private static final ContentType NDJSON = ContentTypes.create(MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8));
+
     private final Account account;
+    private final BatchTransfers batchTransfers;
+    /**
+     * The admission in front of the account, or null when transfers are not admitted
+     */
+    private final AdmissionControl admission;
+    private final TransactionStatuses statuses;
+    /**
+     * The read side asked for the transfers the node does not know, or null when there is none
+     */
+    private final ReadSideStore readSide;
+    private final Metrics metrics;
+    private final RouteMetrics balanceMetrics;
+    private final RouteMetrics transferMetrics;
+    private final RouteMetrics batchMetrics;
     private final LoggingAdapter log;
 
     public AccountController(ActorSystem actorSystem, Account account) {
+        this(actorSystem, account, null);
+    }
+
+    public AccountController(ActorSystem actorSystem, Account account, ReadSideStore readSide) {
         this.account = account;
+        this.readSide = readSide;
+        statuses = TransactionStatuses.get(actorSystem);
+        batchTransfers = new BatchTransfers(account, actorSystem.settings().config());
+        admission = account instanceof AdmissionControl ? (AdmissionControl) account : null;
+        metrics = Metrics.get(actorSystem);
+        balanceMetrics = new RouteMetrics(metrics, "balance");
+        transferMetrics = new RouteMetrics(metrics, "transfer");
+        batchMetrics = new RouteMetrics(metrics, "batch-transfer");
         log = Logging.getLogger(actorSystem, this);
     }
 
     public Route createRoute() {
         return pathPrefix(segment("account").slash(segment()), accountFromId ->
                 pathEndOrSingleSlash(() ->
-                        get(() -> completeWithFuture(this.getBalance(accountFromId))))
+                        get(() -> timed(balanceMetrics, () -> parameterOptional("consistent", consistent ->
+                                completeWithFuture(this.getBalance(accountFromId, consistent.map(Boolean::parseBoolean).orElse(false)))))))
                         .orElse(pathPrefix(segment("transfer").slash(segment()), accountToId ->
 
-                                        pathEndOrSingleSlash(() -> post(() ->
-                                                entity(Jackson.unmarshaller(MoneyTransfer.class),
-                                                        mock -> completeWithFuture(this.transfer(accountFromId, accountToId, mock)))
-                                        ))
+                                        pathEndOrSingleSlash(() -> post(() -> timed(transferMetrics, () ->
+                                                optionalHeaderValueByName("Idempotency-Key", idempotencyKey -> parameterOptional("async", async ->
+                                                        entity(Jackson.unmarshaller(MoneyTransfer.class),
+                                                                mock -> completeWithFuture(this.transfer(accountFromId, accountToId, mock, idempotencyKey.orElse(null),
+                                                                        async.map(Boolean::parseBoolean).orElse(false))))))
+                                        )))
                                 )
                         )
-        ).orElse(get(() -> complete("welcome")));
+        ).orElse(pathPrefix(segment("transaction").slash(segment()), transactionId ->
+                pathEndOrSingleSlash(() -> get(() -> completeWithFuture(this.getStatus(transactionId))))
+                        .orElse(path("events", () -> get(() -> onSuccess(this.findStatus(transactionId), status -> status
+                                .map(g -> completeOK(this.followStatus(transactionId, g), EventStreamMarshalling.toEventStream()))
+                                .orElseGet(() -> complete(StatusCodes.NOT_FOUND, String.format("Transaction %s not found", transactionId)))))))
+        )).orElse(path("transfers", () -> post(() -> timed(batchMetrics, () ->
+                parameterOptional("group-by-source", groupBySource ->
+                        withoutSizeLimit(() -> extractRequestEntity(entity ->
+                                complete(this.batchTransfer(entity, groupBySource.map(Boolean::parseBoolean).orElse(false))))))))))
+                .orElse(path("admission", () -> get(() -> admission == null
+                        ? complete(StatusCodes.NOT_FOUND)
+                        : complete(HttpResponse.create().withStatus(StatusCodes.OK).withEntity(Utility.toEntity(admission.getStatus()))))))
+                .orElse(path("metrics", () -> get(() ->
+                        complete(HttpResponse.create().withStatus(StatusCodes.OK)
+                                .withEntity(HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, metrics.scrape()))))))
+                .orElse(get(() -> complete("welcome")));
     }
 
-    private CompletionStage<HttpResponse> transfer(String accountFromId, String accountToId, MoneyTransfer transfer) {
+    /**
+     * Record the time from the request to the response of the inner route, for a streamed response that is the time
+     * to its first byte
+     */
+    private Route timed(RouteMetrics routeMetrics, Supplier<Route> inner) {
+        return extractRequestContext(ctx -> {
+            long startNanoTime = System.nanoTime();
+            return mapResponse(response -> {
+                routeMetrics.latency.recordSince(startNanoTime);
+                routeMetrics.responses[Math.min(response.status().intValue() / 100, 5)].increment();
+                return response;
+            }, inner);
+        });
+    }
 
-        return account.transferMoney(accountFromId, accountToId, transfer).thenApply(g -> {
+    /**
+     * @param idempotencyKey the Idempotency-Key header, a retry with the same key is answered with the result of the
+     *                       first transfer instead of transferring again
+     * @param async          answer with 202 as soon as the transfer is journaled, its status is then polled or streamed
+     *                       from /transaction/{transactionId}
+     */
+    private CompletionStage<HttpResponse> transfer(String accountFromId, String accountToId, MoneyTransfer transfer, String idempotencyKey, boolean async) {
+
+        CompletionStage<TransactionResult> result = async
+                ? account.acceptTransfer(accountFromId, accountToId, transfer, idempotencyKey)
+                : account.transferMoney(accountFromId, accountToId, transfer, idempotencyKey);
+        return result.thenApply(g -> {
             HttpResponse response = HttpResponse.create();
             if (g instanceof TransactionResult.Success) {
-                TransactionResult.Success result = (TransactionResult.Success) g;
-                return response.withStatus(StatusCodes.OK).withEntity(ContentTypes.APPLICATION_JSON, Utility.toBytes(result));
+                TransactionResult.Success success = (TransactionResult.Success) g;
+                return response.withStatus(StatusCodes.OK).withEntity(Utility.toEntity(success));
+            } else if (g instanceof TransactionResult.Accepted) {
+                //also the answer to a retry of an accepted transfer still running
+                TransactionResult.Accepted accepted = (TransactionResult.Accepted) g;
+                return response.withStatus(StatusCodes.ACCEPTED).withEntity(Utility.toEntity(accepted));
             } else {
                 Throwable f = ((TransactionResult.Failure) g).exception;
                 response = response.withEntity(Objects.toString(f.getMessage(), "")).withStatus(StatusCodes.BAD_REQUEST);
                 if (f instanceof AccountNotFoundException) {
                     response = response.withStatus(StatusCodes.NOT_FOUND);
+                } else if (f instanceof OverloadedException) {
+                    OverloadedException overloaded = (OverloadedException) f;
+                    response = response
+                            .withStatus(overloaded.accountLimited ? StatusCodes.TOO_MANY_REQUESTS : StatusCodes.SERVICE_UNAVAILABLE)
+                            .addHeader(RetryAfter.create(Math.max(1, (overloaded.retryAfter.toMillis() + 999) / 1000)));
                 }
             }
             return response;
@@ -65,9 +159,49 @@ public class AccountController extends AllDirectives {
 
     }
 
-    private CompletionStage<HttpResponse> getBalance(String accountFromId) {
-        return account.getBalance(accountFromId)
-                .thenApply(h -> HttpResponse.create().withStatus(StatusCodes.OK).withEntity(ContentTypes.APPLICATION_JSON, Utility.toBytes(h)))
+    /**
+     * Streams a line of newline delimited json for every transfer of the batch as soon as it completes
+     */
+    private HttpResponse batchTransfer(RequestEntity entity, boolean groupBySource) {
+        return HttpResponse.create()
+                .withStatus(StatusCodes.OK)
+                .withEntity(HttpEntities.createChunked(NDJSON,
+                        entity.getDataBytes().via(batchTransfers.flow(groupBySource)).map(Utility::toJsonLine)));
+    }
+
+    /**
+     * The status of the transfer known to this node, or to the read side once the node no longer keeps it
+     */
+    private CompletionStage<Optional<TransactionStatus>> findStatus(String transactionId) {
+        Optional<TransactionStatus> status = statuses.lookup(transactionId);
+        return status.isPresent() || readSide == null
+                ? CompletableFuture.completedFuture(status)
+                : readSide.transactionStatus(transactionId);
+    }
+
+    private CompletionStage<HttpResponse> getStatus(String transactionId) {
+        return findStatus(transactionId).thenApply(g -> g
+                .map(h -> HttpResponse.create().withStatus(StatusCodes.OK)
+                        .withEntity(Utility.toEntity(new TransferStatus(transactionId, h))))
+                .orElseGet(() -> HttpResponse.create().withStatus(StatusCodes.NOT_FOUND)
+                        .withEntity(String.format("Transaction %s not found", transactionId))));
+    }
+
+    /**
+     * Server sent events of the statuses of the transfer until it finishes, with heartbeats to keep the connection
+     * open while it waits
+     *
+     * @param found the status the transfer was found with, the only event of a transfer that already finished
+     */
+    private Source<ServerSentEvent, NotUsed> followStatus(String transactionId, TransactionStatus found) {
+        return statuses.follow(transactionId, found)
+                .map(g -> ServerSentEvent.create(g.name(), "status"))
+                .keepAlive(Duration.ofSeconds(15), ServerSentEvent::heartbeat);
+    }
+
+    private CompletionStage<HttpResponse> getBalance(String accountFromId, boolean consistent) {
+        return account.getBalance(accountFromId, consistent)
+                .thenApply(h -> HttpResponse.create().withStatus(StatusCodes.OK).withEntity(Utility.toEntity(h)))
                 .exceptionally(g -> HttpResponse.create()
                         .withStatus(StatusCodes.NOT_FOUND)
                         .withEntity(Objects.toString((g.getCause() != null ? g.getCause() : g).getMessage(), "")));
@@ -78,4 +212,19 @@ public class AccountController extends AllDirectives {
     public String toString() {
         return "AccountController";
     }
+
+    private static final class RouteMetrics {
+        private final Metrics.Histogram latency;
+        /**
+         * Responses by the first digit of their status
+         */
+        private final Metrics.Counter[] responses = new Metrics.Counter[6];
+
+        private RouteMetrics(Metrics metrics, String route) {
+            latency = metrics.histogram("http_request_seconds", "Time from a request to its response", "route", route);
+            for (int i = 1; i < responses.length; i++) {
+                responses[i] = metrics.counter("http_responses_total", "Responses by status class", "route", route, "status", i + "xx");
+            }
+        }
+    }
 }
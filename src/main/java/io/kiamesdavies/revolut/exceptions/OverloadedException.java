@@ -0,0 +1,25 @@
+package io.kiamesdavies.revolut.exceptions;
+
+import java.time.Duration;
+
+/**
+ * Signals that a transfer was shed because too many transfers are in flight, either in total or on one of its accounts
+ */
+public class OverloadedException extends Exception {
+
+    /**
+     * How long the client should wait before trying again
+     */
+    public final Duration retryAfter;
+
+    /**
+     * True when the limit of one of the accounts was reached rather than the limit of the server
+     */
+    public final boolean accountLimited;
+
+    public OverloadedException(String message, Duration retryAfter, boolean accountLimited) {
+        super(message);
+        this.retryAfter = retryAfter;
+        this.accountLimited = accountLimited;
+    }
+}
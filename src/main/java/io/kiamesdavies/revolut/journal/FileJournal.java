@@ -0,0 +1,473 @@
+package io.kiamesdavies.revolut.journal;
+
+import akka.dispatch.Futures;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.AtomicWrite;
+import akka.persistence.PersistentRepr;
+import akka.persistence.journal.Tagged;
+import akka.persistence.journal.japi.AsyncWriteJournal;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.typesafe.config.Config;
+import scala.collection.JavaConverters;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.ExecutionContextExecutorService;
+import scala.concurrent.Future;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal plugin keeping the events in append-only segment files of a local directory.
+ * <p>
+ * The writes of every persistent actor are queued to a single writer thread, which appends all that is waiting in one
+ * go and syncs it to disk once for the whole group, as {@code fsync} asks. An index of the segment and position of
+ * every event of a persistence id is kept in memory and rebuilt at startup by scanning the memory mapped segments,
+ * replays read the events straight from the mapped segments.
+ * <p>
+ * A record is the length and CRC32 of its body, then its type, sequence number, persistence id and serialized
+ * {@link PersistentRepr}. The events of an atomic write never straddle two segments and the last of them is marked,
+ * so a write torn by a crash is cut off the tail of the journal as a whole at startup, and a write that failed is cut
+ * off the segments it was appended to before it is answered.
+ * <p>
+ * The journal keeps no tags, it refuses the event adapters that would tag the events and so cannot feed the read side.
+ */
+public class FileJournal extends AsyncWriteJournal {
+
+    private static final byte EVENT = 1;
+    private static final byte LAST_EVENT = 2;
+    private static final byte DELETE = 3;
+    private static final int HEADER = 8;
+
+    private final LoggingAdapter log = Logging.getLogger(context().system(), this);
+    private final Serialization serialization = SerializationExtension.get(context().system());
+
+    private final Path dir;
+    private final long segmentSize;
+    private final Fsync fsync;
+    private final long fsyncIntervalMillis;
+    private final int maxBatchSize;
+
+    private final Map<String, PersistenceIdIndex> indexes = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final ExecutionContextExecutorService readers;
+    private final Thread writer;
+
+    /**
+     * Only used on the writer thread after the constructor
+     */
+    private Segment current;
+    private long lastFsyncMillis = System.currentTimeMillis();
+    private boolean dirty;
+
+    private volatile boolean running = true;
+
+    public FileJournal(Config config) throws IOException {
+        dir = Paths.get(config.getString("dir"));
+        segmentSize = config.getBytes("segment-size");
+        fsync = Fsync.valueOf(config.getString("fsync").toUpperCase(Locale.ROOT));
+        fsyncIntervalMillis = config.getDuration("fsync-interval", TimeUnit.MILLISECONDS);
+        maxBatchSize = config.getInt("max-batch-size");
+        if (config.hasPath("event-adapter-bindings") && !config.getConfig("event-adapter-bindings").isEmpty()) {
+            throw new IllegalArgumentException("The file journal keeps no tags, it can't be bound to event adapters");
+        }
+
+        Files.createDirectories(dir);
+        recover();
+
+        readers = ExecutionContext.fromExecutorService(Executors.newFixedThreadPool(config.getInt("replay-threads"), f -> {
+            Thread thread = new Thread(f, "file-journal-replay");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        writer = new Thread(this::writeLoop, "file-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public Future<Iterable<Optional<Exception>>> doAsyncWriteMessages(Iterable<AtomicWrite> messages) {
+        List<Optional<Exception>> results = new ArrayList<>();
+        List<List<Record>> groups = new ArrayList<>();
+        for (AtomicWrite message : messages) {
+            try {
+                List<PersistentRepr> events = JavaConverters.seqAsJavaList(message.payload());
+                List<Record> group = new ArrayList<>(events.size());
+                for (int i = 0; i < events.size(); i++) {
+                    PersistentRepr event = events.get(i);
+                    group.add(new Record(i == events.size() - 1 ? LAST_EVENT : EVENT, event.persistenceId(), event.sequenceNr(), serialize(event)));
+                }
+                groups.add(group);
+                results.add(Optional.empty());
+            } catch (Exception e) {
+                results.add(Optional.of(e));
+            }
+        }
+        Iterable<Optional<Exception>> written = results;
+        return FutureConverters.toScala(submit(groups).thenApply(done -> written));
+    }
+
+    @Override
+    public Future<Void> doAsyncDeleteMessagesTo(String persistenceId, long toSequenceNr) {
+        if (!indexes.containsKey(persistenceId)) {
+            return Futures.successful(null);
+        }
+        Record delete = new Record(DELETE, persistenceId, toSequenceNr, new byte[0]);
+        return FutureConverters.toScala(submit(Collections.singletonList(Collections.singletonList(delete))));
+    }
+
+    @Override
+    public Future<Void> doAsyncReplayMessages(String persistenceId, long fromSequenceNr, long toSequenceNr, long max, Consumer<PersistentRepr> replayCallback) {
+        PersistenceIdIndex index = indexes.get(persistenceId);
+        if (index == null || max <= 0) {
+            return Futures.successful(null);
+        }
+        return Futures.future(() -> {
+            PersistenceIdIndex.Locations locations = index.range(fromSequenceNr, toSequenceNr, max);
+            ByteBuffer mapped = null;
+            int mappedSegment = -1;
+            for (int i = 0; i < locations.positions.length; i++) {
+                if (locations.segments[i] != mappedSegment) {
+                    mappedSegment = locations.segments[i];
+                    mapped = segments.get(mappedSegment).read();
+                }
+                replayCallback.accept(deserialize(mapped, (int) locations.positions[i]));
+            }
+            return null;
+        }, readers);
+    }
+
+    @Override
+    public Future<Long> doAsyncReadHighestSequenceNr(String persistenceId, long fromSequenceNr) {
+        PersistenceIdIndex index = indexes.get(persistenceId);
+        return Futures.successful(index == null ? 0L : index.highestSequenceNr());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        running = false;
+        //wakes the writer up, interrupting it would close the segment it writes to
+        queue.add(new Write(Collections.emptyList()));
+        writer.join();
+        readers.shutdown();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        super.postStop();
+    }
+
+    private CompletableFuture<Void> submit(List<List<Record>> groups) {
+        if (groups.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Write write = new Write(groups);
+        queue.add(write);
+        return write.done;
+    }
+
+    private byte[] serialize(PersistentRepr event) {
+        if (event.payload() instanceof Tagged) {
+            //the tags are only indexed by the jdbc journal, an event is never written without the tags it was sent with
+            throw new IllegalArgumentException(String.format("The file journal keeps no tags, rejected %s", event.payload()));
+        }
+        return serialization.serialize(event).get();
+    }
+
+    private PersistentRepr deserialize(ByteBuffer mapped, int position) {
+        int length = mapped.getInt(position);
+        int pidLength = mapped.getShort(position + HEADER + 9) & 0xFFFF;
+        int payloadOffset = position + HEADER + 11 + pidLength;
+        byte[] payload = new byte[position + HEADER + length - payloadOffset];
+        ByteBuffer view = mapped.duplicate();
+        view.position(payloadOffset);
+        view.get(payload);
+        return serialization.deserialize(payload, PersistentRepr.class).get();
+    }
+
+    /**
+     * Append the writes waiting in the queue as one group, until the journal stops
+     */
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(fsync == Fsync.INTERVAL ? fsyncIntervalMillis : 1000, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    write(batch);
+                }
+                if (fsync == Fsync.INTERVAL && dirty && System.currentTimeMillis() - lastFsyncMillis >= fsyncIntervalMillis) {
+                    force();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                log.error(e, "Failed to write {} batched writes to {}", batch.size(), current.path);
+                batch.forEach(w -> w.done.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+        try {
+            force();
+        } catch (IOException e) {
+            log.error(e, "Failed to sync {} on stop", current.path);
+        }
+    }
+
+    private void write(List<Write> batch) throws IOException {
+        Segment first = current;
+        long firstSize = first.size();
+        try {
+            appendGroups(batch);
+        } catch (IOException e) {
+            //none of the batch is acknowledged, so none of it may be recovered either
+            try {
+                discard(first, firstSize);
+            } catch (IOException d) {
+                e.addSuppressed(d);
+            }
+            throw e;
+        }
+    }
+
+    private void appendGroups(List<Write> batch) throws IOException {
+        List<ByteBuffer> pending = new ArrayList<>();
+        long pendingBytes = 0;
+        List<Located> located = new ArrayList<>();
+        for (Write write : batch) {
+            for (List<Record> group : write.groups) {
+                long groupBytes = group.stream().mapToLong(r -> r.bytes.remaining()).sum();
+                if (current.size() + pendingBytes + groupBytes > segmentSize && current.size() + pendingBytes > 0) {
+                    append(pending);
+                    pending.clear();
+                    pendingBytes = 0;
+                    roll();
+                }
+                for (Record record : group) {
+                    located.add(new Located(record, current.id, current.size() + pendingBytes));
+                    pending.add(record.bytes);
+                    pendingBytes += record.bytes.remaining();
+                }
+            }
+        }
+        append(pending);
+        if (fsync == Fsync.BATCH) {
+            force();
+        }
+        for (Located l : located) {
+            index(l.record.type, l.record.persistenceId, l.record.sequenceNr, l.segment, l.position);
+        }
+        batch.forEach(w -> w.done.complete(null));
+    }
+
+    private void append(List<ByteBuffer> pending) throws IOException {
+        if (!pending.isEmpty()) {
+            current.append(pending.toArray(new ByteBuffer[0]));
+            dirty = true;
+        }
+    }
+
+    private void force() throws IOException {
+        if (dirty) {
+            current.force();
+            dirty = false;
+        }
+        lastFsyncMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Cut what was written since the segment had the size off the journal, that segment is written to again
+     */
+    private void discard(Segment segment, long size) throws IOException {
+        while (current != segment) {
+            Segment rolled = segments.remove(current.id);
+            rolled.close();
+            Files.deleteIfExists(rolled.path);
+            current = segments.get(current.id - 1);
+        }
+        segment.truncate(size);
+        dirty = false;
+    }
+
+    private void roll() throws IOException {
+        current.seal();
+        dirty = false;
+        int id = current.id + 1;
+        current = new Segment(id, dir.resolve(Segment.name(id)), 0);
+        segments.put(id, current);
+    }
+
+    private void index(byte type, String persistenceId, long sequenceNr, int segment, long position) {
+        if (type == DELETE) {
+            PersistenceIdIndex index = indexes.get(persistenceId);
+            if (index != null) {
+                index.deleteTo(sequenceNr);
+            }
+        } else {
+            indexes.computeIfAbsent(persistenceId, id -> new PersistenceIdIndex()).add(sequenceNr, segment, position);
+        }
+    }
+
+    /**
+     * Rebuild the index from the segments, cutting a torn write off the tail of the last one
+     */
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listed = Files.list(dir)) {
+            files = listed.filter(p -> p.getFileName().toString().matches("segment-\\d+\\.log")).sorted().collect(Collectors.toList());
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Path path = files.get(i);
+            int id = Integer.parseInt(path.getFileName().toString().replaceAll("\\D", ""));
+            long valid = scan(id, path);
+            Segment segment = new Segment(id, path, valid);
+            segments.put(id, segment);
+            if (i < files.size() - 1) {
+                segment.seal();
+            } else {
+                current = segment;
+            }
+        }
+        if (current == null) {
+            current = new Segment(0, dir.resolve(Segment.name(0)), 0);
+            segments.put(0, current);
+        }
+        log.info("Recovered {} persistence ids from {} segments in {}", indexes.size(), segments.size(), dir);
+    }
+
+    /**
+     * @return the size of the segment up to the end of its last complete write
+     */
+    private long scan(int id, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            List<Located> group = new ArrayList<>();
+            int valid = 0;
+            int position = 0;
+            CRC32 crc = new CRC32();
+            while (position + HEADER <= mapped.limit()) {
+                int length = mapped.getInt(position);
+                if (length <= 0 || position + HEADER + length > mapped.limit()) {
+                    break;
+                }
+                ByteBuffer body = mapped.duplicate();
+                body.position(position + HEADER).limit(position + HEADER + length);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != mapped.getInt(position + 4)) {
+                    break;
+                }
+                byte type = mapped.get(position + HEADER);
+                long sequenceNr = mapped.getLong(position + HEADER + 1);
+                byte[] pid = new byte[mapped.getShort(position + HEADER + 9) & 0xFFFF];
+                ByteBuffer pidView = mapped.duplicate();
+                pidView.position(position + HEADER + 11);
+                pidView.get(pid);
+                group.add(new Located(new Record(type, new String(pid, StandardCharsets.UTF_8), sequenceNr, null), id, position));
+                position += HEADER + length;
+                if (type != EVENT) {
+                    for (Located l : group) {
+                        index(l.record.type, l.record.persistenceId, l.record.sequenceNr, l.segment, l.position);
+                    }
+                    group.clear();
+                    valid = position;
+                }
+            }
+            if (valid < mapped.limit()) {
+                log.warning("Cutting {} bytes of an incomplete write off {}", mapped.limit() - valid, path);
+            }
+            return valid;
+        }
+    }
+
+    /**
+     * When the appended events are synced to disk
+     */
+    enum Fsync {
+        /**
+         * Every group of writes, before they are acknowledged
+         */
+        BATCH,
+        /**
+         * Every {@code fsync-interval}, the writes are acknowledged once handed to the operating system
+         */
+        INTERVAL,
+        /**
+         * Left to the operating system
+         */
+        NEVER
+    }
+
+    private static final class Record {
+        private final byte type;
+        private final String persistenceId;
+        private final long sequenceNr;
+        private final ByteBuffer bytes;
+
+        private Record(byte type, String persistenceId, long sequenceNr, byte[] payload) {
+            this.type = type;
+            this.persistenceId = persistenceId;
+            this.sequenceNr = sequenceNr;
+            if (payload == null) {
+                bytes = null;
+                return;
+            }
+            byte[] pid = persistenceId.getBytes(StandardCharsets.UTF_8);
+            int length = 11 + pid.length + payload.length;
+            bytes = ByteBuffer.allocate(HEADER + length);
+            bytes.putInt(length).putInt(0).put(type).putLong(sequenceNr).putShort((short) pid.length).put(pid).put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.array(), HEADER, length);
+            bytes.putInt(4, (int) crc.getValue());
+            bytes.flip();
+        }
+    }
+
+    private static final class Located {
+        private final Record record;
+        private final int segment;
+        private final long position;
+
+        private Located(Record record, int segment, long position) {
+            this.record = record;
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    private static final class Write {
+        private final List<List<Record>> groups;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Write(List<List<Record>> groups) {
+            this.groups = groups;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.kiamesdavies.revolut.journal;
+
+import java.util.Arrays;
+
+/**
+ * Segment and position of every event of a persistence id, in the order of their sequence numbers.
+ * <p>
+ * The writer thread appends, the readers take a copy of the range they replay, both under the lock of the index.
+ */
+final class PersistenceIdIndex {
+
+    private long[] sequenceNrs = new long[8];
+    private int[] segments = new int[8];
+    private long[] positions = new long[8];
+    private int size;
+
+    private long highestSequenceNr;
+    private long deletedTo;
+
+    synchronized void add(long sequenceNr, int segment, long position) {
+        if (size == sequenceNrs.length) {
+            sequenceNrs = Arrays.copyOf(sequenceNrs, size * 2);
+            segments = Arrays.copyOf(segments, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        sequenceNrs[size] = sequenceNr;
+        segments[size] = segment;
+        positions[size] = position;
+        size++;
+        highestSequenceNr = Math.max(highestSequenceNr, sequenceNr);
+    }
+
+    /**
+     * Mark every event up to the sequence number as deleted, the events are dropped from the index
+     */
+    synchronized void deleteTo(long toSequenceNr) {
+        deletedTo = Math.max(deletedTo, Math.min(toSequenceNr, highestSequenceNr));
+        int from = firstAfter(deletedTo);
+        if (from > 0) {
+            System.arraycopy(sequenceNrs, from, sequenceNrs, 0, size - from);
+            System.arraycopy(segments, from, segments, 0, size - from);
+            System.arraycopy(positions, from, positions, 0, size - from);
+            size -= from;
+        }
+    }
+
+    synchronized long highestSequenceNr() {
+        return highestSequenceNr;
+    }
+
+    /**
+     * @return the locations of at most max events from fromSequenceNr to toSequenceNr, both included
+     */
+    synchronized Locations range(long fromSequenceNr, long toSequenceNr, long max) {
+        int from = firstAfter(Math.max(fromSequenceNr, deletedTo + 1) - 1);
+        int to = from;
+        while (to < size && sequenceNrs[to] <= toSequenceNr && to - from < max) {
+            to++;
+        }
+        return new Locations(Arrays.copyOfRange(segments, from, to), Arrays.copyOfRange(positions, from, to));
+    }
+
+    /**
+     * @return the index of the first event with a sequence number above the one given
+     */
+    private int firstAfter(long sequenceNr) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sequenceNrs[middle] <= sequenceNr) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    static final class Locations {
+        final int[] segments;
+        final long[] positions;
+
+        private Locations(int[] segments, long[] positions) {
+            this.segments = segments;
+            this.positions = positions;
+        }
+    }
+}
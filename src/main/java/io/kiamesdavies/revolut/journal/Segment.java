@@ -0,0 +1,116 @@
+package io.kiamesdavies.revolut.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One append-only file of the journal, named after its id so the segments sort in the order they were written.
+ * <p>
+ * Only the writer thread appends, the readers map the part of the file written so far.
+ */
+final class Segment implements AutoCloseable {
+
+    final int id;
+    final Path path;
+    private final FileChannel channel;
+
+    /**
+     * Bytes written and visible to the readers
+     */
+    private volatile long size;
+
+    /**
+     * The whole file mapped once it is sealed, no longer written to
+     */
+    private volatile MappedByteBuffer sealed;
+
+    /**
+     * The records written when the open file was last mapped, mapped again only once the file has grown
+     */
+    private volatile MappedByteBuffer tail;
+
+    Segment(int id, Path path, long size) throws IOException {
+        this.id = id;
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > size) {
+            //a torn write at the tail, left by a crash
+            channel.truncate(size);
+        }
+        this.size = size;
+    }
+
+    static String name(int id) {
+        return String.format("segment-%010d.log", id);
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Append the records, they become visible to the readers once written
+     *
+     * @return the position of the first record
+     */
+    long append(ByteBuffer[] records) throws IOException {
+        long position = size;
+        long end = position;
+        for (ByteBuffer record : records) {
+            end += record.remaining();
+        }
+        channel.position(position);
+        while (channel.position() < end) {
+            channel.write(records);
+        }
+        size = end;
+        return position;
+    }
+
+    /**
+     * Cut the records written past the size off the file, a sealed segment is open to be written again
+     */
+    void truncate(long size) throws IOException {
+        channel.truncate(size);
+        channel.force(false);
+        this.size = size;
+        sealed = null;
+        tail = null;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void seal() throws IOException {
+        force();
+        sealed = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        tail = null;
+    }
+
+    /**
+     * @return a read only view of the records written so far, for the use of a single reader
+     */
+    ByteBuffer read() throws IOException {
+        MappedByteBuffer mapped = sealed;
+        if (mapped != null) {
+            return mapped.duplicate();
+        }
+        long written = size;
+        mapped = tail;
+        if (mapped == null || mapped.capacity() < written) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, written);
+            tail = mapped;
+        }
+        return mapped.duplicate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
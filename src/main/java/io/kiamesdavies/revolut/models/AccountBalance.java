@@ -1,39 +1,74 @@
 package io.kiamesdavies.revolut.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.io.Serializable;
 import java.math.BigDecimal;
+import java.util.Currency;
 
+/**
+ * Balance of an account, kept in minor units so that deposits and withdrawals do not allocate
+ */
 public class AccountBalance implements Serializable {
-    static final long serialVersionUID = 42L;
+    static final long serialVersionUID = 43L;
 
     private String bankAccountId;
-    private BigDecimal balance;
+    private long balance;
+    private Currency currency;
 
-    public AccountBalance(final String bankAccountId, final BigDecimal balance) {
-        this.balance = balance;
+    public AccountBalance(final String bankAccountId, final Money balance) {
+        this.balance = balance.getMinorUnits();
+        this.currency = balance.getCurrency();
         this.bankAccountId = bankAccountId;
     }
 
-    public static AccountBalance deposit(final AccountBalance account, BigDecimal amount) {
-        account.balance = account.balance.add(amount);
+    /**
+     * @throws ArithmeticException if the balance overflows
+     */
+    public static AccountBalance deposit(final AccountBalance account, Money amount) {
+        account.balance = Math.addExact(account.balance, account.minorUnitsOf(amount));
         return account;
     }
 
-    public static AccountBalance withdraw(final AccountBalance account, BigDecimal amount) {
-        account.balance = account.balance.subtract(amount);
+    /**
+     * @throws ArithmeticException if the balance overflows
+     */
+    public static AccountBalance withdraw(final AccountBalance account, Money amount) {
+        account.balance = Math.subtractExact(account.balance, account.minorUnitsOf(amount));
         return account;
     }
 
+    private long minorUnitsOf(Money amount) {
+        if (!currency.equals(amount.getCurrency())) {
+            throw new IllegalArgumentException(String.format("Currency mismatch %s and %s", currency, amount.getCurrency()));
+        }
+        return amount.getMinorUnits();
+    }
+
     public String getBankAccountId() {
         return bankAccountId;
     }
 
     public BigDecimal getBalance() {
+        return BigDecimal.valueOf(balance, Money.fractionDigits(currency));
+    }
+
+    public String getCurrency() {
+        return currency.getCurrencyCode();
+    }
+
+    @JsonIgnore
+    public long getMinorUnits() {
         return balance;
     }
 
+    @JsonIgnore
+    public Money getMoney() {
+        return Money.ofMinor(balance, currency);
+    }
+
     public AccountBalance copy() {
-        return new AccountBalance(bankAccountId, balance);
+        return new AccountBalance(bankAccountId, getMoney());
     }
 
 }
@@ -0,0 +1,22 @@
+package io.kiamesdavies.revolut.models;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of a bank account, the balance and the transactionIds it must still recognise as duplicates
+ */
+public final class AccountSnapshot implements Serializable {
+    static final long serialVersionUID = 42L;
+
+    public final AccountBalance balance;
+
+    /**
+     * The idempotency window as exported by the account, hashes grouped by the time they were applied at
+     */
+    public final long[] transactionIds;
+
+    public AccountSnapshot(AccountBalance balance, long[] transactionIds) {
+        this.balance = balance;
+        this.transactionIds = transactionIds;
+    }
+}
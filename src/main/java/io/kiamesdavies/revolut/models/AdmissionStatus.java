@@ -0,0 +1,21 @@
+package io.kiamesdavies.revolut.models;
+
+/**
+ * Point in time view of the transfers admitted by the server
+ */
+public class AdmissionStatus {
+
+    public final int inFlight;
+    public final int queued;
+    public final int maxInFlight;
+    public final int maxQueued;
+    public final long rejected;
+
+    public AdmissionStatus(int inFlight, int queued, int maxInFlight, int maxQueued, long rejected) {
+        this.inFlight = inFlight;
+        this.queued = queued;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.rejected = rejected;
+    }
+}
@@ -0,0 +1,40 @@
+package io.kiamesdavies.revolut.models;
+
+/**
+ * One transfer of a batch, a {@link MoneyTransfer} that also names its accounts
+ */
+public class BatchTransfer extends MoneyTransfer {
+
+    private String accountFromId;
+    private String accountToId;
+
+    public BatchTransfer() {
+    }
+
+    public String getAccountFromId() {
+        return accountFromId;
+    }
+
+    public void setAccountFromId(String accountFromId) {
+        this.accountFromId = accountFromId;
+    }
+
+    public String getAccountToId() {
+        return accountToId;
+    }
+
+    public void setAccountToId(String accountToId) {
+        this.accountToId = accountToId;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchTransfer{" +
+                "accountFromId='" + accountFromId + '\'' +
+                ", accountToId='" + accountToId + '\'' +
+                ", amount=" + getAmount() +
+                ", remarks='" + getRemarks() + '\'' +
+                ", source='" + getSource() + '\'' +
+                '}';
+    }
+}
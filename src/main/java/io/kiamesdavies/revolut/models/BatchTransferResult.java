@@ -0,0 +1,27 @@
+package io.kiamesdavies.revolut.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one transfer of a batch, either the transactionId or the error is set
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchTransferResult {
+
+    /**
+     * Position of the transfer in the batch, results are streamed in the order they complete
+     */
+    public final long index;
+    public final String accountFromId;
+    public final String accountToId;
+    public final String transactionId;
+    public final String error;
+
+    public BatchTransferResult(long index, String accountFromId, String accountToId, String transactionId, String error) {
+        this.index = index;
+        this.accountFromId = accountFromId;
+        this.accountToId = accountToId;
+        this.transactionId = transactionId;
+        this.error = error;
+    }
+}
@@ -1,7 +1,6 @@
 package io.kiamesdavies.revolut.models;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 
 /**
  * A command class.
@@ -13,9 +12,9 @@ public abstract class Cmd implements Serializable {
         public final long deliveryId;
         public final String transactionId;
         public final String bankAccountId;
-        public final BigDecimal amount;
+        public final Money amount;
 
-        BaseAccountCmd(long deliveryId, String transactionId, String bankAccountId, BigDecimal amount) {
+        BaseAccountCmd(long deliveryId, String transactionId, String bankAccountId, Money amount) {
             this.deliveryId = deliveryId;
             this.transactionId = transactionId;
             this.amount = amount;
@@ -25,27 +24,43 @@ public abstract class Cmd implements Serializable {
 
     public static final class DepositCmd extends BaseAccountCmd {
 
-        public DepositCmd(long deliveryId, String transactionId, String bankAccountId, BigDecimal amount) {
+        public DepositCmd(long deliveryId, String transactionId, String bankAccountId, Money amount) {
             super(deliveryId, transactionId, bankAccountId, amount);
         }
     }
 
     public static final class WithdrawCmd extends BaseAccountCmd {
 
-        public WithdrawCmd(long deliveryId, String transactionId, String bankAccountId, BigDecimal amount) {
+        public WithdrawCmd(long deliveryId, String transactionId, String bankAccountId, Money amount) {
             super(deliveryId, transactionId, bankAccountId, amount);
         }
     }
 
+    public static final class OpenAccountCmd extends Cmd {
+        public final String bankAccountId;
+
+        public OpenAccountCmd(String bankAccountId) {
+            this.bankAccountId = bankAccountId;
+        }
+    }
+
+    public static final class CloseAccountCmd extends Cmd {
+        public final String bankAccountId;
+
+        public CloseAccountCmd(String bankAccountId) {
+            this.bankAccountId = bankAccountId;
+        }
+    }
+
     public static final class TransferCmd extends Cmd {
-        public final BigDecimal amount;
+        public final Money amount;
         public final String remarks;
         public final String source;
         public final String accountToId;
         public final String accountFromId;
         public final TransactionType transactionType;
 
-        public TransferCmd(String accountFromId, String accountToId, BigDecimal amount, TransactionType transactionType, String remarks, String source) {
+        public TransferCmd(String accountFromId, String accountToId, Money amount, TransactionType transactionType, String remarks, String source) {
             this.transactionType = transactionType;
             this.amount = amount;
             this.remarks = remarks;
@@ -0,0 +1,22 @@
+package io.kiamesdavies.revolut.models;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The ongoing sagas of a transfer coordinator and the last event of its most recent finished ones
+ */
+public final class CoordinatorSnapshot implements Serializable {
+    static final long serialVersionUID = 42L;
+    public final List<Evt.TransactionEvent> ongoing;
+
+    /**
+     * Null in the snapshots written before they carried the finished sagas
+     */
+    public final List<Evt.TransactionEvent> finished;
+
+    public CoordinatorSnapshot(List<Evt.TransactionEvent> ongoing, List<Evt.TransactionEvent> finished) {
+        this.ongoing = ongoing;
+        this.finished = finished;
+    }
+}
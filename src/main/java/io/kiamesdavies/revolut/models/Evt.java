@@ -1,7 +1,6 @@
 package io.kiamesdavies.revolut.models;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 
 /**
  * The base Event class.
@@ -12,22 +11,30 @@ public abstract class Evt implements Serializable {
 
     public abstract static class BaseAccountEvt extends Evt {
         public final String bankAccountId;
-        public final BigDecimal amount;
+        public final Money amount;
         public final String transactionId;
         public final long messageNanoTime;
+        /**
+         * Wall clock time the event was created at, it is persisted and used to expire the transactionId
+         */
+        public final long epochMillis;
 
-        BaseAccountEvt(String bankAccountId, String transactionId, BigDecimal amount) {
+        BaseAccountEvt(String bankAccountId, String transactionId, Money amount, long epochMillis) {
             this.bankAccountId = bankAccountId;
             this.transactionId = transactionId;
             this.amount= amount;
+            this.epochMillis = epochMillis;
             messageNanoTime = System.nanoTime();
         }
     }
 
     public static final class DepositEvent extends BaseAccountEvt {
-        public DepositEvent(String bankAccountId, String transactionId, BigDecimal amount) {
+        public DepositEvent(String bankAccountId, String transactionId, Money amount, long epochMillis) {
+            super(bankAccountId, transactionId, amount, epochMillis);
+        }
 
-            super(bankAccountId, transactionId, amount);
+        public DepositEvent(String bankAccountId, String transactionId, Money amount) {
+            this(bankAccountId, transactionId, amount, System.currentTimeMillis());
         }
 
         public DepositEvent(Cmd.DepositCmd depositCmd) {
@@ -41,15 +48,19 @@ public abstract class Evt implements Serializable {
                     ", amount=" + amount +
                     ", transactionId='" + transactionId + '\'' +
                     ", messageNanoTime=" + messageNanoTime +
+                    ", epochMillis=" + epochMillis +
                     '}';
         }
     }
 
     public static final class WithdrawEvent extends BaseAccountEvt {
 
-        public WithdrawEvent(String bankAccountId, String transactionId, BigDecimal amount) {
+        public WithdrawEvent(String bankAccountId, String transactionId, Money amount, long epochMillis) {
+            super(bankAccountId, transactionId, amount, epochMillis);
+        }
 
-            super(bankAccountId, transactionId, amount);
+        public WithdrawEvent(String bankAccountId, String transactionId, Money amount) {
+            this(bankAccountId, transactionId, amount, System.currentTimeMillis());
         }
 
         public WithdrawEvent(Cmd.WithdrawCmd withdrawCmd) {
@@ -93,7 +104,7 @@ public abstract class Evt implements Serializable {
     public static final class TransactionEvent extends Evt {
         public final TransactionType transactionType;
         public final String transactionId;
-        public final BigDecimal amount;
+        public final Money amount;
         public final String remarks;
         public final String source;
         public final String accountToId;
@@ -101,7 +112,7 @@ public abstract class Evt implements Serializable {
         public final TransactionStatus status;
         public final long messageNanoTime;
 
-        public TransactionEvent(String transactionId, String accountFromId, String accountToId, BigDecimal amount,TransactionType transactionType, String remarks, String source, TransactionStatus status) {
+        public TransactionEvent(String transactionId, String accountFromId, String accountToId, Money amount,TransactionType transactionType, String remarks, String source, TransactionStatus status) {
             this.transactionId = transactionId;
             this.amount = amount;
             this.transactionType= transactionType;
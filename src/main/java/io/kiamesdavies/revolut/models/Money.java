@@ -0,0 +1,120 @@
+package io.kiamesdavies.revolut.models;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.Objects;
+
+/**
+ * An amount of money held as a long of the minor units of its currency, e.g. 1050 for EUR 10.50.
+ * <p>
+ * Arithmetic never rounds: an amount with more fraction digits than the currency allows, or one that does not
+ * fit in a long, is rejected with an {@link ArithmeticException}. Conversions from and to {@link BigDecimal}
+ * are only meant for the HTTP and {@link MoneyTransfer} boundary.
+ */
+public final class Money implements Serializable, Comparable<Money> {
+    static final long serialVersionUID = 42L;
+
+    public static final Currency DEFAULT_CURRENCY = Currency.getInstance("EUR");
+
+    private final long minorUnits;
+    private final Currency currency;
+
+    private Money(long minorUnits, Currency currency) {
+        this.minorUnits = minorUnits;
+        this.currency = Objects.requireNonNull(currency, "currency");
+    }
+
+    public static Money ofMinor(long minorUnits, Currency currency) {
+        return new Money(minorUnits, currency);
+    }
+
+    public static Money ofMinor(long minorUnits) {
+        return new Money(minorUnits, DEFAULT_CURRENCY);
+    }
+
+    /**
+     * @param amount   the amount in major units, e.g. 10.50
+     * @param currency the currency of the amount
+     * @return the money
+     * @throws ArithmeticException if the amount needs rounding or does not fit in a long of minor units
+     */
+    public static Money of(BigDecimal amount, Currency currency) {
+        Objects.requireNonNull(amount, "amount");
+        return new Money(amount.setScale(fractionDigits(currency), RoundingMode.UNNECESSARY).unscaledValue().longValueExact(), currency);
+    }
+
+    public static Money of(BigDecimal amount) {
+        return of(amount, DEFAULT_CURRENCY);
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public Money plus(Money other) {
+        return new Money(Math.addExact(minorUnits, checkCurrency(other).minorUnits), currency);
+    }
+
+    public Money minus(Money other) {
+        return new Money(Math.subtractExact(minorUnits, checkCurrency(other).minorUnits), currency);
+    }
+
+    public Money negate() {
+        return new Money(Math.negateExact(minorUnits), currency);
+    }
+
+    public int signum() {
+        return Long.signum(minorUnits);
+    }
+
+    public boolean isSameCurrency(Money other) {
+        return currency.equals(other.currency);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, fractionDigits(currency));
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, checkCurrency(other).minorUnits);
+    }
+
+    private Money checkCurrency(Money other) {
+        if (!isSameCurrency(other)) {
+            throw new IllegalArgumentException(String.format("Currency mismatch %s and %s", currency, other.currency));
+        }
+        return other;
+    }
+
+    /**
+     * Currencies without minor units report -1
+     */
+    static int fractionDigits(Currency currency) {
+        return Math.max(0, currency.getDefaultFractionDigits());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Money money = (Money) o;
+        return minorUnits == money.minorUnits && currency.equals(money.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minorUnits) + currency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return currency.getCurrencyCode() + " " + toBigDecimal().toPlainString();
+    }
+}
@@ -0,0 +1,24 @@
+package io.kiamesdavies.revolut.models;
+
+import java.io.Serializable;
+
+/**
+ * The balance table of an account partition, bankAccountIds and minor units by slot, and the transactionIds it must
+ * still recognise as duplicates. With a balance file both arrays are null, the balances are in the file, synced up to
+ * balanceFileSequenceNr.
+ */
+public final class PartitionSnapshot implements Serializable {
+    static final long serialVersionUID = 43L;
+
+    public final String[] bankAccountIds;
+    public final long[] balances;
+    public final long[] transactionIds;
+    public final long balanceFileSequenceNr;
+
+    public PartitionSnapshot(String[] bankAccountIds, long[] balances, long[] transactionIds, long balanceFileSequenceNr) {
+        this.bankAccountIds = bankAccountIds;
+        this.balances = balances;
+        this.transactionIds = transactionIds;
+        this.balanceFileSequenceNr = balanceFileSequenceNr;
+    }
+}
@@ -0,0 +1,14 @@
+package io.kiamesdavies.revolut.models;
+
+/**
+ * A transfer between two accounts of the same account partition, answered with a {@link TransactionResult}
+ */
+public final class PartitionTransfer {
+    public final String transactionId;
+    public final Cmd.TransferCmd transferCmd;
+
+    public PartitionTransfer(String transactionId, Cmd.TransferCmd transferCmd) {
+        this.transactionId = transactionId;
+        this.transferCmd = transferCmd;
+    }
+}
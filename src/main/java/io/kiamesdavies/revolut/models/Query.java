@@ -1,7 +1,5 @@
 package io.kiamesdavies.revolut.models;
 
-import akka.actor.ActorRef;
-
 
 public class Query {
 
@@ -18,17 +16,6 @@ public class Query {
 
     }
 
-    public static class Multiple {
-        public final long deliveryId;
-        public final String[] bankAccountIds;
-
-
-        public Multiple(long deliveryId, String... bankAccountIds) {
-            this.deliveryId = deliveryId;
-            this.bankAccountIds = bankAccountIds;
-        }
-    }
-
     public static class QueryAckNotFound {
         public final String bankAccountId;
 
@@ -37,14 +24,4 @@ public class Query {
         }
     }
 
-    public static class BankReference {
-        public final String bankAccountId;
-        public final ActorRef bankAccount;
-
-        public BankReference(String bankAccountId, ActorRef bankAccount) {
-            this.bankAccountId = bankAccountId;
-            this.bankAccount = bankAccount;
-        }
-    }
-
 }
@@ -4,9 +4,18 @@ public class QueryAck {
 
     public final long deliveryId;
     public final Object response;
+    /**
+     * Sequence number of the last event applied to the response, 0 when unknown
+     */
+    public final long sequenceNr;
 
     public QueryAck(long deliveryId, Object response) {
+        this(deliveryId, response, 0);
+    }
+
+    public QueryAck(long deliveryId, Object response, long sequenceNr) {
         this.deliveryId = deliveryId;
         this.response = response;
+        this.sequenceNr = sequenceNr;
     }
 }
@@ -0,0 +1,28 @@
+package io.kiamesdavies.revolut.models;
+
+import java.io.Serializable;
+
+/**
+ * Start a new saga on a transfer coordinator, the initiator is the sender
+ */
+public final class StartTransfer implements Serializable {
+    static final long serialVersionUID = 43L;
+    public final String transactionId;
+    public final Cmd.TransferCmd transferCmd;
+
+    /**
+     * True to answer the initiator with {@link TransactionResult.Accepted} once the saga is journaled, instead of
+     * with the result of the withdrawal
+     */
+    public final boolean accept;
+
+    public StartTransfer(String transactionId, Cmd.TransferCmd transferCmd) {
+        this(transactionId, transferCmd, false);
+    }
+
+    public StartTransfer(String transactionId, Cmd.TransferCmd transferCmd, boolean accept) {
+        this.transactionId = transactionId;
+        this.transferCmd = transferCmd;
+        this.accept = accept;
+    }
+}
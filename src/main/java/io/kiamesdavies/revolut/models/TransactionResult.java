@@ -10,6 +10,17 @@ public class TransactionResult {
         }
     }
 
+    /**
+     * The transfer is journaled and runs to its end without the caller waiting for it
+     */
+    public static class Accepted extends TransactionResult {
+        public final String transactionId;
+
+        public Accepted(String transactionId) {
+            this.transactionId = transactionId;
+        }
+    }
+
     public static class Failure extends TransactionResult {
         public final Throwable exception;
 
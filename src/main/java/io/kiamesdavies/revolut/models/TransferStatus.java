@@ -0,0 +1,15 @@
+package io.kiamesdavies.revolut.models;
+
+/**
+ * Last known status of a transfer
+ */
+public class TransferStatus {
+
+    public final String transactionId;
+    public final TransactionStatus status;
+
+    public TransferStatus(String transactionId, TransactionStatus status) {
+        this.transactionId = transactionId;
+        this.status = status;
+    }
+}
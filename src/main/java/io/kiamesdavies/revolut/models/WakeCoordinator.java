@@ -0,0 +1,15 @@
+package io.kiamesdavies.revolut.models;
+
+import java.io.Serializable;
+
+/**
+ * Starts a transfer coordinator so that it recovers and resumes its ongoing sagas
+ */
+public final class WakeCoordinator implements Serializable {
+    static final long serialVersionUID = 42L;
+    public final int coordinator;
+
+    public WakeCoordinator(int coordinator) {
+        this.coordinator = coordinator;
+    }
+}
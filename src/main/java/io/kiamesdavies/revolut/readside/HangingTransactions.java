@@ -0,0 +1,17 @@
+package io.kiamesdavies.revolut.readside;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Source of the transfers that did not finish, either {@link JournalTags#unfinishedTransactions()} or
+ * {@link ReadSideStore#hangingTransactions()}
+ */
+@FunctionalInterface
+public interface HangingTransactions {
+
+    /**
+     * @return the transactionIds of the transfers to resume
+     */
+    CompletionStage<List<String>> find();
+}
@@ -0,0 +1,135 @@
+package io.kiamesdavies.revolut.readside;
+
+import com.typesafe.config.Config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * A single JDBC connection used by a single thread, so that the work submitted runs in order and the blocking calls
+ * never run on a dispatcher of the actor system
+ */
+final class JdbcSession implements AutoCloseable {
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    /**
+     * Classpath script run on every new connection, or null
+     */
+    private final String schema;
+
+    private final ExecutorService executor;
+
+    /**
+     * Only used on the thread of the executor
+     */
+    private Connection connection;
+
+    /**
+     * @param db     config with the url, user and password of the database
+     * @param schema classpath script that creates what does not exist yet, or null
+     * @param name   name of the thread
+     */
+    JdbcSession(Config db, String schema, String name) {
+        url = db.getString("url");
+        user = db.getString("user");
+        password = db.getString("password");
+        this.schema = schema;
+        executor = Executors.newSingleThreadExecutor(f -> {
+            Thread thread = new Thread(f, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run the work on the connection, a failed connection is dropped and a new one is opened by the next work
+     */
+    <T> CompletionStage<T> submit(SqlFunction<T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return work.apply(connection());
+            } catch (SQLException e) {
+                closeConnection();
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        executor.execute(this::closeConnection);
+        executor.shutdown();
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null) {
+            Connection opened = DriverManager.getConnection(url, user, password);
+            try {
+                if (schema != null) {
+                    runScript(opened, schema);
+                }
+                opened.setAutoCommit(false);
+            } catch (SQLException e) {
+                opened.close();
+                throw e;
+            }
+            connection = opened;
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //the connection is dropped either way
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * Run every statement of a classpath script, the statements are separated by a semicolon
+     */
+    static void runScript(Connection connection, String resource) throws SQLException {
+        String script;
+        try (InputStream in = JdbcSession.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new SQLException(String.format("Script %s not found", resource));
+            }
+            script = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines().collect(Collectors.joining("\n"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : script.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface SqlFunction<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+}
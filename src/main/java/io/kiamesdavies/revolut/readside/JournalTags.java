@@ -0,0 +1,113 @@
+package io.kiamesdavies.revolut.readside;
+
+import akka.actor.ActorSystem;
+import akka.persistence.PersistentRepr;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.commons.EventTagger;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * Queries of the journal by tag, through the {@code journal_tags} table of {@code v3__journal_tags.sql} instead of a
+ * scan of the comma separated {@code tags} column of every row.
+ * <p>
+ * The offset of an event is its {@code ordering} in the journal.
+ */
+public final class JournalTags implements AutoCloseable {
+
+    private static final String TRANSACTION_PREFIX = "transaction-";
+
+    private final JdbcSession session;
+    private final Serialization serialization;
+
+    public JournalTags(ActorSystem actorSystem) {
+        this(actorSystem, actorSystem.settings().config());
+    }
+
+    JournalTags(ActorSystem actorSystem, Config config) {
+        session = new JdbcSession(config.getConfig("journal-tags.db"), null, "journal-tags");
+        serialization = SerializationExtension.get(actorSystem);
+    }
+
+    /**
+     * @param tag           tag of the events, see {@link EventTagger}
+     * @param afterOrdering the ordering of the last event already read, 0 for the first events
+     * @param limit         maximum number of events
+     * @return the events with the tag in the order they were written
+     */
+    public CompletionStage<List<EventEnvelope>> currentEventsByTag(String tag, long afterOrdering, int limit) {
+        return session.submit(connection -> {
+            List<EventEnvelope> events = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT j.\"ordering\", j.\"persistence_id\", j.\"sequence_number\", j.\"message\" FROM \"journal_tags\" t " +
+                            "JOIN \"journal\" j ON j.\"ordering\" = t.\"ordering\" " +
+                            "WHERE t.\"tag\" = ? AND t.\"ordering\" > ? AND j.\"deleted\" = FALSE ORDER BY t.\"ordering\" LIMIT ?")) {
+                statement.setString(1, tag);
+                statement.setLong(2, afterOrdering);
+                statement.setInt(3, limit);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        PersistentRepr repr = serialization.deserialize(resultSet.getBytes(4), PersistentRepr.class).get();
+                        events.add(new EventEnvelope(Offset.sequence(resultSet.getLong(1)), resultSet.getString(2),
+                                resultSet.getLong(3), repr.payload()));
+                    }
+                }
+            }
+            return events;
+        });
+    }
+
+    /**
+     * Transactions with an event in one of the {@link ReadSideStore#HANGING} statuses and none in a last status, found
+     * from the index alone without reading an event
+     *
+     * @return the transactionIds of the transactions that did not finish
+     */
+    public CompletionStage<List<String>> unfinishedTransactions() {
+        List<String> hanging = ReadSideStore.HANGING.stream().map(EventTagger::status).collect(Collectors.toList());
+        List<String> finished = Arrays.stream(TransactionStatus.values()).filter(ReadSideStore::isFinished)
+                .map(EventTagger::status).collect(Collectors.toList());
+        return session.submit(connection -> {
+            List<String> transactionIds = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT DISTINCT t.\"persistence_id\" FROM \"journal_tags\" t WHERE t.\"tag\" IN (" + placeholders(hanging) + ") " +
+                            "AND t.\"persistence_id\" LIKE '" + TRANSACTION_PREFIX + "%' AND NOT EXISTS (" +
+                            "SELECT 1 FROM \"journal_tags\" f WHERE f.\"persistence_id\" = t.\"persistence_id\" " +
+                            "AND f.\"tag\" IN (" + placeholders(finished) + "))")) {
+                int index = 1;
+                for (String tag : hanging) {
+                    statement.setString(index++, tag);
+                }
+                for (String tag : finished) {
+                    statement.setString(index++, tag);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        transactionIds.add(resultSet.getString(1).substring(TRANSACTION_PREFIX.length()));
+                    }
+                }
+            }
+            return transactionIds;
+        });
+    }
+
+    private static String placeholders(List<String> values) {
+        return values.stream().map(f -> "?").collect(Collectors.joining(", "));
+    }
+
+    @Override
+    public void close() {
+        session.close();
+    }
+}
@@ -0,0 +1,139 @@
+package io.kiamesdavies.revolut.readside;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.EventsByTagQuery;
+import akka.persistence.query.javadsl.ReadJournal;
+import akka.stream.KillSwitches;
+import akka.stream.Materializer;
+import akka.stream.UniqueKillSwitch;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.commons.EventTagger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Projects the events of the journal tagged with {@link EventTagger#READ_SIDE} into the {@link ReadSideStore}.
+ * <p>
+ * The tag is followed from the offset it was projected up to, kept with every batch in the same database transaction,
+ * so a restarted projection resumes where it stopped with a single query, however many persistence ids the journal has.
+ * <p>
+ * The ordering of a row is taken before its write commits, so a row committed after a row with a higher ordering can
+ * fall behind the offset already projected. Such a row is missed by the tag query, and read by its persistence id once
+ * the next event of that persistence id skips its sequence number.
+ */
+public final class Projection {
+
+    private final ReadSideStore store;
+    private final EventsByTagQuery eventsByTag;
+    private final CurrentEventsByPersistenceIdQuery eventsByPersistenceId;
+    private final LoggingAdapter log;
+
+    private final int batchSize;
+    private final Duration batchInterval;
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+
+    public Projection(ActorSystem actorSystem, ReadSideStore store) {
+        this.store = store;
+        Config config = actorSystem.settings().config();
+        ReadJournal readJournal = PersistenceQuery.get(actorSystem).getReadJournalFor(ReadJournal.class, config.getString("read-side.read-journal"));
+        eventsByTag = (EventsByTagQuery) readJournal;
+        eventsByPersistenceId = (CurrentEventsByPersistenceIdQuery) readJournal;
+        log = Logging.getLogger(actorSystem, this);
+        batchSize = config.getInt("read-side.batch-size");
+        batchInterval = Duration.ofMillis(config.getDuration("read-side.batch-interval", TimeUnit.MILLISECONDS));
+        minBackoff = Duration.ofMillis(config.getDuration("read-side.restart.min-backoff", TimeUnit.MILLISECONDS));
+        maxBackoff = Duration.ofMillis(config.getDuration("read-side.restart.max-backoff", TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Run the projection until it is shut down, it is restarted with a backoff whenever it fails
+     *
+     * @param materializer materializer of the stream
+     * @return switch to stop the projection
+     */
+    public UniqueKillSwitch start(Materializer materializer) {
+        return RestartSource.withBackoff(minBackoff, maxBackoff, 0.2, () -> project(materializer))
+                .viaMat(KillSwitches.single(), Keep.right())
+                .to(Sink.ignore())
+                .run(materializer);
+    }
+
+    /**
+     * The offset is read again on a restart, so a failed write is projected again from its first event
+     */
+    private Source<Done, NotUsed> project(Materializer materializer) {
+        return Source.fromCompletionStage(store.offset())
+                .flatMapConcat(offset -> eventsByTag.eventsByTag(EventTagger.READ_SIDE, Offset.sequence(offset)))
+                .groupedWithin(batchSize, batchInterval)
+                .mapAsync(1, batch -> withMissedEvents(batch, materializer))
+                .mapAsync(1, store::write)
+                .watchTermination((notUsed, done) -> {
+                    done.whenComplete((f, e) -> {
+                        if (e != null) {
+                            log.error(e, "Projection of the read side failed, restarting");
+                        }
+                    });
+                    return notUsed;
+                });
+    }
+
+    /**
+     * Add the events the tag query missed before the first event after them of the same persistence id. A persistence
+     * id without any event applied yet is taken as is, it may have been projected before its sequence numbers were kept
+     */
+    private CompletionStage<List<EventEnvelope>> withMissedEvents(List<EventEnvelope> batch, Materializer materializer) {
+        Set<String> persistenceIds = batch.stream().map(EventEnvelope::persistenceId).collect(Collectors.toSet());
+        return store.sequenceNumbers(persistenceIds).thenCompose(applied -> {
+            Map<String, Long> last = new HashMap<>(applied);
+            CompletionStage<List<EventEnvelope>> events = CompletableFuture.completedFuture(new ArrayList<>(batch.size()));
+            for (EventEnvelope envelope : batch) {
+                Long previous = last.get(envelope.persistenceId());
+                if (previous != null && envelope.sequenceNr() > previous + 1) {
+                    String persistenceId = envelope.persistenceId();
+                    long from = previous + 1;
+                    long to = envelope.sequenceNr() - 1;
+                    events = events.thenCompose(f -> eventsByPersistenceId.currentEventsByPersistenceId(persistenceId, from, to)
+                            .runWith(Sink.seq(), materializer)
+                            .thenApply(missed -> {
+                                log.warning("Projecting {} events of {} missed by the tag query", missed.size(), persistenceId);
+                                f.addAll(missed);
+                                return f;
+                            }));
+                }
+                events = events.thenApply(f -> {
+                    f.add(envelope);
+                    return f;
+                });
+                last.merge(envelope.persistenceId(), envelope.sequenceNr(), Math::max);
+            }
+            return events;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "Projection";
+    }
+}
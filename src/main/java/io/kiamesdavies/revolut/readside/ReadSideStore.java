@@ -0,0 +1,368 @@
+package io.kiamesdavies.revolut.readside;
+
+import akka.Done;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.commons.EventTagger;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.Evt;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * The tables of the read side, the transactions and the balances of the accounts projected from the journal, along
+ * with the offset of the journal they are projected up to and the last sequence number applied of every persistence id.
+ * <p>
+ * A single connection is used by a single thread, so the writes of the projection are applied in order and the
+ * blocking calls never run on a dispatcher of the actor system.
+ */
+public final class ReadSideStore implements AutoCloseable {
+
+    /**
+     * Statuses of the transactions that did not finish, they are resumed by {@link io.kiamesdavies.revolut.services.Account#walkBackInTime()}
+     */
+    public static final List<TransactionStatus> HANGING = Collections.unmodifiableList(Arrays.asList(
+            TransactionStatus.NEW, TransactionStatus.WITHDRAWN, TransactionStatus.DEPOSIT_FAILED));
+
+    private static final String ROLLBACK_SUFFIX = "-rollback";
+
+    private final JdbcSession session;
+    private final Money openingBalance;
+
+    public ReadSideStore(Config config) {
+        session = new JdbcSession(config.getConfig("read-side.db"), config.getString("read-side.schema"), "read-side-store");
+        openingBalance = Money.of(new BigDecimal(config.getString("account.opening-account")),
+                Currency.getInstance(config.getString("account.currency")));
+    }
+
+    /**
+     * @return the ordering of the last event of the {@link EventTagger#READ_SIDE} tag projected, 0 for none
+     */
+    public CompletionStage<Long> offset() {
+        return session.submit(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT \"ordering\" FROM \"projection_tag_offsets\" WHERE \"tag\" = ?")) {
+                statement.setString(1, EventTagger.READ_SIDE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+            }
+        });
+    }
+
+    /**
+     * @param persistenceIds persistence ids of events of the {@link EventTagger#READ_SIDE} tag
+     * @return the sequence number of the last event applied of every persistence id that has one
+     */
+    public CompletionStage<Map<String, Long>> sequenceNumbers(Collection<String> persistenceIds) {
+        return session.submit(connection -> sequenceNumbers(connection, persistenceIds));
+    }
+
+    /**
+     * Apply a batch of events in a single database transaction, the events of every row are folded together first so
+     * that a row is written once per batch whatever the number of its events.
+     * <p>
+     * An event at or below the last sequence number applied of its persistence id was applied already and is ignored,
+     * the balances are sums of the events so an event applied twice would count twice.
+     *
+     * @param batch events of the {@link EventTagger#READ_SIDE} tag, in the order of their sequence numbers within a
+     *              persistence id
+     * @return completion once the batch and its offset are committed
+     */
+    public CompletionStage<Done> write(List<EventEnvelope> batch) {
+        Set<String> persistenceIds = batch.stream().map(EventEnvelope::persistenceId).collect(Collectors.toSet());
+        long now = System.currentTimeMillis();
+        return session.submit(connection -> {
+            try {
+                Map<String, Long> applied = sequenceNumbers(connection, persistenceIds);
+                Map<String, Long> sequenceNumbers = new LinkedHashMap<>();
+                Map<String, Evt.TransactionEvent> transactions = new LinkedHashMap<>();
+                Map<String, AccountDelta> accounts = new LinkedHashMap<>();
+                long ordering = 0;
+                for (EventEnvelope envelope : batch) {
+                    ordering = Math.max(ordering, ((Sequence) envelope.offset()).value());
+                    Long last = applied.get(envelope.persistenceId());
+                    if (last != null && envelope.sequenceNr() <= last) {
+                        continue;
+                    }
+                    applied.put(envelope.persistenceId(), envelope.sequenceNr());
+                    sequenceNumbers.put(envelope.persistenceId(), envelope.sequenceNr());
+                    Object event = envelope.event();
+                    if (event instanceof Evt.TransactionEvent) {
+                        Evt.TransactionEvent transactionEvent = (Evt.TransactionEvent) event;
+                        transactions.put(transactionEvent.transactionId, transactionEvent);
+                    } else if (event instanceof Evt.BaseAccountEvt) {
+                        Evt.BaseAccountEvt accountEvt = (Evt.BaseAccountEvt) event;
+                        accounts.computeIfAbsent(accountEvt.bankAccountId, f -> new AccountDelta(accountEvt.amount.getCurrency().getCurrencyCode()))
+                                .add(accountEvt);
+                    }
+                }
+                writeTransactions(connection, transactions.values(), now);
+                writeBalances(connection, accounts, now);
+                writeSequenceNumbers(connection, sequenceNumbers);
+                writeOffset(connection, ordering);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            return Done.getInstance();
+        });
+    }
+
+    /**
+     * @return the transactionIds of the transactions in one of the {@link #HANGING} statuses
+     */
+    public CompletionStage<List<String>> hangingTransactions() {
+        String statuses = HANGING.stream().map(f -> "'" + f.name() + "'").collect(Collectors.joining(", "));
+        return session.submit(connection -> {
+            List<String> transactionIds = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(
+                         "SELECT \"transaction_id\" FROM \"transactions\" WHERE \"status\" IN (" + statuses + ")")) {
+                while (resultSet.next()) {
+                    transactionIds.add(resultSet.getString(1));
+                }
+            }
+            return transactionIds;
+        });
+    }
+
+    /**
+     * @param transactionId transactionId of a transfer
+     * @return the last status of the transfer projected so far
+     */
+    public CompletionStage<Optional<TransactionStatus>> transactionStatus(String transactionId) {
+        return session.submit(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT \"status\" FROM \"transactions\" WHERE \"transaction_id\" = ?")) {
+                statement.setString(1, transactionId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? Optional.of(TransactionStatus.valueOf(resultSet.getString(1))) : Optional.empty();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param bankAccountId id of the account
+     * @return the balance projected so far, empty for an account without any event
+     */
+    public CompletionStage<Optional<AccountBalance>> balance(String bankAccountId) {
+        return session.submit(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT \"balance\", \"currency\" FROM \"account_balances\" WHERE \"bank_account_id\" = ?")) {
+                statement.setString(1, bankAccountId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next()
+                            ? Optional.of(new AccountBalance(bankAccountId, Money.ofMinor(resultSet.getLong(1), Currency.getInstance(resultSet.getString(2)))))
+                            : Optional.empty();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        session.close();
+    }
+
+    private void writeTransactions(Connection connection, Collection<Evt.TransactionEvent> transactions, long now) throws SQLException {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        List<Evt.TransactionEvent> inserts = new ArrayList<>();
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE \"transactions\" SET \"status\" = ?, \"updated\" = ? WHERE \"transaction_id\" = ?")) {
+            for (Evt.TransactionEvent f : transactions) {
+                update.setString(1, f.status.name());
+                update.setLong(2, now);
+                update.setString(3, f.transactionId);
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            Iterator<Evt.TransactionEvent> iterator = transactions.iterator();
+            for (int count : counts) {
+                Evt.TransactionEvent f = iterator.next();
+                if (count == 0) {
+                    inserts.add(f);
+                }
+            }
+        }
+        if (inserts.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO \"transactions\" (\"transaction_id\", \"account_from_id\", \"account_to_id\", \"amount\", \"currency\", " +
+                        "\"transaction_type\", \"remarks\", \"source\", \"status\", \"updated\") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (Evt.TransactionEvent f : inserts) {
+                insert.setString(1, f.transactionId);
+                insert.setString(2, f.accountFromId);
+                insert.setString(3, f.accountToId);
+                insert.setLong(4, f.amount.getMinorUnits());
+                insert.setString(5, f.amount.getCurrency().getCurrencyCode());
+                insert.setString(6, f.transactionType.name());
+                insert.setString(7, f.remarks);
+                insert.setString(8, f.source);
+                insert.setString(9, f.status.name());
+                insert.setLong(10, now);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private void writeBalances(Connection connection, Map<String, AccountDelta> accounts, long now) throws SQLException {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        List<String> inserts = new ArrayList<>();
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE \"account_balances\" SET \"balance\" = \"balance\" + ?, \"last_transaction_id\" = ?, \"updated\" = ? " +
+                        "WHERE \"bank_account_id\" = ?")) {
+            for (Map.Entry<String, AccountDelta> f : accounts.entrySet()) {
+                update.setLong(1, f.getValue().delta);
+                update.setString(2, f.getValue().lastTransactionId);
+                update.setLong(3, now);
+                update.setString(4, f.getKey());
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            Iterator<String> iterator = accounts.keySet().iterator();
+            for (int count : counts) {
+                String bankAccountId = iterator.next();
+                if (count == 0) {
+                    inserts.add(bankAccountId);
+                }
+            }
+        }
+        if (inserts.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO \"account_balances\" (\"bank_account_id\", \"balance\", \"currency\", \"last_transaction_id\", \"updated\") " +
+                        "VALUES (?, ?, ?, ?, ?)")) {
+            for (String bankAccountId : inserts) {
+                AccountDelta f = accounts.get(bankAccountId);
+                //an account starts with the opening balance, which is not an event
+                insert.setString(1, bankAccountId);
+                insert.setLong(2, Math.addExact(openingBalance.getMinorUnits(), f.delta));
+                insert.setString(3, f.currency);
+                insert.setString(4, f.lastTransactionId);
+                insert.setLong(5, now);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static Map<String, Long> sequenceNumbers(Connection connection, Collection<String> persistenceIds) throws SQLException {
+        Map<String, Long> sequenceNumbers = new HashMap<>();
+        if (persistenceIds.isEmpty()) {
+            return sequenceNumbers;
+        }
+        String parameters = persistenceIds.stream().map(f -> "?").collect(Collectors.joining(", "));
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT \"persistence_id\", \"sequence_number\" FROM \"projected_sequence_numbers\" WHERE \"persistence_id\" IN (" + parameters + ")")) {
+            int index = 1;
+            for (String persistenceId : persistenceIds) {
+                statement.setString(index++, persistenceId);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    sequenceNumbers.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+        }
+        return sequenceNumbers;
+    }
+
+    private void writeSequenceNumbers(Connection connection, Map<String, Long> sequenceNumbers) throws SQLException {
+        if (sequenceNumbers.isEmpty()) {
+            return;
+        }
+        List<String> inserts = new ArrayList<>();
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE \"projected_sequence_numbers\" SET \"sequence_number\" = ? WHERE \"persistence_id\" = ?")) {
+            for (Map.Entry<String, Long> f : sequenceNumbers.entrySet()) {
+                update.setLong(1, f.getValue());
+                update.setString(2, f.getKey());
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            Iterator<String> iterator = sequenceNumbers.keySet().iterator();
+            for (int count : counts) {
+                String persistenceId = iterator.next();
+                if (count == 0) {
+                    inserts.add(persistenceId);
+                }
+            }
+        }
+        if (inserts.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO \"projected_sequence_numbers\" (\"persistence_id\", \"sequence_number\") VALUES (?, ?)")) {
+            for (String persistenceId : inserts) {
+                insert.setString(1, persistenceId);
+                insert.setLong(2, sequenceNumbers.get(persistenceId));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private void writeOffset(Connection connection, long ordering) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE \"projection_tag_offsets\" SET \"ordering\" = ? WHERE \"tag\" = ?")) {
+            update.setLong(1, ordering);
+            update.setString(2, EventTagger.READ_SIDE);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO \"projection_tag_offsets\" (\"tag\", \"ordering\") VALUES (?, ?)")) {
+            insert.setString(1, EventTagger.READ_SIDE);
+            insert.setLong(2, ordering);
+            insert.executeUpdate();
+        }
+    }
+
+    static boolean isFinished(TransactionStatus status) {
+        return TransactionStatus.COMPLETED.equals(status) || TransactionStatus.FAILED.equals(status)
+                || TransactionStatus.ROLLBACK.equals(status);
+    }
+
+    /**
+     * @return the transactionId of the transfer an account event belongs to, without the suffix of a rollback
+     */
+    static String transferId(String transactionId) {
+        return transactionId != null && transactionId.endsWith(ROLLBACK_SUFFIX)
+                ? transactionId.substring(0, transactionId.length() - ROLLBACK_SUFFIX.length())
+                : transactionId;
+    }
+
+    private static final class AccountDelta {
+        private final String currency;
+        private long delta;
+        private String lastTransactionId;
+
+        private AccountDelta(String currency) {
+            this.currency = currency;
+        }
+
+        private void add(Evt.BaseAccountEvt evt) {
+            long amount = evt.amount.getMinorUnits();
+            delta = Math.addExact(delta, evt instanceof Evt.DepositEvent ? amount : -amount);
+            lastTransactionId = transferId(evt.transactionId);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.kiamesdavies.revolut.readside;
+
+import com.typesafe.config.Config;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the schema scripts of {@code schema-migration.scripts} once, instead of running them on every connection.
+ * <p>
+ * The version of a script is its position in the list, counting from one, and every version applied is kept in the
+ * {@code schema_version} table. A script is applied and its version kept in one transaction, so a failed script is
+ * applied again on the next start. The scripts only create what does not exist, so two nodes starting at the same
+ * time and applying the same version do no harm, the second one fails on the version and applies it again on restart.
+ */
+public final class SchemaMigration {
+
+    /**
+     * Disable creation of utility class
+     */
+    private SchemaMigration() {
+
+    }
+
+    /**
+     * @param config the {@code schema-migration} block
+     * @return the versions applied by this call, none when the schema is up to date
+     * @throws SQLException when a script fails, the versions before it stay applied
+     */
+    public static List<Integer> migrate(Config config) throws SQLException {
+        List<String> scripts = config.getStringList("scripts");
+        List<Integer> applied = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection(config.getString("db.url"), config.getString("db.user"), config.getString("db.password"))) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS PUBLIC.\"schema_version\" (\"version\" INT NOT NULL, "
+                        + "\"script\" VARCHAR(255) NOT NULL, \"applied\" BIGINT NOT NULL, PRIMARY KEY (\"version\"))");
+            }
+            connection.setAutoCommit(false);
+            for (int version = currentVersion(connection) + 1; version <= scripts.size(); version++) {
+                String script = scripts.get(version - 1);
+                try {
+                    JdbcSession.runScript(connection, script);
+                    try (PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO PUBLIC.\"schema_version\" (\"version\", \"script\", \"applied\") VALUES (?, ?, ?)")) {
+                        insert.setInt(1, version);
+                        insert.setString(2, script);
+                        insert.setLong(3, System.currentTimeMillis());
+                        insert.executeUpdate();
+                    }
+                    connection.commit();
+                    applied.add(version);
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw new SQLException(String.format("Failed to apply version %d, %s", version, script), e);
+                }
+            }
+        }
+        return applied;
+    }
+
+    private static int currentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(\"version\"), 0) FROM PUBLIC.\"schema_version\"")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -19,6 +19,33 @@ public interface Account {
      */
     CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer);
 
+    /**
+     * Transfer money between two accounts at most once per idempotency key
+     *
+     * @param accountFromId  sender's account
+     * @param accountToId    recipient's account
+     * @param moneyTransfer  containing amount to transfer
+     * @param idempotencyKey chosen by the client for the transfer and sent again with its retries, null for none
+     * @return the result of the first transfer with the key, see {@link #transferMoney(String, String, MoneyTransfer)}
+     */
+    default CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return transferMoney(accountFromId, accountToId, moneyTransfer);
+    }
+
+    /**
+     * Start a transfer between two accounts without waiting for it to withdraw the money
+     *
+     * @param accountFromId  sender's account
+     * @param accountToId    recipient's account
+     * @param moneyTransfer  containing amount to transfer
+     * @param idempotencyKey chosen by the client for the transfer and sent again with its retries, null for none
+     * @return Returns {@link TransactionResult.Accepted} once the transfer is journaled
+     * otherwise returns  {@link TransactionResult.Failure}
+     */
+    default CompletionStage<TransactionResult> acceptTransfer(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return transferMoney(accountFromId, accountToId, moneyTransfer, idempotencyKey);
+    }
+
     /**
      * Get the balance of an account
      *
@@ -27,10 +54,21 @@ public interface Account {
      */
     CompletionStage<AccountBalance> getBalance(String bankAccountId);
 
+    /**
+     * Get the balance of an account
+     *
+     * @param bankAccountId
+     * @param consistent    true to ask the account itself, bypassing any cache in front of it
+     * @return Returns the account balance or a completion exception
+     */
+    default CompletionStage<AccountBalance> getBalance(String bankAccountId, boolean consistent) {
+        return getBalance(bankAccountId);
+    }
+
 
     /**
      * This is meant to be called once when the server starts,
-     * it queries the read side of the application and recreates transaction handler for transactions {@link io.kiamesdavies.revolut.models.TransactionStatus} that are in NEW, WITHDRAWN , DEPOSIT_FAILED or ROLLBACK_FAILED status.
+     * it finds the transactions {@link io.kiamesdavies.revolut.models.TransactionStatus} that are in NEW, WITHDRAWN , DEPOSIT_FAILED status and resumes them.
      */
     void walkBackInTime();
 
@@ -0,0 +1,271 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.exceptions.OverloadedException;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.AdmissionStatus;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.services.Account;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admits transfers into an {@link Account} so that a spike is shed quickly instead of every request waiting on the
+ * journal until it times out.
+ * <p>
+ * At most max-in-flight transfers run at a time, the next max-queued wait in order for one of them to complete and any
+ * other is rejected right away. A transfer that waits longer than max-queue-wait is rejected too. Independently an
+ * account takes part in at most max-in-flight-per-account transfers, running or waiting, so that a single hot account
+ * can not take every slot.
+ */
+public final class AdmissionControl implements Account {
+
+    private final Account account;
+    private final ActorSystem actorSystem;
+
+    private final int maxInFlight;
+    private final int maxInFlightPerAccount;
+    private final int maxQueued;
+    private final Duration maxQueueWait;
+    private final Duration retryAfter;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * Transfers waiting for a slot, those that expired are left behind and skipped when polled
+     */
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<String, Integer> accountsInFlight = new ConcurrentHashMap<>();
+    private final Metrics.Counter rejected;
+
+    public AdmissionControl(Account account, ActorSystem actorSystem) {
+        this.account = account;
+        this.actorSystem = actorSystem;
+        Config config = actorSystem.settings().config();
+        maxInFlight = config.getInt("transfer.admission.max-in-flight");
+        maxInFlightPerAccount = config.getInt("transfer.admission.max-in-flight-per-account");
+        maxQueued = config.getInt("transfer.admission.max-queued");
+        maxQueueWait = Duration.ofMillis(config.getDuration("transfer.admission.max-queue-wait", TimeUnit.MILLISECONDS));
+        retryAfter = Duration.ofMillis(config.getDuration("transfer.admission.retry-after", TimeUnit.MILLISECONDS));
+        Metrics metrics = Metrics.get(actorSystem);
+        metrics.gauge("transfer_admission_in_flight", "Transfers running", inFlight::get);
+        metrics.gauge("transfer_admission_queued", "Transfers waiting for a slot", queued::get);
+        rejected = metrics.counter("transfer_admission_rejected_total", "Transfers rejected");
+    }
+
+    /**
+     * Transfer money between two accounts once the transfer is admitted
+     *
+     * @param accountFromId sender's account
+     * @param accountToId   recipient's account
+     * @param moneyTransfer containing amount to transfer
+     * @return Returns {@link TransactionResult.Success} if transfer was successful
+     * otherwise returns  {@link TransactionResult.Failure}, with an {@link OverloadedException} if it was not admitted
+     */
+    @Override
+    public CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer) {
+        return transferMoney(accountFromId, accountToId, moneyTransfer, null);
+    }
+
+    /**
+     * Transfer money between two accounts once the transfer is admitted, at most once per idempotency key
+     *
+     * @param idempotencyKey chosen by the client for the transfer and sent again with its retries, null for none
+     */
+    @Override
+    public CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return admit(new Pending(accountFromId, accountToId, moneyTransfer, idempotencyKey, false));
+    }
+
+    /**
+     * Start a transfer between two accounts once the transfer is admitted, it holds its slot until it is accepted
+     */
+    @Override
+    public CompletionStage<TransactionResult> acceptTransfer(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return admit(new Pending(accountFromId, accountToId, moneyTransfer, idempotencyKey, true));
+    }
+
+    private CompletionStage<TransactionResult> admit(Pending pending) {
+        String accountFromId = pending.accountFromId;
+        String accountToId = pending.accountToId;
+        if (!acquire(accountFromId)) {
+            return reject(String.format("Too many transfers on account %s", accountFromId), true);
+        }
+        if (!accountFromId.equals(accountToId) && !acquire(accountToId)) {
+            release(accountFromId);
+            return reject(String.format("Too many transfers on account %s", accountToId), true);
+        }
+        if (tryAcquire()) {
+            run(pending);
+        } else if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            releaseAccounts(pending);
+            return reject("Too many transfers in flight", false);
+        } else {
+            pending.timeout = actorSystem.scheduler().scheduleOnce(maxQueueWait, () -> expire(pending), actorSystem.dispatcher());
+            queue.add(pending);
+            //a slot may have been released between the failed acquire and the enqueue
+            drain();
+        }
+        return pending.result;
+    }
+
+    @Override
+    public CompletionStage<AccountBalance> getBalance(String bankAccountId) {
+        return account.getBalance(bankAccountId);
+    }
+
+    @Override
+    public CompletionStage<AccountBalance> getBalance(String bankAccountId, boolean consistent) {
+        return account.getBalance(bankAccountId, consistent);
+    }
+
+    @Override
+    public void walkBackInTime() {
+        account.walkBackInTime();
+    }
+
+    /**
+     * @return the transfers running and waiting now
+     */
+    public AdmissionStatus getStatus() {
+        return new AdmissionStatus(inFlight.get(), queued.get(), maxInFlight, maxQueued, rejected.count());
+    }
+
+    private void run(Pending pending) {
+        CompletionStage<TransactionResult> response;
+        try {
+            response = pending.accept
+                    ? account.acceptTransfer(pending.accountFromId, pending.accountToId, pending.moneyTransfer, pending.idempotencyKey)
+                    : account.transferMoney(pending.accountFromId, pending.accountToId, pending.moneyTransfer, pending.idempotencyKey);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.completedFuture(new TransactionResult.Failure(e));
+        }
+        response.whenComplete((g, f) -> {
+            releaseAccounts(pending);
+            inFlight.decrementAndGet();
+            drain();
+            pending.result.complete(f != null ? new TransactionResult.Failure(f) : g);
+        });
+    }
+
+    /**
+     * Start waiting transfers while there are free slots
+     */
+    private void drain() {
+        while (!queue.isEmpty() && tryAcquire()) {
+            Pending next = poll();
+            if (next == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            next.timeout.cancel();
+            run(next);
+        }
+    }
+
+    private Pending poll() {
+        Pending next;
+        while ((next = queue.poll()) != null) {
+            if (next.claim()) {
+                queued.decrementAndGet();
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private void expire(Pending pending) {
+        if (pending.claim()) {
+            queued.decrementAndGet();
+            releaseAccounts(pending);
+            rejected.increment();
+            pending.result.complete(new TransactionResult.Failure(
+                    new OverloadedException("Transfer waited too long to start", retryAfter, false)));
+        }
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private boolean acquire(String bankAccountId) {
+        AtomicBoolean acquired = new AtomicBoolean();
+        accountsInFlight.compute(bankAccountId, (k, v) -> {
+            int current = v == null ? 0 : v;
+            if (current >= maxInFlightPerAccount) {
+                return v;
+            }
+            acquired.set(true);
+            return current + 1;
+        });
+        return acquired.get();
+    }
+
+    private void release(String bankAccountId) {
+        accountsInFlight.computeIfPresent(bankAccountId, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    private void releaseAccounts(Pending pending) {
+        release(pending.accountFromId);
+        if (!pending.accountFromId.equals(pending.accountToId)) {
+            release(pending.accountToId);
+        }
+    }
+
+    private CompletionStage<TransactionResult> reject(String message, boolean accountLimited) {
+        rejected.increment();
+        return CompletableFuture.completedFuture(new TransactionResult.Failure(new OverloadedException(message, retryAfter, accountLimited)));
+    }
+
+    private static final class Pending {
+        private final String accountFromId;
+        private final String accountToId;
+        private final MoneyTransfer moneyTransfer;
+        private final String idempotencyKey;
+        private final boolean accept;
+        private final CompletableFuture<TransactionResult> result = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile Cancellable timeout;
+
+        private Pending(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey, boolean accept) {
+            this.accountFromId = accountFromId;
+            this.accountToId = accountToId;
+            this.moneyTransfer = moneyTransfer;
+            this.idempotencyKey = idempotencyKey;
+            this.accept = accept;
+        }
+
+        /**
+         * @return true for the first of starting and expiring the transfer
+         */
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionControl";
+    }
+}
@@ -0,0 +1,97 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.JsonFraming;
+import akka.util.ByteString;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.commons.Utility;
+import io.kiamesdavies.revolut.models.BatchTransfer;
+import io.kiamesdavies.revolut.models.BatchTransferResult;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.services.Account;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Runs a batch of transfers through {@link Account#transferMoney} with bounded parallelism.
+ * <p>
+ * The batch is read as it arrives, either as newline delimited json or as a json array of {@link BatchTransfer},
+ * and a result is emitted for every transfer as soon as it completes. A transfer that can not be read fails on
+ * its own without failing the batch.
+ */
+public final class BatchTransfers {
+
+    private final Account account;
+    private final int maxItemBytes;
+    private final int parallelism;
+    private final int sourceSubstreams;
+    private final int perSourceParallelism;
+
+    public BatchTransfers(Account account, Config config) {
+        this.account = account;
+        maxItemBytes = config.getBytes("transfer.batch.max-item-bytes").intValue();
+        parallelism = config.getInt("transfer.batch.parallelism");
+        sourceSubstreams = config.getInt("transfer.batch.source-substreams");
+        perSourceParallelism = config.getInt("transfer.batch.per-source-parallelism");
+    }
+
+    /**
+     * @param groupBySource when true the transfers of a sender account go through the same substream, so that only
+     *                      per-source-parallelism of them contend for the account at a time
+     * @return flow from the bytes of the batch to the result of every transfer
+     */
+    public Flow<ByteString, BatchTransferResult, NotUsed> flow(boolean groupBySource) {
+        Flow<ByteString, Pair<ByteString, Long>, NotUsed> items = Flow.of(ByteString.class)
+                .via(JsonFraming.objectScanner(maxItemBytes))
+                .zipWithIndex();
+        if (!groupBySource) {
+            return items.mapAsyncUnordered(parallelism, f -> transfer(read(f)));
+        }
+        return items
+                .map(this::read)
+                .groupBy(sourceSubstreams, f -> Math.floorMod(Objects.hashCode(f.transfer == null ? null : f.transfer.getAccountFromId()), sourceSubstreams))
+                .mapAsyncUnordered(perSourceParallelism, this::transfer)
+                .mergeSubstreams();
+    }
+
+    private CompletionStage<BatchTransferResult> transfer(Item item) {
+        BatchTransfer transfer = item.transfer;
+        if (transfer == null) {
+            return CompletableFuture.completedFuture(new BatchTransferResult(item.index, null, null, null, item.error));
+        }
+        return account.transferMoney(transfer.getAccountFromId(), transfer.getAccountToId(), transfer).thenApply(g -> {
+            if (g instanceof TransactionResult.Success) {
+                return new BatchTransferResult(item.index, transfer.getAccountFromId(), transfer.getAccountToId(),
+                        ((TransactionResult.Success) g).transactionId, null);
+            }
+            Throwable f = ((TransactionResult.Failure) g).exception;
+            return new BatchTransferResult(item.index, transfer.getAccountFromId(), transfer.getAccountToId(), null,
+                    Objects.toString(f.getMessage(), f.getClass().getSimpleName()));
+        });
+    }
+
+    private Item read(Pair<ByteString, Long> item) {
+        try {
+            return new Item(item.second(), Utility.fromJson(item.first(), BatchTransfer.class), null);
+        } catch (IOException e) {
+            return new Item(item.second(), null, String.format("Invalid transfer: %s", e.getMessage()));
+        }
+    }
+
+    private static final class Item {
+        private final long index;
+        private final BatchTransfer transfer;
+        private final String error;
+
+        private Item(long index, BatchTransfer transfer, String error) {
+            this.index = index;
+            this.transfer = transfer;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.actor.ActorSystem;
+import io.kiamesdavies.revolut.account.BalanceCache;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.services.Account;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Answers the balance reads of an {@link Account} from the {@link BalanceCache}, so that they do not queue in the
+ * mailbox of a bank account behind its journal writes. A balance missing from the cache, or stale, is read through
+ * from the account and kept.
+ */
+public final class CachedBalances implements Account {
+
+    private final DefaultAccount account;
+    private final BalanceCache cache;
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+    private final Metrics.Counter bypasses;
+
+    public CachedBalances(DefaultAccount account, ActorSystem actorSystem) {
+        this.account = account;
+        cache = BalanceCache.get(actorSystem);
+        Metrics metrics = Metrics.get(actorSystem);
+        hits = metrics.counter("balance_cache_total", "Balance reads by whether the cache answered them", "result", "hit");
+        misses = metrics.counter("balance_cache_total", "Balance reads by whether the cache answered them", "result", "miss");
+        bypasses = metrics.counter("balance_cache_total", "Balance reads by whether the cache answered them", "result", "bypass");
+    }
+
+    @Override
+    public CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer) {
+        return account.transferMoney(accountFromId, accountToId, moneyTransfer);
+    }
+
+    @Override
+    public CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return account.transferMoney(accountFromId, accountToId, moneyTransfer, idempotencyKey);
+    }
+
+    @Override
+    public CompletionStage<TransactionResult> acceptTransfer(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return account.acceptTransfer(accountFromId, accountToId, moneyTransfer, idempotencyKey);
+    }
+
+    @Override
+    public CompletionStage<AccountBalance> getBalance(String bankAccountId) {
+        return getBalance(bankAccountId, false);
+    }
+
+    @Override
+    public CompletionStage<AccountBalance> getBalance(String bankAccountId, boolean consistent) {
+        Optional<AccountBalance> cached = cache.lookup(bankAccountId);
+        if (consistent) {
+            bypasses.increment();
+        } else if (cached.isPresent()) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached.get());
+        } else {
+            misses.increment();
+        }
+        return account.readBalance(bankAccountId).thenApply(read -> {
+            cache.fill(read);
+            return read.balance;
+        });
+    }
+
+    @Override
+    public void walkBackInTime() {
+        account.walkBackInTime();
+    }
+
+    @Override
+    public String toString() {
+        return "CachedBalances";
+    }
+}
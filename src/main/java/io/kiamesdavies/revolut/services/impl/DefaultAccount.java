@@ -1,31 +1,103 @@
 package io.kiamesdavies.revolut.services.impl;
 
+import akka.actor.ActorIdentity;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.actor.InvalidActorNameException;
+import akka.cluster.sharding.ClusterSharding;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.pattern.Patterns;
+import io.kiamesdavies.revolut.account.AccountDirectory;
+import io.kiamesdavies.revolut.account.AccountPartition;
+import io.kiamesdavies.revolut.account.BalanceCache;
+import io.kiamesdavies.revolut.commons.Metrics;
 import io.kiamesdavies.revolut.exceptions.AccountNotFoundException;
 import io.kiamesdavies.revolut.models.*;
+import io.kiamesdavies.revolut.readside.HangingTransactions;
 import io.kiamesdavies.revolut.services.Account;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 public class DefaultAccount implements Account {
 
     private final LoggingAdapter log;
 
-    private final ActorRef bank;
+    private final AccountDirectory directory;
     private final ActorSystem actorSystem;
     private final static  Random RANDOM = new Random();
+    private final Currency currency;
+    private final Metrics.Histogram balanceQuery;
+    private final String transferDispatcher;
 
-    public DefaultAccount(ActorSystem actorSystem, ActorRef bank) {
+    /**
+     * Runs the continuations of the asks, which would otherwise run on the thread of the actor answering
+     */
+    private final Executor continuations;
+
+    /**
+     * Resumes the hanging transactions, or null when there is nowhere to find them
+     */
+    private final TransferRecovery recovery;
+
+    /**
+     * Shard region of the transfer coordinators, or null when every transfer gets its own {@link TransferHandler}
+     */
+    private final ActorRef coordinators;
+
+    /**
+     * Shard region of the account partitions, or null when every account is its own {@link io.kiamesdavies.revolut.account.BankAccount}
+     */
+    private final ActorRef partitions;
+    private final int partitionCount;
+    private final Metrics.Counter localTransfers;
+    private final Metrics.Counter sagaTransfers;
+    private final IdempotencyKeys idempotencyKeys;
+
+    public DefaultAccount(ActorSystem actorSystem, AccountDirectory directory) {
+        this(actorSystem, directory, null);
+    }
+
+    /**
+     * @param hangingTransactions source of the transactions resumed by {@link #walkBackInTime()}, or null
+     */
+    public DefaultAccount(ActorSystem actorSystem, AccountDirectory directory, HangingTransactions hangingTransactions) {
         this.actorSystem = actorSystem;
-        this.bank = bank;
+        this.directory = directory;
+        recovery = hangingTransactions == null ? null : new TransferRecovery(actorSystem, directory, hangingTransactions);
         log = Logging.getLogger(actorSystem, this);
+        currency = Currency.getInstance(actorSystem.settings().config().getString("account.currency"));
+        balanceQuery = Metrics.get(actorSystem).histogram("balance_query_seconds", "Time for a bank account to answer a balance query");
+        transferDispatcher = actorSystem.settings().config().getString("transfer.dispatcher");
+        continuations = actorSystem.dispatchers().lookup(actorSystem.settings().config().getString("server.dispatcher"));
+        if (actorSystem.settings().config().getBoolean("account.partitions.enabled")) {
+            partitions = ClusterSharding.get(actorSystem).shardRegion(AccountPartition.SHARD_TYPE_NAME);
+            partitionCount = actorSystem.settings().config().getInt("account.partitions.count");
+        } else {
+            partitions = null;
+            partitionCount = 0;
+        }
+        localTransfers = Metrics.get(actorSystem).counter("transfer_path_total", "Transfers by the path they took", "path", "local");
+        sagaTransfers = Metrics.get(actorSystem).counter("transfer_path_total", "Transfers by the path they took", "path", "saga");
+        idempotencyKeys = new IdempotencyKeys(actorSystem.settings().config(), Metrics.get(actorSystem));
+        //subscribed before the first saga publishes its statuses
+        TransactionStatuses.get(actorSystem);
+        if ("coordinator".equals(actorSystem.settings().config().getString("transfer.saga"))) {
+            coordinators = TransferCoordinator.startSharding(actorSystem, directory);
+            //start every coordinator so that it resumes its ongoing sagas
+            int poolSize = actorSystem.settings().config().getInt("transfer.coordinator.pool-size");
+            for (int i = 0; i < poolSize; i++) {
+                coordinators.tell(new WakeCoordinator(i), ActorRef.noSender());
+            }
+        } else {
+            coordinators = null;
+        }
     }
 
     /**
@@ -39,20 +111,132 @@ public class DefaultAccount implements Account {
      */
     @Override
     public CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer) {
+        return transferMoney(accountFromId, accountToId, moneyTransfer, null);
+    }
+
+    /**
+     * Transfer money between two accounts at most once per idempotency key
+     *
+     * @param accountFromId  sender's account
+     * @param accountToId    recipient's account
+     * @param moneyTransfer  containing amount to transfer
+     * @param idempotencyKey chosen by the client for the transfer and sent again with its retries, null for none
+     * @return Returns {@link TransactionResult.Success} if transfer was successful
+     * otherwise returns  {@link TransactionResult.Failure}, the result of the first transfer for a retry
+     */
+    @Override
+    public CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return transferMoney(accountFromId, accountToId, moneyTransfer, idempotencyKey, false);
+    }
+
+    /**
+     * Start a transfer without waiting for it, its statuses are followed through {@link TransactionStatuses}
+     *
+     * @param accountFromId  sender's account
+     * @param accountToId    recipient's account
+     * @param moneyTransfer  containing amount to transfer
+     * @param idempotencyKey chosen by the client for the transfer and sent again with its retries, null for none
+     * @return Returns {@link TransactionResult.Accepted} once the transfer is journaled
+     * otherwise returns  {@link TransactionResult.Failure}
+     */
+    @Override
+    public CompletionStage<TransactionResult> acceptTransfer(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey) {
+        return transferMoney(accountFromId, accountToId, moneyTransfer, idempotencyKey, true);
+    }
+
+    private CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer, String idempotencyKey, boolean accept) {
+
+        Money amount;
+        try {
+            amount = Money.of(moneyTransfer.getAmount(), currency);
+        } catch (ArithmeticException | NullPointerException e) {
+            return CompletableFuture.completedFuture(new TransactionResult.Failure(
+                    new IllegalArgumentException(String.format("Invalid amount %s", moneyTransfer.getAmount()))));
+        }
+        Cmd.TransferCmd transferCmd = new Cmd.TransferCmd(accountFromId, accountToId, amount, TransactionType.TRANSFER, moneyTransfer.getRemarks(), moneyTransfer.getSource());
+        if (idempotencyKey == null) {
+            return transfer(UUID.randomUUID().toString(), transferCmd, accept);
+        }
+        return idempotencyKeys.transfer(transferCmd, idempotencyKey, transactionId -> transfer(transactionId, transferCmd, accept));
+    }
 
-        String transactionId = UUID.randomUUID().toString();
-        ActorRef transferHandler = actorSystem.actorOf(TransferHandler.props(transactionId, bank), String.format("transaction-%s", transactionId));
-        return Patterns.ask(transferHandler, new Cmd.TransferCmd(accountFromId, accountToId, moneyTransfer.getAmount(), TransactionType.TRANSFER, moneyTransfer.getRemarks(), moneyTransfer.getSource()), Duration.ofSeconds(60)).exceptionally(ex -> {
+    private CompletionStage<TransactionResult> transfer(String transactionId, Cmd.TransferCmd transferCmd, boolean accept) {
+        String accountFromId = transferCmd.accountFromId;
+        String accountToId = transferCmd.accountToId;
+        CompletionStage<Object> response;
+        if (isLocal(accountFromId, accountToId)) {
+            //both accounts are kept by the same partition, which applies the transfer with one journal write
+            localTransfers.increment();
+            response = Patterns.ask(partitions, new PartitionTransfer(transactionId, transferCmd), Duration.ofSeconds(60))
+                    .thenApply(g -> {
+                        if (!(g instanceof TransactionResult.Success) && !(g instanceof TransactionResult.Failure)) {
+                            return g;
+                        }
+                        //the status endpoint finds how it ended, as it does for a saga
+                        boolean completed = g instanceof TransactionResult.Success;
+                        actorSystem.eventStream().publish(new TransactionStatuses.Changed(transactionId,
+                                completed ? TransactionStatus.COMPLETED : TransactionStatus.FAILED));
+                        //already finished when accepted, a rejected transfer was never journaled so it is not accepted
+                        return accept && completed ? new TransactionResult.Accepted(transactionId) : g;
+                    });
+        } else if (coordinators != null) {
+            sagaTransfers.increment();
+            response = Patterns.ask(coordinators, new StartTransfer(transactionId, transferCmd, accept), Duration.ofSeconds(60));
+        } else {
+            sagaTransfers.increment();
+            response = askHandler(transactionId, accept ? new TransferHandler.Accept(transferCmd) : transferCmd, 3);
+        }
+        return response.exceptionally(ex -> {
             log.error("Failed to transfer", ex);
             return new TransactionResult.Failure(ex);
-        }).thenApply(g -> {
+        }).thenApplyAsync(g -> {
             if (g instanceof TransactionResult) {
                 return (TransactionResult) g;
             }
-            log.error("Unknown type {} while transferring money {} from {} to {}", g, moneyTransfer, accountFromId, accountToId);
+            log.error("Unknown type {} while transferring money {} from {} to {}", g, transferCmd.amount, accountFromId, accountToId);
             return new TransactionResult.Failure(new IllegalStateException(String.format("Unknown type %s", Objects.toString(g))));
-        });
+        }, continuations);
+
+    }
+
+    /**
+     * Start the handler of the transfer and ask it, or ask the handler of a retried transfer that is still running
+     *
+     * @param attempts times to start the handler, a handler that is stopping still holds its name for a moment
+     */
+    private CompletionStage<Object> askHandler(String transactionId, Object start, int attempts) {
+        String name = String.format("transaction-%s", transactionId);
+        try {
+            ActorRef transferHandler = actorSystem.actorOf(TransferHandler.props(transactionId, directory, transferDispatcher), name);
+            return Patterns.ask(transferHandler, start, Duration.ofSeconds(60));
+        } catch (InvalidActorNameException e) {
+            //the saga of a retried transfer is still running, it answers the retry from its own state
+            return Patterns.ask(actorSystem.actorSelection("/user/" + name), new Identify(name), Duration.ofSeconds(5)).thenCompose(g -> {
+                Optional<ActorRef> running = ((ActorIdentity) g).getActorRef();
+                if (running.isPresent()) {
+                    return Patterns.ask(running.get(), start, Duration.ofSeconds(60));
+                }
+                if (attempts <= 1) {
+                    CompletableFuture<Object> stopping = new CompletableFuture<>();
+                    stopping.completeExceptionally(new IllegalStateException(String.format("Transfer handler %s is stopping", name)));
+                    return stopping;
+                }
+                return Patterns.after(Duration.ofMillis(100), actorSystem.scheduler(), actorSystem.dispatcher(),
+                        () -> askHandler(transactionId, start, attempts - 1));
+            });
+        }
+    }
 
+    /**
+     * @return true when both accounts are open and kept by the same partition
+     */
+    private boolean isLocal(String accountFromId, String accountToId) {
+        if (partitions == null || accountFromId.equals(accountToId)
+                || AccountPartition.partitionOf(accountFromId, partitionCount) != AccountPartition.partitionOf(accountToId, partitionCount)) {
+            return false;
+        }
+        Optional<ActorRef> region = Optional.of(partitions);
+        return directory.lookup(accountFromId).equals(region) && directory.lookup(accountToId).equals(region);
     }
 
     /**
@@ -63,35 +247,50 @@ public class DefaultAccount implements Account {
      */
     @Override
     public CompletionStage<AccountBalance> getBalance(String bankAccountId) {
+        return readBalance(bankAccountId).thenApply(read -> read.balance);
+    }
 
-        return Patterns.ask(bank, new Query.Single(RANDOM.nextLong(), bankAccountId), Duration.ofSeconds(3))
-                .thenCompose(f -> {
-                    if (f instanceof Query.QueryAckNotFound) {
-                        throw new CompletionException(new AccountNotFoundException(String.format("bank account %s not found", bankAccountId)));
-                    }
-                    Query.BankReference bankReference = (Query.BankReference) ((QueryAck) f).response;
-                    return Patterns.ask(bankReference.bankAccount, new Query.Single(RANDOM.nextLong(), bankAccountId), Duration.ofSeconds(5)).thenApply(g -> {
-                        if (g instanceof Query.QueryAckNotFound) {
-                            log.error("Account {} failed to respond bank account = id {}", bankReference, bankAccountId);
-                            throw new CompletionException(new IllegalStateException(String.format("bank account %s not found", bankAccountId)));
-                        }
-                        return (AccountBalance) ((QueryAck) g).response;
-                    });
-                });
+    /**
+     * Get the balance of an account with the sequence number of the account it was read at
+     *
+     * @param bankAccountId
+     * @return Returns the account balance or a completion exception
+     */
+    public CompletionStage<BalanceCache.Changed> readBalance(String bankAccountId) {
+
+        Optional<ActorRef> bankAccount = directory.lookup(bankAccountId);
+        if (!bankAccount.isPresent()) {
+            CompletableFuture<BalanceCache.Changed> notFound = new CompletableFuture<>();
+            notFound.completeExceptionally(new CompletionException(new AccountNotFoundException(String.format("bank account %s not found", bankAccountId))));
+            return notFound;
+        }
+        long startNanoTime = System.nanoTime();
+        return Patterns.ask(bankAccount.get(), new Query.Single(RANDOM.nextLong(), bankAccountId), Duration.ofSeconds(5)).thenApplyAsync(g -> {
+            balanceQuery.recordSince(startNanoTime);
+            if (g instanceof Query.QueryAckNotFound) {
+                log.error("Account failed to respond bank account = id {}", bankAccountId);
+                throw new CompletionException(new IllegalStateException(String.format("bank account %s not found", bankAccountId)));
+            }
+            QueryAck ack = (QueryAck) g;
+            return new BalanceCache.Changed(bankAccountId, (AccountBalance) ack.response, ack.sequenceNr);
+        }, continuations);
     }
 
     /**
      * This is meant to be called once when the server starts,
-     * it queries the read side of the application and recreates transaction handler for transactions {@link TransactionStatus} that are in NEW, WITHDRAWN , DEPOSIT_FAILED status.
+     * it finds the transactions in NEW, WITHDRAWN, DEPOSIT_FAILED status and resumes them through {@link TransferRecovery}.
      */
     @Override
     public void walkBackInTime() {
-        //TODO Queries the read side for transactions with the aforementioned status
-        List<String> hangingTransactions = new ArrayList<>();
-        hangingTransactions.forEach(transactionId -> {
-            //automatically it will create its state from previous event and continue from where it stopped
-            actorSystem.actorOf(TransferHandler.props(transactionId, bank), String.format("transaction-%s", transactionId));
-        });
+        if (coordinators != null) {
+            //every coordinator resumes its own sagas once it is woken up
+            return;
+        }
+        if (recovery == null) {
+            log.warning("There is nowhere to find the hanging transactions in");
+            return;
+        }
+        recovery.run();
     }
 
     @Override
@@ -0,0 +1,122 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.pattern.AskTimeoutException;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.models.Cmd;
+import io.kiamesdavies.revolut.models.TransactionResult;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The transfers started with an Idempotency-Key within the last {@code transfer.idempotency.ttl}, so that a retry of a
+ * transfer is answered with the result of the first one, or waits for it, instead of starting another.
+ * <p>
+ * A key is turned into the same transactionId on every node, so once a transfer is no longer remembered here, or was
+ * started on another node, its retry still reaches what was journaled under that transactionId: the handler recovers
+ * its saga, the coordinator answers from its ongoing sagas and the last {@code transfer.coordinator.max-finished}
+ * finished ones, and the partition from the transfers it applied within {@code account.hours-to-keep-transactions}.
+ * A transfer the partition rejected was never journaled, so its retry is validated again.
+ */
+final class IdempotencyKeys {
+
+    private final Duration ttl;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The entries in the order they were added, which is also the order they expire in
+     */
+    private final Queue<Entry> expiry = new ConcurrentLinkedQueue<>();
+
+    private final Metrics.Counter replays;
+
+    IdempotencyKeys(Config config, Metrics metrics) {
+        ttl = Duration.ofMillis(config.getDuration("transfer.idempotency.ttl", TimeUnit.MILLISECONDS));
+        maxSize = config.getInt("transfer.idempotency.max-size");
+        replays = metrics.counter("transfer_idempotent_replays_total", "Transfers answered with the result of an earlier one with the same Idempotency-Key");
+    }
+
+    /**
+     * @return the transactionId of the transfers from the account with the key
+     */
+    static String transactionIdOf(String accountFromId, String idempotencyKey) {
+        return UUID.nameUUIDFromBytes((accountFromId + "/" + idempotencyKey).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Start the transfer unless a transfer with the same key is remembered
+     *
+     * @param start starts the transfer with the transactionId of the key
+     * @return the result of the first transfer with the key
+     */
+    CompletionStage<TransactionResult> transfer(Cmd.TransferCmd transferCmd, String idempotencyKey,
+                                                Function<String, CompletionStage<TransactionResult>> start) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        String transactionId = transactionIdOf(transferCmd.accountFromId, idempotencyKey);
+        Entry entry = new Entry(transactionId, transferCmd, now + ttl.toMillis());
+        Entry first = entries.putIfAbsent(transactionId, entry);
+        if (first != null) {
+            replays.increment();
+            if (!first.transferCmd.accountToId.equals(transferCmd.accountToId) || !first.transferCmd.amount.equals(transferCmd.amount)) {
+                return CompletableFuture.completedFuture(new TransactionResult.Failure(new IllegalArgumentException(
+                        String.format("Idempotency-Key %s was already used for another transfer", idempotencyKey))));
+            }
+            return first.result;
+        }
+        expiry.add(entry);
+        start.apply(transactionId).whenComplete((g, f) -> {
+            TransactionResult result = f != null ? new TransactionResult.Failure(f) : g;
+            if (result instanceof TransactionResult.Failure && timedOut(((TransactionResult.Failure) result).exception)) {
+                //the saga may still be running, a retry asks it again
+                entries.remove(transactionId, entry);
+            }
+            entry.result.complete(result);
+        });
+        return entry.result;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drop the entries past their time and the oldest ones over the max size
+     */
+    private void expire(long now) {
+        Entry oldest;
+        while ((oldest = expiry.peek()) != null && (oldest.expiresAt <= now || entries.size() > maxSize)) {
+            if (expiry.remove(oldest)) {
+                entries.remove(oldest.transactionId, oldest);
+            }
+        }
+    }
+
+    private static boolean timedOut(Throwable f) {
+        return f instanceof AskTimeoutException || (f instanceof CompletionException && f.getCause() instanceof AskTimeoutException);
+    }
+
+    private static final class Entry {
+        private final String transactionId;
+        private final Cmd.TransferCmd transferCmd;
+        private final long expiresAt;
+        private final CompletableFuture<TransactionResult> result = new CompletableFuture<>();
+
+        private Entry(String transactionId, Cmd.TransferCmd transferCmd, long expiresAt) {
+            this.transactionId = transactionId;
+            this.transferCmd = transferCmd;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.NotUsed;
+import akka.actor.AbstractActor;
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.actor.Props;
+import akka.actor.Status;
+import akka.actor.Terminated;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last status of the transfers run on this node, kept current by the {@link Changed} every saga publishes to the
+ * event stream once a status is journaled, and followed by the clients streaming the transitions of a transfer.
+ * <p>
+ * A status is kept for {@code transfer.status-index.ttl}, the transfers of other nodes and older ones are only known
+ * to the read side.
+ */
+public final class TransactionStatuses implements Extension {
+
+    private static final Id ID = new Id();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The entries in the order they were added, which is also the order they expire in
+     */
+    private final Queue<Entry> expiry = new ConcurrentLinkedQueue<>();
+    private final long ttlMillis;
+    private final int maxSize;
+    private ActorRef subscriber;
+
+    TransactionStatuses(Config config) {
+        ttlMillis = config.getDuration("transfer.status-index.ttl", TimeUnit.MILLISECONDS);
+        maxSize = config.getInt("transfer.status-index.max-size");
+    }
+
+    /**
+     * @param actorSystem akka actor system
+     * @return the index of the actor system, subscribed to the statuses of its sagas
+     */
+    public static TransactionStatuses get(ActorSystem actorSystem) {
+        return ID.get(actorSystem);
+    }
+
+    /**
+     * @param transactionId transactionId of a transfer
+     * @return the last status journaled by the saga, empty for a transfer this node does not know
+     */
+    public Optional<TransactionStatus> lookup(String transactionId) {
+        Entry entry = entries.get(transactionId);
+        return entry == null ? Optional.empty() : Optional.of(entry.status);
+    }
+
+    /**
+     * The status of the transfer, and then every status it is journaled with, completed by the status it finishes with
+     *
+     * @param transactionId transactionId of a transfer
+     * @param found         the status the transfer was found with, on this node or the read side, sent when this node
+     *                      no longer knows the transfer, or null
+     */
+    public Source<TransactionStatus, NotUsed> follow(String transactionId, TransactionStatus found) {
+        return Source.<TransactionStatus>actorRef(16, OverflowStrategy.dropHead())
+                .mapMaterializedValue(ref -> {
+                    subscriber.tell(new Watch(transactionId, found, ref), ActorRef.noSender());
+                    return NotUsed.getInstance();
+                });
+    }
+
+    /**
+     * @return true for the statuses a transfer finishes with
+     */
+    public static boolean finished(TransactionStatus status) {
+        return TransactionStatus.COMPLETED.equals(status) || TransactionStatus.FAILED.equals(status)
+                || TransactionStatus.ROLLBACK.equals(status);
+    }
+
+    /**
+     * Keep the status published by a saga, called by the subscriber only
+     */
+    private void changed(Changed changed) {
+        long now = System.currentTimeMillis();
+        Entry oldest;
+        while ((oldest = expiry.peek()) != null && (oldest.expiresAt <= now || entries.size() > maxSize)) {
+            expiry.poll();
+            entries.remove(oldest.transactionId, oldest);
+        }
+        Entry entry = new Entry(changed.transactionId, changed.status, now + ttlMillis);
+        entries.put(changed.transactionId, entry);
+        expiry.add(entry);
+    }
+
+    /**
+     * A status of a transfer, journaled by its saga
+     */
+    public static final class Changed {
+        public final String transactionId;
+        public final TransactionStatus status;
+
+        public Changed(String transactionId, TransactionStatus status) {
+            this.transactionId = transactionId;
+            this.status = status;
+        }
+    }
+
+    private static final class Entry {
+        private final String transactionId;
+        private final TransactionStatus status;
+        private final long expiresAt;
+
+        private Entry(String transactionId, TransactionStatus status, long expiresAt) {
+            this.transactionId = transactionId;
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Sends the statuses of the transfer to the actor of a stream following it
+     */
+    private static final class Watch {
+        private final String transactionId;
+        private final TransactionStatus found;
+        private final ActorRef follower;
+
+        private Watch(String transactionId, TransactionStatus found, ActorRef follower) {
+            this.transactionId = transactionId;
+            this.found = found;
+            this.follower = follower;
+        }
+    }
+
+    /**
+     * Applies the statuses published to the event stream and passes them on to the followers of their transfer, so
+     * the sagas never wait on the index
+     */
+    private static final class Subscriber extends AbstractActor {
+        private final TransactionStatuses statuses;
+        private final Map<String, Set<ActorRef>> followers = new HashMap<>();
+        private final Map<ActorRef, String> following = new HashMap<>();
+
+        private Subscriber(TransactionStatuses statuses) {
+            this.statuses = statuses;
+        }
+
+        @Override
+        public void preStart() {
+            getContext().getSystem().getEventStream().subscribe(self(), Changed.class);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Changed.class, f -> {
+                        statuses.changed(f);
+                        Set<ActorRef> refs = followers.get(f.transactionId);
+                        if (refs != null) {
+                            refs.forEach(g -> g.tell(f.status, self()));
+                            if (finished(f.status)) {
+                                new ArrayList<>(refs).forEach(this::complete);
+                            }
+                        }
+                    })
+                    .match(Watch.class, f -> {
+                        TransactionStatus status = statuses.lookup(f.transactionId).orElse(f.found);
+                        if (status != null) {
+                            f.follower.tell(status, self());
+                            if (finished(status)) {
+                                //nothing follows the status a transfer finished with, not even from the read side
+                                f.follower.tell(new Status.Success(NotUsed.getInstance()), self());
+                                return;
+                            }
+                        }
+                        followers.computeIfAbsent(f.transactionId, g -> new HashSet<>()).add(f.follower);
+                        following.put(f.follower, f.transactionId);
+                        getContext().watch(f.follower);
+                    })
+                    .match(Terminated.class, f -> unfollow(f.actor()))
+                    .build();
+        }
+
+        /**
+         * Complete the stream of the follower once its transfer finished
+         */
+        private void complete(ActorRef follower) {
+            unfollow(follower);
+            getContext().unwatch(follower);
+            follower.tell(new Status.Success(NotUsed.getInstance()), self());
+        }
+
+        private void unfollow(ActorRef follower) {
+            String transactionId = following.remove(follower);
+            Set<ActorRef> refs = transactionId == null ? null : followers.get(transactionId);
+            if (refs != null && refs.remove(follower) && refs.isEmpty()) {
+                followers.remove(transactionId);
+            }
+        }
+    }
+
+    private static final class Id extends AbstractExtensionId<TransactionStatuses> implements ExtensionIdProvider {
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+
+        @Override
+        public TransactionStatuses createExtension(ExtendedActorSystem system) {
+            TransactionStatuses statuses = new TransactionStatuses(system.settings().config());
+            statuses.subscriber = system.systemActorOf(Props.create(Subscriber.class, () -> new Subscriber(statuses)), "transaction-statuses");
+            return statuses;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.actor.*;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.*;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.account.AccountDirectory;
+import io.kiamesdavies.revolut.exceptions.AccountNotFoundException;
+import io.kiamesdavies.revolut.exceptions.InsufficientFundsException;
+import io.kiamesdavies.revolut.models.*;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Runs transfer sagas as entries of a long-lived persistent actor instead of one {@link TransferHandler} per transfer.
+ * <p>
+ * A small fixed pool of coordinators is sharded by the hash of the transactionId. Every coordinator journals the
+ * {@link Evt.TransactionEvent} transitions of all its sagas in batches, with the same {@link TransactionStatus}
+ * state machine as the {@link TransferHandler}, and resumes its ongoing sagas after recovery.
+ */
+public class TransferCoordinator extends AbstractPersistentActorWithAtLeastOnceDelivery {
+
+    static final String SHARD_TYPE_NAME = "transfer-coordinator";
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    private final String coordinatorId;
+
+    private final AccountDirectory directory;
+
+    private final int maxBatchSize;
+
+    private final int snapShotInterval;
+
+    /**
+     * Ongoing sagas by transactionId, from their journaled NEW event on
+     */
+    private final Map<String, Saga> sagas = new HashMap<>();
+
+    /**
+     * Sagas started but whose NEW event is not journaled yet, kept out of the snapshots until it is and only there
+     * so a retry waits for the first request instead of starting the saga again
+     */
+    private final Map<String, Saga> starting = new HashMap<>();
+
+    /**
+     * The last event of the most recent finished sagas by transactionId, so a retry is answered from how the saga
+     * ended instead of running it again. Rebuilt from the journal and the snapshots, the oldest are forgotten first.
+     */
+    private final Map<String, Evt.TransactionEvent> finished;
+
+    /**
+     * The saga every unconfirmed delivery belongs to
+     */
+    private final Map<Long, String> deliveries = new HashMap<>();
+
+    /**
+     * Transitions waiting for the next journal write
+     */
+    private final List<Transition> pendingTransitions = new ArrayList<>();
+    private boolean writeInFlight = false;
+
+    private final TransferMetrics metrics = TransferMetrics.get(getContext().getSystem());
+    private final long startNanoTime = System.nanoTime();
+
+    public TransferCoordinator(AccountDirectory directory) throws UnsupportedEncodingException {
+        this.coordinatorId = URLDecoder.decode(getSelf().path().name(), "UTF-8");
+        this.directory = directory;
+        Config config = getContext().system().settings().config();
+        maxBatchSize = config.getInt("transfer.coordinator.max-batch-size");
+        snapShotInterval = config.getInt("transfer.coordinator.snapshot-interval");
+        int maxFinished = config.getInt("transfer.coordinator.max-finished");
+        finished = new LinkedHashMap<String, Evt.TransactionEvent>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Evt.TransactionEvent> eldest) {
+                return size() > maxFinished;
+            }
+        };
+    }
+
+    @Override
+    public Receive createReceiveRecover() {
+        return receiveBuilder()
+                .match(Evt.TransactionEvent.class, this::apply)
+                .match(SnapshotOffer.class, ss -> {
+                    CoordinatorSnapshot snapshot = (CoordinatorSnapshot) ss.snapshot();
+                    //written before the snapshots carried the finished sagas
+                    if (snapshot.finished != null) {
+                        snapshot.finished.forEach(this::apply);
+                    }
+                    snapshot.ongoing.forEach(this::apply);
+                })
+                .match(RecoveryCompleted.class, f -> {
+                    metrics.recovery.recordSince(startNanoTime);
+                    if (!sagas.isEmpty()) {
+                        log.info("Coordinator {} resuming {} transactions", coordinatorId, sagas.size());
+                    }
+                    new ArrayList<>(sagas.values()).forEach(this::resume);
+                })
+                .build();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(StartTransfer.class, this::start)
+                .match(WakeCoordinator.class, f -> {
+                    //recovery already resumed the ongoing sagas
+                })
+                .match(CmdAck.class, this::acknowledge)
+                .match(AtLeastOnceDelivery.UnconfirmedWarning.class, j -> {
+                    metrics.unconfirmedWarnings.increment();
+                    j.getUnconfirmedDeliveries().forEach(this::unconfirmed);
+                })
+                .match(RetryRollback.class, f -> {
+                    Saga saga = sagas.get(f.transactionId);
+                    if (saga != null) {
+                        rollback(saga);
+                    }
+                })
+                .match(SaveSnapshotSuccess.class, f ->
+                        deleteSnapshots(SnapshotSelectionCriteria.create(f.metadata().sequenceNr() - 1, Long.MAX_VALUE)))
+                .match(SaveSnapshotFailure.class, f -> log.warning("Failed to save snapshot of {} due to {}", coordinatorId, f.cause()))
+                .match(DeleteSnapshotsSuccess.class, f -> {
+                })
+                .matchAny(f -> log.error("Unattended Message {}", f))
+                .build();
+    }
+
+    private void start(StartTransfer s) {
+        Cmd.TransferCmd h = s.transferCmd;
+        if (h.accountFromId.equalsIgnoreCase(h.accountToId)) {
+            sender().tell(new TransactionResult.Failure(new IllegalArgumentException("Can't transfer to same account")), self());
+            return;
+        }
+        Evt.TransactionEvent ended = finished.get(s.transactionId);
+        if (ended != null) {
+            //a retry of a finished saga, answered from how it ended
+            sender().tell(s.accept ? new TransactionResult.Accepted(s.transactionId) : retried(ended), self());
+            return;
+        }
+        Saga ongoing = sagas.containsKey(s.transactionId) ? sagas.get(s.transactionId) : starting.get(s.transactionId);
+        if (ongoing != null) {
+            //a retry with the same Idempotency-Key, answered like the first request
+            if (s.accept) {
+                sender().tell(new TransactionResult.Accepted(s.transactionId), self());
+            } else if (TransactionStatus.NEW.equals(ongoing.state.status)) {
+                //answered once the withdrawal is acknowledged, with the initiator
+                ongoing.initiators.add(sender());
+            } else {
+                sender().tell(retried(ongoing.state), self());
+            }
+            return;
+        }
+        Saga saga = new Saga(new Evt.TransactionEvent(s.transactionId, h, TransactionStatus.NEW));
+        saga.initiators.add(sender());
+        starting.put(s.transactionId, saga);
+        transition(saga, TransactionStatus.NEW, a -> {
+            if (s.accept) {
+                //the initiator is not told how the transfer ends
+                reply(a, new TransactionResult.Accepted(s.transactionId));
+            }
+            resume(a);
+        });
+    }
+
+    /**
+     * Continue a saga from its current status
+     */
+    private void resume(Saga saga) {
+        Optional<String> unknownAccount = directory.firstUnknown(saga.state.accountFromId, saga.state.accountToId);
+        if (unknownAccount.isPresent()) {
+            if (TransactionStatus.NEW.equals(saga.state.status)) {
+                transition(saga, TransactionStatus.FAILED, a ->
+                        reply(a, new TransactionResult.Failure(new AccountNotFoundException(String.format("%s not found", unknownAccount.get())))));
+            } else {
+                log.error("Account {} of an ongoing transaction {} is no longer available", unknownAccount.get(), saga.state);
+                sagas.remove(saga.state.transactionId);
+            }
+            return;
+        }
+
+        saga.accountFrom = directory.lookup(saga.state.accountFromId).get().path();
+        saga.accountTo = directory.lookup(saga.state.accountToId).get().path();
+        if (TransactionStatus.NEW.equals(saga.state.status)) {
+            deliver(saga, saga.accountFrom, deliveryId -> new Cmd.WithdrawCmd(deliveryId, saga.state.transactionId, saga.state.accountFromId, saga.state.amount));
+        } else if (TransactionStatus.WITHDRAWN.equals(saga.state.status)) {
+            deliver(saga, saga.accountTo, deliveryId -> new Cmd.DepositCmd(deliveryId, saga.state.transactionId, saga.state.accountToId, saga.state.amount));
+        } else if (TransactionStatus.DEPOSIT_FAILED.equals(saga.state.status)) {
+            rollback(saga);
+        }
+    }
+
+    private void acknowledge(CmdAck j) {
+        String transactionId = deliveries.remove(j.deliveryId);
+        Saga saga = transactionId == null ? null : sagas.get(transactionId);
+        if (saga == null) {
+            log.debug("Acknowledgement {} for a finished transaction", j.deliveryId);
+            return;
+        }
+        confirmDelivery(j.deliveryId);
+        TransactionStatus status = saga.state.status;
+        if (TransactionStatus.NEW.equals(status)) {
+            if (j.event instanceof Evt.FailedEvent) {
+                log.error("Failed for debtor {} due to {}", saga.state, j.event);
+                Evt.FailedEvent failedEvent = (Evt.FailedEvent) j.event;
+                metrics.failed(failedEvent);
+                transition(saga, TransactionStatus.FAILED, a -> reply(a, new TransactionResult.Failure(
+                        failedEvent.type.equals(Evt.FailedEvent.Type.INSUFFICIENT_FUNDS) ? new InsufficientFundsException(failedEvent.additionalDescription) : new IllegalArgumentException(failedEvent.additionalDescription))));
+            } else if (j.event instanceof Evt.WithdrawEvent) {
+                transition(saga, TransactionStatus.WITHDRAWN, a -> {
+                    deliver(a, a.accountTo, deliveryId -> new Cmd.DepositCmd(deliveryId, a.state.transactionId, a.state.accountToId, a.state.amount));
+                    reply(a, new TransactionResult.Success(a.state.transactionId));
+                });
+            }
+        } else if (TransactionStatus.WITHDRAWN.equals(status)) {
+            if (j.event instanceof Evt.FailedEvent) {
+                log.error("Failed to creditor {} due to {} will attempt rollback", saga.state, j.event);
+                metrics.failed((Evt.FailedEvent) j.event);
+                transition(saga, TransactionStatus.DEPOSIT_FAILED, this::rollback);
+            } else if (j.event instanceof Evt.DepositEvent) {
+                transition(saga, TransactionStatus.COMPLETED, a -> {
+                });
+            }
+        } else if (TransactionStatus.DEPOSIT_FAILED.equals(status) && j.event instanceof Evt.DepositEvent) {
+            log.info("Rolling back transaction {}", saga.state);
+            transition(saga, TransactionStatus.ROLLBACK, a -> {
+            });
+        }
+    }
+
+    private void unconfirmed(AtLeastOnceDelivery.UnconfirmedDelivery delivery) {
+        confirmDelivery(delivery.deliveryId());
+        String transactionId = deliveries.remove(delivery.deliveryId());
+        Saga saga = transactionId == null ? null : sagas.get(transactionId);
+        if (saga == null) {
+            return;
+        }
+        TransactionStatus status = saga.state.status;
+        if (TransactionStatus.NEW.equals(status)) {
+            log.error("Withdraw account {} failed to respond after {} trials for {}", saga.accountFrom, warnAfterNumberOfUnconfirmedAttempts(), saga.state);
+            metrics.failed(null);
+            transition(saga, TransactionStatus.FAILED, a ->
+                    reply(a, new TransactionResult.Failure(new IllegalArgumentException("Bank account not responding"))));
+        } else if (TransactionStatus.WITHDRAWN.equals(status)) {
+            log.error("Deposit account {} failed to respond after {} trials for {} will attempt rollback", saga.accountTo, warnAfterNumberOfUnconfirmedAttempts(), saga.state);
+            metrics.failed(null);
+            transition(saga, TransactionStatus.DEPOSIT_FAILED, this::rollback);
+        } else if (TransactionStatus.DEPOSIT_FAILED.equals(status)) {
+            log.error("Rollback to account {} failed to respond after {} trials for {} will try again in 5 minutes ", saga.accountFrom, warnAfterNumberOfUnconfirmedAttempts(), saga.state);
+            getContext().system().scheduler().scheduleOnce(Duration.ofMinutes(5), self(),
+                    new RetryRollback(saga.state.transactionId), getContext().getDispatcher(), ActorRef.noSender());
+        }
+    }
+
+    private void rollback(Saga saga) {
+        //the transactionId has been flagged by the sender's account so "-rollback" is attached to differentiate it
+        //note that the read side is required to remove the  "-rollback" text before saving to its own store
+        deliver(saga, saga.accountFrom, deliveryId ->
+                new Cmd.DepositCmd(deliveryId, saga.state.transactionId + "-rollback", saga.state.accountFromId, saga.state.amount));
+    }
+
+    private void deliver(Saga saga, ActorPath destination, akka.japi.Function<Long, Object> deliveryIdToMessage) {
+        deliver(destination, deliveryId -> {
+            deliveries.put(deliveryId, saga.state.transactionId);
+            return deliveryIdToMessage.apply(deliveryId);
+        });
+    }
+
+    /**
+     * Answer the initiator of the saga and the retries waiting with it, each is answered once
+     */
+    private void reply(Saga saga, TransactionResult result) {
+        saga.initiators.forEach(g -> g.tell(result, self()));
+        saga.initiators.clear();
+    }
+
+    /**
+     * Queue the next status of a saga for the journal, the continuation runs once the status is written
+     */
+    private void transition(Saga saga, TransactionStatus status, Consumer<Saga> then) {
+        pendingTransitions.add(new Transition(saga, saga.state.with(status), then));
+        flush();
+    }
+
+    /**
+     * Write up to max-batch-size pending transitions in a single journal write,
+     * transitions queued while a write is in flight go out with the next one
+     */
+    private void flush() {
+        if (writeInFlight || pendingTransitions.isEmpty()) {
+            return;
+        }
+        List<Transition> batch = new ArrayList<>(pendingTransitions.subList(0, Math.min(maxBatchSize, pendingTransitions.size())));
+        pendingTransitions.subList(0, batch.size()).clear();
+        writeInFlight = true;
+
+        Iterator<Transition> written = batch.iterator();
+        List<Evt.TransactionEvent> events = new ArrayList<>(batch.size());
+        batch.forEach(f -> events.add(f.event));
+        long persistNanoTime = System.nanoTime();
+        persistAllAsync(events, e -> {
+            Transition transition = written.next();
+            metrics.journalWrite.recordSince(persistNanoTime);
+            Saga saga = transition.saga;
+            if (!saga.state.status.equals(e.status)) {
+                metrics.transition(saga.state.status, e.status, saga.lastTransitionNanoTime, saga.startNanoTime);
+            }
+            saga.lastTransitionNanoTime = System.nanoTime();
+            getContext().getSystem().getEventStream().publish(new TransactionStatuses.Changed(e.transactionId, e.status));
+            apply(e);
+            transition.saga.state = e;
+            transition.then.accept(transition.saga);
+            if (lastSequenceNr() % snapShotInterval == 0 && lastSequenceNr() != 0) {
+                List<Evt.TransactionEvent> ongoing = new ArrayList<>(sagas.size());
+                sagas.values().forEach(f -> ongoing.add(f.state));
+                saveSnapshot(new CoordinatorSnapshot(ongoing, new ArrayList<>(finished.values())));
+            }
+        });
+        deferAsync(batch.size(), f -> {
+            writeInFlight = false;
+            flush();
+        });
+    }
+
+    /**
+     * The answer to a retry of a saga past its withdrawal, from the status it reached
+     */
+    private static TransactionResult retried(Evt.TransactionEvent state) {
+        switch (state.status) {
+            case FAILED:
+                return new TransactionResult.Failure(new IllegalStateException(String.format("Transaction %s failed", state.transactionId)));
+            case ROLLBACK:
+                return new TransactionResult.Failure(new IllegalStateException(String.format("Transaction %s was rolled back", state.transactionId)));
+            case DEPOSIT_FAILED:
+                //still rolling back, followed on the status endpoint like an accepted transfer
+                return new TransactionResult.Accepted(state.transactionId);
+            default:
+                return new TransactionResult.Success(state.transactionId);
+        }
+    }
+
+    /**
+     * Keep the ongoing sagas, and only the last event of the finished ones
+     */
+    private void apply(Evt.TransactionEvent event) {
+        if (TransactionStatus.COMPLETED.equals(event.status) || TransactionStatus.FAILED.equals(event.status)
+                || TransactionStatus.ROLLBACK.equals(event.status)) {
+            sagas.remove(event.transactionId);
+            finished.put(event.transactionId, event);
+        } else if (sagas.containsKey(event.transactionId)) {
+            sagas.get(event.transactionId).state = event;
+        } else if (starting.containsKey(event.transactionId)) {
+            //its NEW event is journaled, the saga keeps the initiators waiting on it
+            Saga saga = starting.remove(event.transactionId);
+            saga.state = event;
+            sagas.put(event.transactionId, saga);
+        } else {
+            sagas.put(event.transactionId, new Saga(event));
+        }
+    }
+
+    @Override
+    public String persistenceId() {
+        return String.format("transfer-coordinator-%s", coordinatorId);
+    }
+
+    public static Props props(AccountDirectory directory) {
+        return Props.create(TransferCoordinator.class, directory);
+    }
+
+    /**
+     * Starts the coordinator shard region on this node
+     *
+     * @param actorSystem akka actor system
+     * @param directory   directory to resolve the accounts from
+     * @return the region that routes every saga to its coordinator
+     */
+    static ActorRef startSharding(ActorSystem actorSystem, AccountDirectory directory) {
+        Config config = actorSystem.settings().config();
+        return ClusterSharding.get(actorSystem).start(
+                SHARD_TYPE_NAME,
+                props(directory).withDispatcher(config.getString("transfer.dispatcher")),
+                ClusterShardingSettings.create(config.getConfig("transfer.coordinator.sharding")
+                        .withFallback(config.getConfig("akka.cluster.sharding"))),
+                new MessageExtractor(config.getInt("transfer.coordinator.pool-size")));
+    }
+
+    /**
+     * Routes a saga to the coordinator picked by the hash of its transactionId
+     */
+    static final class MessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+        private final int poolSize;
+
+        MessageExtractor(int poolSize) {
+            super(poolSize);
+            this.poolSize = poolSize;
+        }
+
+        @Override
+        public String entityId(Object message) {
+            if (message instanceof StartTransfer) {
+                return String.valueOf(Math.floorMod(((StartTransfer) message).transactionId.hashCode(), poolSize));
+            } else if (message instanceof WakeCoordinator) {
+                return String.valueOf(((WakeCoordinator) message).coordinator);
+            }
+            return null;
+        }
+    }
+
+    private static final class RetryRollback {
+        private final String transactionId;
+
+        private RetryRollback(String transactionId) {
+            this.transactionId = transactionId;
+        }
+    }
+
+    private static final class Saga {
+        private Evt.TransactionEvent state;
+
+        /**
+         * References to the api call that initiated the transfer and to the retries waiting on its withdrawal, empty
+         * for sagas resumed after recovery
+         */
+        private final List<ActorRef> initiators = new ArrayList<>();
+        private ActorPath accountFrom;
+        private ActorPath accountTo;
+        private final long startNanoTime = System.nanoTime();
+        private long lastTransitionNanoTime = startNanoTime;
+
+        private Saga(Evt.TransactionEvent state) {
+            this.state = state;
+        }
+    }
+
+    private static final class Transition {
+        private final Saga saga;
+        private final Evt.TransactionEvent event;
+        private final Consumer<Saga> then;
+
+        private Transition(Saga saga, Evt.TransactionEvent event, Consumer<Saga> then) {
+            this.saga = saga;
+            this.event = event;
+            this.then = then;
+        }
+    }
+}
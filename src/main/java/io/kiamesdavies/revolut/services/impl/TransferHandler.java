@@ -3,17 +3,22 @@ package io.kiamesdavies.revolut.services.impl;
 import akka.actor.*;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.japi.Procedure;
 import akka.pattern.BackoffOpts;
 import akka.pattern.BackoffSupervisor;
 import akka.persistence.AbstractPersistentActorWithAtLeastOnceDelivery;
 import akka.persistence.AtLeastOnceDelivery;
+import akka.persistence.RecoveryCompleted;
+import io.kiamesdavies.revolut.account.AccountDirectory;
 import io.kiamesdavies.revolut.exceptions.AccountNotFoundException;
 import io.kiamesdavies.revolut.exceptions.InsufficientFundsException;
 import io.kiamesdavies.revolut.models.*;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.time.Duration;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
@@ -22,7 +27,7 @@ class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
 
     private final String transactionId;
 
-    private final ActorRef bank;
+    private final AccountDirectory directory;
 
     /**
      * Define behaviour of the handler while deducting money from the sender's account
@@ -40,9 +45,9 @@ class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
     private final AbstractActor.Receive rollback;
 
     /**
-     * Reference to api call that initiated the transfer
+     * References to the api call that initiated the transfer and to the retries waiting on its withdrawal
      */
-    private ActorRef initiator;
+    private final List<ActorRef> initiators = new ArrayList<>();
     private Evt.TransactionEvent state;
 
     /**
@@ -55,34 +60,43 @@ class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
      */
     private ActorPath accountTo;
 
-    public TransferHandler(String transactionId, ActorRef bank) {
+    private final TransferMetrics metrics = TransferMetrics.get(getContext().getSystem());
+    private final long startNanoTime = System.nanoTime();
+    private long lastTransitionNanoTime = startNanoTime;
+
+    public TransferHandler(String transactionId, AccountDirectory directory) {
         this.transactionId = transactionId;
-        this.bank = bank;
+        this.directory = directory;
 
         rollback = receiveBuilder()
                 .match(CmdAck.class, f -> f.event instanceof Evt.DepositEvent, j -> {
                     log.info("Rolling back transaction {}", state);
-                    persist(state.with(TransactionStatus.ROLLBACK), a -> {
+                    transition(TransactionStatus.ROLLBACK, a -> {
                                 confirmDelivery(j.deliveryId);
-                                self().tell(PoisonPill.getInstance(), ActorRef.noSender());
+                                stop();
                             }
                     );
                 })
                 .match(AtLeastOnceDelivery.UnconfirmedWarning.class, j -> {
+                    metrics.unconfirmedWarnings.increment();
                     log.error("Rollback to account {} failed to respond after {} trials for {} will try again in 5 minutes ", accountTo, warnAfterNumberOfUnconfirmedAttempts(), state);
                     getContext().system().scheduler().scheduleOnce(
                             Duration.ofMinutes(5),
                             () -> deliver(accountFrom, deliveryId ->
                                     new Cmd.DepositCmd(deliveryId, transactionId + "-rollback", state.accountFromId, state.amount)), getContext().getDispatcher());
                 })
+                .match(Cmd.TransferCmd.class, this::retried)
+                .match(Accept.class, this::accepted)
                 .matchAny(f -> log.error("Unattended Message {} at state {}", f, state))
                 .build();
 
         creditor = receiveBuilder()
                 .match(AtLeastOnceDelivery.UnconfirmedWarning.class, j -> {
+                    metrics.unconfirmedWarnings.increment();
+                    metrics.failed(null);
                     log.error("Deposit account {} failed to respond after {} trials for {} will attempt rollback", accountTo, warnAfterNumberOfUnconfirmedAttempts(), state);
                     //rollback
-                    persist(state.with(TransactionStatus.DEPOSIT_FAILED), a -> {
+                    transition(TransactionStatus.DEPOSIT_FAILED, a -> {
                         j.getUnconfirmedDeliveries().forEach(g -> confirmDelivery(g.deliveryId()));
                         state = a;
                         getContext().become(rollback);
@@ -94,8 +108,9 @@ class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
                 })
                 .match(CmdAck.class, f -> f.event instanceof Evt.FailedEvent, j -> {
                     log.error("Failed to creditor {} due to {} will attempt rollback", state, j.event);
+                    metrics.failed((Evt.FailedEvent) j.event);
                     //rollback
-                    persist(state.with(TransactionStatus.DEPOSIT_FAILED), a -> {
+                    transition(TransactionStatus.DEPOSIT_FAILED, a -> {
                         confirmDelivery(j.deliveryId);
                         state = a;
                         getContext().become(rollback);
@@ -108,50 +123,51 @@ class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
 
                 })
                 .match(CmdAck.class, f -> f.event instanceof Evt.DepositEvent, j ->
-                        persist(state.with(TransactionStatus.COMPLETED), a -> {
+                        transition(TransactionStatus.COMPLETED, a -> {
                             confirmDelivery(j.deliveryId);
-                            self().tell(PoisonPill.getInstance(), ActorRef.noSender());
+                            stop();
                         })
                 )
+                .match(Cmd.TransferCmd.class, this::retried)
+                .match(Accept.class, this::accepted)
                 .matchAny(f -> log.error("Unattended Message {} at state {}", f, state))
                 .build();
 
 
         debtor = receiveBuilder()
                 .match(AtLeastOnceDelivery.UnconfirmedWarning.class, j -> {
+                    metrics.unconfirmedWarnings.increment();
+                    metrics.failed(null);
                     log.error("Withdraw account {} failed to respond after {} trials for {}", accountFrom, warnAfterNumberOfUnconfirmedAttempts(), state);
-                    persist(state.with(TransactionStatus.FAILED), (a) -> {
+                    transition(TransactionStatus.FAILED, (a) -> {
                         j.getUnconfirmedDeliveries().forEach(g -> confirmDelivery(g.deliveryId()));
-                        if (initiator != null) {
-                            initiator.tell(new TransactionResult.Failure(new IllegalArgumentException("Bank account not responding")), self());
-                        }
-                        self().tell(PoisonPill.getInstance(), ActorRef.noSender());
+                        answerInitiators(new TransactionResult.Failure(new IllegalArgumentException("Bank account not responding")));
+                        stop();
                     });
 
                 })
                 .match(CmdAck.class, f -> f.event instanceof Evt.FailedEvent, j -> {
                     log.error("Failed for debtor {} due to {}", state, j.event);
-                    persist(state.with(TransactionStatus.FAILED), a -> {
+                    metrics.failed((Evt.FailedEvent) j.event);
+                    transition(TransactionStatus.FAILED, a -> {
                         confirmDelivery(j.deliveryId);
-                        if (initiator != null) {
-                            Evt.FailedEvent failedEvent = (Evt.FailedEvent) j.event;
-                            initiator.tell(
-                                    new TransactionResult.Failure(failedEvent.type.equals(Evt.FailedEvent.Type.INSUFFICIENT_FUNDS) ? new InsufficientFundsException(failedEvent.additionalDescription) : new IllegalArgumentException(failedEvent.additionalDescription)), self());
-                        }
-                        self().tell(PoisonPill.getInstance(), ActorRef.noSender());
+                        Evt.FailedEvent failedEvent = (Evt.FailedEvent) j.event;
+                        answerInitiators(
+                                new TransactionResult.Failure(failedEvent.type.equals(Evt.FailedEvent.Type.INSUFFICIENT_FUNDS) ? new InsufficientFundsException(failedEvent.additionalDescription) : new IllegalArgumentException(failedEvent.additionalDescription)));
+                        stop();
                     });
                 })
                 .match(CmdAck.class, f -> f.event instanceof Evt.WithdrawEvent, j ->
-                        persist(state.with(TransactionStatus.WITHDRAWN), g -> {
+                        transition(TransactionStatus.WITHDRAWN, g -> {
                             confirmDelivery(j.deliveryId);
                             state = g;
                             getContext().become(creditor);
                             deliver(accountTo, deliveryId ->
                                     new Cmd.DepositCmd(deliveryId, state.transactionId, state.accountToId, state.amount));
-                            if (initiator != null) {
-                                initiator.tell(new TransactionResult.Success(transactionId), self());
-                            }
+                            answerInitiators(new TransactionResult.Success(transactionId));
                         }))
+                .match(Cmd.TransferCmd.class, this::retried)
+                .match(Accept.class, this::accepted)
                 .matchAny(f -> log.error("Unattended Message {} at state {}", f, state))
                 .build();
 
@@ -162,78 +178,30 @@ class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
     @Override
     public Receive createReceiveRecover() {
         return receiveBuilder()
-                .match(Evt.TransactionEvent.class, a -> this.startTransfer(a, true))
+                .match(Evt.TransactionEvent.class, a -> state = a)
+                .match(RecoveryCompleted.class, f -> {
+                    metrics.recovery.recordSince(startNanoTime);
+                    if (state != null) {
+                        //continue from where it stopped, a command sent again to an account is ignored by its idempotency index
+                        self().tell(new ResolveAccounts(), ActorRef.noSender());
+                    }
+                })
                 .build();
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(Cmd.TransferCmd.class, h -> {
-                    initiator = sender();
-                    if (h.accountFromId.equalsIgnoreCase(h.accountToId)) {
-                        initiator.tell(new TransactionResult.Failure(new IllegalArgumentException("Can't transfer to same account")), self());
-                        self().tell(PoisonPill.getInstance(), ActorRef.noSender());
-                    } else {
-                        persist(new Evt.TransactionEvent(transactionId, h, TransactionStatus.NEW), a ->
-                                startTransfer(a, false));
-                    }
-
-                })
-                .match(QueryAck.class, d -> d.response instanceof Map, f -> {
-                    confirmDelivery(f.deliveryId);
-                    Map<String, Query.BankReference> response = (Map<String, Query.BankReference>) f.response;
-                    accountFrom = response.get(state.accountFromId).bankAccount.path();
-                    accountTo = response.get(state.accountToId).bankAccount.path();
-                    if (TransactionStatus.NEW.equals(state.status)) {
-                        getContext().become(debtor);
-                        deliver(accountFrom, deliveryId -> new Cmd.WithdrawCmd(deliveryId, state.transactionId, state.accountFromId, state.amount));
-                    } else if (TransactionStatus.WITHDRAWN.equals(state.status) || TransactionStatus.DEPOSIT_FAILED.equals(state.status)) {
-                        getContext().become(creditor);
-                        deliver(accountTo, deliveryId -> new Cmd.DepositCmd(deliveryId, state.transactionId, state.accountToId, state.amount));
-                    } else {
-                        log.warning("A completed transaction {} try to restart, am going to kill myself now", state);
-                        self().tell(PoisonPill.getInstance(), ActorRef.noSender());
-                    }
-                })
-                .match(QueryAck.class, d -> d.response instanceof Query.QueryAckNotFound, j -> {
-                    if (TransactionStatus.NEW.equals(state.status)) {
-                        persist(state.with(TransactionStatus.FAILED), a -> {
-                            confirmDelivery(j.deliveryId);
-                            if (initiator != null) {
-                                Query.QueryAckNotFound queryAckNotFound = (Query.QueryAckNotFound) j.response;
-                                initiator.tell(new TransactionResult.Failure(new AccountNotFoundException(String.format("%s not found", queryAckNotFound.bankAccountId))), self());
-                            }
-                            self().tell(PoisonPill.getInstance(), ActorRef.noSender());
-                        });
-                    } else {
-                        confirmDelivery(j.deliveryId);
-                        if (initiator != null) {
-                            Query.QueryAckNotFound queryAckNotFound = (Query.QueryAckNotFound) j.response;
-                            initiator.tell(new TransactionResult.Failure(new IllegalArgumentException(String.format("%s not found", queryAckNotFound.bankAccountId))), self());
-                        }
-                        self().tell(PoisonPill.getInstance(), ActorRef.noSender());
-                    }
-                })
-                .match(AtLeastOnceDelivery.UnconfirmedWarning.class, j -> {
-                    log.error("Bank reference {} failed to respond after {} trials for {}", bank, warnAfterNumberOfUnconfirmedAttempts(), state);
-                    if (TransactionStatus.NEW.equals(state.status)) {
-                        persist(state.with(TransactionStatus.FAILED), a -> {
-                            j.getUnconfirmedDeliveries().forEach(g -> confirmDelivery(g.deliveryId()));
-                            if (initiator != null) {
-                                initiator.tell(new TransactionResult.Failure(new IllegalArgumentException("Bank ")), self());
-                            }
-                            self().tell(PoisonPill.getInstance(), ActorRef.noSender());
-                        });
-                    } else {
-                        j.getUnconfirmedDeliveries().forEach(g -> confirmDelivery(g.deliveryId()));
-                        if (initiator != null) {
-                            initiator.tell(new TransactionResult.Failure(new IllegalStateException("Bank not responding")), self());
-                        }
-                        self().tell(PoisonPill.getInstance(), ActorRef.noSender());
+                .match(Cmd.TransferCmd.class, h -> state != null, this::retried)
+                .match(Accept.class, h -> state != null, this::accepted)
+                .match(Cmd.TransferCmd.class, h -> start(h, false))
+                .match(Accept.class, h -> start(h.transferCmd, true))
+                .match(ResolveAccounts.class, f -> resolveAccounts())
+                .match(Resume.class, f -> {
+                    sender().tell(new Resumed(transactionId, state == null ? null : state.status), self());
+                    if (state == null) {
+                        stop();
                     }
-
-
                 })
                 .matchAny(f -> log.error("Unattended Message {}", f))
                 .build();
@@ -242,37 +210,170 @@ class TransferHandler extends AbstractPersistentActorWithAtLeastOnceDelivery {
 
 
     /**
-     * Start the process of transfer
-     * @param transactionEvent state of event
-     * @param checkForRecovery true if this was from a recovery process
+     * Journal the transfer as NEW and start it
+     *
+     * @param accept true to answer the initiator with {@link TransactionResult.Accepted} once journaled, instead of
+     *               with the result of the withdrawal
      */
-    private void startTransfer(Evt.TransactionEvent transactionEvent, boolean checkForRecovery) {
-        state = transactionEvent;
-        //get bank references
-        final Runnable run  = () ->
-                deliver(bank.path(), (deliveryId) ->
-                        new Query.Multiple(deliveryId, transactionEvent.accountFromId, transactionEvent.accountToId));
-
-        if(!checkForRecovery){
-            run.run();
+    private void start(Cmd.TransferCmd h, boolean accept) {
+        initiators.add(sender());
+        if (h.accountFromId.equalsIgnoreCase(h.accountToId)) {
+            answerInitiators(new TransactionResult.Failure(new IllegalArgumentException("Can't transfer to same account")));
+            stop();
+        } else {
+            long persistNanoTime = System.nanoTime();
+            persist(new Evt.TransactionEvent(transactionId, h, TransactionStatus.NEW), a -> {
+                metrics.journalWrite.recordSince(persistNanoTime);
+                lastTransitionNanoTime = System.nanoTime();
+                state = a;
+                publish(a);
+                if (accept) {
+                    //the initiator is not told how the transfer ends
+                    answerInitiators(new TransactionResult.Accepted(transactionId));
+                }
+                resolveAccounts();
+            });
         }
-        else if (checkForRecovery && recoveryFinished()) {
-            //wait for other messages that were sent before starting the process of transfer
-            getContext().system().scheduler().scheduleOnce(
-                    Duration.ofSeconds(redeliverInterval().toSeconds() * warnAfterNumberOfUnconfirmedAttempts()),
-                    run,
-                    getContext().getDispatcher());
+    }
+
+    /**
+     * Answer a transfer to start without waiting for it, it is already journaled
+     */
+    private void accepted(Accept h) {
+        sender().tell(new TransactionResult.Accepted(transactionId), self());
+    }
+
+    private void publish(Evt.TransactionEvent event) {
+        getContext().getSystem().getEventStream().publish(new TransactionStatuses.Changed(transactionId, event.status));
+    }
+
+    /**
+     * Answer a retry of the transfer, sent with the same Idempotency-Key, from its state instead of starting it again
+     */
+    private void retried(Cmd.TransferCmd h) {
+        if (TransactionStatus.NEW.equals(state.status)) {
+            //answered once the withdrawal is acknowledged, with the initiator
+            initiators.add(sender());
+        } else if (TransactionStatus.FAILED.equals(state.status)) {
+            sender().tell(new TransactionResult.Failure(new IllegalStateException(String.format("Transaction %s failed", transactionId))), self());
+        } else if (TransactionStatus.ROLLBACK.equals(state.status)) {
+            sender().tell(new TransactionResult.Failure(new IllegalStateException(String.format("Transaction %s was rolled back", transactionId))), self());
+        } else if (TransactionStatus.DEPOSIT_FAILED.equals(state.status)) {
+            //still rolling back, followed on the status endpoint like an accepted transfer
+            sender().tell(new TransactionResult.Accepted(transactionId), self());
+        } else {
+            sender().tell(new TransactionResult.Success(transactionId), self());
         }
     }
 
-    public static Props props(String transactionId, ActorRef bank) {
+    /**
+     * Answer the initiator and the retries waiting with it, each is answered once
+     */
+    private void answerInitiators(TransactionResult result) {
+        initiators.forEach(g -> g.tell(result, self()));
+        initiators.clear();
+    }
+
+    /**
+     * Resolve both accounts from the directory and continue the transfer from its current status
+     */
+    private void resolveAccounts() {
+        Optional<String> unknownAccount = directory.firstUnknown(state.accountFromId, state.accountToId);
+        if (unknownAccount.isPresent()) {
+            if (TransactionStatus.NEW.equals(state.status)) {
+                transition(TransactionStatus.FAILED, a -> {
+                    answerInitiators(new TransactionResult.Failure(new AccountNotFoundException(String.format("%s not found", unknownAccount.get()))));
+                    stop();
+                });
+            } else {
+                log.error("Account {} of an ongoing transaction {} is no longer available", unknownAccount.get(), state);
+                stop();
+            }
+            return;
+        }
+
+        accountFrom = directory.lookup(state.accountFromId).get().path();
+        accountTo = directory.lookup(state.accountToId).get().path();
+        if (TransactionStatus.NEW.equals(state.status)) {
+            getContext().become(debtor);
+            deliver(accountFrom, deliveryId -> new Cmd.WithdrawCmd(deliveryId, state.transactionId, state.accountFromId, state.amount));
+        } else if (TransactionStatus.WITHDRAWN.equals(state.status) || TransactionStatus.DEPOSIT_FAILED.equals(state.status)) {
+            getContext().become(creditor);
+            deliver(accountTo, deliveryId -> new Cmd.DepositCmd(deliveryId, state.transactionId, state.accountToId, state.amount));
+        } else {
+            log.debug("Transaction {} has already finished", state);
+            stop();
+        }
+    }
+
+    /**
+     * Persist the next status of the transfer, the handler runs once it is written
+     */
+    private void transition(TransactionStatus status, Procedure<Evt.TransactionEvent> handler) {
+        TransactionStatus from = state.status;
+        long persistNanoTime = System.nanoTime();
+        persist(state.with(status), a -> {
+            metrics.journalWrite.recordSince(persistNanoTime);
+            metrics.transition(from, status, lastTransitionNanoTime, startNanoTime);
+            lastTransitionNanoTime = System.nanoTime();
+            publish(a);
+            handler.apply(a);
+        });
+    }
+
+    /**
+     * Stop the supervisor of the handler, a stopped handler would otherwise be started again by it
+     */
+    private void stop() {
+        getContext().getParent().tell(PoisonPill.getInstance(), self());
+    }
+
+    private static final class ResolveAccounts {
+    }
+
+    /**
+     * Start the transfer like a {@link Cmd.TransferCmd}, answered with {@link TransactionResult.Accepted} as soon as
+     * it is journaled
+     */
+    static final class Accept {
+        final Cmd.TransferCmd transferCmd;
+
+        Accept(Cmd.TransferCmd transferCmd) {
+            this.transferCmd = transferCmd;
+        }
+    }
+
+    /**
+     * Answered with {@link Resumed} once the handler recovered its state from the journal, the transfer continues right after
+     */
+    static final class Resume {
+    }
+
+    static final class Resumed {
+        final String transactionId;
+
+        /**
+         * Status the transfer recovered, null when it has no event
+         */
+        final TransactionStatus status;
+
+        Resumed(String transactionId, TransactionStatus status) {
+            this.transactionId = transactionId;
+            this.status = status;
+        }
+    }
+
+    /**
+     * @param dispatcher id of the dispatcher the handler and its supervisor run on, {@code transfer.dispatcher}
+     */
+    public static Props props(String transactionId, AccountDirectory directory, String dispatcher) {
         return BackoffSupervisor.props(
                 BackoffOpts.onStop(
-                        Props.create(TransferHandler.class, transactionId, bank), transactionId,
+                        Props.create(TransferHandler.class, transactionId, directory).withDispatcher(dispatcher), transactionId,
                         FiniteDuration.create(1, TimeUnit.SECONDS),
                         FiniteDuration.create(10, TimeUnit.SECONDS),
                         0.2)
-        );
+        ).withDispatcher(dispatcher);
     }
 
     @Override
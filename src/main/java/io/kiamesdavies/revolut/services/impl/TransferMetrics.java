@@ -0,0 +1,109 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.models.Evt;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+
+/**
+ * The metrics of the transfer sagas, looked up once per actor system so that a saga records without any lookup
+ */
+final class TransferMetrics implements Extension {
+
+    private static final Id ID = new Id();
+
+    private final Metrics metrics;
+
+    /**
+     * Time spent in a status before moving to the next, by the ordinals of both, registered on the first transition
+     * so that the impossible ones are not written out
+     */
+    private final Metrics.Histogram[][] transitions;
+
+    /**
+     * Time from the start of a saga to the status it finished with
+     */
+    private final Metrics.Histogram[] sagas;
+    private final Metrics.Counter[] failures;
+    private final Metrics.Counter unconfirmedFailures;
+    final Metrics.Counter rollbacks;
+    final Metrics.Counter unconfirmedWarnings;
+    final Metrics.Histogram journalWrite;
+    final Metrics.Histogram recovery;
+
+    private TransferMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        int statuses = TransactionStatus.values().length;
+        transitions = new Metrics.Histogram[statuses][statuses];
+        sagas = new Metrics.Histogram[statuses];
+        for (TransactionStatus status : new TransactionStatus[]{TransactionStatus.COMPLETED, TransactionStatus.FAILED, TransactionStatus.ROLLBACK}) {
+            sagas[status.ordinal()] = metrics.histogram("transfer_saga_seconds", "Time from the start of a transfer to its last status", "status", status.name());
+        }
+        Evt.FailedEvent.Type[] types = Evt.FailedEvent.Type.values();
+        failures = new Metrics.Counter[types.length];
+        for (Evt.FailedEvent.Type type : types) {
+            failures[type.ordinal()] = metrics.counter("transfer_failures_total", "Withdrawals and deposits refused or not acknowledged", "type", type.name());
+        }
+        unconfirmedFailures = metrics.counter("transfer_failures_total", "Withdrawals and deposits refused or not acknowledged", "type", "UNCONFIRMED");
+        rollbacks = metrics.counter("transfer_rollbacks_total", "Transfers whose withdrawal was rolled back");
+        unconfirmedWarnings = metrics.counter("transfer_unconfirmed_warnings_total", "Deliveries to an account still unconfirmed after warn-after-number-of-unconfirmed-attempts");
+        journalWrite = metrics.histogram("journal_write_seconds", "Time from persisting events to their handler", "entity", "transfer");
+        recovery = metrics.histogram("journal_recovery_seconds", "Time from starting an entity to the end of its recovery", "entity", "transfer");
+    }
+
+    static TransferMetrics get(ActorSystem actorSystem) {
+        return ID.get(actorSystem);
+    }
+
+    /**
+     * @param from          status left
+     * @param to            status reached
+     * @param sinceNanoTime {@link System#nanoTime()} when the previous status was reached
+     * @param startNanoTime {@link System#nanoTime()} when the saga started
+     */
+    void transition(TransactionStatus from, TransactionStatus to, long sinceNanoTime, long startNanoTime) {
+        long now = System.nanoTime();
+        Metrics.Histogram transition = transitions[from.ordinal()][to.ordinal()];
+        if (transition == null) {
+            //a racing saga gets the same histogram from the registry
+            transition = metrics.histogram("transfer_transition_seconds",
+                    "Time a transfer spent in a status before moving to the next", "from", from.name(), "to", to.name());
+            transitions[from.ordinal()][to.ordinal()] = transition;
+        }
+        transition.record(now - sinceNanoTime);
+        if (sagas[to.ordinal()] != null) {
+            sagas[to.ordinal()].record(now - startNanoTime);
+        }
+        if (TransactionStatus.DEPOSIT_FAILED.equals(to)) {
+            rollbacks.increment();
+        }
+    }
+
+    /**
+     * @param failedEvent the refusal of an account, or null when the account did not acknowledge at all
+     */
+    void failed(Evt.FailedEvent failedEvent) {
+        if (failedEvent == null || failedEvent.type == null) {
+            unconfirmedFailures.increment();
+        } else {
+            failures[failedEvent.type.ordinal()].increment();
+        }
+    }
+
+    private static final class Id extends AbstractExtensionId<TransferMetrics> implements ExtensionIdProvider {
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+
+        @Override
+        public TransferMetrics createExtension(ExtendedActorSystem system) {
+            return new TransferMetrics(Metrics.get(system));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package io.kiamesdavies.revolut.services.impl;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.InvalidActorNameException;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.pattern.Patterns;
+import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import io.kiamesdavies.revolut.account.AccountDirectory;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.readside.HangingTransactions;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resumes the transfers that did not finish when the system stopped.
+ * <p>
+ * Every transfer gets its {@link TransferHandler} back, which recovers its state from the journal and continues from
+ * where it stopped. At most {@code transfer.recovery.parallelism} handlers recover at a time and at most
+ * {@code transfer.recovery.rate} are started per second, so the journal still serves the new transfers.
+ */
+public final class TransferRecovery {
+
+    private final ActorSystem actorSystem;
+    private final AccountDirectory directory;
+    private final HangingTransactions hangingTransactions;
+    private final LoggingAdapter log;
+
+    private final int parallelism;
+    private final int rate;
+    private final Duration resumeTimeout;
+    private final Duration progressInterval;
+    private final String dispatcher;
+
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong durationMillis = new AtomicLong();
+
+    public TransferRecovery(ActorSystem actorSystem, AccountDirectory directory, HangingTransactions hangingTransactions) {
+        this.actorSystem = actorSystem;
+        this.directory = directory;
+        this.hangingTransactions = hangingTransactions;
+        log = Logging.getLogger(actorSystem, this);
+        Config config = actorSystem.settings().config();
+        parallelism = config.getInt("transfer.recovery.parallelism");
+        rate = config.getInt("transfer.recovery.rate");
+        resumeTimeout = Duration.ofMillis(config.getDuration("transfer.recovery.resume-timeout", TimeUnit.MILLISECONDS));
+        dispatcher = config.getString("transfer.dispatcher");
+        progressInterval = Duration.ofMillis(config.getDuration("transfer.recovery.progress-interval", TimeUnit.MILLISECONDS));
+
+        Metrics metrics = Metrics.get(actorSystem);
+        metrics.gauge("transfer_recovery_found", "Hanging transfers found when the system started", found::get);
+        metrics.gauge("transfer_recovery_resumed", "Hanging transfers resumed so far", resumed::get);
+        metrics.gauge("transfer_recovery_failed", "Hanging transfers that failed to resume", failed::get);
+        metrics.gauge("transfer_recovery_duration_milliseconds", "Time to resume every hanging transfer", durationMillis::get);
+    }
+
+    /**
+     * Find the hanging transfers and resume them
+     *
+     * @return the progress once every transfer found was resumed or failed to
+     */
+    public CompletionStage<Progress> run() {
+        long startNanoTime = System.nanoTime();
+        ActorMaterializer materializer = ActorMaterializer.create(ActorMaterializerSettings.create(actorSystem).withDispatcher(dispatcher), actorSystem);
+        Cancellable report = actorSystem.scheduler().schedule(progressInterval, progressInterval,
+                () -> log.info("Resumed {} of {} hanging transfers, {} failed", resumed.get(), found.get(), failed.get()),
+                actorSystem.dispatcher());
+        return Source.fromCompletionStage(hangingTransactions.find())
+                .mapConcat(transactionIds -> {
+                    found.set(transactionIds.size());
+                    log.info("Resuming {} hanging transfers", transactionIds.size());
+                    return transactionIds;
+                })
+                .throttle(rate, Duration.ofSeconds(1))
+                .mapAsyncUnordered(parallelism, this::resume)
+                .runWith(Sink.ignore(), materializer)
+                .handle((done, e) -> {
+                    report.cancel();
+                    materializer.shutdown();
+                    durationMillis.set(Duration.ofNanos(System.nanoTime() - startNanoTime).toMillis());
+                    if (e != null) {
+                        log.error(e, "Failed to find the hanging transfers");
+                    }
+                    Progress progress = new Progress(found.get(), resumed.get(), failed.get(), durationMillis.get());
+                    log.info("Resumed {} of {} hanging transfers in {} ms, {} failed", progress.resumed, progress.found,
+                            progress.durationMillis, progress.failed);
+                    return progress;
+                });
+    }
+
+    private CompletionStage<Done> resume(String transactionId) {
+        ActorRef handler;
+        try {
+            handler = actorSystem.actorOf(TransferHandler.props(transactionId, directory, dispatcher), String.format("transaction-%s", transactionId));
+        } catch (InvalidActorNameException e) {
+            //still running on this node
+            resumed.incrementAndGet();
+            return CompletableFuture.completedFuture(Done.getInstance());
+        }
+        return Patterns.ask(handler, new TransferHandler.Resume(), resumeTimeout).handle((f, e) -> {
+            if (e != null) {
+                failed.incrementAndGet();
+                log.error(e, "Transfer {} failed to resume", transactionId);
+            } else {
+                resumed.incrementAndGet();
+            }
+            return Done.getInstance();
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "TransferRecovery";
+    }
+
+    /**
+     * Hanging transfers found, resumed and failed to resume, with the time it took
+     */
+    public static final class Progress {
+        public final long found;
+        public final long resumed;
+        public final long failed;
+        public final long durationMillis;
+
+        Progress(long found, long resumed, long failed, long durationMillis) {
+            this.found = found;
+            this.resumed = resumed;
+            this.failed = failed;
+            this.durationMillis = durationMillis;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+CREATE TABLE IF NOT EXISTS PUBLIC."transactions"
+(
+    "transaction_id"   VARCHAR(255) NOT NULL,
+    "account_from_id"  VARCHAR(255) NOT NULL,
+    "account_to_id"    VARCHAR(255) NOT NULL,
+    "amount"           BIGINT       NOT NULL,
+    "currency"         CHAR(3)      NOT NULL,
+    "transaction_type" VARCHAR(32)  NOT NULL,
+    "remarks"          VARCHAR(1024) DEFAULT NULL,
+    "source"           VARCHAR(255) DEFAULT NULL,
+    "status"           VARCHAR(32)  NOT NULL,
+    "updated"          BIGINT       NOT NULL,
+    PRIMARY KEY ("transaction_id")
+);
+
+CREATE INDEX IF NOT EXISTS "transactions_status_idx" ON PUBLIC."transactions" ("status");
+
+CREATE TABLE IF NOT EXISTS PUBLIC."account_balances"
+(
+    "bank_account_id"     VARCHAR(255) NOT NULL,
+    "balance"             BIGINT       NOT NULL,
+    "currency"            CHAR(3)      NOT NULL,
+    "last_transaction_id" VARCHAR(255) DEFAULT NULL,
+    "updated"             BIGINT       NOT NULL,
+    PRIMARY KEY ("bank_account_id")
+);
+
+CREATE TABLE IF NOT EXISTS PUBLIC."projection_tag_offsets"
+(
+    "tag"      VARCHAR(255) NOT NULL,
+    "ordering" BIGINT       NOT NULL,
+    PRIMARY KEY ("tag")
+);
+
+CREATE TABLE IF NOT EXISTS PUBLIC."projected_sequence_numbers"
+(
+    "persistence_id"  VARCHAR(255) NOT NULL,
+    "sequence_number" BIGINT       NOT NULL,
+    PRIMARY KEY ("persistence_id")
+);
@@ -0,0 +1,11 @@
+CREATE TABLE IF NOT EXISTS PUBLIC."journal_tags"
+(
+    "tag"            VARCHAR(255) NOT NULL,
+    "ordering"       BIGINT       NOT NULL,
+    "persistence_id" VARCHAR(255) NOT NULL,
+    PRIMARY KEY ("tag", "ordering")
+);
+
+CREATE INDEX IF NOT EXISTS "journal_tags_persistence_id_idx" ON PUBLIC."journal_tags" ("persistence_id", "tag");
+
+CREATE TRIGGER IF NOT EXISTS "journal_tags_trigger" AFTER INSERT, DELETE ON PUBLIC."journal" FOR EACH ROW CALL 'io.kiamesdavies.revolut.commons.JournalTagsTrigger';
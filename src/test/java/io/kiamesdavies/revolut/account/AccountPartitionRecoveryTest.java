@@ -0,0 +1,181 @@
+package io.kiamesdavies.revolut.account;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.models.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+
+/**
+ * Restarts a partition from its balance file, and from its journal once the file is torn, stale, turned off or
+ * disabled
+ */
+public class AccountPartitionRecoveryTest {
+
+    private static final Random RANDOM = new Random();
+
+    @Test
+    void shouldRestartFromBalanceFileAndFromJournalWhenFileIsTorn() throws IOException {
+        Path dir = Files.createTempDirectory("partition-recovery");
+
+        ActorSystem first = ActorSystem.create("partition-recovery", config(dir));
+        TestKit probe = new TestKit(first);
+        ActorRef partition = first.actorOf(AccountPartition.props(), "0");
+        for (int i = 0; i < 5; i++) {
+            partition.tell(new Cmd.DepositCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), "a", Money.ofMinor(100)), probe.getRef());
+            assertThat(probe.expectMsgClass(CmdAck.class).event, instanceOf(Evt.DepositEvent.class));
+            partition.tell(new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), "b", Money.ofMinor(30)), probe.getRef());
+            assertThat(probe.expectMsgClass(CmdAck.class).event, instanceOf(Evt.WithdrawEvent.class));
+        }
+        AccountBalance a = balance(partition, probe, "a");
+        AccountBalance b = balance(partition, probe, "b");
+        TestKit.shutdownActorSystem(first);
+
+        ActorSystem second = ActorSystem.create("partition-recovery", config(dir));
+        probe = new TestKit(second);
+        partition = second.actorOf(AccountPartition.props(), "0");
+        assertThat(balance(partition, probe, "a").getMoney(), equalTo(a.getMoney()));
+        assertThat(balance(partition, probe, "b").getMoney(), equalTo(b.getMoney()));
+        TestKit.shutdownActorSystem(second);
+
+        try (RandomAccessFile raw = new RandomAccessFile(dir.resolve("balances").resolve("account-partition-0.bal").toFile(), "rw")) {
+            raw.seek(BalanceFile.RECORD_SIZE + 4);
+            raw.write(0x7f);
+        }
+        ActorSystem third = ActorSystem.create("partition-recovery", config(dir));
+        probe = new TestKit(third);
+        partition = third.actorOf(AccountPartition.props(), "0");
+        assertThat(balance(partition, probe, "a").getMoney(), equalTo(a.getMoney()));
+        assertThat(balance(partition, probe, "b").getMoney(), equalTo(b.getMoney()));
+        TestKit.shutdownActorSystem(third);
+    }
+
+    @Test
+    void shouldReplayTheJournalWhenTheBalanceFileIsOlderThanItsSnapshot() throws IOException {
+        Path dir = Files.createTempDirectory("partition-recovery");
+        Path file = dir.resolve("balances").resolve("account-partition-0.bal");
+        Path stale = dir.resolve("account-partition-0.bal.stale");
+
+        ActorSystem first = ActorSystem.create("partition-recovery", config(dir, "account.balance-file.flush = snapshot"));
+        TestKit probe = new TestKit(first);
+        ActorRef partition = first.actorOf(AccountPartition.props(), "0");
+        deposit(partition, probe, "a", 4);
+        TestKit.shutdownActorSystem(first);
+        Files.copy(file, stale);
+
+        ActorSystem second = ActorSystem.create("partition-recovery", config(dir, "account.balance-file.flush = snapshot"));
+        probe = new TestKit(second);
+        partition = second.actorOf(AccountPartition.props(), "0");
+        deposit(partition, probe, "a", 6);
+        AccountBalance a = balance(partition, probe, "a");
+        TestKit.shutdownActorSystem(second);
+
+        //the file synced at the first snapshot, behind the snapshots of the second run
+        Files.copy(stale, file, StandardCopyOption.REPLACE_EXISTING);
+        ActorSystem third = ActorSystem.create("partition-recovery", config(dir, "account.balance-file.flush = snapshot"));
+        probe = new TestKit(third);
+        //the partition refuses its snapshot and restarts, the balance query waits for it
+        partition = third.actorOf(AccountPartition.props(), "0");
+        assertThat(balance(partition, probe, "a").getMoney(), equalTo(a.getMoney()));
+        TestKit.shutdownActorSystem(third);
+    }
+
+    @Test
+    void shouldReplayTheJournalWhenTheBalanceFileIsTurnedOff() throws IOException {
+        Path dir = Files.createTempDirectory("partition-recovery");
+
+        ActorSystem first = ActorSystem.create("partition-recovery", config(dir, ""));
+        TestKit probe = new TestKit(first);
+        ActorRef partition = first.actorOf(AccountPartition.props(), "0");
+        deposit(partition, probe, "a", 7);
+        AccountBalance a = balance(partition, probe, "a");
+        TestKit.shutdownActorSystem(first);
+
+        ActorSystem second = ActorSystem.create("partition-recovery", config(dir, "account.balance-file.enabled = off"));
+        probe = new TestKit(second);
+        partition = second.actorOf(AccountPartition.props(), "0");
+        assertThat(balance(partition, probe, "a").getMoney(), equalTo(a.getMoney()));
+        deposit(partition, probe, "a", 3);
+        a = balance(partition, probe, "a");
+        TestKit.shutdownActorSystem(second);
+
+        //the snapshot taken with the file off holds the balances
+        ActorSystem third = ActorSystem.create("partition-recovery", config(dir, "account.balance-file.enabled = off"));
+        probe = new TestKit(third);
+        partition = third.actorOf(AccountPartition.props(), "0");
+        assertThat(balance(partition, probe, "a").getMoney(), equalTo(a.getMoney()));
+        TestKit.shutdownActorSystem(third);
+    }
+
+    @Test
+    void shouldDisableTheBalanceFileOfThePartitionForAnIdThatDoesNotFit() throws IOException {
+        Path dir = Files.createTempDirectory("partition-recovery");
+        Path file = dir.resolve("balances").resolve("account-partition-0.bal");
+        String longId = String.join("", Collections.nCopies(BalanceFile.MAX_ID_BYTES + 1, "x"));
+
+        ActorSystem first = ActorSystem.create("partition-recovery", config(dir, ""));
+        TestKit probe = new TestKit(first);
+        ActorRef partition = first.actorOf(AccountPartition.props(), "0");
+        deposit(partition, probe, "a", 4);
+        deposit(partition, probe, longId, 1);
+        deposit(partition, probe, "a", 3);
+        AccountBalance a = balance(partition, probe, "a");
+        AccountBalance x = balance(partition, probe, longId);
+        TestKit.shutdownActorSystem(first);
+        assertThat(Files.exists(file), equalTo(false));
+        assertThat(Files.size(file.resolveSibling(file.getFileName() + ".disabled")), greaterThan(0L));
+
+        //the partition keeps its file disabled and recovers from the snapshots of the whole balance table
+        ActorSystem second = ActorSystem.create("partition-recovery", config(dir, ""));
+        probe = new TestKit(second);
+        partition = second.actorOf(AccountPartition.props(), "0");
+        assertThat(balance(partition, probe, "a").getMoney(), equalTo(a.getMoney()));
+        assertThat(balance(partition, probe, longId).getMoney(), equalTo(x.getMoney()));
+        TestKit.shutdownActorSystem(second);
+        assertThat(Files.exists(file), equalTo(false));
+    }
+
+    private static void deposit(ActorRef partition, TestKit probe, String bankAccountId, int times) {
+        for (int i = 0; i < times; i++) {
+            partition.tell(new Cmd.DepositCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, Money.ofMinor(100)), probe.getRef());
+            assertThat(probe.expectMsgClass(CmdAck.class).event, instanceOf(Evt.DepositEvent.class));
+        }
+    }
+
+    private static AccountBalance balance(ActorRef partition, TestKit probe, String bankAccountId) {
+        partition.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), probe.getRef());
+        return (AccountBalance) probe.expectMsgClass(QueryAck.class).response;
+    }
+
+    private static Config config(Path dir) {
+        return config(dir, "");
+    }
+
+    private static Config config(Path dir, String overrides) {
+        return ConfigFactory.parseString("akka.persistence.journal.plugin = \"file-journal\"\n"
+                + "akka.persistence.snapshot-store.plugin = \"file-snapshot-store\"\n"
+                + "file-journal.dir = \"" + dir.resolve("journal") + "\"\n"
+                + "file-snapshot-store.dir = \"" + dir.resolve("snapshots") + "\"\n"
+                + "account.balance-file.enabled = on\n"
+                + "account.balance-file.dir = \"" + dir.resolve("balances") + "\"\n"
+                + "account.snapshot.max-events = 3\n"
+                + overrides)
+                .withFallback(ConfigFactory.load());
+    }
+}
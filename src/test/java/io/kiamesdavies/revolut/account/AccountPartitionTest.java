@@ -0,0 +1,109 @@
+package io.kiamesdavies.revolut.account;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.exceptions.InsufficientFundsException;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import io.kiamesdavies.revolut.services.impl.TransactionStatuses;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+
+/**
+ * Transfers between accounts of one partition in a single hop, and across partitions through the saga
+ */
+public class AccountPartitionTest {
+
+    private static ActorSystem system;
+    private static Account account;
+
+    @BeforeAll
+    static void setup() {
+        //with two partitions accounts 1 and 3 share a partition, accounts 1 and 2 do not
+        system = ActorSystem.create("partitions", ConfigFactory.parseString("account.partitions { enabled = on, count = 2 }")
+                .withFallback(ConfigFactory.load()));
+        account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldTransferWithinPartitionInOneHop() {
+        assertThat(AccountPartition.partitionOf("1", 2), equalTo(AccountPartition.partitionOf("3", 2)));
+        BigDecimal amount = BigDecimal.valueOf(100);
+        AccountBalance accountBalance1 = account.getBalance("1").toCompletableFuture().join();
+        AccountBalance accountBalance3 = account.getBalance("3").toCompletableFuture().join();
+        Metrics.Counter local = Metrics.get(system).counter("transfer_path_total", "Transfers by the path they took", "path", "local");
+        long before = local.count();
+
+        TransactionResult result = account.transferMoney("1", "3", new MoneyTransfer(amount)).toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Success.class));
+        assertThat(local.count(), greaterThan(before));
+        //the partition applied both legs before it replied
+        assertThat(account.getBalance("1").toCompletableFuture().join().getBalance(), equalTo(accountBalance1.getBalance().subtract(amount)));
+        assertThat(account.getBalance("3").toCompletableFuture().join().getBalance(), equalTo(accountBalance3.getBalance().add(amount)));
+    }
+
+    @Test
+    void shouldFailWithinPartitionIfSenderAccountIsNotSufficient() {
+        AccountBalance accountBalance3 = account.getBalance("3").toCompletableFuture().join();
+        TransactionResult result = account.transferMoney("3", "1", new MoneyTransfer(accountBalance3.getBalance().add(BigDecimal.TEN)))
+                .toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Failure.class));
+        assertThat(((TransactionResult.Failure) result).exception, instanceOf(InsufficientFundsException.class));
+        assertThat(account.getBalance("3").toCompletableFuture().join().getBalance(), equalTo(accountBalance3.getBalance()));
+    }
+
+    @Test
+    void shouldPublishTheStatusOfARejectedTransferWithinPartition() {
+        TransactionStatuses statuses = TransactionStatuses.get(system);
+        String idempotencyKey = UUID.randomUUID().toString();
+        AccountBalance accountBalance3 = account.getBalance("3").toCompletableFuture().join();
+        TransactionResult result = account.acceptTransfer("3", "1", new MoneyTransfer(accountBalance3.getBalance().add(BigDecimal.TEN)), idempotencyKey)
+                .toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Failure.class));
+
+        String transactionId = UUID.nameUUIDFromBytes(("3/" + idempotencyKey).getBytes(StandardCharsets.UTF_8)).toString();
+        new TestKit(system).awaitAssert(() -> {
+            assertThat(statuses.lookup(transactionId).orElse(null), equalTo(TransactionStatus.FAILED));
+            return null;
+        });
+    }
+
+    @Test
+    void shouldTransferAcrossPartitionsThroughTheSaga() {
+        BigDecimal amount = BigDecimal.TEN;
+        AccountBalance accountBalance2 = account.getBalance("2").toCompletableFuture().join();
+        Metrics.Counter saga = Metrics.get(system).counter("transfer_path_total", "Transfers by the path they took", "path", "saga");
+        long before = saga.count();
+
+        TransactionResult result = account.transferMoney("5", "2", new MoneyTransfer(amount)).toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Success.class));
+        assertThat(saga.count(), greaterThan(before));
+        new TestKit(system).awaitAssert(() -> {
+            assertThat(account.getBalance("2").toCompletableFuture().join().getBalance(), equalTo(accountBalance2.getBalance().add(amount)));
+            return null;
+        });
+    }
+}
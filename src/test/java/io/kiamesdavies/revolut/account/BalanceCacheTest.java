@@ -0,0 +1,96 @@
+package io.kiamesdavies.revolut.account;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.CachedBalances;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Balances answered from the cache and kept current by the changes the bank accounts publish
+ */
+public class BalanceCacheTest {
+
+    private static ActorSystem system;
+    private static Account account;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("balance-cache", ConfigFactory.parseString("account.balance-cache { enabled = on, max-staleness = 1 minute }")
+                .withFallback(ConfigFactory.load()));
+        account = new CachedBalances(new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system)), system);
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldIgnoreAChangeOlderThanTheCachedOne() {
+        BalanceCache cache = new BalanceCache(Duration.ofMinutes(1));
+        cache.changed(new BalanceCache.Changed("1", balance("1", 700), 7));
+        cache.changed(new BalanceCache.Changed("1", balance("1", 500), 5));
+
+        assertThat(cache.lookup("1").map(AccountBalance::getMinorUnits), equalTo(Optional.of(700L)));
+    }
+
+    @Test
+    void shouldNotFillOverANewerChange() {
+        BalanceCache cache = new BalanceCache(Duration.ofMinutes(1));
+        cache.changed(new BalanceCache.Changed("1", balance("1", 700), 7));
+        cache.fill(new BalanceCache.Changed("1", balance("1", 500), 5));
+
+        assertThat(cache.lookup("1").map(AccountBalance::getMinorUnits), equalTo(Optional.of(700L)));
+    }
+
+    @Test
+    void shouldIgnoreAChangeOlderThanTheFilledBalance() {
+        BalanceCache cache = new BalanceCache(Duration.ofMinutes(1));
+        cache.changed(new BalanceCache.Changed("1", balance("1", 500), 5));
+        cache.fill(new BalanceCache.Changed("1", balance("1", 900), 9));
+        cache.changed(new BalanceCache.Changed("1", balance("1", 700), 7));
+
+        assertThat(cache.lookup("1").map(AccountBalance::getMinorUnits), equalTo(Optional.of(900L)));
+    }
+
+    @Test
+    void shouldMissAStaleBalance() {
+        BalanceCache cache = new BalanceCache(Duration.ZERO);
+        cache.changed(new BalanceCache.Changed("1", balance("1", 700), 7));
+
+        assertThat(cache.lookup("1").isPresent(), equalTo(false));
+    }
+
+    @Test
+    void shouldKeepTheCachedBalanceCurrentWithTheTransfers() {
+        BigDecimal before = account.getBalance("2").toCompletableFuture().join().getBalance();
+        account.transferMoney("1", "2", new MoneyTransfer(BigDecimal.valueOf(15))).toCompletableFuture().join();
+
+        new TestKit(system).awaitAssert(Duration.ofSeconds(5), () -> {
+            assertThat(account.getBalance("2").toCompletableFuture().join().getBalance(), equalTo(before.add(new BigDecimal("15.00"))));
+            return null;
+        });
+        assertThat(account.getBalance("2", true).toCompletableFuture().join().getBalance(), equalTo(before.add(new BigDecimal("15.00"))));
+    }
+
+    private static AccountBalance balance(String bankAccountId, long minorUnits) {
+        return new AccountBalance(bankAccountId, Money.ofMinor(minorUnits));
+    }
+}
@@ -0,0 +1,92 @@
+package io.kiamesdavies.revolut.account;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for the memory mapped records of the balances of a partition
+ */
+public class BalanceFileTest {
+
+    @Test
+    void shouldLoadWhatWasWritten() throws IOException {
+        Path path = Files.createTempDirectory("balance-file").resolve("partition.bal");
+        try (BalanceFile file = BalanceFile.open(path)) {
+            for (int slot = 0; slot < 5000; slot++) {
+                file.write(slot, "account-" + slot, slot * 10L, slot + 1);
+            }
+            file.write(1, "account-1", 7, 5001);
+        }
+
+        try (BalanceFile file = BalanceFile.open(path)) {
+            BalanceFile.Records records = file.load();
+            assertThat(records.bankAccountIds.length, equalTo(5000));
+            assertThat(records.bankAccountIds[4999], equalTo("account-4999"));
+            assertThat(records.balances[4999], equalTo(49990L));
+            assertThat(records.balances[1], equalTo(7L));
+            assertThat(file.sequenceNr(1), equalTo(5001L));
+            assertThat(file.highestSequenceNr(), equalTo(5001L));
+        }
+    }
+
+    @Test
+    void shouldRejectTornRecord() throws IOException {
+        Path path = Files.createTempDirectory("balance-file").resolve("partition.bal");
+        try (BalanceFile file = BalanceFile.open(path)) {
+            file.write(0, "1", 100, 1);
+            file.write(1, "2", 200, 2);
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+            raw.seek(BalanceFile.RECORD_SIZE + 4);
+            raw.write(0x7f);
+        }
+
+        try (BalanceFile file = BalanceFile.open(path)) {
+            assertThat(file.load(), nullValue());
+            file.clear();
+            assertThat(file.load().bankAccountIds.length, equalTo(0));
+        }
+    }
+
+    @Test
+    void shouldKeepTheSequenceNumberTheRecordsWereSyncedUpTo() throws IOException {
+        Path path = Files.createTempDirectory("balance-file").resolve("partition.bal");
+        try (BalanceFile file = BalanceFile.open(path)) {
+            file.write(0, "1", 100, 1);
+            file.force(1);
+            file.write(0, "1", 200, 2);
+        }
+        try (BalanceFile file = BalanceFile.open(path)) {
+            assertThat(file.load().balances[0], equalTo(200L));
+            assertThat(file.syncedSequenceNr(), equalTo(1L));
+        }
+
+        try (RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+            raw.seek(4);
+            raw.write(0x7f);
+        }
+        try (BalanceFile file = BalanceFile.open(path)) {
+            assertThat(file.load().bankAccountIds.length, equalTo(1));
+            assertThat(file.syncedSequenceNr(), equalTo(0L));
+        }
+    }
+
+    @Test
+    void shouldRejectIdTooLongForRecord() throws IOException {
+        Path path = Files.createTempDirectory("balance-file").resolve("partition.bal");
+        String id = new String(new char[BalanceFile.MAX_ID_BYTES + 1]).replace('\0', 'x');
+        try (BalanceFile file = BalanceFile.open(path)) {
+            assertThat(BalanceFile.fits(id), equalTo(false));
+            assertThrows(IllegalArgumentException.class, () -> file.write(0, id, 1, 1));
+        }
+    }
+}
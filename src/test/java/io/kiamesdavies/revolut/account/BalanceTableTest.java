@@ -0,0 +1,60 @@
+package io.kiamesdavies.revolut.account;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for the slots of balances of a partition
+ */
+public class BalanceTableTest {
+
+    @Test
+    void shouldTakeSlotOnlyOnFirstChange() {
+        BalanceTable table = new BalanceTable(1000);
+
+        assertThat(table.get("1"), equalTo(1000L));
+        assertThat(table.size(), equalTo(0));
+        assertThat(table.add("1", -300), equalTo(700L));
+        assertThat(table.add("1", 50), equalTo(750L));
+        assertThat(table.get("1"), equalTo(750L));
+        assertThat(table.get("2"), equalTo(1000L));
+        assertThat(table.size(), equalTo(1));
+    }
+
+    @Test
+    void shouldKeepEveryAccountWhileGrowing() {
+        BalanceTable table = new BalanceTable(0);
+        for (int i = 0; i < 100_000; i++) {
+            table.add(String.valueOf(i), i);
+        }
+
+        assertThat(table.size(), equalTo(100_000));
+        for (int i = 0; i < 100_000; i++) {
+            assertThat(table.get(String.valueOf(i)), equalTo((long) i));
+        }
+    }
+
+    @Test
+    void shouldRestoreFromItsSlots() {
+        BalanceTable table = new BalanceTable(10);
+        table.add("a", 5);
+        table.add("b", -5);
+
+        BalanceTable restored = BalanceTable.restore(10, table.ids(), table.balances());
+        assertThat(restored.get("a"), equalTo(15L));
+        assertThat(restored.get("b"), equalTo(5L));
+        assertThat(restored.get("c"), equalTo(10L));
+        assertThat(restored.size(), equalTo(2));
+    }
+
+    @Test
+    void shouldRejectOverflow() {
+        BalanceTable table = new BalanceTable(Long.MAX_VALUE);
+
+        assertThrows(ArithmeticException.class, () -> table.add("1", 1));
+        assertThat(table.get("1"), equalTo(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,68 @@
+package io.kiamesdavies.revolut.account;
+
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.models.*;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+
+/**
+ * Bank account that validates commands against its running balance and writes them in batches
+ */
+public class BankAccountGroupCommitTest {
+    private static final String bankAccountId = "group-commit-account";
+    private static ActorSystem system;
+
+    private static final Random RANDOM = new Random();
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("group-commit", ConfigFactory.parseString(
+                "account.group-commit.enabled = on\naccount.group-commit.max-wait = 500ms")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldNotRejectRedeliveredWithdrawalWaitingForTheJournal() {
+        TestKit testProbe = new TestKit(system);
+        ActorRef bankAccount = system.actorOf(BankAccount.props(), bankAccountId);
+
+        bankAccount.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
+        AccountBalance accountBalance = (AccountBalance) testProbe.expectMsgClass(QueryAck.class).response;
+
+        //withdraw the whole balance, the redelivery arrives while the withdrawal waits for its batch
+        Cmd.WithdrawCmd withdrawCmd = new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, accountBalance.getMoney());
+        bankAccount.tell(withdrawCmd, testProbe.getRef());
+        bankAccount.tell(withdrawCmd, testProbe.getRef());
+
+        assertThat(testProbe.expectMsgClass(Duration.ofSeconds(3), CmdAck.class).event, instanceOf(Evt.WithdrawEvent.class));
+        testProbe.expectNoMessage(Duration.ofMillis(700));
+
+        //once written, a redelivery is acknowledged with the withdrawal again
+        bankAccount.tell(withdrawCmd, testProbe.getRef());
+        assertThat(testProbe.expectMsgClass(CmdAck.class).event, instanceOf(Evt.WithdrawEvent.class));
+
+        bankAccount.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
+        AccountBalance newAccountBalance = (AccountBalance) testProbe.expectMsgClass(QueryAck.class).response;
+        assertThat(newAccountBalance.getMinorUnits(), equalTo(0L));
+    }
+}
@@ -0,0 +1,72 @@
+package io.kiamesdavies.revolut.account;
+
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.models.*;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+
+/**
+ * Restarts a bank account that snapshots on every event and deletes its old events
+ */
+public class BankAccountRecoveryTest {
+    private static final String bankAccountId = "recovering-account";
+    private static ActorSystem system;
+
+    private static final Random RANDOM = new Random();
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("recovery", ConfigFactory.parseString(
+                "account.snapshot.max-events = 1\naccount.snapshot.delete-events = on")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldAcknowledgeRedeliveredCommandWithoutApplyingItTwiceAfterRestart() {
+        TestKit testProbe = new TestKit(system);
+        ActorRef bankAccount = system.actorOf(BankAccount.props(), bankAccountId);
+
+        List<String> transactionIds = Arrays.asList(UUID.randomUUID().toString(), UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        for (String transactionId : transactionIds) {
+            bankAccount.tell(new Cmd.DepositCmd(RANDOM.nextLong(), transactionId, bankAccountId, Money.ofMinor(100)), testProbe.getRef());
+            assertThat(testProbe.expectMsgClass(CmdAck.class).event, instanceOf(Evt.DepositEvent.class));
+        }
+        bankAccount.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
+        AccountBalance accountBalance = (AccountBalance) testProbe.expectMsgClass(QueryAck.class).response;
+
+        testProbe.watch(bankAccount);
+        bankAccount.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        testProbe.expectTerminated(bankAccount);
+
+        //the name is released shortly after the termination is observed
+        ActorRef restarted = testProbe.awaitAssert(() -> system.actorOf(BankAccount.props(), bankAccountId));
+        restarted.tell(new Cmd.DepositCmd(RANDOM.nextLong(), transactionIds.get(0), bankAccountId, Money.ofMinor(100)), testProbe.getRef());
+        assertThat(testProbe.expectMsgClass(CmdAck.class).event, instanceOf(Evt.DepositEvent.class));
+
+        restarted.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
+        AccountBalance recoveredBalance = (AccountBalance) testProbe.expectMsgClass(QueryAck.class).response;
+        assertThat(recoveredBalance.getMoney(), equalTo(accountBalance.getMoney()));
+    }
+}
@@ -0,0 +1,105 @@
+package io.kiamesdavies.revolut.account;
+
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.javadsl.TestKit;
+import io.kiamesdavies.revolut.models.*;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+
+/**
+ * Runs two cluster nodes in one process and confirms that bank accounts are spread across them
+ */
+public class BankAccountShardingTest {
+    private static ActorSystem firstNode;
+    private static ActorSystem secondNode;
+    private static ActorRef firstRegion;
+    private static ActorRef secondRegion;
+
+    private static final Random RANDOM = new Random();
+
+    @BeforeAll
+    static void setup() {
+        firstNode = ActorSystem.create("sharding");
+        secondNode = ActorSystem.create("sharding");
+
+        Cluster.get(firstNode).join(Cluster.get(firstNode).selfAddress());
+        Cluster.get(secondNode).join(Cluster.get(firstNode).selfAddress());
+
+        new TestKit(firstNode).awaitAssert(Duration.ofSeconds(15), () -> {
+            assertThat(StreamSupport.stream(Cluster.get(firstNode).state().getMembers().spliterator(), false)
+                    .filter(f -> f.status().equals(MemberStatus.up())).count(), equalTo(2L));
+            return null;
+        });
+
+        firstRegion = BankAccount.startSharding(firstNode);
+        secondRegion = BankAccount.startSharding(secondNode);
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(secondNode);
+        TestKit.shutdownActorSystem(firstNode);
+    }
+
+    @Test
+    void shouldSpreadAccountsAcrossNodes() {
+        TestKit testProbe = new TestKit(firstNode);
+        for (int i = 0; i < 20; i++) {
+            firstRegion.tell(new Query.Single(RANDOM.nextLong(), String.valueOf(i)), testProbe.getRef());
+            testProbe.expectMsgClass(Duration.ofSeconds(10), QueryAck.class);
+        }
+
+        firstRegion.tell(new ShardRegion.GetClusterShardingStats(FiniteDuration.create(5, TimeUnit.SECONDS)), testProbe.getRef());
+        ShardRegion.ClusterShardingStats stats = testProbe.expectMsgClass(ShardRegion.ClusterShardingStats.class);
+        assertThat(stats.getRegions().size(), equalTo(2));
+        stats.getRegions().values().forEach(f -> assertThat(f.getStats().size(), greaterThan(0)));
+    }
+
+    @Test
+    void shouldRouteToTheSameAccountFromAnyNode() {
+        String bankAccountId = "sharded-account";
+        TestKit firstProbe = new TestKit(firstNode);
+        TestKit secondProbe = new TestKit(secondNode);
+
+        firstRegion.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), firstProbe.getRef());
+        AccountBalance accountBalance = (AccountBalance) firstProbe.expectMsgClass(Duration.ofSeconds(10), QueryAck.class).response;
+
+        secondRegion.tell(new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, Money.of(BigDecimal.TEN)), secondProbe.getRef());
+        CmdAck cmdAck = secondProbe.expectMsgClass(Duration.ofSeconds(10), CmdAck.class);
+        assertThat(cmdAck.event, instanceOf(Evt.WithdrawEvent.class));
+
+        firstRegion.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), firstProbe.getRef());
+        AccountBalance newAccountBalance = (AccountBalance) firstProbe.expectMsgClass(QueryAck.class).response;
+        assertThat(newAccountBalance.getBalance(), equalTo(accountBalance.getBalance().subtract(BigDecimal.TEN)));
+    }
+
+    @Test
+    void shouldAddressAccountsByTheBankAccountIdTheyCarry() {
+        BankAccount.MessageExtractor extractor = new BankAccount.MessageExtractor(10);
+        Cmd.WithdrawCmd withdrawCmd = new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), "7", Money.of(BigDecimal.TEN));
+
+        assertThat(extractor.entityId(withdrawCmd), equalTo("7"));
+        assertThat(extractor.entityId(new Query.Single(RANDOM.nextLong(), "7")), equalTo("7"));
+        assertThat(extractor.shardId(withdrawCmd), equalTo(extractor.shardId(new Query.Single(RANDOM.nextLong(), "7"))));
+        assertThat(extractor.entityMessage(withdrawCmd), sameInstance(withdrawCmd));
+        assertThat(extractor.entityId("not an account message"), nullValue());
+    }
+}
@@ -1,6 +1,7 @@
 package io.kiamesdavies.revolut.account;
 
 
+import akka.Done;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.testkit.javadsl.TestKit;
@@ -11,13 +12,14 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
-import java.util.Map;
+import java.util.Currency;
 import java.util.Random;
 import java.util.UUID;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 /**
@@ -27,6 +29,7 @@ public class BankAccountTest {
     private static final String bankAccountId = "2";
     private static ActorSystem system;
     private static ActorRef bank;
+    private static AccountDirectory directory;
     private static ActorRef sampleBankAccount;
     private static TestKit testProbe;
 
@@ -36,10 +39,10 @@ public class BankAccountTest {
     static void setup() throws InterruptedException {
         system = ActorSystem.create();
         testProbe = new TestKit(system);
-        Map<String, ActorRef> bankAccounts = Inflation.initiateDemoBankAccounts(system);
-        bank = system.actorOf(Bank.props(bankAccounts), "bank");
+        directory = Inflation.initiateDemoBankAccounts(system);
+        bank = system.actorOf(Bank.props(directory), "bank");
 
-        sampleBankAccount = bankAccounts.get(bankAccountId);
+        sampleBankAccount = directory.lookup(bankAccountId).get();
     }
 
     @AfterAll
@@ -57,7 +60,7 @@ public class BankAccountTest {
         QueryAck queryAck = testProbe.expectMsgClass(QueryAck.class);
         AccountBalance accountBalance = (AccountBalance) queryAck.response;
 
-        sampleBankAccount.tell(new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, amount), testProbe.getRef());
+        sampleBankAccount.tell(new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, Money.of(amount)), testProbe.getRef());
         CmdAck cmdAck = testProbe.expectMsgClass(CmdAck.class);
         assertThat(cmdAck.event, instanceOf(Evt.WithdrawEvent.class));
         sampleBankAccount.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
@@ -73,7 +76,7 @@ public class BankAccountTest {
         sampleBankAccount.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
         QueryAck queryAck = testProbe.expectMsgClass(QueryAck.class);
         AccountBalance accountBalance = (AccountBalance) queryAck.response;
-        sampleBankAccount.tell(new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, accountBalance.getBalance().add(BigDecimal.ONE)), testProbe.getRef());
+        sampleBankAccount.tell(new Cmd.WithdrawCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, Money.of(accountBalance.getBalance().add(BigDecimal.ONE))), testProbe.getRef());
         CmdAck cmdAck = testProbe.expectMsgClass(CmdAck.class);
         assertThat(cmdAck.event, instanceOf(Evt.FailedEvent.class));
         assertThat(((Evt.FailedEvent) cmdAck.event).type, equalTo(Evt.FailedEvent.Type.INSUFFICIENT_FUNDS));
@@ -85,7 +88,7 @@ public class BankAccountTest {
         sampleBankAccount.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
         QueryAck queryAck = testProbe.expectMsgClass(QueryAck.class);
         AccountBalance accountBalance = (AccountBalance) queryAck.response;
-        sampleBankAccount.tell(new Cmd.DepositCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, amount), testProbe.getRef());
+        sampleBankAccount.tell(new Cmd.DepositCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, Money.of(amount)), testProbe.getRef());
         CmdAck cmdAck = testProbe.expectMsgClass(CmdAck.class);
         assertThat(cmdAck.event, instanceOf(Evt.DepositEvent.class));
         sampleBankAccount.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
@@ -96,48 +99,48 @@ public class BankAccountTest {
 
     @Test
     void shouldFailToCreditBalanceIfAmountIsLessThanOne() {
-        sampleBankAccount.tell(new Cmd.DepositCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, BigDecimal.ZERO), testProbe.getRef());
+        sampleBankAccount.tell(new Cmd.DepositCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId, Money.of(BigDecimal.ZERO)), testProbe.getRef());
         CmdAck cmdAck = testProbe.expectMsgClass(CmdAck.class);
         assertThat(cmdAck.event, instanceOf(Evt.FailedEvent.class));
         assertThat(((Evt.FailedEvent) cmdAck.event).type, equalTo(Evt.FailedEvent.Type.INVALID_AMOUNT));
     }
 
     @Test
-    void shouldReturnAccountGivenACorrectAccountId() {
+    void shouldFailToCreditBalanceInAnotherCurrency() {
+        sampleBankAccount.tell(new Cmd.DepositCmd(RANDOM.nextLong(), UUID.randomUUID().toString(), bankAccountId,
+                Money.of(BigDecimal.TEN, Currency.getInstance("USD"))), testProbe.getRef());
+        CmdAck cmdAck = testProbe.expectMsgClass(CmdAck.class);
+        assertThat(cmdAck.event, instanceOf(Evt.FailedEvent.class));
+        assertThat(((Evt.FailedEvent) cmdAck.event).type, equalTo(Evt.FailedEvent.Type.INVALID_AMOUNT));
+    }
 
-        bank.tell(new Query.Single(RANDOM.nextLong(), bankAccountId), testProbe.getRef());
-        QueryAck queryAck = testProbe.expectMsgClass(QueryAck.class);
-        Query.BankReference bankReference = (Query.BankReference) queryAck.response;
-        assertNotNull(bankReference.bankAccount);
-        assertThat(bankReference.bankAccountId, equalTo(bankAccountId));
+    @Test
+    void shouldReturnAccountGivenACorrectAccountId() {
+        assertTrue(directory.lookup(bankAccountId).isPresent());
     }
 
     @Test
     void shouldFailToReturnAccountGivenWrongAccountId() {
-
-        bank.tell(new Query.Single(RANDOM.nextLong(), "wrongBankId"), testProbe.getRef());
-        QueryAck queryAck = testProbe.expectMsgClass(QueryAck.class);
-        assertThat(queryAck.response, instanceOf(Query.QueryAckNotFound.class));
-
+        assertFalse(directory.lookup("wrongBankId").isPresent());
     }
 
     @Test
-    void shouldReturnMultipleAccountGivenMultipleCorrectAccountId() {
-
-        bank.tell(new Query.Multiple(RANDOM.nextLong(), "3", "4", "5"), testProbe.getRef());
-        QueryAck queryAck = testProbe.expectMsgClass(QueryAck.class);
-        Map<String, Query.BankReference> bankReferences = (Map<String, Query.BankReference>) queryAck.response;
-        assertThat(bankReferences.keySet(), hasItems("3", "4", "5"));
+    void shouldFailToResolveWrongAccountIdWithinMultipleIds() {
+        assertThat(directory.firstUnknown("3", "4", "5").isPresent(), equalTo(false));
+        assertThat(directory.firstUnknown("3", "wrongBankId", "5").get(), equalTo("wrongBankId"));
     }
 
     @Test
-    void shouldFailToReturnAccountGivenWrongAccountIdWithinMultipleIds() {
+    void shouldResolveAccountOpenedByTheBank() {
+        bank.tell(new Cmd.OpenAccountCmd("opened"), testProbe.getRef());
+        testProbe.expectMsgClass(Done.class);
+        assertTrue(directory.lookup("opened").isPresent());
 
-        bank.tell(new Query.Multiple(RANDOM.nextLong(), "3", "wrongBankId", "5"), testProbe.getRef());
-        QueryAck queryAck = testProbe.expectMsgClass(QueryAck.class);
-        assertThat(queryAck.response, instanceOf(Query.QueryAckNotFound.class));
-        Query.QueryAckNotFound notFound = (Query.QueryAckNotFound) queryAck.response;
-        assertThat(notFound.bankAccountId, equalTo("wrongBankId"));
+        bank.tell(new Cmd.CloseAccountCmd("opened"), testProbe.getRef());
+        testProbe.expectMsgClass(Done.class);
+        assertFalse(directory.lookup("opened").isPresent());
 
+        bank.tell(new Cmd.CloseAccountCmd("opened"), testProbe.getRef());
+        testProbe.expectMsgClass(Query.QueryAckNotFound.class);
     }
 }
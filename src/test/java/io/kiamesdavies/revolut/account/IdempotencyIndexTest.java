@@ -0,0 +1,89 @@
+package io.kiamesdavies.revolut.account;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for the time bucketed set of transactionIds
+ */
+public class IdempotencyIndexTest {
+
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+
+    @Test
+    void shouldRememberIdsOnce() {
+        IdempotencyIndex index = new IdempotencyIndex(Duration.ofHours(6), 6);
+        String transactionId = UUID.randomUUID().toString();
+
+        assertTrue(index.add(transactionId, 0));
+        assertFalse(index.add(transactionId, HOUR));
+        assertTrue(index.contains(transactionId));
+        assertFalse(index.contains(UUID.randomUUID().toString()));
+        assertThat(index.size(), equalTo(1));
+    }
+
+    @Test
+    void shouldTellRollbackAndOtherIdsApart() {
+        IdempotencyIndex index = new IdempotencyIndex(Duration.ofHours(6), 6);
+        String transactionId = UUID.randomUUID().toString();
+
+        index.add(transactionId, 0);
+        assertFalse(index.contains(transactionId + "-rollback"));
+        assertFalse(index.contains(transactionId.toUpperCase()));
+
+        index.add("not-a-uuid", 0);
+        assertTrue(index.contains("not-a-uuid"));
+        assertFalse(index.contains("not-a-uuid2"));
+    }
+
+    @Test
+    void shouldExpireIdsOnlyAfterTheWindow() {
+        IdempotencyIndex index = new IdempotencyIndex(Duration.ofHours(6), 6);
+        String transactionId = UUID.randomUUID().toString();
+        index.add(transactionId, 0);
+
+        index.expire(6 * HOUR - 1);
+        assertTrue(index.contains(transactionId));
+
+        index.expire(7 * HOUR);
+        assertFalse(index.contains(transactionId));
+        assertFalse(index.add(UUID.randomUUID().toString(), 0));
+    }
+
+    @Test
+    void shouldGrowBuckets() {
+        IdempotencyIndex index = new IdempotencyIndex(Duration.ofHours(6), 6);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(index.add("transaction-" + i, i));
+        }
+        assertThat(index.size(), equalTo(10_000));
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(index.contains("transaction-" + i));
+        }
+    }
+
+    @Test
+    void shouldRestoreExportedIds() {
+        IdempotencyIndex index = new IdempotencyIndex(Duration.ofHours(6), 6);
+        String first = UUID.randomUUID().toString();
+        String second = UUID.randomUUID().toString();
+        index.add(first, 0);
+        index.add(second, 5 * HOUR);
+
+        IdempotencyIndex restored = new IdempotencyIndex(Duration.ofHours(6), 12);
+        restored.restore(index.export());
+        assertTrue(restored.contains(first));
+        assertTrue(restored.contains(second));
+
+        restored.expire(7 * HOUR);
+        assertFalse(restored.contains(first));
+        assertTrue(restored.contains(second));
+    }
+}
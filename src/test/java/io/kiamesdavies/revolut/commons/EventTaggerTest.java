@@ -0,0 +1,44 @@
+package io.kiamesdavies.revolut.commons;
+
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.models.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tags of the events written to the journal
+ */
+public class EventTaggerTest {
+
+    private final EventTagger tagger = new EventTagger(ConfigFactory.parseString("journal-tags { partitions = 4, time-bucket = 1 hour }"));
+
+    @Test
+    void shouldTagATransactionWithItsStatusPartitionAndBucket() {
+        Evt.TransactionEvent event = new Evt.TransactionEvent("transaction-1", "1", "2", Money.ofMinor(500),
+                TransactionType.TRANSFER, null, null, TransactionStatus.WITHDRAWN);
+
+        Set<String> tags = tagger.tags(event, 7_200_000);
+        assertThat(tags, containsInAnyOrder(EventTagger.TRANSACTION, EventTagger.READ_SIDE, "status-WITHDRAWN", tagger.partition("transaction-1"), "bucket-2"));
+        assertThat(tagger.tags(event.with(TransactionStatus.COMPLETED), 7_200_000), hasItem(tagger.partition("transaction-1")));
+    }
+
+    @Test
+    void shouldTagTheEventsOfAnAccountInOnePartition() {
+        Set<String> deposit = tagger.tags(new Evt.DepositEvent("1", "transaction-1", Money.ofMinor(500), 3_600_000), 0);
+        Set<String> withdraw = tagger.tags(new Evt.WithdrawEvent("1", "transaction-2", Money.ofMinor(500), 0), 0);
+
+        assertThat(deposit, containsInAnyOrder(EventTagger.DEPOSIT, EventTagger.READ_SIDE, tagger.partition("1"), "bucket-1"));
+        assertThat(withdraw, containsInAnyOrder(EventTagger.WITHDRAW, EventTagger.READ_SIDE, tagger.partition("1"), "bucket-0"));
+        assertThat(tagger.partition("1"), isOneOf("partition-0", "partition-1", "partition-2", "partition-3"));
+    }
+
+    @Test
+    void shouldLeaveOtherEventsUntagged() {
+        Object event = "not an event";
+        assertThat(tagger.toJournal(event), sameInstance(event));
+    }
+}
@@ -0,0 +1,109 @@
+package io.kiamesdavies.revolut.commons;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.CoordinatorSnapshot;
+import io.kiamesdavies.revolut.models.Evt;
+import io.kiamesdavies.revolut.models.Money;
+import io.kiamesdavies.revolut.models.PartitionSnapshot;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+import io.kiamesdavies.revolut.models.TransactionType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Currency;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+/**
+ * Journal rows written with kryo before the compact format, when the amounts were decimals, and the bindings of the
+ * types persisted since
+ */
+public class LegacyKryoSerializerTest {
+
+    /**
+     * Written by the kryo serializer of the first release, for a transaction of 100.25 from account 1 to account 2
+     */
+    private static final String DEPOSIT_EVENT = "AQBpby5raWFtZXNkYXZpZXMucmV2b2x1dC5tb2RlbHMuRXZ0JERlcG9zaXRFdmVu9AEBAWphdmEubWF0aC5CaWdEZWNpbWHsAQMnKQQBgjGS3/zl29gBATBiN2E0ZDhlLTFjMmYtNGE0ZS05ZDNiLTVmNmE3YjhjOWQw5Q==";
+    private static final String WITHDRAW_EVENT = "AQBpby5raWFtZXNkYXZpZXMucmV2b2x1dC5tb2RlbHMuRXZ0JFdpdGhkcmF3RXZlbvQBAQFqYXZhLm1hdGguQmlnRGVjaW1h7AECMgABgjKyyIDm29gBATBiN2E0ZDhlLTFjMmYtNGE0ZS05ZDNiLTVmNmE3YjhjOWQwZS1yb2xsYmFj6w==";
+    private static final String TRANSACTION_EVENT = "AQBpby5raWFtZXNkYXZpZXMucmV2b2x1dC5tb2RlbHMuRXZ0JFRyYW5zYWN0aW9uRXZlbvQBAYIxAYIyAQFqYXZhLm1hdGguQmlnRGVjaW1h7AEDJykErpzG5tvYAQFyZW70AXdl4gEDATBiN2E0ZDhlLTFjMmYtNGE0ZS05ZDNiLTVmNmE3YjhjOWQw5QEB";
+    private static final String ACCOUNT_BALANCE = "AQBpby5raWFtZXNkYXZpZXMucmV2b2x1dC5tb2RlbHMuQWNjb3VudEJhbGFuY+UBAQFqYXZhLm1hdGguQmlnRGVjaW1h7AEEAYbSBAGCMQ==";
+    private static final String TRANSACTION_ID = "0b7a4d8e-1c2f-4a4e-9d3b-5f6a7b8c9d0e";
+
+    private static ActorSystem system;
+    private static Serialization serialization;
+    private static Currency currency;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("legacy-kryo", ConfigFactory.load());
+        serialization = SerializationExtension.get(system);
+        currency = Currency.getInstance(system.settings().config().getString("account.currency"));
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static Object read(String row) {
+        return serialization.deserialize(Base64.getDecoder().decode(row), 8675309, "").get();
+    }
+
+    @Test
+    void shouldReadTheAccountEventsOfTheFirstRelease() {
+        Evt.DepositEvent deposit = (Evt.DepositEvent) read(DEPOSIT_EVENT);
+        assertThat(deposit.bankAccountId, equalTo("1"));
+        assertThat(deposit.transactionId, equalTo(TRANSACTION_ID));
+        assertThat(deposit.amount, equalTo(Money.of(new BigDecimal("100.25"), currency)));
+
+        Evt.WithdrawEvent withdraw = (Evt.WithdrawEvent) read(WITHDRAW_EVENT);
+        assertThat(withdraw.bankAccountId, equalTo("2"));
+        assertThat(withdraw.transactionId, equalTo(TRANSACTION_ID + "-rollback"));
+        assertThat(withdraw.amount, equalTo(Money.of(new BigDecimal("50"), currency)));
+    }
+
+    @Test
+    void shouldReadTheTransactionEventsOfTheFirstRelease() {
+        Evt.TransactionEvent event = (Evt.TransactionEvent) read(TRANSACTION_EVENT);
+        assertThat(event.transactionId, equalTo(TRANSACTION_ID));
+        assertThat(event.accountFromId, equalTo("1"));
+        assertThat(event.accountToId, equalTo("2"));
+        assertThat(event.amount, equalTo(Money.of(new BigDecimal("100.25"), currency)));
+        assertThat(event.transactionType, equalTo(TransactionType.TRANSFER));
+        assertThat(event.remarks, equalTo("rent"));
+        assertThat(event.source, equalTo("web"));
+        assertThat(event.status, equalTo(TransactionStatus.COMPLETED));
+    }
+
+    @Test
+    void shouldReadTheBalanceSnapshotsOfTheFirstRelease() {
+        AccountBalance balance = (AccountBalance) read(ACCOUNT_BALANCE);
+        assertThat(balance.getBankAccountId(), equalTo("1"));
+        assertThat(balance.getMoney(), equalTo(Money.of(new BigDecimal("1000.50"), currency)));
+    }
+
+    @Test
+    void shouldWriteThePersistedTypesInTheCompactFormat() {
+        Object[] persisted = {
+                new CoordinatorSnapshot(Collections.emptyList(), Collections.emptyList()),
+                new PartitionSnapshot(null, null, new long[0], 0),
+                new TransactionResult.Success(TRANSACTION_ID)
+        };
+        for (Object value : persisted) {
+            assertThat(serialization.findSerializerFor(value), instanceOf(ModelSerializer.class));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.kiamesdavies.revolut.commons;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Recording and the Prometheus text format of the registry
+ */
+public class MetricsTest {
+
+    @Test
+    void shouldWriteCountersAndGaugesWithTheirLabels() {
+        Metrics metrics = new Metrics();
+        metrics.counter("transfers_total", "Transfers", "status", "ok").add(3);
+        metrics.counter("transfers_total", "Transfers", "status", "ok").increment();
+        metrics.gauge("queued", "Queued", () -> 7);
+
+        String scrape = metrics.scrape();
+        assertThat(scrape, containsString("# TYPE transfers_total counter\n"));
+        assertThat(scrape, containsString("transfers_total{status=\"ok\"} 4\n"));
+        assertThat(scrape, containsString("# TYPE queued gauge\nqueued 7\n"));
+    }
+
+    @Test
+    void shouldWriteCumulativeBuckets() {
+        Metrics metrics = new Metrics();
+        Metrics.Histogram histogram = metrics.histogram("latency_seconds", "Latency", "route", "balance");
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(20));
+        histogram.record(TimeUnit.MINUTES.toNanos(2));
+
+        String scrape = metrics.scrape();
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"balance\",le=\"5.0E-4\"} 1\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"balance\",le=\"0.025\"} 2\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"balance\",le=\"60.0\"} 2\n"));
+        assertThat(scrape, containsString("latency_seconds_bucket{route=\"balance\",le=\"+Inf\"} 3\n"));
+        assertThat(scrape, containsString("latency_seconds_count{route=\"balance\"} 3\n"));
+        assertThat(histogram.count(), equalTo(3L));
+    }
+
+    @Test
+    void shouldEscapeLabelValues() {
+        Metrics metrics = new Metrics();
+        metrics.counter("errors_total", "Errors", "message", "say \"hi\"").increment();
+        assertThat(metrics.scrape(), containsString("errors_total{message=\"say \\\"hi\\\"\"} 1\n"));
+    }
+
+    @Test
+    void shouldRejectANameRegisteredAsAnotherType() {
+        Metrics metrics = new Metrics();
+        metrics.counter("requests_total", "Requests");
+        assertThrows(IllegalArgumentException.class, () -> metrics.histogram("requests_total", "Requests"));
+    }
+}
@@ -0,0 +1,175 @@
+package io.kiamesdavies.revolut.commons;
+
+import io.kiamesdavies.revolut.exceptions.InsufficientFundsException;
+import io.kiamesdavies.revolut.models.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.NotSerializableException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round trips of the compact binary format
+ */
+public class ModelSerializerTest {
+
+    private final ModelSerializer serializer = new ModelSerializer();
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T value) throws NotSerializableException {
+        return (T) serializer.fromBinary(serializer.toBinary(value), serializer.manifest(value));
+    }
+
+    @Test
+    void shouldRoundTripTransactionEvent() throws NotSerializableException {
+        String transactionId = UUID.randomUUID().toString();
+        Evt.TransactionEvent event = new Evt.TransactionEvent(transactionId, "1", "2", Money.of(new BigDecimal("100.50")),
+                TransactionType.TRANSFER, null, "mobile", TransactionStatus.WITHDRAWN);
+
+        Evt.TransactionEvent copy = roundTrip(event);
+        assertThat(copy.transactionId, equalTo(transactionId));
+        assertThat(copy.accountFromId, equalTo("1"));
+        assertThat(copy.accountToId, equalTo("2"));
+        assertThat(copy.amount, equalTo(Money.ofMinor(10050)));
+        assertThat(copy.transactionType, equalTo(TransactionType.TRANSFER));
+        assertThat(copy.remarks, nullValue());
+        assertThat(copy.source, equalTo("mobile"));
+        assertThat(copy.status, equalTo(TransactionStatus.WITHDRAWN));
+    }
+
+    @Test
+    void shouldKeepTransactionIdsThatAreNotUuids() throws NotSerializableException {
+        String rollbackId = UUID.randomUUID().toString() + "-rollback";
+        assertThat(roundTrip(new Evt.DepositEvent("1", rollbackId, Money.ofMinor(1000))).transactionId, equalTo(rollbackId));
+        assertThat(roundTrip(new Evt.DepositEvent("1", "my-id", Money.ofMinor(1000))).transactionId, equalTo("my-id"));
+        String upperCase = UUID.randomUUID().toString().toUpperCase();
+        assertThat(roundTrip(new Evt.DepositEvent("1", upperCase, Money.ofMinor(1000))).transactionId, equalTo(upperCase));
+    }
+
+    @Test
+    void shouldKeepTimeOfAccountEvents() throws NotSerializableException {
+        Evt.WithdrawEvent event = new Evt.WithdrawEvent("1", UUID.randomUUID().toString(), Money.ofMinor(1000), 1568419200000L);
+        assertThat(roundTrip(event).epochMillis, equalTo(1568419200000L));
+    }
+
+    @Test
+    void shouldKeepCurrencyOfAmounts()throws NotSerializableException {
+        Money amount = Money.of(new BigDecimal("1500"), Currency.getInstance("JPY"));
+        AccountBalance copy = roundTrip(new AccountBalance("1", amount));
+        assertThat(copy.getMoney(), equalTo(amount));
+        assertThat(copy.getBalance(), equalTo(new BigDecimal("1500")));
+    }
+
+    @Test
+    void shouldReadVersionOneDecimalAmounts() throws NotSerializableException {
+        //bankAccountId "1", then a long decimal of scale 1 and unscaled value 100000
+        byte[] bytes = ByteBuffer.allocate(12).put((byte) 2).put((byte) '1').put((byte) 1).put((byte) 1).putLong(100000).array();
+        AccountBalance balance = (AccountBalance) serializer.fromBinary(bytes, "AB1");
+        assertThat(balance.getBankAccountId(), equalTo("1"));
+        assertThat(balance.getMoney(), equalTo(Money.of(new BigDecimal("10000.00"))));
+    }
+
+    @Test
+    void shouldReadVersionOneDecimalAmountsInTheConfiguredCurrency() throws NotSerializableException {
+        byte[] bytes = ByteBuffer.allocate(12).put((byte) 2).put((byte) '1').put((byte) 1).put((byte) 1).putLong(100000).array();
+        AccountBalance balance = (AccountBalance) new ModelSerializer(Currency.getInstance("JPY")).fromBinary(bytes, "AB1");
+        assertThat(balance.getMoney(), equalTo(Money.of(new BigDecimal("10000"), Currency.getInstance("JPY"))));
+    }
+
+    @Test
+    void shouldRoundTripAccountSnapshot() throws NotSerializableException {
+        AccountSnapshot snapshot = roundTrip(new AccountSnapshot(new AccountBalance("1", Money.ofMinor(1000)), new long[]{3600000, 1, -7, 42}));
+        assertThat(snapshot.balance.getMoney(), equalTo(Money.ofMinor(1000)));
+        assertThat(snapshot.transactionIds, equalTo(new long[]{3600000, 1, -7, 42}));
+    }
+
+    @Test
+    void shouldRoundTripAcknowledgements() throws NotSerializableException {
+        CmdAck cmdAck = roundTrip(new CmdAck(42, new Evt.FailedEvent("1", Evt.FailedEvent.Type.INSUFFICIENT_FUNDS)));
+        assertThat(cmdAck.deliveryId, equalTo(42L));
+        assertThat(cmdAck.event, instanceOf(Evt.FailedEvent.class));
+        assertThat(((Evt.FailedEvent) cmdAck.event).type, equalTo(Evt.FailedEvent.Type.INSUFFICIENT_FUNDS));
+
+        QueryAck queryAck = roundTrip(new QueryAck(7, new Query.QueryAckNotFound("9"), 12));
+        assertThat(queryAck.deliveryId, equalTo(7L));
+        assertThat(queryAck.sequenceNr, equalTo(12L));
+        assertThat(((Query.QueryAckNotFound) queryAck.response).bankAccountId, equalTo("9"));
+    }
+
+    @Test
+    void shouldRoundTripCommands() throws NotSerializableException {
+        Cmd.WithdrawCmd withdrawCmd = roundTrip(new Cmd.WithdrawCmd(3, UUID.randomUUID().toString(), "1", Money.ofMinor(100)));
+        assertThat(withdrawCmd.deliveryId, equalTo(3L));
+        assertThat(withdrawCmd.amount, equalTo(Money.ofMinor(100)));
+
+        Cmd.TransferCmd transferCmd = roundTrip(new Cmd.TransferCmd("1", "2", Money.ofMinor(1000), TransactionType.TRANSFER, "rent", null));
+        assertThat(transferCmd.accountToId, equalTo("2"));
+        assertThat(transferCmd.remarks, equalTo("rent"));
+        assertThat(transferCmd.source, nullValue());
+    }
+
+    @Test
+    void shouldRoundTripTransactionResults() throws NotSerializableException {
+        String transactionId = UUID.randomUUID().toString();
+        assertThat(roundTrip(new TransactionResult.Success(transactionId)).transactionId, equalTo(transactionId));
+        assertThat(roundTrip(new TransactionResult.Accepted(transactionId)).transactionId, equalTo(transactionId));
+
+        TransactionResult.Failure insufficient = roundTrip(new TransactionResult.Failure(new InsufficientFundsException("low")));
+        assertThat(insufficient.exception, instanceOf(InsufficientFundsException.class));
+        assertThat(insufficient.exception.getMessage(), equalTo("low"));
+        //only the exceptions the transfers fail with keep their type
+        TransactionResult.Failure other = roundTrip(new TransactionResult.Failure(new ArithmeticException("overflow")));
+        assertThat(other.exception, instanceOf(IllegalStateException.class));
+        assertThat(other.exception.getMessage(), containsString("overflow"));
+    }
+
+    @Test
+    void shouldRoundTripCoordinatorMessages() throws NotSerializableException {
+        String transactionId = UUID.randomUUID().toString();
+        Cmd.TransferCmd transferCmd = new Cmd.TransferCmd("1", "2", Money.ofMinor(1000), TransactionType.TRANSFER, "rent", null);
+        StartTransfer start = roundTrip(new StartTransfer(transactionId, transferCmd, true));
+        assertThat(start.transactionId, equalTo(transactionId));
+        assertThat(start.transferCmd.amount, equalTo(Money.ofMinor(1000)));
+        assertThat(start.accept, equalTo(true));
+        assertThat(roundTrip(new WakeCoordinator(130)).coordinator, equalTo(130));
+
+        Evt.TransactionEvent ongoing = new Evt.TransactionEvent(transactionId, transferCmd, TransactionStatus.WITHDRAWN);
+        CoordinatorSnapshot snapshot = roundTrip(new CoordinatorSnapshot(Collections.singletonList(ongoing), Collections.emptyList()));
+        assertThat(snapshot.ongoing.get(0).status, equalTo(TransactionStatus.WITHDRAWN));
+        assertThat(snapshot.finished, empty());
+        //written before the snapshots carried the finished sagas
+        assertThat(roundTrip(new CoordinatorSnapshot(Collections.emptyList(), null)).finished, nullValue());
+    }
+
+    @Test
+    void shouldRoundTripPartitionMessages() throws NotSerializableException {
+        String transactionId = UUID.randomUUID().toString();
+        PartitionTransfer transfer = roundTrip(new PartitionTransfer(transactionId,
+                new Cmd.TransferCmd("1", "2", Money.ofMinor(1000), TransactionType.TRANSFER, null, null)));
+        assertThat(transfer.transactionId, equalTo(transactionId));
+        assertThat(transfer.transferCmd.accountToId, equalTo("2"));
+
+        PartitionSnapshot snapshot = roundTrip(new PartitionSnapshot(new String[]{"1", "2"}, new long[]{100, 200}, new long[]{3600000, 1}, 0));
+        assertThat(Arrays.asList(snapshot.bankAccountIds), contains("1", "2"));
+        assertThat(snapshot.balances, equalTo(new long[]{100, 200}));
+        assertThat(snapshot.transactionIds, equalTo(new long[]{3600000, 1}));
+        //the balances are in the balance file
+        PartitionSnapshot synced = roundTrip(new PartitionSnapshot(null, null, new long[0], 42));
+        assertThat(synced.bankAccountIds, nullValue());
+        assertThat(synced.balances, nullValue());
+        assertThat(synced.balanceFileSequenceNr, equalTo(42L));
+    }
+
+    @Test
+    void shouldRejectUnknownManifest() {
+        assertThrows(NotSerializableException.class, () -> serializer.fromBinary(new byte[0], "ZZ9"));
+    }
+}
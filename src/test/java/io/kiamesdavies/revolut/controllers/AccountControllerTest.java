@@ -3,9 +3,11 @@ package io.kiamesdavies.revolut.controllers;
 import akka.actor.ActorSystem;
 import akka.http.javadsl.model.ContentTypes;
 import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.testkit.JUnitRouteTest;
 import akka.http.javadsl.testkit.TestRoute;
 import akka.stream.ActorMaterializer;
+import akka.testkit.javadsl.TestKit;
 import io.kiamesdavies.revolut.Inflation;
 import io.kiamesdavies.revolut.commons.Utility;
 import io.kiamesdavies.revolut.models.MoneyTransfer;
@@ -15,7 +17,16 @@ import org.junit.jupiter.api.Test;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
 
 public class AccountControllerTest extends JUnitRouteTest {
 
@@ -50,6 +61,47 @@ public class AccountControllerTest extends JUnitRouteTest {
                 .assertContentType(ContentTypes.APPLICATION_JSON);
     }
 
+    @Test
+    void shouldReturnSameTransactionForRetryWithSameIdempotencyKey() {
+        HttpRequest request = HttpRequest.POST("/account/3/transfer/4")
+                .addHeader(RawHeader.create("Idempotency-Key", UUID.randomUUID().toString()))
+                .withEntity(ContentTypes.APPLICATION_JSON, Utility.toBytes(new MoneyTransfer(BigDecimal.valueOf(100))));
+
+        String first = appRoute.run(request).assertStatusCode(200).entityString();
+        String retry = appRoute.run(request).assertStatusCode(200).entityString();
+        assertThat(retry, equalTo(first));
+    }
+
+    @Test
+    void shouldReturn202AndFollowTheStatusOfAnAsyncTransfer() {
+        String accepted = appRoute.run(HttpRequest.POST("/account/5/transfer/4?async=true")
+                .withEntity(ContentTypes.APPLICATION_JSON, Utility.toBytes(new MoneyTransfer(BigDecimal.valueOf(100)))))
+                .assertStatusCode(202)
+                .assertContentType(ContentTypes.APPLICATION_JSON)
+                .entityString();
+        Matcher transactionId = Pattern.compile("\"transactionId\":\"([^\"]+)\"").matcher(accepted);
+        assertThat(transactionId.find(), equalTo(true));
+
+        //the index may not have the status yet
+        new TestKit(system()).awaitAssert(Duration.ofSeconds(5), () -> {
+            assertThat(appRoute.run(HttpRequest.GET("/transaction/" + transactionId.group(1))).entityString(), containsString("COMPLETED"));
+            return null;
+        });
+
+        String events = appRoute.run(HttpRequest.GET("/transaction/" + transactionId.group(1) + "/events"))
+                .assertStatusCode(200)
+                .entityString();
+        assertThat(events, containsString("data:COMPLETED"));
+    }
+
+    @Test
+    void shouldReturn404IfUnknownTransactionIsRequested() {
+        appRoute.run(HttpRequest.GET("/transaction/" + UUID.randomUUID()))
+                .assertStatusCode(404);
+        appRoute.run(HttpRequest.GET("/transaction/" + UUID.randomUUID() + "/events"))
+                .assertStatusCode(404);
+    }
+
     @Test
     void shouldReturn404IfSenderOrRecipientAccountIsUnavailable() {
         appRoute.run(HttpRequest.POST("/account/100/transfer/2").withEntity(ContentTypes.APPLICATION_JSON, Utility.toBytes(new MoneyTransfer(BigDecimal.valueOf(100)))))
@@ -84,6 +136,13 @@ public class AccountControllerTest extends JUnitRouteTest {
                 .assertContentType(ContentTypes.APPLICATION_JSON);
     }
 
+    @Test
+    void shouldReturn200IfAConsistentBalanceIsRequested() {
+        appRoute.run(HttpRequest.GET("/account/5?consistent=true"))
+                .assertStatusCode(200)
+                .assertContentType(ContentTypes.APPLICATION_JSON);
+    }
+
     @Test
     void shouldReturn404IfWrongAccountBalanceIsRequested() {
         appRoute.run(HttpRequest.GET("/account/100"))
@@ -96,6 +155,34 @@ public class AccountControllerTest extends JUnitRouteTest {
                 .assertStatusCode(404);
     }
 
+    @Test
+    void shouldStreamAResultForEveryTransferOfANewlineDelimitedBatch() {
+        String batch = "{\"accountFromId\":\"3\",\"accountToId\":\"4\",\"amount\":1}\n" +
+                "{\"accountFromId\":\"3\",\"accountToId\":\"wrongId\",\"amount\":1}\n" +
+                "{\"accountFromId\":\"4\",\"accountToId\":\"3\",\"amount\":1}\n";
+        String results = appRoute.run(HttpRequest.POST("/transfers").withEntity(ContentTypes.APPLICATION_JSON, batch))
+                .assertStatusCode(200)
+                .entityString();
+        String[] lines = results.trim().split("\n");
+        assertThat(lines.length, equalTo(3));
+        assertThat(Arrays.stream(lines).filter(f -> f.contains("\"transactionId\"")).count(), equalTo(2L));
+        assertThat(Arrays.stream(lines).filter(f -> f.contains("\"error\"")).count(), equalTo(1L));
+    }
+
+    @Test
+    void shouldStreamAResultForEveryTransferOfAJsonArrayBatchGroupedBySource() {
+        String batch = "[{\"accountFromId\":\"3\",\"accountToId\":\"4\",\"amount\":1}," +
+                "{\"accountFromId\":\"4\",\"accountToId\":\"3\",\"amount\":1}," +
+                "{\"accountFromId\":\"3\",\"accountToId\":\"4\",\"amount\":\"ten\"}]";
+        String results = appRoute.run(HttpRequest.POST("/transfers?group-by-source=true").withEntity(ContentTypes.APPLICATION_JSON, batch))
+                .assertStatusCode(200)
+                .entityString();
+        String[] lines = results.trim().split("\n");
+        assertThat(lines.length, equalTo(3));
+        assertThat(Arrays.stream(lines).filter(f -> f.contains("\"transactionId\"")).count(), equalTo(2L));
+        assertThat(Arrays.stream(lines).filter(f -> f.contains("Invalid transfer")).count(), equalTo(1L));
+    }
+
     public ActorMaterializer materializer() {
         return instance.getMaterializer();
     }
@@ -108,4 +195,17 @@ public class AccountControllerTest extends JUnitRouteTest {
     public FiniteDuration awaitDuration() {
         return FiniteDuration.create(10, TimeUnit.SECONDS);
     }
+
+    @Test
+    void shouldExposeTheLatencyOfTheRoutesInPrometheusFormat() {
+        appRoute.run(HttpRequest.GET("/account/1"))
+                .assertStatusCode(200);
+
+        String metrics = appRoute.run(HttpRequest.GET("/metrics"))
+                .assertStatusCode(200)
+                .entityString();
+        assertThat(metrics, containsString("# TYPE http_request_seconds histogram"));
+        assertThat(metrics, containsString("http_responses_total{route=\"balance\",status=\"2xx\"}"));
+        assertThat(metrics, containsString("balance_query_seconds_count"));
+    }
 }
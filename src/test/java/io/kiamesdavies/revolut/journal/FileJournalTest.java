@@ -0,0 +1,177 @@
+package io.kiamesdavies.revolut.journal;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.actor.Props;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.CapabilityFlag;
+import akka.persistence.Persistence;
+import akka.persistence.japi.journal.JavaJournalSpec;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+import org.scalatest.tools.Runner;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * The file journal passes the Akka persistence TCK, survives a write torn by a crash and reads the records appended
+ * to its open segment
+ */
+public class FileJournalTest {
+
+    @Test
+    void shouldPassTheJournalTck() {
+        //the TCK is a ScalaTest suite, which the JUnit 5 provider of surefire does not pick up on its own
+        assertThat(Runner.run(new String[]{"-oW", "-s", Spec.class.getName()}), equalTo(true));
+    }
+
+    @Test
+    void shouldCutATornWriteOffTheTailAtStartup() throws IOException {
+        Path dir = Files.createTempDirectory("file-journal");
+        ActorSystem first = ActorSystem.create("file-journal", config(dir));
+        TestKit probe = new TestKit(first);
+        ActorRef recorder = first.actorOf(Props.create(Recorder.class));
+        recorder.tell("a", probe.getRef());
+        recorder.tell("b", probe.getRef());
+        probe.expectMsgEquals(Arrays.asList("a"));
+        probe.expectMsgEquals(Arrays.asList("a", "b"));
+        TestKit.shutdownActorSystem(first);
+
+        //the length of a record, then only half of its body
+        Path last;
+        try (Stream<Path> segments = Files.list(dir.resolve("journal"))) {
+            last = segments.max(Comparator.naturalOrder()).orElseThrow(IllegalStateException::new);
+        }
+        Files.write(last, ByteBuffer.allocate(24).putInt(100).array(), StandardOpenOption.APPEND);
+
+        ActorSystem second = ActorSystem.create("file-journal", config(dir));
+        probe = new TestKit(second);
+        recorder = second.actorOf(Props.create(Recorder.class));
+        recorder.tell("c", probe.getRef());
+        probe.expectMsgEquals(Arrays.asList("a", "b", "c"));
+        TestKit.shutdownActorSystem(second);
+    }
+
+    @Test
+    void shouldCutAFailedWriteOffTheSegmentItWasAppendedTo() throws IOException {
+        Path dir = Files.createTempDirectory("file-journal");
+        Config tiny = ConfigFactory.parseString("file-journal.segment-size = 1").withFallback(config(dir));
+        ActorSystem first = ActorSystem.create("file-journal", tiny);
+        //once the journal has recovered, the next segment can't be created, so the roll fails after the first event
+        //was appended to the first segment
+        TestKit probe = new TestKit(first);
+        Persistence.get(first).journalFor("", ConfigFactory.empty()).tell(new Identify(1), probe.getRef());
+        probe.expectMsgClass(ActorIdentity.class);
+        Files.createDirectories(dir.resolve("journal").resolve(Segment.name(1)));
+        ActorRef recorder = first.actorOf(Props.create(Recorder.class));
+        probe.watch(recorder);
+        recorder.tell(new String[]{"a", "b"}, probe.getRef());
+        probe.expectTerminated(recorder);
+        TestKit.shutdownActorSystem(first);
+
+        Files.delete(dir.resolve("journal").resolve(Segment.name(1)));
+        ActorSystem second = ActorSystem.create("file-journal", config(dir));
+        probe = new TestKit(second);
+        recorder = second.actorOf(Props.create(Recorder.class));
+        recorder.tell("c", probe.getRef());
+        probe.expectMsgEquals(Arrays.asList("c"));
+        TestKit.shutdownActorSystem(second);
+    }
+
+    @Test
+    void shouldReadTheRecordsAppendedToTheOpenSegmentSinceItWasMapped() throws IOException {
+        Path dir = Files.createTempDirectory("file-journal");
+        try (Segment segment = new Segment(1, dir.resolve(Segment.name(1)), 0)) {
+            segment.append(new ByteBuffer[]{ByteBuffer.wrap(new byte[]{1, 2})});
+            assertThat(segment.read().remaining(), equalTo(2));
+            assertThat(segment.read().remaining(), equalTo(2));
+
+            segment.append(new ByteBuffer[]{ByteBuffer.wrap(new byte[]{3})});
+            ByteBuffer grown = segment.read();
+            assertThat(grown.remaining(), equalTo(3));
+            assertThat(grown.get(2), equalTo((byte) 3));
+
+            segment.seal();
+            assertThat(segment.read().remaining(), equalTo(3));
+        }
+    }
+
+    private static Config config(Path dir) {
+        return ConfigFactory.parseString("akka.persistence.journal.plugin = \"file-journal\"\n"
+                + "akka.persistence.snapshot-store.plugin = \"file-snapshot-store\"\n"
+                + "file-journal.dir = \"" + dir.resolve("journal") + "\"\n"
+                + "file-snapshot-store.dir = \"" + dir.resolve("snapshots") + "\"")
+                .withFallback(ConfigFactory.load());
+    }
+
+    public static final class Spec extends JavaJournalSpec {
+
+        public Spec() {
+            super(FileJournalTest.config(temporaryDirectory()));
+        }
+
+        private static Path temporaryDirectory() {
+            try {
+                return Files.createTempDirectory("file-journal-tck");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public CapabilityFlag supportsRejectingNonSerializableObjects() {
+            return CapabilityFlag.on();
+        }
+    }
+
+    /**
+     * Persists every string it is sent, each of an array in a write of its own, and answers with all it has persisted
+     */
+    public static final class Recorder extends AbstractPersistentActor {
+        private final List<String> recorded = new ArrayList<>();
+
+        @Override
+        public String persistenceId() {
+            return "recorder";
+        }
+
+        @Override
+        public Receive createReceiveRecover() {
+            return receiveBuilder()
+                    .match(String.class, recorded::add)
+                    .build();
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(String.class, this::record)
+                    .match(String[].class, f -> Arrays.asList(f).forEach(this::record))
+                    .build();
+        }
+
+        private void record(String value) {
+            persist(value, g -> {
+                recorded.add(g);
+                sender().tell(new ArrayList<>(recorded), self());
+            });
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.kiamesdavies.revolut.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for the fixed point money
+ */
+public class MoneyTest {
+
+    @Test
+    void shouldConvertToAndFromMinorUnits() {
+        Money money = Money.of(new BigDecimal("10.5"));
+        assertThat(money.getMinorUnits(), equalTo(1050L));
+        assertThat(money.toBigDecimal(), equalTo(new BigDecimal("10.50")));
+        assertThat(Money.of(new BigDecimal("1500"), Currency.getInstance("JPY")).getMinorUnits(), equalTo(1500L));
+    }
+
+    @Test
+    void shouldRejectAmountsThatNeedRounding() {
+        assertThrows(ArithmeticException.class, () -> Money.of(new BigDecimal("0.001")));
+    }
+
+    @Test
+    void shouldDetectOverflow() {
+        assertThrows(ArithmeticException.class, () -> Money.of(new BigDecimal(Long.MAX_VALUE)));
+        assertThrows(ArithmeticException.class, () -> Money.ofMinor(Long.MAX_VALUE).plus(Money.ofMinor(1)));
+        assertThrows(ArithmeticException.class, () -> AccountBalance.deposit(new AccountBalance("1", Money.ofMinor(Long.MAX_VALUE)), Money.ofMinor(1)));
+    }
+
+    @Test
+    void shouldRejectArithmeticAcrossCurrencies() {
+        assertThrows(IllegalArgumentException.class, () -> Money.ofMinor(100).plus(Money.ofMinor(100, Currency.getInstance("USD"))));
+    }
+}
@@ -0,0 +1,148 @@
+package io.kiamesdavies.revolut.readside;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.persistence.PersistentRepr;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+import akka.serialization.SerializationExtension;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.commons.EventTagger;
+import io.kiamesdavies.revolut.models.*;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * The journal_tags index kept by the trigger of the journal table, and the queries by tag of an H2 journal
+ */
+public class JournalTagsTest {
+
+    private static ActorSystem system;
+    private static Config config;
+    private static Connection connection;
+    private static JournalTags journalTags;
+    private static EventTagger tagger;
+    private static long sequenceNr;
+
+    @BeforeAll
+    static void setup() throws SQLException {
+        config = ConfigFactory.parseString(String.format("journal-tags.db.url = \"jdbc:h2:mem:journal-tags-%s;DB_CLOSE_DELAY=-1\"", UUID.randomUUID()))
+                .withFallback(ConfigFactory.load());
+        system = ActorSystem.create("journal-tags", config);
+        connection = DriverManager.getConnection(config.getString("journal-tags.db.url"), "sa", "");
+        JdbcSession.runScript(connection, "db/default/v1__DDL_14_09_2019.sql");
+        JdbcSession.runScript(connection, "db/default/v3__journal_tags.sql");
+        journalTags = new JournalTags(system, config);
+        tagger = new EventTagger(config);
+    }
+
+    @AfterAll
+    static void teardown() throws SQLException {
+        journalTags.close();
+        connection.close();
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldIndexEveryTagOfAnEvent() throws SQLException {
+        String transactionId = UUID.randomUUID().toString();
+        long ordering = write("transaction-" + transactionId, transfer(transactionId, TransactionStatus.NEW));
+        assertThat(indexedTags(ordering), hasItems(EventTagger.TRANSACTION, "status-NEW", tagger.partition(transactionId)));
+
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM \"journal\" WHERE \"ordering\" = ?")) {
+            statement.setLong(1, ordering);
+            statement.executeUpdate();
+        }
+        assertThat(indexedTags(ordering), empty());
+    }
+
+    @Test
+    void shouldQueryTheEventsOfATagInOrder() throws SQLException {
+        String first = UUID.randomUUID().toString();
+        String second = UUID.randomUUID().toString();
+        long from = write("transaction-" + first, transfer(first, TransactionStatus.NEW)) - 1;
+        write("bank-account-1", new Evt.WithdrawEvent("1", first, Money.ofMinor(500), System.currentTimeMillis()));
+        write("transaction-" + second, transfer(second, TransactionStatus.NEW));
+        write("transaction-" + first, transfer(first, TransactionStatus.WITHDRAWN));
+
+        List<EventEnvelope> events = journalTags.currentEventsByTag(EventTagger.TRANSACTION, from, 10).toCompletableFuture().join();
+        assertThat(events.stream().map(EventEnvelope::persistenceId).collect(Collectors.toList()),
+                contains("transaction-" + first, "transaction-" + second, "transaction-" + first));
+        assertThat(((Evt.TransactionEvent) events.get(2).event()).status, equalTo(TransactionStatus.WITHDRAWN));
+
+        long afterFirst = ((Sequence) events.get(0).offset()).value();
+        assertThat(journalTags.currentEventsByTag(EventTagger.TRANSACTION, afterFirst, 1).toCompletableFuture().join().get(0).persistenceId(),
+                equalTo("transaction-" + second));
+    }
+
+    @Test
+    void shouldFindTheUnfinishedTransactionsFromTheIndex() throws SQLException {
+        String hanging = UUID.randomUUID().toString();
+        String completed = UUID.randomUUID().toString();
+        write("transaction-" + hanging, transfer(hanging, TransactionStatus.NEW));
+        write("transaction-" + hanging, transfer(hanging, TransactionStatus.WITHDRAWN));
+        write("transaction-" + completed, transfer(completed, TransactionStatus.NEW));
+        write("transaction-" + completed, transfer(completed, TransactionStatus.COMPLETED));
+
+        List<String> unfinished = journalTags.unfinishedTransactions().toCompletableFuture().join();
+        assertThat(unfinished, hasItem(hanging));
+        assertThat(unfinished, not(hasItem(completed)));
+    }
+
+    private static List<String> indexedTags(long ordering) throws SQLException {
+        List<String> tags = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT \"tag\" FROM \"journal_tags\" WHERE \"ordering\" = ?")) {
+            statement.setLong(1, ordering);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    tags.add(resultSet.getString(1));
+                }
+            }
+        }
+        return tags;
+    }
+
+    private static Evt.TransactionEvent transfer(String transactionId, TransactionStatus status) {
+        return new Evt.TransactionEvent(transactionId, "1", "2", Money.ofMinor(500), TransactionType.TRANSFER, null, null, status);
+    }
+
+    /**
+     * Write an event the way the jdbc journal does, the tags joined by a comma next to the serialized event
+     *
+     * @return the ordering of the event
+     */
+    private static long write(String persistenceId, Evt event) throws SQLException {
+        PersistentRepr repr = PersistentRepr.apply(event, ++sequenceNr, persistenceId, "", false, ActorRef.noSender(), "");
+        byte[] message = SerializationExtension.get(system).serialize(repr).get();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO \"journal\" (\"persistence_id\", \"sequence_number\", \"tags\", \"message\") VALUES (?, ?, ?, ?)",
+                new String[]{"ordering"})) {
+            statement.setString(1, persistenceId);
+            statement.setLong(2, sequenceNr);
+            statement.setString(3, String.join(",", tagger.tags(event, System.currentTimeMillis())));
+            statement.setBytes(4, message);
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                keys.next();
+                return keys.getLong(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.kiamesdavies.revolut.readside;
+
+import akka.actor.ActorSystem;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.stream.ActorMaterializer;
+import akka.stream.UniqueKillSwitch;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.models.*;
+import io.kiamesdavies.revolut.services.Account;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Projection of the in-memory journal into a read side database of its own
+ */
+public class ProjectionTest {
+
+    private static ActorSystem system;
+    private static ActorMaterializer materializer;
+    private static ReadSideStore store;
+    private static UniqueKillSwitch projection;
+    private static Account account;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("projection", ConfigFactory.parseString(
+                String.format("read-side.db.url = \"jdbc:h2:mem:projection-%s;DB_CLOSE_DELAY=-1\"\nread-side.batch-interval = 50ms", UUID.randomUUID()))
+                .withFallback(ConfigFactory.load()));
+        materializer = ActorMaterializer.create(system);
+        store = new ReadSideStore(system.settings().config());
+        projection = new Projection(system, store).start(materializer);
+        account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system), store::hangingTransactions);
+    }
+
+    @AfterAll
+    static void teardown() {
+        projection.shutdown();
+        store.close();
+        materializer.shutdown();
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldFoldABatchIntoOneRowPerTransactionAndAccount() {
+        String transactionId = UUID.randomUUID().toString();
+        String persistenceId = "transaction-" + transactionId;
+        Evt.TransactionEvent started = new Evt.TransactionEvent(transactionId, "from-account", "to-account", Money.ofMinor(500),
+                TransactionType.TRANSFER, "rent", null, TransactionStatus.NEW);
+        store.write(Arrays.asList(
+                new EventEnvelope(Offset.sequence(1), persistenceId, 1, started),
+                new EventEnvelope(Offset.sequence(2), persistenceId, 2, started.with(TransactionStatus.WITHDRAWN)),
+                new EventEnvelope(Offset.sequence(3), "bank-account-from-account", 1, new Evt.WithdrawEvent("from-account", transactionId, Money.ofMinor(500))),
+                new EventEnvelope(Offset.sequence(4), "bank-account-from-account", 2, new Evt.DepositEvent("from-account", transactionId + "-rollback", Money.ofMinor(500)))
+        )).toCompletableFuture().join();
+
+        assertThat(store.transactionStatus(transactionId).toCompletableFuture().join(), equalTo(Optional.of(TransactionStatus.WITHDRAWN)));
+        assertThat(store.hangingTransactions().toCompletableFuture().join(), hasItem(transactionId));
+        AccountBalance balance = store.balance("from-account").toCompletableFuture().join().get();
+        assertThat(balance.getBalance(), equalTo(new BigDecimal("10000.00")));
+        assertThat(store.offset().toCompletableFuture().join(), greaterThanOrEqualTo(4L));
+
+        store.write(Arrays.asList(new EventEnvelope(Offset.sequence(5), persistenceId, 3, started.with(TransactionStatus.ROLLBACK))))
+                .toCompletableFuture().join();
+        assertThat(store.hangingTransactions().toCompletableFuture().join(), not(hasItem(transactionId)));
+    }
+
+    @Test
+    void shouldIgnoreTheEventsAlreadyApplied() {
+        String bankAccountId = UUID.randomUUID().toString();
+        String persistenceId = "bank-account-" + bankAccountId;
+        EventEnvelope first = new EventEnvelope(Offset.sequence(1), persistenceId, 1, new Evt.DepositEvent(bankAccountId, UUID.randomUUID().toString(), Money.ofMinor(500)));
+        EventEnvelope second = new EventEnvelope(Offset.sequence(2), persistenceId, 2, new Evt.WithdrawEvent(bankAccountId, UUID.randomUUID().toString(), Money.ofMinor(200)));
+        store.write(Arrays.asList(first, first)).toCompletableFuture().join();
+        //read again by a restarted projection along with the next one
+        store.write(Arrays.asList(first, second)).toCompletableFuture().join();
+
+        assertThat(store.balance(bankAccountId).toCompletableFuture().join().get().getBalance(), equalTo(new BigDecimal("10003.00")));
+        assertThat(store.sequenceNumbers(Arrays.asList(persistenceId)).toCompletableFuture().join().get(persistenceId), equalTo(2L));
+    }
+
+    @Test
+    void shouldProjectTransfersAndBalancesFromTheJournal() {
+        TransactionResult result = account.transferMoney("3", "4", new MoneyTransfer(BigDecimal.valueOf(25))).toCompletableFuture().join();
+        String transactionId = ((TransactionResult.Success) result).transactionId;
+
+        new TestKit(system).awaitAssert(Duration.ofSeconds(10), () -> {
+            assertThat(store.transactionStatus(transactionId).toCompletableFuture().join(), equalTo(Optional.of(TransactionStatus.COMPLETED)));
+            assertThat(store.balance("3").toCompletableFuture().join().get().getBalance(), equalTo(new BigDecimal("9975.00")));
+            assertThat(store.balance("4").toCompletableFuture().join().get().getBalance(), equalTo(new BigDecimal("10025.00")));
+            return null;
+        });
+    }
+}
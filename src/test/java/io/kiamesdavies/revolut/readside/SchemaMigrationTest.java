@@ -0,0 +1,51 @@
+package io.kiamesdavies.revolut.readside;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * The production schema applied once to an H2 database in PostgreSQL mode
+ */
+public class SchemaMigrationTest {
+
+    @Test
+    void shouldApplyEveryVersionOnlyOnce() throws SQLException {
+        String url = String.format("jdbc:h2:mem:migration-%s;MODE=PostgreSQL;DB_CLOSE_DELAY=-1", UUID.randomUUID());
+        Config config = ConfigFactory.parseString(String.format("schema-migration.db.url = \"%s\"", url))
+                .withFallback(ConfigFactory.load())
+                .getConfig("schema-migration");
+
+        assertThat(SchemaMigration.migrate(config), equalTo(Arrays.asList(1, 2, 3)));
+        assertThat(SchemaMigration.migrate(config), equalTo(Collections.<Integer>emptyList()));
+
+        try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO PUBLIC.\"journal\" (\"persistence_id\", \"sequence_number\", \"tags\", \"message\") VALUES (?, 1, ?, ?)")) {
+                insert.setString(1, "transaction-1");
+                insert.setString(2, "transaction,status-NEW");
+                insert.setBytes(3, new byte[]{1});
+                insert.executeUpdate();
+            }
+            //the journal orders its rows and the trigger indexes their tags
+            try (PreparedStatement count = connection.prepareStatement("SELECT COUNT(*) FROM PUBLIC.\"journal_tags\" t "
+                    + "JOIN PUBLIC.\"journal\" j ON j.\"ordering\" = t.\"ordering\"");
+                 ResultSet rs = count.executeQuery()) {
+                rs.next();
+                assertThat(rs.getInt(1), equalTo(2));
+            }
+        }
+    }
+}
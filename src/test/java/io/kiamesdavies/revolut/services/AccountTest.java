@@ -12,11 +12,13 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.util.UUID;
 import java.util.concurrent.CompletionStage;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
 
 public class AccountTest {
 
@@ -51,6 +53,38 @@ public class AccountTest {
 
     }
 
+    @Test
+    void shouldTransferOnceForRetriesWithSameIdempotencyKey() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        MoneyTransfer transfer = new MoneyTransfer(amount);
+        String idempotencyKey = UUID.randomUUID().toString();
+        AccountBalance accountBalance4 = account.getBalance("4").toCompletableFuture().join();
+        AccountBalance accountBalance5 = account.getBalance("5").toCompletableFuture().join();
+
+        CompletionStage<TransactionResult> first = account.transferMoney("4", "5", transfer, idempotencyKey);
+        CompletionStage<TransactionResult> inFlight = account.transferMoney("4", "5", transfer, idempotencyKey);
+        TransactionResult result = first.toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Success.class));
+        assertThat(inFlight.toCompletableFuture().join(), sameInstance(result));
+        assertThat(account.transferMoney("4", "5", transfer, idempotencyKey).toCompletableFuture().join(), sameInstance(result));
+
+        new TestKit(instance.getActorSystem()).awaitAssert(() -> {
+            assertThat(account.getBalance("5").toCompletableFuture().join().getBalance(), equalTo(accountBalance5.getBalance().add(amount)));
+            return null;
+        });
+        assertThat(account.getBalance("4").toCompletableFuture().join().getBalance(), equalTo(accountBalance4.getBalance().subtract(amount)));
+    }
+
+    @Test
+    void shouldFailIfIdempotencyKeyIsReusedForAnotherTransfer() {
+        String idempotencyKey = UUID.randomUUID().toString();
+        account.transferMoney("4", "5", new MoneyTransfer(BigDecimal.ONE), idempotencyKey).toCompletableFuture().join();
+
+        TransactionResult result = account.transferMoney("4", "5", new MoneyTransfer(BigDecimal.TEN), idempotencyKey).toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Failure.class));
+        assertThat(((TransactionResult.Failure) result).exception, instanceOf(IllegalArgumentException.class));
+    }
+
     @Test
     void shouldFailIfSenderAccountIsUnavailable() {
         BigDecimal amount = BigDecimal.valueOf(100);
@@ -0,0 +1,143 @@
+package io.kiamesdavies.revolut.services;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.commons.Metrics;
+import io.kiamesdavies.revolut.exceptions.OverloadedException;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.services.impl.AdmissionControl;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Admission of transfers into an account whose transfers complete only when the test completes them
+ */
+public class AdmissionControlTest {
+
+    private static ActorSystem system;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("admission", ConfigFactory.parseString(
+                "transfer.admission { max-in-flight = 2, max-in-flight-per-account = 2, max-queued = 1, max-queue-wait = 200ms }")
+                .withFallback(ConfigFactory.load()));
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldQueueThenRejectTransfersAboveTheLimit() {
+        PendingAccount pendingAccount = new PendingAccount();
+        AdmissionControl admission = new AdmissionControl(pendingAccount, system);
+        MoneyTransfer transfer = new MoneyTransfer(BigDecimal.ONE);
+
+        CompletionStage<TransactionResult> first = admission.transferMoney("1", "2", transfer);
+        admission.transferMoney("3", "4", transfer);
+        CompletionStage<TransactionResult> queued = admission.transferMoney("5", "6", transfer);
+        TransactionResult rejected = admission.transferMoney("7", "8", transfer).toCompletableFuture().join();
+
+        assertThat(pendingAccount.started.size(), equalTo(2));
+        assertThat(admission.getStatus().queued, equalTo(1));
+        assertThat(((TransactionResult.Failure) rejected).exception, instanceOf(OverloadedException.class));
+        assertThat(((OverloadedException) ((TransactionResult.Failure) rejected).exception).accountLimited, equalTo(false));
+
+        pendingAccount.started.get(0).complete(new TransactionResult.Success("a"));
+        assertThat(first.toCompletableFuture().join(), instanceOf(TransactionResult.Success.class));
+        assertThat(pendingAccount.started.size(), equalTo(3));
+        assertThat(admission.getStatus().queued, equalTo(0));
+        assertThat(queued.toCompletableFuture().isDone(), equalTo(false));
+    }
+
+    @Test
+    void shouldRejectTransfersAboveTheLimitOfAnAccount() {
+        PendingAccount pendingAccount = new PendingAccount();
+        AdmissionControl admission = new AdmissionControl(pendingAccount, system);
+        MoneyTransfer transfer = new MoneyTransfer(BigDecimal.ONE);
+
+        for (int i = 0; i < 2; i++) {
+            admission.transferMoney("hot", String.valueOf(i), transfer);
+        }
+        TransactionResult.Failure rejected = (TransactionResult.Failure) admission.transferMoney("9", "hot", transfer).toCompletableFuture().join();
+        assertThat(((OverloadedException) rejected.exception).accountLimited, equalTo(true));
+
+        //the sender of the rejected transfer is not left holding a slot
+        assertThat(admission.transferMoney("9", "10", transfer).toCompletableFuture().isDone(), equalTo(false));
+    }
+
+    @Test
+    void shouldAdmitOtherAccountsWhileAHotAccountIsSaturated() {
+        ActorSystem isolated = ActorSystem.create("admission-isolated", ConfigFactory.parseString(
+                "transfer.admission { max-in-flight = 4, max-in-flight-per-account = 2, max-queued = 4 }")
+                .withFallback(ConfigFactory.load()));
+        try {
+            PendingAccount pendingAccount = new PendingAccount();
+            AdmissionControl admission = new AdmissionControl(pendingAccount, isolated);
+            MoneyTransfer transfer = new MoneyTransfer(BigDecimal.ONE);
+
+            for (int i = 0; i < 4; i++) {
+                admission.transferMoney("hot", String.valueOf(i), transfer);
+            }
+            assertThat(pendingAccount.started.size(), equalTo(2));
+            assertThat(admission.getStatus().queued, equalTo(0));
+
+            CompletionStage<TransactionResult> cold = admission.transferMoney("cold", "other", transfer);
+            assertThat(cold.toCompletableFuture().isDone(), equalTo(false));
+            assertThat(pendingAccount.started.size(), equalTo(3));
+        } finally {
+            TestKit.shutdownActorSystem(isolated);
+        }
+    }
+
+    @Test
+    void shouldRejectTransfersThatWaitTooLong() throws Exception {
+        AdmissionControl admission = new AdmissionControl(new PendingAccount(), system);
+        MoneyTransfer transfer = new MoneyTransfer(BigDecimal.ONE);
+
+        admission.transferMoney("1", "2", transfer);
+        admission.transferMoney("3", "4", transfer);
+        TransactionResult result = admission.transferMoney("5", "6", transfer).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertThat(((TransactionResult.Failure) result).exception, instanceOf(OverloadedException.class));
+        assertThat(admission.getStatus().queued, equalTo(0));
+        assertThat(admission.getStatus().rejected, greaterThan(0L));
+        assertThat(Metrics.get(system).scrape(), containsString("# TYPE transfer_admission_rejected_total counter"));
+    }
+
+    private static final class PendingAccount implements Account {
+        private final List<CompletableFuture<TransactionResult>> started = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletionStage<TransactionResult> transferMoney(String accountFromId, String accountToId, MoneyTransfer moneyTransfer) {
+            CompletableFuture<TransactionResult> result = new CompletableFuture<>();
+            started.add(result);
+            return result;
+        }
+
+        @Override
+        public CompletionStage<AccountBalance> getBalance(String bankAccountId) {
+            return new CompletableFuture<>();
+        }
+
+        @Override
+        public void walkBackInTime() {
+        }
+    }
+}
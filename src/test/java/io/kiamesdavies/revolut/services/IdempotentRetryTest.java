@@ -0,0 +1,242 @@
+package io.kiamesdavies.revolut.services;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
+import akka.pattern.Patterns;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import io.kiamesdavies.revolut.services.impl.TransactionStatuses;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+/**
+ * Retries with the same Idempotency-Key once the transfer is no longer remembered, answered by the saga or the
+ * partition journaled under its transactionId instead of transferring again
+ */
+public class IdempotentRetryTest {
+
+    private static final BigDecimal AMOUNT = BigDecimal.valueOf(100);
+
+    @Test
+    void shouldAnswerARetryFromTheRunningHandler() {
+        ActorSystem system = system("transfer.saga = handler\ntransfer.idempotency.max-size = 0");
+        try {
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal balance2 = balance(account, "2");
+            BigDecimal balance3 = balance(account, "3");
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            //the handler is still running, the retry reaches it through its actor path
+            CompletionStage<TransactionResult> first = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey);
+            CompletionStage<TransactionResult> retry = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey);
+            assertThat(first.toCompletableFuture().join(), instanceOf(TransactionResult.Success.class));
+            assertThat(retry.toCompletableFuture().join(), instanceOf(TransactionResult.Success.class));
+
+            assertTransferredOnce(system, account, "2", balance2, "3", balance3);
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    @Test
+    void shouldAnswerARetryFromTheRecoveredHandler() {
+        ActorSystem system = system("transfer.saga = handler\ntransfer.idempotency.ttl = 0s");
+        try {
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal balance2 = balance(account, "2");
+            BigDecimal balance3 = balance(account, "3");
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            TransactionResult first = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(first, instanceOf(TransactionResult.Success.class));
+            assertTransferredOnce(system, account, "2", balance2, "3", balance3);
+            //the handler stops once the transfer completes, the retry recovers it from the journal
+            String path = "/user/transaction-" + ((TransactionResult.Success) first).transactionId;
+            new TestKit(system).awaitAssert(Duration.ofSeconds(5), () -> {
+                ActorIdentity identity = (ActorIdentity) Patterns.ask(system.actorSelection(path), new Identify(path), Duration.ofSeconds(1))
+                        .toCompletableFuture().join();
+                assertThat(identity.getActorRef().isPresent(), equalTo(false));
+                return null;
+            });
+
+            TransactionResult retry = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(retry, instanceOf(TransactionResult.Success.class));
+            assertThat(((TransactionResult.Success) retry).transactionId, equalTo(((TransactionResult.Success) first).transactionId));
+            assertTransferredOnce(system, account, "2", balance2, "3", balance3);
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    @Test
+    void shouldAnswerARetryOfARolledBackHandlerAsFailed() {
+        ActorSystem system = system("transfer.saga = handler\ntransfer.idempotency.ttl = 0s");
+        try {
+            TransactionStatuses statuses = TransactionStatuses.get(system);
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal balance2 = balance(account, "2");
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            TransactionResult first = account.transferMoney("2", "10", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(first, instanceOf(TransactionResult.Success.class));
+            String transactionId = ((TransactionResult.Success) first).transactionId;
+            new TestKit(system).awaitAssert(Duration.ofSeconds(15), () -> {
+                assertThat(statuses.lookup(transactionId).orElse(null), equalTo(TransactionStatus.ROLLBACK));
+                return null;
+            });
+
+            //running or recovered, the handler answers from its rolled back state
+            TransactionResult retry = account.transferMoney("2", "10", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(retry, instanceOf(TransactionResult.Failure.class));
+            assertThat(((TransactionResult.Failure) retry).exception.getMessage(), containsString("rolled back"));
+            assertThat(balance(account, "2"), equalTo(balance2));
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    @Test
+    void shouldAnswerARetryFromTheRunningSagaOfTheCoordinator() {
+        ActorSystem system = system("transfer.saga = coordinator\ntransfer.idempotency.max-size = 0");
+        try {
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal balance2 = balance(account, "2");
+            BigDecimal balance3 = balance(account, "3");
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            CompletionStage<TransactionResult> first = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey);
+            CompletionStage<TransactionResult> retry = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey);
+            assertThat(first.toCompletableFuture().join(), instanceOf(TransactionResult.Success.class));
+            assertThat(retry.toCompletableFuture().join(), instanceOf(TransactionResult.Success.class));
+
+            assertTransferredOnce(system, account, "2", balance2, "3", balance3);
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    @Test
+    void shouldAnswerARetryFromTheFinishedSagaOfTheCoordinator() {
+        ActorSystem system = system("transfer.saga = coordinator\ntransfer.idempotency.ttl = 0s");
+        try {
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal balance2 = balance(account, "2");
+            BigDecimal balance3 = balance(account, "3");
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            TransactionResult first = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(first, instanceOf(TransactionResult.Success.class));
+            assertTransferredOnce(system, account, "2", balance2, "3", balance3);
+
+            //the key has expired, the coordinator answers from the saga it journaled under the transactionId
+            TransactionResult retry = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(retry, instanceOf(TransactionResult.Success.class));
+            assertThat(((TransactionResult.Success) retry).transactionId, equalTo(((TransactionResult.Success) first).transactionId));
+            assertTransferredOnce(system, account, "2", balance2, "3", balance3);
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    @Test
+    void shouldAnswerARetryOfAFailedSagaOfTheCoordinatorAsFailed() {
+        ActorSystem system = system("transfer.saga = coordinator\ntransfer.idempotency.ttl = 0s");
+        try {
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal amount = balance(account, "2").add(BigDecimal.ONE);
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            TransactionResult first = account.transferMoney("2", "3", new MoneyTransfer(amount), idempotencyKey).toCompletableFuture().join();
+            assertThat(first, instanceOf(TransactionResult.Failure.class));
+            assertThat(account.transferMoney("4", "2", new MoneyTransfer(BigDecimal.ONE)).toCompletableFuture().join(),
+                    instanceOf(TransactionResult.Success.class));
+            BigDecimal balance2 = balance(account, "2");
+            assertThat(balance2, equalTo(amount));
+
+            //enough money for it now, yet the retry is answered with how the first attempt ended
+            TransactionResult retry = account.transferMoney("2", "3", new MoneyTransfer(amount), idempotencyKey).toCompletableFuture().join();
+            assertThat(retry, instanceOf(TransactionResult.Failure.class));
+            assertThat(balance(account, "2"), equalTo(balance2));
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    @Test
+    void shouldAnswerARetryOfARolledBackSagaOfTheCoordinatorAsFailed() {
+        ActorSystem system = system("transfer.saga = coordinator\ntransfer.idempotency.ttl = 0s");
+        try {
+            TransactionStatuses statuses = TransactionStatuses.get(system);
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal balance2 = balance(account, "2");
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            //answered once withdrawn, the bad account never takes the deposit so it is rolled back
+            TransactionResult first = account.transferMoney("2", "10", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(first, instanceOf(TransactionResult.Success.class));
+            String transactionId = ((TransactionResult.Success) first).transactionId;
+            new TestKit(system).awaitAssert(Duration.ofSeconds(15), () -> {
+                assertThat(statuses.lookup(transactionId).orElse(null), equalTo(TransactionStatus.ROLLBACK));
+                return null;
+            });
+
+            TransactionResult retry = account.transferMoney("2", "10", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(retry, instanceOf(TransactionResult.Failure.class));
+            assertThat(((TransactionResult.Failure) retry).exception.getMessage(), containsString("rolled back"));
+            assertThat(balance(account, "2"), equalTo(balance2));
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    @Test
+    void shouldAnswerARepeatedPartitionTransfer() {
+        ActorSystem system = system("account.partitions { enabled = on, count = 1 }\ntransfer.idempotency.max-size = 0");
+        try {
+            Account account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+            BigDecimal balance2 = balance(account, "2");
+            BigDecimal balance3 = balance(account, "3");
+            String idempotencyKey = UUID.randomUUID().toString();
+
+            TransactionResult first = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            TransactionResult retry = account.transferMoney("2", "3", new MoneyTransfer(AMOUNT), idempotencyKey).toCompletableFuture().join();
+            assertThat(first, instanceOf(TransactionResult.Success.class));
+            assertThat(retry, instanceOf(TransactionResult.Success.class));
+
+            assertTransferredOnce(system, account, "2", balance2, "3", balance3);
+        } finally {
+            TestKit.shutdownActorSystem(system);
+        }
+    }
+
+    private static ActorSystem system(String config) {
+        return ActorSystem.create("idempotent-retry", ConfigFactory.parseString(config).withFallback(ConfigFactory.load()));
+    }
+
+    private static BigDecimal balance(Account account, String bankAccountId) {
+        return account.getBalance(bankAccountId).toCompletableFuture().join().getBalance();
+    }
+
+    private static void assertTransferredOnce(ActorSystem system, Account account, String accountFromId, BigDecimal fromBefore, String accountToId, BigDecimal toBefore) {
+        new TestKit(system).awaitAssert(Duration.ofSeconds(5), () -> {
+            assertThat(balance(account, accountToId), equalTo(toBefore.add(AMOUNT)));
+            return null;
+        });
+        assertThat(balance(account, accountFromId), equalTo(fromBefore.subtract(AMOUNT)));
+    }
+}
@@ -0,0 +1,84 @@
+package io.kiamesdavies.revolut.services;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.models.TransactionStatus;
+import io.kiamesdavies.revolut.services.impl.TransactionStatuses;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * The streams following the statuses of a transfer, completed once it finished
+ */
+public class TransactionStatusesTest {
+
+    private static ActorSystem system;
+    private static ActorMaterializer materializer;
+    private static TransactionStatuses statuses;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("transaction-statuses", ConfigFactory.load());
+        materializer = ActorMaterializer.create(system);
+        statuses = TransactionStatuses.get(system);
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldCompleteTheStreamOfATransferFinishedOnTheReadSide() throws Exception {
+        //unknown to this node, found finished by the read side
+        List<TransactionStatus> events = statuses.follow(UUID.randomUUID().toString(), TransactionStatus.COMPLETED)
+                .runWith(Sink.seq(), materializer).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertThat(events, equalTo(Collections.singletonList(TransactionStatus.COMPLETED)));
+    }
+
+    @Test
+    void shouldCompleteTheStreamOfATransferFinishedOnThisNode() throws Exception {
+        String transactionId = UUID.randomUUID().toString();
+        system.eventStream().publish(new TransactionStatuses.Changed(transactionId, TransactionStatus.FAILED));
+        new TestKit(system).awaitAssert(() -> {
+            assertThat(statuses.lookup(transactionId).orElse(null), equalTo(TransactionStatus.FAILED));
+            return null;
+        });
+
+        List<TransactionStatus> events = statuses.follow(transactionId, TransactionStatus.FAILED)
+                .runWith(Sink.seq(), materializer).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertThat(events, equalTo(Collections.singletonList(TransactionStatus.FAILED)));
+    }
+
+    @Test
+    void shouldCompleteTheStreamOnceTheTransferFinishes() throws Exception {
+        String transactionId = UUID.randomUUID().toString();
+        system.eventStream().publish(new TransactionStatuses.Changed(transactionId, TransactionStatus.NEW));
+        new TestKit(system).awaitAssert(() -> {
+            assertThat(statuses.lookup(transactionId).orElse(null), equalTo(TransactionStatus.NEW));
+            return null;
+        });
+
+        CompletionStage<List<TransactionStatus>> events = statuses.follow(transactionId, TransactionStatus.NEW)
+                .runWith(Sink.seq(), materializer);
+        //the stream is watched as it is materialized, before the status is published
+        system.eventStream().publish(new TransactionStatuses.Changed(transactionId, TransactionStatus.COMPLETED));
+        assertThat(events.toCompletableFuture().get(5, TimeUnit.SECONDS),
+                equalTo(Arrays.asList(TransactionStatus.NEW, TransactionStatus.COMPLETED)));
+    }
+}
@@ -0,0 +1,132 @@
+package io.kiamesdavies.revolut.services;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.exceptions.AccountNotFoundException;
+import io.kiamesdavies.revolut.exceptions.InsufficientFundsException;
+import io.kiamesdavies.revolut.models.AccountBalance;
+import io.kiamesdavies.revolut.models.MoneyTransfer;
+import io.kiamesdavies.revolut.models.TransactionResult;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+/**
+ * Transfers run by the pool of transfer coordinators
+ */
+public class TransferCoordinatorTest {
+
+    private static ActorSystem system;
+    private static Account account;
+
+    @BeforeAll
+    static void setup() {
+        //every retry with an Idempotency-Key reaches the coordinators
+        system = ActorSystem.create("coordinator", ConfigFactory.parseString("transfer.saga = coordinator\ntransfer.idempotency.ttl = 0s")
+                .withFallback(ConfigFactory.load()));
+        account = new DefaultAccount(system, Inflation.initiateDemoBankAccounts(system));
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldTransferIfAccountsAreAvailableAndAmountIsSufficient() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        AccountBalance accountBalance1 = account.getBalance("1").toCompletableFuture().join();
+        AccountBalance accountBalance2 = account.getBalance("2").toCompletableFuture().join();
+        TransactionResult result = account.transferMoney("1", "2", new MoneyTransfer(amount)).toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Success.class));
+        new TestKit(system).awaitAssert(() -> {
+            assertThat(account.getBalance("2").toCompletableFuture().join().getBalance(), equalTo(accountBalance2.getBalance().add(amount)));
+            return null;
+        });
+        assertThat(account.getBalance("1").toCompletableFuture().join().getBalance(), equalTo(accountBalance1.getBalance().subtract(amount)));
+    }
+
+    @Test
+    void shouldFailIfRecipientAccountIsUnavailable() {
+        TransactionResult result = account.transferMoney("1", "wrongId", new MoneyTransfer(BigDecimal.TEN)).toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Failure.class));
+        assertThat(((TransactionResult.Failure) result).exception, instanceOf(AccountNotFoundException.class));
+    }
+
+    @Test
+    void shouldFailIfSenderAccountIsNotSufficient() {
+        AccountBalance accountBalance1 = account.getBalance("1").toCompletableFuture().join();
+        TransactionResult result = account.transferMoney("1", "2", new MoneyTransfer(accountBalance1.getBalance().add(BigDecimal.TEN)))
+                .toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Failure.class));
+        assertThat(((TransactionResult.Failure) result).exception, instanceOf(InsufficientFundsException.class));
+    }
+
+    @Test
+    void shouldFailIfSenderAndRecipientAccountAreEqual() {
+        TransactionResult result = account.transferMoney("1", "1", new MoneyTransfer(BigDecimal.TEN)).toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Failure.class));
+        assertThat(((TransactionResult.Failure) result).exception, instanceOf(IllegalArgumentException.class));
+    }
+
+    @Test
+    void shouldRollbackIfCanNotDeposit() {
+        AccountBalance accountBalance3 = account.getBalance("3").toCompletableFuture().join();
+        TransactionResult result = account.transferMoney("3", "10", new MoneyTransfer(BigDecimal.TEN)).toCompletableFuture().join();
+        assertThat(result, instanceOf(TransactionResult.Success.class));
+        new TestKit(system).awaitAssert(Duration.ofSeconds(15), () -> {
+            assertThat(account.getBalance("3").toCompletableFuture().join().getBalance(), equalTo(accountBalance3.getBalance()));
+            return null;
+        });
+    }
+
+    @Test
+    void shouldAnswerARetryOfAFinishedTransferFromHowItEnded() {
+        BigDecimal amount = BigDecimal.valueOf(100);
+        AccountBalance accountBalance4 = account.getBalance("4").toCompletableFuture().join();
+        AccountBalance accountBalance5 = account.getBalance("5").toCompletableFuture().join();
+        String completedKey = UUID.randomUUID().toString();
+        TransactionResult completed = account.transferMoney("4", "5", new MoneyTransfer(amount), completedKey).toCompletableFuture().join();
+        assertThat(completed, instanceOf(TransactionResult.Success.class));
+        new TestKit(system).awaitAssert(() -> {
+            assertThat(account.getBalance("5").toCompletableFuture().join().getBalance(), equalTo(accountBalance5.getBalance().add(amount)));
+            return null;
+        });
+
+        //more than the balance, it fails
+        BigDecimal tooMuch = accountBalance4.getBalance().subtract(amount).add(BigDecimal.TEN);
+        String failedKey = UUID.randomUUID().toString();
+        TransactionResult failed = account.transferMoney("4", "5", new MoneyTransfer(tooMuch), failedKey).toCompletableFuture().join();
+        assertThat(failed, instanceOf(TransactionResult.Failure.class));
+
+        //the balance now covers it, the retry still fails like the first request instead of running the saga again
+        TransactionResult topUp = account.transferMoney("3", "4", new MoneyTransfer(amount), UUID.randomUUID().toString()).toCompletableFuture().join();
+        assertThat(topUp, instanceOf(TransactionResult.Success.class));
+        new TestKit(system).awaitAssert(() -> {
+            assertThat(account.getBalance("4").toCompletableFuture().join().getBalance(), equalTo(accountBalance4.getBalance()));
+            return null;
+        });
+        TransactionResult failedRetry = account.transferMoney("4", "5", new MoneyTransfer(tooMuch), failedKey).toCompletableFuture().join();
+        assertThat(failedRetry, instanceOf(TransactionResult.Failure.class));
+
+        TransactionResult completedRetry = account.transferMoney("4", "5", new MoneyTransfer(amount), completedKey).toCompletableFuture().join();
+        assertThat(completedRetry, instanceOf(TransactionResult.Success.class));
+        assertThat(((TransactionResult.Success) completedRetry).transactionId, equalTo(((TransactionResult.Success) completed).transactionId));
+
+        new TestKit(system).expectNoMessage(Duration.ofSeconds(1));
+        assertThat(account.getBalance("4").toCompletableFuture().join().getBalance(), equalTo(accountBalance4.getBalance()));
+        assertThat(account.getBalance("5").toCompletableFuture().join().getBalance(), equalTo(accountBalance5.getBalance().add(amount)));
+    }
+}
@@ -0,0 +1,114 @@
+package io.kiamesdavies.revolut.services;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.persistence.AbstractPersistentActor;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.kiamesdavies.revolut.Inflation;
+import io.kiamesdavies.revolut.account.AccountDirectory;
+import io.kiamesdavies.revolut.models.*;
+import io.kiamesdavies.revolut.services.impl.DefaultAccount;
+import io.kiamesdavies.revolut.services.impl.TransferRecovery;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Transfers left hanging in the journal are resumed right away when the system starts
+ */
+public class TransferRecoveryTest {
+
+    private static ActorSystem system;
+    private static AccountDirectory directory;
+    private static Account account;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("transfer-recovery", ConfigFactory.parseString("transfer.recovery.parallelism = 2\ntransfer.recovery.rate = 10")
+                .withFallback(ConfigFactory.load()));
+        directory = Inflation.initiateDemoBankAccounts(system);
+        account = new DefaultAccount(system, directory);
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    void shouldResumeTheHangingTransfersFromTheJournal() {
+        TestKit probe = new TestKit(system);
+        String withdrawn = UUID.randomUUID().toString();
+        String started = UUID.randomUUID().toString();
+        //a WITHDRAWN transfer only has its deposit left, a NEW one has both
+        journal(probe, withdrawn, TransactionStatus.WITHDRAWN, "4", "5", 7);
+        journal(probe, started, TransactionStatus.NEW, "3", "5", 11);
+        BigDecimal recipient = account.getBalance("5").toCompletableFuture().join().getBalance();
+        BigDecimal sender = account.getBalance("3").toCompletableFuture().join().getBalance();
+
+        TransferRecovery.Progress progress = new TransferRecovery(system, directory,
+                () -> CompletableFuture.completedFuture(Arrays.asList(withdrawn, started, UUID.randomUUID().toString())))
+                .run().toCompletableFuture().join();
+        assertThat(progress.found, equalTo(3L));
+        assertThat(progress.resumed, equalTo(3L));
+        assertThat(progress.failed, equalTo(0L));
+
+        //well within redeliverInterval * warnAfterNumberOfUnconfirmedAttempts, which a resumed handler no longer waits
+        probe.awaitAssert(Duration.ofMillis(1500), () -> {
+            assertThat(account.getBalance("5").toCompletableFuture().join().getBalance(), equalTo(recipient.add(new BigDecimal("18.00"))));
+            assertThat(account.getBalance("3").toCompletableFuture().join().getBalance(), equalTo(sender.subtract(new BigDecimal("11.00"))));
+            return null;
+        });
+    }
+
+    /**
+     * Journal the status of a transfer under the persistence id of its handler, as a handler of a stopped system did
+     */
+    private static void journal(TestKit probe, String transactionId, TransactionStatus status, String from, String to, long amount) {
+        ActorRef writer = system.actorOf(Props.create(Writer.class, "transaction-" + transactionId));
+        writer.tell(new Evt.TransactionEvent(transactionId, from, to, Money.of(BigDecimal.valueOf(amount)),
+                TransactionType.TRANSFER, null, null, status), probe.getRef());
+        probe.expectMsg(Done.getInstance());
+        probe.watch(writer);
+        system.stop(writer);
+        probe.expectTerminated(writer);
+    }
+
+    public static final class Writer extends AbstractPersistentActor {
+        private final String persistenceId;
+
+        public Writer(String persistenceId) {
+            this.persistenceId = persistenceId;
+        }
+
+        @Override
+        public String persistenceId() {
+            return persistenceId;
+        }
+
+        @Override
+        public Receive createReceiveRecover() {
+            return receiveBuilder().build();
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Evt.TransactionEvent.class, f -> persist(f, g -> sender().tell(Done.getInstance(), self())))
+                    .build();
+        }
+    }
+}